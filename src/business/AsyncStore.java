@@ -0,0 +1,135 @@
+package business;
+
+import model.Customer;
+import model.Order;
+import model.SetMenu;
+import tools.AsyncWorkable;
+import tools.Workable;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Runs a Customers, Orders or SetMenus object behind the {@link AsyncWorkable} interface.
+ *
+ * The business classes are not thread-safe for changes, so every change of one store runs on its own writer thread,
+ * in the order it was requested. Adding is a pipeline: the checks that only read (customer and menu exist, ...)
+ * run on a shared pool of reader threads, then the writer checks duplicates and inserts.
+ * Lookups and pages read snapshots on the reader threads, saves run on the I/O executor while the writer keeps going.
+ * @author mymym
+ */
+public class AsyncStore<T> implements AsyncWorkable<T> {
+    private static final ExecutorService READERS = newExecutor("async-reader", Runtime.getRuntime().availableProcessors());
+
+    private final Workable<T> store;
+    private final Function<T, String> validate; //Read-only checks, null if there are none
+    private final Function<T, String> add;      //Checks again and adds, returns the reason of a rejection
+    private final Function<T, String> change;   //Updates, returns the reason of a rejection
+    private final ExecutorService writer;
+    private final Executor io;
+    private final Object saveLock = new Object();
+
+    private AsyncStore(Workable<T> store, Function<T, String> validate, Function<T, String> add,
+                       Function<T, String> change, Executor io, String name) {
+        this.store = store;
+        this.validate = validate;
+        this.add = add;
+        this.change = change;
+        this.writer = newExecutor(name + "-writer", 1);
+        this.io = io;
+    }
+
+    public static AsyncStore<Customer> of(Customers customers, Executor io) {
+        return new AsyncStore<>(customers, customers::validateNew, customers::tryAdd, customers::tryUpdate, io, "customers");
+    }
+
+    public static AsyncStore<Order> of(Orders orders, Executor io) {
+        return new AsyncStore<>(orders, orders::validateNew, orders::tryAdd, orders::tryUpdate, io, "orders");
+    }
+
+    public static AsyncStore<SetMenu> of(SetMenus setMenus, Executor io) {
+        Function<SetMenu, String> readOnly = m -> "Set menus cannot be changed";
+        return new AsyncStore<>(setMenus, null, readOnly, readOnly, io, "menus");
+    }
+
+    /**
+     * Creates an executor for file I/O, its threads do not keep the program running
+     *
+     * @param threads number of threads
+     * @return the executor
+     */
+    public static ExecutorService newIoExecutor(int threads) {
+        return newExecutor("async-io", threads);
+    }
+
+    private static ExecutorService newExecutor(String name, int threads) {
+        return Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public CompletableFuture<T> addNew(T x) {
+        CompletableFuture<String> checked = validate == null
+                ? CompletableFuture.completedFuture(null)
+                : CompletableFuture.supplyAsync(() -> validate.apply(x), READERS);
+        return checked.thenApplyAsync(error -> {
+            if (error != null) throw new IllegalArgumentException(error); //Rejected without waiting for the writer
+            return apply(add, x);
+        }, writer);
+    }
+
+    @Override
+    public CompletableFuture<T> update(T x) {
+        return CompletableFuture.supplyAsync(() -> apply(change, x), writer);
+    }
+
+    private T apply(Function<T, String> step, T x) {
+        String error = step.apply(x);
+        if (error != null) throw new IllegalArgumentException(error);
+        return x;
+    }
+
+    @Override
+    public CompletableFuture<T> searchById(String id) {
+        return CompletableFuture.supplyAsync(() -> store.searchById(id), READERS);
+    }
+
+    @Override
+    public CompletableFuture<List<T>> page(Comparator<? super T> order, int offset, int limit) {
+        return CompletableFuture.supplyAsync(() -> store.page(order, offset, limit), READERS);
+    }
+
+    /**
+     * Waits on the writer for the changes requested before, then saves on the I/O executor
+     * Saves of the same store never overlap
+     */
+    @Override
+    public CompletableFuture<Void> saveToFile() {
+        return CompletableFuture.runAsync(() -> { }, writer)
+                .thenRunAsync(() -> {
+                    synchronized (saveLock) {
+                        store.saveToFile();
+                    }
+                }, io);
+    }
+
+    /**
+     * Reading replaces all data, so it runs on the writer in the order of the changes
+     */
+    @Override
+    public CompletableFuture<Void> readFromFile() {
+        return CompletableFuture.runAsync(store::readFromFile, writer);
+    }
+
+    /**
+     * Stops the writer after the requested changes are done
+     */
+    public void close() {
+        writer.shutdown();
+    }
+}
@@ -0,0 +1,374 @@
+package business;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Registry of restaurant branches, each with its own data directory and its own customers, set menus and orders.
+ * A branch is loaded the first time it is used, so one process can serve every branch while memory grows only
+ * with the branches that are in use.
+ *
+ * A branch is used between {@link #acquire(String)} and {@link #release(Branch)}. When the estimated memory of the
+ * loaded branches is over the budget, the least recently used branches that nobody uses are saved and dropped,
+ * they are loaded again on their next use. A branch whose save fails stays loaded, so no change is lost.
+ * The saves run outside the registry lock, only threads that acquire the branch being saved wait for it.
+ * The estimate counts records, see {@link Branch#estimatedBytes()}.
+ * Branches are only saved when they are dropped, {@link #close()} drops the others without saving like a single set of data.
+ *
+ * The directory of a branch is the one given to {@link #register(String, String)}, otherwise a directory
+ * named after the branch ID in the root directory.
+ * @author mymym
+ */
+public class Branches {
+    public static final String BRANCH_ID_VALID = "[A-Za-z0-9_-]{1,32}";
+    public static final long CUSTOMER_BYTES = 600;      // Customer, its strings, name and contact indexes
+    public static final long ORDER_BYTES = 250;         // Order, its key and duplicate key, see Benchmark "offheap"
+    public static final long BRANCH_BYTES = 256 * 1024; // Empty stores, indexes and change log of a branch
+
+    /**
+     * Loads the data of a branch
+     */
+    public interface Loader {
+        /**
+         * @param id  branch ID
+         * @param dir data directory of the branch, created if it did not exist
+         * @return the loaded branch, or null if it cannot be loaded
+         */
+        Branch load(String id, File dir);
+    }
+
+    /**
+     * The data of one branch
+     */
+    public static class Branch {
+        private final String id;
+        private final File dir;
+        private final Customers customers;
+        private final SetMenus setMenus;
+        private final Orders orders;
+        private final Closeable resources;
+
+        /**
+         * Constructor
+         *
+         * @param id        branch ID
+         * @param dir       data directory
+         * @param customers customers of the branch
+         * @param setMenus  set menus of the branch
+         * @param orders    orders of the branch, attached to the customers and set menus
+         * @param resources closed when the branch is dropped (e.g. change log files), null if there are none
+         */
+        public Branch(String id, File dir, Customers customers, SetMenus setMenus, Orders orders, Closeable resources) {
+            this.id = id;
+            this.dir = dir;
+            this.customers = customers;
+            this.setMenus = setMenus;
+            this.orders = orders;
+            this.resources = resources;
+        }
+
+        public String getId() { return id; }
+        public File getDir() { return dir; }
+        public Customers getCustomers() { return customers; }
+        public SetMenus getSetMenus() { return setMenus; }
+        public Orders getOrders() { return orders; }
+
+        /**
+         * @return estimated memory of the branch in bytes, from its number of customers and orders
+         */
+        public long estimatedBytes() {
+            return BRANCH_BYTES + customers.size() * CUSTOMER_BYTES + orders.size() * ORDER_BYTES;
+        }
+
+        /**
+         * @return true if the customers and orders have no unsaved changes
+         */
+        public boolean isSaved() {
+            return customers.isSaved() && orders.isSaved();
+        }
+
+        /**
+         * Saves the customers and orders that have unsaved changes
+         *
+         * @return true if nothing is left unsaved, false if a save failed
+         */
+        public boolean flush() {
+            if (!customers.isSaved()) customers.saveToFile();
+            if (!orders.isSaved()) orders.saveToFile();
+            return isSaved();
+        }
+
+        /**
+         * Closes the resources of the branch without saving, e.g. when the branch is not managed by a registry
+         */
+        public void close() {
+            if (resources == null) return;
+            try {
+                resources.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close branch " + id + ". Error: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A loaded or loading branch and the number of its users
+     */
+    private static final class Entry {
+        final FutureTask<Branch> task;
+        int users;
+        boolean evicting; //Being saved and dropped, acquire waits until it is done
+
+        Entry(FutureTask<Branch> task) {
+            this.task = task;
+        }
+
+        Branch loaded() {
+            if (!task.isDone()) return null;
+            try {
+                return task.get();
+            } catch (InterruptedException | ExecutionException e) {
+                return null;
+            }
+        }
+    }
+
+    private final File rootDir;
+    private final long memoryBudget;
+    private final Loader loader;
+    private final Map<String, File> registered = new HashMap<>();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); //Least recently used first
+    private int loads;
+    private int evictions;
+
+    /**
+     * Constructor
+     *
+     * @param rootDir      directory of the branches that are not registered
+     * @param memoryBudget estimated bytes above which unused branches are dropped
+     * @param loader       loads the data of a branch
+     */
+    public Branches(String rootDir, long memoryBudget, Loader loader) {
+        this.rootDir = new File(rootDir);
+        this.memoryBudget = memoryBudget;
+        this.loader = loader;
+    }
+
+    /**
+     * Gives a branch its own data directory instead of the one in the root directory
+     * Must be called before the branch is used
+     *
+     * @param id  branch ID
+     * @param dir data directory
+     * @throws IllegalArgumentException if the ID is not valid
+     */
+    public synchronized void register(String id, String dir) {
+        registered.put(checkId(id), new File(dir));
+    }
+
+    /**
+     * @param id branch ID
+     * @return the data directory of the branch
+     * @throws IllegalArgumentException if the ID is not valid
+     */
+    public synchronized File directoryOf(String id) {
+        File dir = registered.get(checkId(id));
+        return dir != null ? dir : new File(rootDir, id);
+    }
+
+    /**
+     * Gets a branch to use it, loading it if it is not loaded
+     * Other branches are loaded at the same time, threads that need the same branch wait for one load
+     *
+     * @param id branch ID
+     * @return the branch, or null if it cannot be loaded
+     * @throws IllegalArgumentException if the ID is not valid
+     */
+    public Branch acquire(String id) {
+        File dir = directoryOf(id);
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(id);
+            while (entry != null && entry.evicting) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+                entry = entries.get(id);
+            }
+            if (entry == null) {
+                entry = new Entry(new FutureTask<>(() -> load(id, dir)));
+                entries.put(id, entry);
+            }
+            entry.users++;
+        }
+        entry.task.run(); //Does nothing if the branch is loaded or another thread is loading it
+
+        Branch branch;
+        try {
+            branch = entry.task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            branch = null;
+        } catch (ExecutionException e) {
+            System.err.println("Failed to load branch " + id + ". Error: " + e.getCause());
+            branch = null;
+        }
+
+        synchronized (this) {
+            if (branch == null) {
+                if (--entry.users == 0) entries.remove(id, entry);
+                return null;
+            }
+        }
+        evictIdle();
+        return branch;
+    }
+
+    private Branch load(String id, File dir) {
+        if (!dir.exists() && !dir.mkdirs()) {
+            System.err.println("Failed to create data directory: " + dir.getAbsolutePath());
+            return null;
+        }
+        Branch branch = loader.load(id, dir);
+        if (branch != null) {
+            synchronized (this) {
+                loads++;
+            }
+        }
+        return branch;
+    }
+
+    /**
+     * Ends a use of a branch, the branch may be dropped from now on
+     *
+     * @param branch a branch returned by {@link #acquire(String)}
+     */
+    public void release(Branch branch) {
+        synchronized (this) {
+            Entry entry = entries.get(branch.getId());
+            if (entry == null || entry.loaded() != branch || entry.users == 0) {
+                throw new IllegalStateException("Branch " + branch.getId() + " is not in use");
+            }
+            entry.users--;
+        }
+        evictIdle();
+    }
+
+    /**
+     * Saves and drops the least recently used branches that nobody uses, until the loaded branches fit the budget
+     * The branches are chosen and marked while holding the lock, then saved and closed without it.
+     * A branch whose save fails is kept, it is tried again at the next eviction
+     */
+    private void evictIdle() {
+        List<Entry> chosen = new ArrayList<>();
+        synchronized (this) {
+            long used = 0;
+            for (Entry entry : entries.values()) {
+                Branch branch = entry.loaded();
+                if (branch != null && !entry.evicting) used += branch.estimatedBytes();
+            }
+            Iterator<Entry> it = entries.values().iterator();
+            while (used > memoryBudget && it.hasNext()) {
+                Entry entry = it.next();
+                Branch branch = entry.loaded();
+                if (entry.users > 0 || branch == null || entry.evicting) continue;
+                entry.evicting = true;
+                chosen.add(entry);
+                used -= branch.estimatedBytes();
+            }
+        }
+        for (Entry entry : chosen) {
+            Branch branch = entry.loaded();
+            boolean saved = branch.flush();
+            if (saved) {
+                branch.close();
+            } else {
+                System.err.println("Branch " + branch.getId() + " could not be saved and stays loaded.");
+            }
+            synchronized (this) {
+                entry.evicting = false;
+                if (saved) {
+                    entries.remove(branch.getId(), entry);
+                    evictions++;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Drops every loaded branch without saving it, also the ones in use, and closes their resources outside the lock
+     * Waits for the branches that are being evicted, they are saved as usual
+     *
+     * @return IDs of the branches whose unsaved changes were discarded
+     */
+    public List<String> close() {
+        List<Branch> dropped = new ArrayList<>();
+        synchronized (this) {
+            while (isEvicting()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            for (Entry entry : entries.values()) {
+                Branch branch = entry.loaded();
+                if (branch != null) dropped.add(branch);
+            }
+            entries.clear();
+        }
+        List<String> unsaved = new ArrayList<>();
+        for (Branch branch : dropped) {
+            if (!branch.isSaved()) unsaved.add(branch.getId());
+            branch.close();
+        }
+        return unsaved;
+    }
+
+    private boolean isEvicting() {
+        for (Entry entry : entries.values()) {
+            if (entry.evicting) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return estimated bytes of the loaded branches
+     */
+    public synchronized long estimatedBytes() {
+        long total = 0;
+        for (Entry entry : entries.values()) {
+            Branch branch = entry.loaded();
+            if (branch != null) total += branch.estimatedBytes();
+        }
+        return total;
+    }
+
+    /**
+     * @return IDs of the loaded branches, least recently used first
+     */
+    public synchronized List<String> loadedIds() {
+        List<String> ids = new ArrayList<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            if (e.getValue().loaded() != null) ids.add(e.getKey());
+        }
+        return ids;
+    }
+
+    public synchronized int getLoads() { return loads; }
+    public synchronized int getEvictions() { return evictions; }
+
+    private static String checkId(String id) {
+        if (id == null || !id.matches(BRANCH_ID_VALID)) throw new IllegalArgumentException("Invalid branch ID: " + id);
+        return id;
+    }
+}
@@ -0,0 +1,175 @@
+package business;
+
+import model.ChangeEvent;
+import repository.ChangeLogFile;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In memory stream of the changes made to customers and orders, for consumers that keep their own copy
+ * of the data (kitchen display, accounting) in sync without reloading the data files.
+ *
+ * Events are kept in a bounded ring buffer and numbered from 1. Consumers pull events at their own pace
+ * through a {@link Subscription}, asking for at most a given number at a time, so a slow consumer
+ * never slows down the publishers. A consumer that falls behind by more than the ring capacity continues
+ * from the spill files if there are any, otherwise it skips to the oldest event in memory and the skipped
+ * events are counted as missed.
+ * @author mymym
+ */
+public class ChangeLog {
+    private final ChangeEvent<?>[] ring;
+    private final int mask;
+    private final ChangeLogFile spill;   // Copy of every event on disk, null if not used
+    private final long firstInMemory;    // Sequence number of the first event published in this run
+    private long nextSequence;
+
+    /**
+     * Constructor for a change log that is only kept in memory
+     *
+     * @param capacity number of events kept in memory, rounded up to a power of 2
+     */
+    public ChangeLog(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * Constructor
+     * Numbering continues after the last event stored in the spill files
+     *
+     * @param capacity number of events kept in memory, rounded up to a power of 2
+     * @param spill    files that keep a copy of every event, null to not use files
+     */
+    public ChangeLog(int capacity, ChangeLogFile spill) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.ring = new ChangeEvent<?>[size];
+        this.mask = size - 1;
+        this.spill = spill;
+        this.nextSequence = spill == null ? 1 : spill.lastSequence() + 1;
+        this.firstInMemory = nextSequence;
+    }
+
+    /**
+     * Adds an event to the log and wakes up the waiting consumers
+     *
+     * @param type   type of change
+     * @param key    customer ID or order code
+     * @param before value before the change, null for an added object
+     * @param after  value after the change
+     * @param <T>    type of the changed object
+     * @return sequence number of the event
+     */
+    public synchronized <T extends Serializable> long publish(ChangeEvent.Type type, String key, T before, T after) {
+        ChangeEvent<T> event = new ChangeEvent<>(nextSequence, System.currentTimeMillis(), type, key, before, after);
+        ring[(int) (nextSequence & mask)] = event;
+        nextSequence++;
+        if (spill != null) spill.append(event);
+        notifyAll();
+        return event.getSequence();
+    }
+
+    /**
+     * @return sequence number of the last published event, 0 if there is none
+     */
+    public synchronized long lastSequence() {
+        return nextSequence - 1;
+    }
+
+    /**
+     * Starts reading events from a sequence number
+     * Use 1 to read everything that is still available, or lastSequence() + 1 to read only new events
+     *
+     * @param fromSequence sequence number of the first wanted event
+     * @return the subscription
+     */
+    public Subscription subscribe(long fromSequence) {
+        return new Subscription(Math.max(1, fromSequence));
+    }
+
+    /**
+     * @return sequence number of the oldest event in the ring buffer
+     */
+    private long oldestInMemory() {
+        return Math.max(firstInMemory, nextSequence - ring.length);
+    }
+
+    private synchronized List<ChangeEvent<?>> read(Subscription s, int max) {
+        List<ChangeEvent<?>> result = new ArrayList<>();
+        long oldest = oldestInMemory();
+        if (s.next < oldest && spill != null) {
+            for (ChangeEvent<?> e : spill.read(s.next, (int) Math.min(max, oldest - s.next))) {
+                if (e.getSequence() >= oldest) break;
+                s.missed += e.getSequence() - s.next; // Files deleted by the rolling
+                s.next = e.getSequence() + 1;
+                result.add(e);
+            }
+        }
+        if (result.isEmpty() && s.next < oldest) {
+            s.missed += oldest - s.next;
+            s.next = oldest;
+        }
+        while (result.size() < max && s.next >= oldest && s.next < nextSequence) {
+            result.add(ring[(int) (s.next & mask)]);
+            s.next++;
+        }
+        return result;
+    }
+
+    /**
+     * Position of one consumer in the change log
+     * A subscription is meant to be used by one thread
+     */
+    public class Subscription {
+        private long next;
+        private long missed;
+
+        private Subscription(long next) {
+            this.next = next;
+        }
+
+        /**
+         * @return sequence number of the next event this subscription returns, to resume from later
+         */
+        public long position() {
+            return next;
+        }
+
+        /**
+         * @return number of events skipped because they were no longer available
+         */
+        public long missed() {
+            return missed;
+        }
+
+        /**
+         * Gets the available events without waiting
+         *
+         * @param max maximum number of events
+         * @return the events, empty if there is no new event
+         */
+        public List<ChangeEvent<?>> poll(int max) {
+            return read(this, max);
+        }
+
+        /**
+         * Gets the available events, waiting for a new event if there is none
+         *
+         * @param max           maximum number of events
+         * @param timeoutMillis maximum time to wait
+         * @return the events, empty if no event was published before the timeout
+         * @throws InterruptedException if the thread is interrupted while waiting
+         */
+        public List<ChangeEvent<?>> take(int max, long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            synchronized (ChangeLog.this) {
+                long left = timeoutMillis;
+                while (next >= nextSequence && left > 0) {
+                    ChangeLog.this.wait(left);
+                    left = deadline - System.currentTimeMillis();
+                }
+                return read(this, max);
+            }
+        }
+    }
+}
@@ -1,11 +1,28 @@
 package business;
 
+import model.ChangeEvent;
 import model.Customer;
 import repository.CustomerRepository;
+import repository.FileCustomerRepository;
+import tools.CachedStore;
+import tools.ConcurrentUnionFind;
+import tools.DirectIndex;
+import tools.FuzzyIndex;
+import tools.JfrEvents;
+import tools.OffHeapStore;
+import tools.Query;
+import tools.RecordStore;
+import tools.StringDictionary;
+import tools.TinyLfuCache;
 import tools.Workable;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Manages a collection of Customer objects
@@ -13,10 +30,27 @@ import java.util.stream.Collectors;
  * @author mymym
  */
 public class Customers implements Workable<Customer> {
+    public static final List<Query.Field<Customer>> QUERY_FIELDS = Arrays.asList(
+            Query.Field.text("id", Customer::getId),
+            Query.Field.text("name", Customer::getName),
+            Query.Field.text("phone", Customer::getPhone),
+            Query.Field.text("email", Customer::getEmail));
+    /** Order of the customer list: last name, then ID so that no two customers are equal */
+    public static final Comparator<Customer> BY_LAST_NAME =
+            Comparator.comparing((Customer c) -> c.getLastName().toLowerCase()).thenComparing(Customer::getId);
+    private static final int LOAD_BATCH = 1024; //Slots added to a store that reads through the repository at once
     private final String pathFile;
-    private boolean isSaved;
+    private volatile boolean isSaved;
+    private volatile long changes; //Number of changes, only written by the thread that changes customers
     private transient final CustomerRepository repo;
-    private Map<String, Customer> customerMap;
+    private final boolean offHeap;
+    private final int cacheEntries; //More than 0 to keep the customers on disk with a cache, see CachedStore
+    private volatile RecordStore<Customer> customerMap; //Key is the customer slot, see DirectIndex.customerSlot
+    private final FuzzyIndex nameIndex = new FuzzyIndex(); //Names by customer slot, for searches with typos
+    //Normalized phone or email -> IDs of the customers that use it, read by other threads, see validateNew
+    private final Map<String, String[]> byPhone = new ConcurrentHashMap<>();
+    private final Map<String, String[]> byEmail = new ConcurrentHashMap<>();
+    private ChangeLog changeLog; //Receives an event for every added or updated customer, null if not used
 
     /**
      * Constructor
@@ -25,10 +59,49 @@ public class Customers implements Workable<Customer> {
      * @param pathFile customer data path file
      */
     public Customers(String pathFile) {
+        this(pathFile, new FileCustomerRepository());
+    }
+
+    /**
+     * Constructor with a given repository
+     *
+     * @param pathFile customer data path file
+     * @param repo     repository used to load and save customers
+     */
+    public Customers(String pathFile, CustomerRepository repo) {
+        this(pathFile, repo, false);
+    }
+
+    /**
+     * Constructor that chooses where the customers are kept
+     *
+     * @param pathFile customer data path file
+     * @param repo     repository used to load and save customers
+     * @param offHeap  true to keep the customers outside the heap in an {@link OffHeapStore},
+     *                 false to keep Customer objects in a {@link DirectIndex}
+     */
+    public Customers(String pathFile, CustomerRepository repo, boolean offHeap) {
+        this(pathFile, repo, offHeap, 0);
+    }
+
+    /**
+     * Constructor for more customers than fit in memory: the customers are kept in a {@link CachedStore},
+     * a record log next to the data file, and only the most used ones stay on the heap.
+     * With a repository that looks customers up by ID (see {@link CustomerRepository#hasKeyLookup()}) the loaded customers
+     * are read from it instead of being copied to the log.
+     * The name, phone and email indexes are still kept in memory
+     *
+     * @param pathFile     customer data path file
+     * @param repo         repository used to load and save customers
+     * @param offHeap      true to keep the customers outside the heap, ignored if cacheEntries is more than 0
+     * @param cacheEntries maximum number of customers in the cache, 0 to keep all customers in memory
+     */
+    public Customers(String pathFile, CustomerRepository repo, boolean offHeap, int cacheEntries) {
         super();
         this.pathFile = pathFile;
-        this.repo = new CustomerRepository();
-        this.customerMap = new HashMap<>();
+        this.repo = repo;
+        this.offHeap = offHeap;
+        this.cacheEntries = cacheEntries;
         this.isSaved = true; 
         readFromFile();
     }
@@ -42,6 +115,187 @@ public class Customers implements Workable<Customer> {
         return isSaved;
     }
 
+    /**
+     * Publishes every added or updated customer to a change log
+     *
+     * @param changeLog the change log, null to stop publishing
+     */
+    public void setChangeLog(ChangeLog changeLog) {
+        this.changeLog = changeLog;
+    }
+
+    /**
+     * @return number of customers in system
+     */
+    public int size() {
+        return customerMap.size();
+    }
+
+    /**
+     * @return hit rate and evictions of the customer cache, null if all customers are kept in memory
+     */
+    public TinyLfuCache.Stats cacheStats() {
+        RecordStore<Customer> store = customerMap;
+        return store instanceof CachedStore ? ((CachedStore<Customer>) store).cacheStats() : null;
+    }
+
+
+    /**
+     * Gets a read-only view of all customers at this moment, in constant time
+     * Later changes are not visible in the snapshot, so it can be listed or saved while customers keep changing
+     *
+     * @return the snapshot
+     */
+    public RecordStore<Customer> snapshot() {
+        return customerMap.snapshot();
+    }
+
+    /**
+     * Streams the customers of a snapshot in ID order
+     *
+     * @return the stream
+     */
+    @Override
+    public Stream<Customer> stream() {
+        return snapshot().stream();
+    }
+
+    /**
+     * Checks a new customer without changing anything
+     * Only reads data, so it can run on another thread than the changes, see {@link AsyncStore}
+     *
+     * @param c the new customer
+     * @return null if the customer can be added, otherwise the reason it cannot
+     */
+    public String validateNew(Customer c) {
+        if (c == null) return "Customer cannot be null";
+        if (DirectIndex.customerSlot(c.getId()) < 0) return "Customer ID " + c.getId() + " is not valid.";
+        if (this.customerMap.containsKey(DirectIndex.customerSlot(c.getId()))) return "Customer ID " + c.getId() + " already exists.";
+        return checkContacts(c, null);
+    }
+
+    /**
+     * Checks that no other customer uses the phone or email of a customer
+     * A phone or email that an updated customer keeps is not checked, so customers loaded with shared contacts can still be updated
+     *
+     * @param c   the new or updated customer
+     * @param old the customer before the update, null for a new customer
+     * @return null if the phone and email are free, otherwise the reason they are not
+     */
+    private String checkContacts(Customer c, Customer old) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.DUPLICATE_CHECK).operation("customer contacts").id(c.getId());
+        String error = findContactOwner(c, old);
+        span.result(error).commit();
+        return error;
+    }
+
+    private String findContactOwner(Customer c, Customer old) {
+        String phone = normalizePhone(c.getPhone());
+        if (old == null || !Objects.equals(phone, normalizePhone(old.getPhone()))) {
+            String owner = otherOwner(byPhone, phone, c.getId());
+            if (owner != null) return "Phone " + c.getPhone() + " is already used by customer " + owner + ".";
+        }
+        String email = normalizeEmail(c.getEmail());
+        if (old == null || !Objects.equals(email, normalizeEmail(old.getEmail()))) {
+            String owner = otherOwner(byEmail, email, c.getId());
+            if (owner != null) return "Email " + c.getEmail() + " is already used by customer " + owner + ".";
+        }
+        return null;
+    }
+
+    private static String otherOwner(Map<String, String[]> index, String key, String id) {
+        if (key == null) return null;
+        String[] ids = index.get(key);
+        if (ids == null) return null;
+        for (String other : ids) {
+            if (!other.equals(id)) return other;
+        }
+        return null;
+    }
+
+    /**
+     * Adds or removes the phone and email of a customer in the indexes
+     * Lists are replaced, never changed, so readers on other threads always see a whole list
+     */
+    private void indexContacts(Customer c, boolean add) {
+        updateIndex(byPhone, normalizePhone(c.getPhone()), c.getId(), add);
+        updateIndex(byEmail, normalizeEmail(c.getEmail()), c.getId(), add);
+    }
+
+    private static void updateIndex(Map<String, String[]> index, String key, String id, boolean add) {
+        if (key == null) return;
+        index.compute(key, (k, ids) -> {
+            List<String> list = ids == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(ids));
+            list.remove(id);
+            if (add) list.add(id);
+            return list.isEmpty() ? null : list.toArray(new String[0]);
+        });
+    }
+
+    /**
+     * Phone in the form used by the index: digits only, +84 or 84 at the start becomes 0
+     *
+     * @param phone the phone
+     * @return the normalized phone, null if it has no digits
+     */
+    public static String normalizePhone(String phone) {
+        if (phone == null) return null;
+        StringBuilder sb = new StringBuilder(phone.length());
+        for (int i = 0; i < phone.length(); i++) {
+            char ch = phone.charAt(i);
+            if (ch >= '0' && ch <= '9') sb.append(ch);
+        }
+        if (sb.length() == 11 && sb.charAt(0) == '8' && sb.charAt(1) == '4') sb.replace(0, 2, "0");
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
+    /**
+     * Email in the form used by the index: trimmed and lower case, and for Gmail without the dots
+     * and the +tag of the name, since Gmail delivers those to the same mailbox
+     *
+     * @param email the email
+     * @return the normalized email, null if it is empty
+     */
+    public static String normalizeEmail(String email) {
+        if (email == null || email.trim().isEmpty()) return null;
+        String e = email.trim().toLowerCase();
+        int at = e.lastIndexOf('@');
+        if (at < 0) return e;
+        String local = e.substring(0, at), domain = e.substring(at + 1);
+        if (domain.equals("gmail.com") || domain.equals("googlemail.com")) {
+            int plus = local.indexOf('+');
+            if (plus >= 0) local = local.substring(0, plus);
+            return local.replace(".", "") + "@gmail.com";
+        }
+        return e;
+    }
+
+    /**
+     * Adds a new customer if it is valid, without printing anything
+     *
+     * @param c the new customer
+     * @return null if the customer was added, otherwise the reason it was not
+     */
+    public String tryAdd(Customer c) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.CUSTOMER_CHANGE).operation("add");
+        if (c != null) span.id(c.getId());
+        String error = addCustomer(c);
+        span.result(error).commit();
+        return error;
+    }
+
+    private String addCustomer(Customer c) {
+        String error = validateNew(c);
+        if (error != null) return error;
+        int slot = DirectIndex.customerSlot(c.getId());
+        this.customerMap.put(slot, c);
+        this.nameIndex.add(slot, c.getName());
+        indexContacts(c, true);
+        this.changes++;
+        if (!repo.saveOne(pathFile, c)) this.isSaved = false; //Saved at once if the repository can write one customer
+        if (changeLog != null) changeLog.publish(ChangeEvent.Type.CUSTOMER_ADDED, c.getId(), null, c);
+        return null;
+    }
 
     /**
      * Adds new customer in list
@@ -52,12 +306,11 @@ public class Customers implements Workable<Customer> {
      */
     @Override
     public void addNew (Customer c) {
-        if (this.customerMap.containsKey(c.getId().toUpperCase())) {
-            System.out.println("Error: Customer ID " + c.getId() + " already exists.");
+        String error = tryAdd(c);
+        if (error != null) {
+            System.out.println("Error: " + error);
             return;
         }
-        this.customerMap.put(c.getId(),c);
-        this.isSaved = false;
         System.out.println("Customer successfully added!");
 
     }
@@ -71,9 +324,42 @@ public class Customers implements Workable<Customer> {
      */
     @Override
     public Customer searchById(String id) {
-        return this.customerMap.get(id.toUpperCase());
+        return this.customerMap.get(DirectIndex.customerSlot(id));
     }
     
+    /**
+     * Replaces an existing customer, without printing anything
+     *
+     * @param c the updated customer
+     * @return null if the customer was updated, otherwise the reason it was not
+     */
+    public String tryUpdate(Customer c) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.CUSTOMER_CHANGE).operation("update");
+        if (c != null) span.id(c.getId());
+        String error = updateCustomer(c);
+        span.result(error).commit();
+        return error;
+    }
+
+    private String updateCustomer(Customer c) {
+        if (c==null) return "customer cannot be null";
+        int slot = DirectIndex.customerSlot(c.getId());
+        Customer current = this.customerMap.get(slot);
+        if (current == null) return "Customer with ID " + c.getId() + " not found. Cannot update.";
+        String error = checkContacts(c, current);
+        if (error != null) return error;
+
+        Customer old = this.customerMap.put(slot, c);
+        this.nameIndex.remove(slot, old.getName());
+        this.nameIndex.add(slot, c.getName());
+        indexContacts(old, false);
+        indexContacts(c, true);
+        this.changes++;
+        if (!repo.saveOne(pathFile, c)) this.isSaved = false;
+        if (changeLog != null) changeLog.publish(ChangeEvent.Type.CUSTOMER_UPDATED, c.getId(), old, c);
+        return null;
+    }
+
     /**
      * Update customer information
      * If data is null or not exists in system, show message to user
@@ -82,19 +368,12 @@ public class Customers implements Workable<Customer> {
      */
     @Override
     public void update(Customer c) {
-        if (c==null) {
-            System.err.println("Error: customer cannot be null");
-            return ;
-        }
-        
-        if (!this.customerMap.containsKey(c.getId().toUpperCase())) {
-            System.err.println("Error: Customer with ID " + c.getId() + " not found. Cannot update.");
+        String error = tryUpdate(c);
+        if (error != null) {
+            System.err.println("Error: " + error);
             return;
         }
 
-        this.customerMap.put(c.getId().toUpperCase(),c);
-        this.isSaved = false;
-
         System.out.println("Customer successfully updated!");
         System.out.println("----------------------------------------------------------------------");
         System.out.println("| Code  | Customer Name        | Phone        | Email                |");
@@ -111,13 +390,144 @@ public class Customers implements Workable<Customer> {
      * @return List of customer that contains or match the name
      */
     public List<Customer> filterByName(String name) {
-        return this.customerMap.values()
-                .stream()
+        return snapshot().stream()
                 .filter(c -> c.getName().toLowerCase().contains(name.toLowerCase().trim()))
                 .sorted(Comparator.comparing(c->c.getLastName().toLowerCase()))
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Finds the customers that use a phone, in constant time
+     * Phones are compared in normalized form, see {@link #normalizePhone(String)}
+     *
+     * @param phone the phone
+     * @return the customers, more than one only for duplicates loaded from file
+     */
+    public List<Customer> searchByPhone(String phone) {
+        return byIndex(byPhone, normalizePhone(phone));
+    }
+
+    /**
+     * Finds the customers that use an email, in constant time
+     * Emails are compared in normalized form, see {@link #normalizeEmail(String)}
+     *
+     * @param email the email
+     * @return the customers, more than one only for duplicates loaded from file
+     */
+    public List<Customer> searchByEmail(String email) {
+        return byIndex(byEmail, normalizeEmail(email));
+    }
+
+    private List<Customer> byIndex(Map<String, String[]> index, String key) {
+        String[] ids = key == null ? null : index.get(key);
+        if (ids == null) return Collections.emptyList();
+        List<Customer> result = new ArrayList<>(ids.length);
+        for (String id : ids) {
+            Customer c = searchById(id);
+            if (c != null) result.add(c);
+        }
+        return result;
+    }
+
+    /**
+     * Finds groups of customers that are probably the same person registered more than once: customers that share
+     * a phone or an email, directly or through other customers (A has the phone of B, B has the email of C)
+     * The shared phones and emails come from the indexes and are merged in parallel with a {@link ConcurrentUnionFind},
+     * then the customers are grouped by set, also in parallel
+     *
+     * @return groups of 2 or more customers sorted by ID, largest group first
+     */
+    public List<List<Customer>> findDuplicates() {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.QUERY).operation("duplicate customers");
+        List<List<Customer>> groups = groupDuplicates();
+        span.records(groups).commit();
+        return groups;
+    }
+
+    private List<List<Customer>> groupDuplicates() {
+        RecordStore<Customer> customers = snapshot();
+        ConcurrentUnionFind sets = new ConcurrentUnionFind(DirectIndex.CUSTOMER_SLOTS);
+        Stream.concat(byPhone.values().parallelStream(), byEmail.values().parallelStream())
+                .filter(ids -> ids.length > 1)
+                .forEach(ids -> {
+                    int first = DirectIndex.customerSlot(ids[0]);
+                    for (int i = 1; i < ids.length; i++) sets.union(first, DirectIndex.customerSlot(ids[i]));
+                });
+        return customers.stream()
+                .parallel()
+                .collect(Collectors.groupingByConcurrent(c -> sets.find(DirectIndex.customerSlot(c.getId()))))
+                .values().stream()
+                .filter(group -> group.size() > 1)
+                .map(group -> group.stream().sorted(Comparator.comparing(Customer::getId)).collect(Collectors.toList()))
+                .sorted(Comparator.comparing((List<Customer> group) -> -group.size()).thenComparing(group -> group.get(0).getId()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Finds customers by a name typed with mistakes or without diacritics, e.g. "nguyen van ahn" finds "Nguyễn Văn Anh"
+     * Every word of the name must be close to a word of the customer name, see {@link FuzzyIndex}
+     *
+     * @param name  the name, or a part of it
+     * @param limit maximum number of customers
+     * @return the closest customers first
+     */
+    public List<Customer> searchByNameFuzzy(String name, int limit) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.QUERY).operation("fuzzy name");
+        RecordStore<Customer> customers = snapshot();
+        List<Customer> result = new ArrayList<>();
+        for (FuzzyIndex.Match m : nameIndex.search(name, limit)) {
+            Customer c = customers.get(m.getId());
+            if (c != null) result.add(c);
+        }
+        span.records(result).commit();
+        return result;
+    }
+
+    /**
+     * Finds the customers that match a query, see {@link Query} for the syntax and {@link #QUERY_FIELDS} for the fields
+     * A query that requires one ID reads that customer directly, one that requires a phone or an email reads the
+     * phone or email index, any other query scans all customers in parallel
+     *
+     * @param text the query, e.g. name ~ nguyen and email ~ fpt.edu.vn
+     * @return the matching customers sorted by ID
+     * @throws IllegalArgumentException if the query is not valid
+     */
+    public List<Customer> query(String text) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.QUERY);
+        if (span.isRecording()) span.operation("customers: " + text);
+        try {
+            List<Customer> result = runQuery(Query.compile(text, QUERY_FIELDS));
+            span.records(result);
+            return result;
+        } catch (IllegalArgumentException e) {
+            span.result(e.getMessage());
+            throw e;
+        } finally {
+            span.commit();
+        }
+    }
+
+    private List<Customer> runQuery(Query<Customer> q) {
+        String id = q.requiredValue("id");
+        if (id != null) {
+            Customer c = searchById(id);
+            return c != null && q.test(c) ? Collections.singletonList(c) : Collections.<Customer>emptyList();
+        }
+        String phone = q.requiredValue("phone");
+        String email = q.requiredValue("email");
+        if (phone != null || email != null) {
+            List<Customer> candidates = phone != null ? searchByPhone(phone) : searchByEmail(email);
+            return candidates.stream()
+                    .filter(q.predicate())
+                    .sorted(Comparator.comparing(Customer::getId))
+                    .collect(Collectors.toList());
+        }
+        return snapshot().stream()
+                .parallel()
+                .filter(q.predicate())
+                .collect(Collectors.toList()); //Slot order is ID order
+    }
+
     /**
      * Show all of customer in system
      * If system does not have any customer then show message to user
@@ -132,35 +542,116 @@ public class Customers implements Workable<Customer> {
         System.out.println("----------------------------------------------------------------------");
         System.out.println("| Code  | Customer Name        | Phone        | Email                |");
         System.out.println("----------------------------------------------------------------------");
-        this.customerMap.values().stream()
-                .sorted(Comparator.comparing(c->c.getLastName().toLowerCase()))
+        snapshot().stream()
+                .sorted(BY_LAST_NAME)
                 .forEach(System.out::println);
         System.out.println("----------------------------------------------------------------------");
     }
 
     /**
      * Saving customer data to file path
+     * If the repository cannot write the data, the customers stay unsaved, see {@link #isSaved()}
      */
     @Override
     public void saveToFile() {
-        repo.saveToFile(this.pathFile, new ArrayList<>(this.customerMap.values()));
-        this.isSaved = true;
+        long seen = this.changes; //Read before the snapshot, so the snapshot contains these changes
+        if (!repo.save(this.pathFile, snapshot())) {
+            this.isSaved = false;
+            System.err.println("Customer data is not saved at " + this.pathFile);
+            return;
+        }
+        this.isSaved = this.changes == seen; //Still unsaved if customers changed during the save
         System.out.println("Customer data is saved at " + this.pathFile);
     }
 
     /**
      * Read customer data from file path
      * If file path is not correct then it will occurs error in repository
-     * If repository can't load data from path file (list of customer is null) then show warning to user.
+     * If repository can't read data from path file then show warning to user.
+     * The customers are streamed from the repository into the store, so they are never all kept in a temporary map;
+     * a store with a cache over a repository with key lookups only gets their slots and reads them from the repository.
      * Set save status to true
      */
     @Override
     public void readFromFile() {
-        this.customerMap = repo.loadFromFile(this.pathFile);
-        if (this.customerMap == null) {
-            this.customerMap = new HashMap<>();
+        if (this.customerMap instanceof CachedStore) ((CachedStore<Customer>) this.customerMap).close();
+        RecordStore<Customer> store = newStore();
+        this.customerMap = store;
+        this.nameIndex.clear();
+        this.byPhone.clear();
+        this.byEmail.clear();
+        boolean readThrough = cacheEntries > 0 && repo.hasKeyLookup();
+        long[] batch = new long[LOAD_BATCH];
+        int[] pending = new int[1];
+        boolean read = repo.forEach(this.pathFile, c -> {
+            int slot = DirectIndex.customerSlot(c.getId());
+            if (slot < 0) {
+                System.err.println("Warning: skipping customer with invalid ID: " + c.getId());
+                return;
+            }
+            Customer old = readThrough ? null : store.put(slot, c);
+            if (old != null) { //The same ID twice, the last one is kept
+                this.nameIndex.remove(slot, old.getName());
+                indexContacts(old, false);
+            }
+            this.nameIndex.add(slot, c.getName());
+            indexContacts(c, true); //Duplicates already in the file are kept, see findDuplicates
+            if (readThrough) {
+                batch[pending[0]++] = slot;
+                if (pending[0] == batch.length) {
+                    ((CachedStore<Customer>) store).putFromSource(batch);
+                    pending[0] = 0;
+                }
+            }
+        });
+        if (readThrough) ((CachedStore<Customer>) store).putFromSource(Arrays.copyOf(batch, pending[0]));
+        if (!read) {
             System.err.println("Warning: cannot get customer data from file: " + this.pathFile);
         }
         this.isSaved = true;
     }
+
+    private RecordStore<Customer> newStore() {
+        if (cacheEntries > 0) {
+            return new CachedStore<>(pathFile + ".records", cacheEntries, null, repo.hasKeyLookup() ? this::readCustomers : null);
+        }
+        return offHeap ? new OffHeapStore<>(OFF_HEAP_LAYOUT) : DirectIndex.forCustomers();
+    }
+
+    /**
+     * Reads customers by slot from the repository, for a store that reads through it
+     *
+     * @throws UncheckedIOException if the repository cannot be read
+     */
+    private List<Customer> readCustomers(long[] slots) {
+        List<String> ids = new ArrayList<>(slots.length);
+        for (long slot : slots) ids.add(DirectIndex.customerId(slot));
+        List<Customer> found = repo.findAllById(this.pathFile, ids);
+        if (found == null) throw new UncheckedIOException(new IOException("Cannot read customers from " + this.pathFile));
+        return found;
+    }
+
+    /**
+     * Record of a customer outside the heap: dictionary codes of ID, name, phone and email
+     */
+    private static final OffHeapStore.Codec<Customer> OFF_HEAP_LAYOUT = new OffHeapStore.Codec<Customer>() {
+        @Override
+        public int recordBytes() {
+            return 16;
+        }
+
+        @Override
+        public void write(Customer c, ByteBuffer buffer, int offset, StringDictionary strings) {
+            buffer.putInt(offset, strings.encode(c.getId()));
+            buffer.putInt(offset + 4, strings.encode(c.getName()));
+            buffer.putInt(offset + 8, strings.encode(c.getPhone()));
+            buffer.putInt(offset + 12, strings.encode(c.getEmail()));
+        }
+
+        @Override
+        public Customer read(long key, ByteBuffer buffer, int offset, StringDictionary strings) {
+            return new Customer(strings.decode(buffer.getInt(offset)), strings.decode(buffer.getInt(offset + 4)),
+                    strings.decode(buffer.getInt(offset + 8)), strings.decode(buffer.getInt(offset + 12)));
+        }
+    };
 }
@@ -0,0 +1,261 @@
+package business;
+
+import model.Order;
+import tools.DateUtils;
+import tools.IdDictionary;
+import tools.LongHashMap;
+import tools.OrderCodeCodec;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+/**
+ * Compact, column oriented storage of orders.
+ * Instead of one Order object per order (with its own strings and Date), each field is kept in a
+ * primitive array and row i of every array is one order:
+ *   the order code is packed in a long, customer and menu IDs are dictionary codes, the event date is an epoch day,
+ *   cost is the total cost at the time the order was stored.
+ * Orders are turned back into Order objects only when they are read.
+ * Report queries run as plain loops over the arrays, optionally split in chunks over a parallel stream.
+ * @author mymym
+ */
+public class OrderColumns {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int CHUNK_SIZE = 1 << 16; //Rows per parallel task
+
+    private final IdDictionary customerIds;
+    private final IdDictionary menuIds;
+    private final LongHashMap<Integer> rowByCode;
+
+    private long[] orderCodes;
+    private int[] customers;
+    private int[] menus;
+    private int[] epochDays;
+    private int[] tables;
+    private long[] costs;
+    private int size;
+
+    /**
+     * Constructor
+     * Initializes empty columns and dictionaries
+     */
+    public OrderColumns() {
+        this.customerIds = new IdDictionary();
+        this.menuIds = new IdDictionary();
+        this.rowByCode = new LongHashMap<>();
+        this.orderCodes = new long[INITIAL_CAPACITY];
+        this.customers = new int[INITIAL_CAPACITY];
+        this.menus = new int[INITIAL_CAPACITY];
+        this.epochDays = new int[INITIAL_CAPACITY];
+        this.tables = new int[INITIAL_CAPACITY];
+        this.costs = new long[INITIAL_CAPACITY];
+    }
+
+    public int size() { return size; }
+
+    public boolean contains(String orderCode) { return rowByCode.containsKey(OrderCodeCodec.pack(orderCode)); }
+
+    /**
+     * Adds an order or replaces the order with the same code, without a cost
+     *
+     * @param o the order
+     * @throws IllegalArgumentException if the order code is invalid or the number of tables is negative
+     */
+    public void put(Order o) {
+        put(o, 0);
+    }
+
+    /**
+     * Adds an order or replaces the order with the same code
+     *
+     * @param o    the order
+     * @param cost total cost of the order
+     * @throws IllegalArgumentException if the order code is invalid or the number of tables is negative
+     */
+    public void put(Order o, long cost) {
+        long code = OrderCodeCodec.pack(o.getOrderCode());
+        if (code == OrderCodeCodec.INVALID) {
+            throw new IllegalArgumentException("Invalid order code: " + o.getOrderCode());
+        }
+        if (o.getNumOfTables() < 0) {
+            throw new IllegalArgumentException("Number of tables out of range: " + o.getNumOfTables());
+        }
+        Integer row = rowByCode.get(code);
+        if (row == null) {
+            ensureCapacity(size + 1);
+            row = size++;
+            rowByCode.put(code, row);
+        }
+        orderCodes[row] = code;
+        customers[row] = customerIds.encode(o.getCustomerId());
+        menus[row] = menuIds.encode(o.getMenuId());
+        epochDays[row] = DateUtils.toEpochDay(o.getEventDate());
+        tables[row] = o.getNumOfTables();
+        costs[row] = cost;
+    }
+
+    /**
+     * Removes an order, the last row is moved into its place
+     *
+     * @param orderCode order code
+     * @return true if the order was removed, false if it did not exist
+     */
+    public boolean remove(String orderCode) {
+        Integer row = rowByCode.remove(OrderCodeCodec.pack(orderCode));
+        if (row == null) return false;
+
+        int last = --size;
+        if (row != last) {
+            orderCodes[row] = orderCodes[last];
+            customers[row] = customers[last];
+            menus[row] = menus[last];
+            epochDays[row] = epochDays[last];
+            tables[row] = tables[last];
+            costs[row] = costs[last];
+            rowByCode.put(orderCodes[row], row);
+        }
+        return true;
+    }
+
+    /**
+     * Rebuilds an Order object from its row
+     *
+     * @param orderCode order code
+     * @return a new Order with the stored values, null if it does not exist
+     */
+    public Order get(String orderCode) {
+        Integer row = rowByCode.get(OrderCodeCodec.pack(orderCode));
+        return row == null ? null : toOrder(row);
+    }
+
+    /**
+     * Rebuilds an Order object from a row
+     *
+     * @param row row index, from 0 to size() - 1
+     * @return a new Order with the stored values
+     */
+    public Order toOrder(int row) {
+        Order o = new Order(customerIds.decode(customers[row]), menuIds.decode(menus[row]),
+                tables[row], DateUtils.fromEpochDay(epochDays[row]));
+        o.setOrderCode(OrderCodeCodec.unpack(orderCodes[row]));
+        return o;
+    }
+
+    /**
+     * Sums the cost of the orders with an event date in a range
+     *
+     * @param fromDay  first epoch day, inclusive
+     * @param toDay    last epoch day, inclusive
+     * @param parallel true to split the scan over the common fork-join pool
+     * @return total cost of the matching orders
+     */
+    public long revenueBetween(int fromDay, int toDay, boolean parallel) {
+        if (!parallel) return revenueBetween(fromDay, toDay, 0, size);
+        final int n = size;
+        return chunks(n).mapToLong(c -> revenueBetween(fromDay, toDay, c * CHUNK_SIZE, Math.min(n, (c + 1) * CHUNK_SIZE))).sum();
+    }
+
+    private long revenueBetween(int fromDay, int toDay, int start, int end) {
+        final int[] days = epochDays;
+        final long[] cost = costs;
+        long sum = 0;
+        for (int i = start; i < end; i++) {
+            int d = days[i];
+            if (d >= fromDay && d <= toDay) sum += cost[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Counts the orders with an event date in a range, for one menu and a minimum number of tables
+     *
+     * @param fromDay   first epoch day, inclusive
+     * @param toDay     last epoch day, inclusive
+     * @param menuId    menu ID, null for all menus
+     * @param minTables minimum number of tables, inclusive
+     * @param parallel  true to split the scan over the common fork-join pool
+     * @return number of matching orders
+     */
+    public long count(int fromDay, int toDay, String menuId, int minTables, boolean parallel) {
+        int menu = menuId == null ? -1 : menuIds.codeOf(menuId);
+        if (menuId != null && menu < 0) return 0;
+        if (!parallel) return count(fromDay, toDay, menu, minTables, 0, size);
+        final int n = size;
+        return chunks(n).mapToLong(c -> count(fromDay, toDay, menu, minTables, c * CHUNK_SIZE, Math.min(n, (c + 1) * CHUNK_SIZE))).sum();
+    }
+
+    private long count(int fromDay, int toDay, int menu, int minTables, int start, int end) {
+        final int[] days = epochDays;
+        final int[] menuCol = menus;
+        final int[] tableCol = tables;
+        long count = 0;
+        for (int i = start; i < end; i++) {
+            int d = days[i];
+            if (d >= fromDay && d <= toDay && (menu < 0 || menuCol[i] == menu) && tableCol[i] >= minTables) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Sums the number of tables of each menu
+     *
+     * @param parallel true to split the scan over the common fork-join pool
+     * @return menu ID to total number of tables, sorted by menu ID
+     */
+    public Map<String, Long> tablesPerMenu(boolean parallel) {
+        final int n = size;
+        final int menuCount = menuIds.size();
+        long[] totals;
+        if (!parallel) {
+            totals = tablesPerMenu(menuCount, 0, n);
+        } else {
+            totals = chunks(n)
+                    .mapToObj(c -> tablesPerMenu(menuCount, c * CHUNK_SIZE, Math.min(n, (c + 1) * CHUNK_SIZE)))
+                    .reduce(new long[menuCount], (a, b) -> {
+                        long[] r = new long[menuCount];
+                        for (int i = 0; i < menuCount; i++) r[i] = a[i] + b[i];
+                        return r;
+                    });
+        }
+        Map<String, Long> result = new TreeMap<>();
+        for (int m = 0; m < menuCount; m++) {
+            if (totals[m] > 0) result.put(menuIds.decode(m), totals[m]);
+        }
+        return result;
+    }
+
+    private long[] tablesPerMenu(int menuCount, int start, int end) {
+        final int[] menuCol = menus;
+        final int[] tableCol = tables;
+        long[] totals = new long[menuCount];
+        for (int i = start; i < end; i++) {
+            totals[menuCol[i]] += tableCol[i];
+        }
+        return totals;
+    }
+
+    private IntStream chunks(int n) {
+        return IntStream.range(0, (n + CHUNK_SIZE - 1) / CHUNK_SIZE).parallel();
+    }
+
+    /**
+     * Removes all orders, dictionaries are kept
+     */
+    public void clear() {
+        rowByCode.clear();
+        size = 0;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= orderCodes.length) return;
+        int newCapacity = Math.max(capacity, orderCodes.length * 2);
+        orderCodes = Arrays.copyOf(orderCodes, newCapacity);
+        customers = Arrays.copyOf(customers, newCapacity);
+        menus = Arrays.copyOf(menus, newCapacity);
+        epochDays = Arrays.copyOf(epochDays, newCapacity);
+        tables = Arrays.copyOf(tables, newCapacity);
+        costs = Arrays.copyOf(costs, newCapacity);
+    }
+}
@@ -1,11 +1,36 @@
 package business;
 
+import model.ChangeEvent;
 import model.Order;
 import model.SetMenu;
+import repository.OrderArchive;
+import repository.FileOrderRepository;
 import repository.OrderRepository;
+import tools.CachedStore;
 import tools.DateUtils;
+import tools.DirectIndex;
+import tools.JfrEvents;
+import tools.LongHashMap;
+import tools.OrderCodeCodec;
+import tools.OffHeapStore;
+import tools.PersistentLongMap;
+import tools.PersistentLongStore;
+import tools.Query;
+import tools.RecordStore;
+import tools.StringDictionary;
+import tools.TinyLfuCache;
 import tools.Workable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.YearMonth;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Manages a collection of Order objects
@@ -13,14 +38,27 @@ import java.util.*;
  * @author mymym
  */
 public class Orders implements Workable<Order> {
+    private static final int PARALLEL_SCAN_SIZE = 1_000_000; //Column scans over this many rows run in parallel
+    private static final int LOAD_BATCH = 1024; //Orders put in the store at once while loading
+    /** Order of the order list: event date, then order code so that no two orders are equal */
+    public static final Comparator<Order> BY_EVENT_DATE =
+            Comparator.comparing(Order::getEventDate).thenComparing(Order::getOrderCode);
     private final String pathFile;
-    private boolean isSaved;
+    private volatile boolean isSaved;
     private final OrderRepository repo;
-    private Map<String, Order> orderMap;
+    private final boolean offHeap;
+    private final int cacheEntries; //More than 0 to keep the orders on disk with a cache, see CachedStore
+    private volatile RecordStore<Order> orderMap; //Key is the packed order code, see OrderCodeCodec
+    private final Map<YearMonth, Long> dirtyPartitions; //Event months changed since the last save, with a change count
+    private LongHashMap<Integer> duplicateKeys; //Number of orders per (customer, menu, event day), see duplicateKey
+    private OrderArchive archive; //Cold storage for past events, null if not used
+    private OrderColumns columns; //Column mirror for reports, null if not used
+    private int columnsVersion; //Set menu version the costs in the column mirror were computed with
+    private ChangeLog changeLog; //Receives an event for every added or updated order, null if not used
 
-    //Reference to other business classes
-    private final Customers customers;
-    private final SetMenus setMenus;
+    //Reference to other business classes, set by the constructor or later by attach
+    private Customers customers;
+    private SetMenus setMenus;
 
     /**
      * Constructor initialize repository
@@ -30,32 +68,327 @@ public class Orders implements Workable<Order> {
      * @param setMenus  set of menu business
      */
     public Orders(String pathFile, Customers customers, SetMenus setMenus) {
-        this.pathFile = pathFile;
-        this.repo = new OrderRepository();
-        this.orderMap = new HashMap<>();
+        this(pathFile, customers, setMenus, new FileOrderRepository());
+    }
+
+    /**
+     * Constructor with a specific repository, e.g. a partitioned one
+     * @param pathFile  path file or directory, depends on the repository
+     * @param customers customer business
+     * @param setMenus  set of menu business
+     * @param repo      repository used to load and save orders
+     */
+    public Orders(String pathFile, Customers customers, SetMenus setMenus, OrderRepository repo) {
+        this(pathFile, repo);
         this.customers = customers;
         this.setMenus = setMenus;
+    }
+
+    /**
+     * Constructor that only loads the orders, without customers and set menus
+     * Used to load orders at the same time as the other data, {@link #attach(Customers, SetMenus)} must be called before use
+     * @param pathFile  path file or directory, depends on the repository
+     * @param repo      repository used to load and save orders
+     */
+    public Orders(String pathFile, OrderRepository repo) {
+        this(pathFile, repo, false);
+    }
+
+    /**
+     * Constructor that only loads the orders and chooses where they are kept
+     * @param pathFile  path file or directory, depends on the repository
+     * @param repo      repository used to load and save orders
+     * @param offHeap   true to keep the orders outside the heap in an {@link OffHeapStore},
+     *                  false to keep Order objects in a {@link PersistentLongStore}
+     */
+    public Orders(String pathFile, OrderRepository repo, boolean offHeap) {
+        this(pathFile, repo, offHeap, 0);
+    }
+
+    /**
+     * Constructor for more orders than fit in memory: the orders are kept in a {@link CachedStore},
+     * a record log next to the data, and only the most used ones stay on the heap.
+     * With a repository that looks orders up by code (see {@link OrderRepository#hasKeyLookup()}) the loaded orders
+     * are read from it instead of being copied to the log.
+     * The duplicate keys are still kept in memory
+     * @param pathFile      path file or directory, depends on the repository
+     * @param repo          repository used to load and save orders
+     * @param offHeap       true to keep the orders outside the heap, ignored if cacheEntries is more than 0
+     * @param cacheEntries  maximum number of orders in the cache, 0 to keep all orders in memory
+     */
+    public Orders(String pathFile, OrderRepository repo, boolean offHeap, int cacheEntries) {
+        this.pathFile = pathFile;
+        this.repo = repo;
+        this.offHeap = offHeap;
+        this.cacheEntries = cacheEntries;
+        this.dirtyPartitions = new ConcurrentHashMap<>(); //A save may run on another thread, see AsyncStore
         this.isSaved = false; //No unsaved changes after loading
         readFromFile();
     }
 
     public boolean isSaved() { return isSaved; }
 
+    public int size() { return orderMap.size(); }
+
+    /**
+     * @return hit rate and evictions of the order cache, null if all orders are kept in memory
+     */
+    public TinyLfuCache.Stats cacheStats() {
+        RecordStore<Order> store = orderMap;
+        return store instanceof CachedStore ? ((CachedStore<Order>) store).cacheStats() : null;
+    }
+
+    /**
+     * Gets a read-only view of all orders at this moment, in constant time
+     * Later changes are not visible in the snapshot, so it can be listed or saved while orders keep changing
+     *
+     * @return the snapshot
+     */
+    public RecordStore<Order> snapshot() {
+        return orderMap.snapshot();
+    }
+
+    /**
+     * Streams the orders of a snapshot, archived orders are not included
+     *
+     * @return the stream
+     */
+    @Override
+    public Stream<Order> stream() {
+        return snapshot().stream();
+    }
+
+    /**
+     * Links the loaded orders to customers and set menus, then checks in parallel that every order
+     * refers to an existing customer and menu
+     *
+     * @param customers customer business
+     * @param setMenus  set of menu business
+     * @return codes of the orders whose customer or menu does not exist
+     */
+    public List<String> attach(Customers customers, SetMenus setMenus) {
+        this.customers = customers;
+        this.setMenus = setMenus;
+        if (columns != null) rebuildColumns();
+        return scan(this.orderMap)
+                .filter(o -> {
+                    o.setDataSource(customers, setMenus);
+                    return customers.searchById(o.getCustomerId()) == null || setMenus.getMenuById(o.getMenuId()) == null;
+                })
+                .map(Order::getOrderCode)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Publishes every added or updated order to a change log
+     *
+     * @param changeLog the change log, null to stop publishing
+     */
+    public void setChangeLog(ChangeLog changeLog) {
+        this.changeLog = changeLog;
+    }
+
+    /**
+     * Keeps a column mirror of the orders in memory, used by the report queries
+     * The mirror is built from the current orders and then kept in sync by addNew and update
+     */
+    public void enableColumnMirror() {
+        this.columns = new OrderColumns();
+        rebuildColumns();
+    }
+
+    /**
+     * Sums the total cost of the orders with an event date in a range
+     * Uses the column mirror when it is enabled, otherwise walks all orders
+     *
+     * @param from first event date, inclusive
+     * @param to   last event date, inclusive
+     * @return revenue of the orders in the range
+     */
+    public long revenueBetween(Date from, Date to) {
+        int fromDay = DateUtils.toEpochDay(from);
+        int toDay = DateUtils.toEpochDay(to);
+        if (columns != null) {
+            if (setMenus.version() != columnsVersion) rebuildColumns(); //Menus reloaded or pricing changed, costs are stale
+            return columns.revenueBetween(fromDay, toDay, columns.size() > PARALLEL_SCAN_SIZE);
+        }
+
+        long sum = 0;
+        for (Order o : snapshot()) {
+            int day = DateUtils.toEpochDay(o.getEventDate());
+            if (day >= fromDay && day <= toDay) sum += setMenus.quote(o);
+        }
+        return sum;
+    }
+
+    /**
+     * Sums the number of booked tables of each menu
+     * Uses the column mirror when it is enabled, otherwise walks all orders
+     *
+     * @return menu ID to total number of tables, sorted by menu ID
+     */
+    public Map<String, Long> tablesPerMenu() {
+        if (columns != null) return columns.tablesPerMenu(columns.size() > PARALLEL_SCAN_SIZE);
+
+        Map<String, Long> result = new TreeMap<>();
+        for (Order o : snapshot()) {
+            result.merge(o.getMenuId().toUpperCase(), (long) o.getNumOfTables(), Long::sum);
+        }
+        return result;
+    }
+
+    /**
+     * Gets the fields that order queries can use:
+     * code, customer, menu (text), tables, cost (number), date (dd/MM/yyyy), month, year (number)
+     *
+     * @return the fields
+     */
+    public List<Query.Field<Order>> queryFields() {
+        return Arrays.asList(
+                Query.Field.text("code", Order::getOrderCode),
+                Query.Field.text("customer", Order::getCustomerId),
+                Query.Field.text("menu", Order::getMenuId),
+                Query.Field.number("tables", Order::getNumOfTables),
+                Query.Field.number("cost", setMenus::quote),
+                Query.Field.date("date", o -> DateUtils.toEpochDay(o.getEventDate())),
+                Query.Field.number("month", o -> DateUtils.toYearMonth(o.getEventDate()).getMonthValue()),
+                Query.Field.number("year", o -> DateUtils.toYearMonth(o.getEventDate()).getYear()));
+    }
+
+    /**
+     * Finds the orders in memory that match a query, see {@link Query} for the syntax and {@link #queryFields()} for the fields
+     * A query that requires one order code reads that order directly, any other query scans all orders in parallel
+     *
+     * @param text the query, e.g. menu = PW003 and month = 12 and tables > 20
+     * @return the matching orders sorted by event date
+     * @throws IllegalArgumentException if the query is not valid
+     */
+    public List<Order> query(String text) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.QUERY);
+        if (span.isRecording()) span.operation("orders: " + text);
+        try {
+            List<Order> result = runQuery(Query.compile(text, queryFields()));
+            span.records(result);
+            return result;
+        } catch (IllegalArgumentException e) {
+            span.result(e.getMessage());
+            throw e;
+        } finally {
+            span.commit();
+        }
+    }
+
+    private List<Order> runQuery(Query<Order> q) {
+        String code = q.requiredValue("code");
+        if (code != null) {
+            Order o = this.orderMap.get(OrderCodeCodec.pack(code));
+            return o != null && q.test(o) ? Collections.singletonList(o) : Collections.<Order>emptyList();
+        }
+        return scan(snapshot())
+                .filter(q.predicate())
+                .sorted(Comparator.comparing(Order::getEventDate))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Uses an archive as cold storage for past events
+     * Orders that are already archived are removed from memory
+     *
+     * @param archive the order archive
+     */
+    public void useArchive(OrderArchive archive) {
+        this.archive = archive;
+        removeArchived();
+        rebuildDuplicateKeys();
+        if (columns != null) rebuildColumns();
+    }
+
+    /**
+     * Moves all orders whose event date is before the cutoff into the archive
+     * The orders are removed from memory, their partitions are marked as changed so the next save drops them
+     *
+     * @param cutoff orders with an event date before this date are archived
+     * @return number of archived orders, 0 if there is no archive or nothing to archive
+     */
+    public int archiveBefore(Date cutoff) {
+        if (archive == null || cutoff == null) return 0;
+
+        List<Order> past = new ArrayList<>();
+        for (Order o : snapshot()) {
+            if (o.getEventDate() != null && o.getEventDate().before(cutoff)) past.add(o);
+        }
+        if (past.isEmpty() || !archive.append(past)) return 0;
+
+        long[] keys = new long[past.size()];
+        for (int i = 0; i < keys.length; i++) {
+            Order o = past.get(i);
+            keys[i] = OrderCodeCodec.pack(o.getOrderCode());
+            if (columns != null) columns.remove(o.getOrderCode());
+            countDuplicateKey(o, -1);
+        }
+        this.orderMap.removeAll(keys);
+        for (Order o : past) markDirty(o);
+        this.isSaved = false;
+        return past.size();
+    }
+
 
     /**
-     * Checks if an order with the same customer, menu and event date already exists
+     * Checks if an order with the same customer, menu and event day already exists
      * @param x order
      * @return true if a duplicate is found, false otherwise
      */
     public boolean isDuplicate(Order x) {
-        for (Order o : orderMap.values()) {
-            if (o.getCustomerId().equalsIgnoreCase(x.getCustomerId()) &&
-                o.getMenuId().equalsIgnoreCase(x.getMenuId()) &&
-                o.getEventDate() .equals(x.getEventDate())) {
-                    return true;
-            }
-        }
-        return false;
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.DUPLICATE_CHECK).operation("order");
+        if (x != null) span.id(x.getOrderCode());
+        long key = duplicateKey(x);
+        boolean duplicate = key >= 0 && duplicateKeys.get(key) != null;
+        span.result(duplicate ? "duplicate" : null).commit();
+        return duplicate;
+    }
+
+    /**
+     * Checks a new order against the customers and set menus, without changing anything
+     * Only reads data, so it can run on another thread than the changes, see {@link AsyncStore}
+     *
+     * @param newOrder the new order
+     * @return null if the order can be added, otherwise the reason it cannot
+     */
+    public String validateNew(Order newOrder) {
+        if (newOrder==null) return "Order data cannot be null";
+        if (OrderCodeCodec.pack(newOrder.getOrderCode()) == OrderCodeCodec.INVALID) return "Invalid order code";
+        if (customers.searchById(newOrder.getCustomerId()) == null) return "Customer not found";
+        if (setMenus.searchById(newOrder.getMenuId()) == null) return "Menu not found";
+        return null;
+    }
+
+    /**
+     * Adds a new order if it is valid and not a duplicate, without printing anything
+     *
+     * @param newOrder the new order
+     * @return null if the order was added, otherwise the reason it was not
+     */
+    public String tryAdd(Order newOrder) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.ORDER_CHANGE).operation("place");
+        if (newOrder != null) span.id(newOrder.getOrderCode());
+        String error = addOrder(newOrder);
+        span.result(error).commit();
+        return error;
+    }
+
+    private String addOrder(Order newOrder) {
+        String error = validateNew(newOrder);
+        if (error != null) return error;
+        if (isDuplicate(newOrder)) return "Order already exists.";
+
+        newOrder.setDataSource(customers, setMenus);
+        this.orderMap.put(OrderCodeCodec.pack(newOrder.getOrderCode()),newOrder);
+        if (columns != null) columns.put(newOrder, setMenus.quote(newOrder));
+        countDuplicateKey(newOrder, 1);
+        if (!repo.saveAll(pathFile, Collections.singletonList(newOrder))) markDirty(newOrder); //Saved at once if the repository can
+        if (changeLog != null) changeLog.publish(ChangeEvent.Type.ORDER_ADDED, newOrder.getOrderCode(), null, newOrder);
+        return null;
     }
 
     /**
@@ -67,66 +400,223 @@ public class Orders implements Workable<Order> {
      */
     @Override
     public void addNew(Order newOrder) {
-        if (newOrder==null) {
-            System.out.println("Error: Order data cannot be null");
+        String error = tryAdd(newOrder);
+        if (error != null) {
+            System.out.println("Error: " + error);
             return;
         }
+        System.out.println("Order placed successfully!");
+        System.out.println(newOrder); //Display a new order
+    }
 
-        if (customers.searchById(newOrder.getCustomerId()) == null) {
-            System.out.println("Error: Customer not found");
-            return ;
-        }
-        if (setMenus.searchById(newOrder.getMenuId()) == null) {
-            System.out.println("Error: Menu not found");
-            return ;
-        }
+    /**
+     * Replaces an existing order if the new data is valid, without printing anything
+     *
+     * @param updateOrder the updated order, with the code of the existing order
+     * @return null if the order was updated, otherwise the reason it was not
+     */
+    public String tryUpdate(Order updateOrder) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.ORDER_CHANGE).operation("update");
+        if (updateOrder != null) span.id(updateOrder.getOrderCode());
+        String error = updateOrder(updateOrder);
+        span.result(error).commit();
+        return error;
+    }
 
-        if (isDuplicate(newOrder)) {
-            System.out.println("Order already exists.");
-            return ;
-        }
+    private String updateOrder(Order updateOrder) {
+        if (updateOrder==null || updateOrder.getOrderCode()==null) return "Invalid order data.";
 
+        long key = OrderCodeCodec.pack(updateOrder.getOrderCode());
+        Order oldOrder = this.orderMap.get(key);
+        if (oldOrder == null) return "Order not found";
+        if (setMenus.getMenuById(updateOrder.getMenuId()) == null) return "Menu not found";
 
-        newOrder.setDataSource(customers, setMenus);
-        this.orderMap.put(newOrder.getOrderCode(),newOrder);
-        this.isSaved = false; // Marks as unsaved
-        System.out.println("Order placed successfully!");
-        System.out.println(newOrder); //Display a new order
+        updateOrder.setDataSource(customers,setMenus);
+        this.orderMap.put(key,updateOrder);
+        if (columns != null) columns.put(updateOrder, setMenus.quote(updateOrder));
+        countDuplicateKey(oldOrder, -1);
+        countDuplicateKey(updateOrder, 1);
+        if (!repo.saveAll(pathFile, Collections.singletonList(updateOrder))) {
+            markDirty(oldOrder); //The order may move to another month
+            markDirty(updateOrder);
+        }
+        if (changeLog != null) changeLog.publish(ChangeEvent.Type.ORDER_UPDATED, updateOrder.getOrderCode(), oldOrder, updateOrder);
+        return null;
     }
-   
+
     /**
      * Updates an existing order in the collection.
      * Validates the existence of the order and the new menu ID.
      * Sets the data source for the updated order.
      *
-     * @param updatedOrder The updated order information.
+     * @param updateOrder The updated order information.
      */
     @Override
     public void update(Order updateOrder) {
-        if (updateOrder==null || updateOrder.getOrderCode()==null) { //If order is null
-            System.out.println("Error: Invalid order data.");
-            return ;
+        String error = tryUpdate(updateOrder);
+        if (error != null) {
+            System.out.println("Error: " + error);
+            return;
         }
+        System.out.println("Order updated successfully!"); //Success message
+        System.out.println(updateOrder); //Display updated order details
+    }
 
-        if (!this.orderMap.containsKey(updateOrder.getOrderCode())) { //If order isn't existed in system
-            System.out.println("Error: Order not found");
-            return ;
+    /**
+     * Result of a bulk change: the number of changed orders, or why nothing was changed
+     */
+    public static class BulkResult {
+        private final int changed;
+        private final String error;
+        private final List<String> rejected;
+
+        private BulkResult(int changed, String error, List<String> rejected) {
+            this.changed = changed;
+            this.error = error;
+            this.rejected = rejected;
         }
 
-        if (setMenus.getMenuById(updateOrder.getMenuId()) == null) { //If menu isn't existed in system
-            System.out.println("Error: Menu not found");
-            return;
+        /** @return number of changed orders, 0 if the change was rejected */
+        public int getChanged() { return changed; }
+
+        /** @return null if the change was applied, otherwise the reason no order was changed */
+        public String getError() { return error; }
+
+        /** @return codes of the orders that failed the checks, empty if the change was applied */
+        public List<String> getRejected() { return rejected; }
+
+        @Override
+        public String toString() {
+            if (error == null) return changed + " orders changed";
+            if (rejected.isEmpty()) return error;
+            return error + " " + rejected.size() + " orders: " + (rejected.size() <= 10 ? rejected : rejected.subList(0, 10) + " ...");
         }
+    }
 
-        updateOrder.setDataSource(customers,setMenus);
-        this.orderMap.put(updateOrder.getOrderCode(),updateOrder);
-        this.isSaved = false;
-        System.out.println("Order updated successfully!"); //Success message
-        System.out.println(updateOrder); //Display updated order details
+    /**
+     * Moves every upcoming order with an event on one day to another day, e.g. when the venue is closed that day
+     *
+     * @param from day of the orders to move
+     * @param to   the new event date, must be in the future
+     * @return the number of moved orders, or why none was moved
+     */
+    public BulkResult reschedule(Date from, Date to) {
+        if (from == null || to == null) return new BulkResult(0, "Dates cannot be null", Collections.<String>emptyList());
+        if (!to.after(new Date())) return new BulkResult(0, "Event date must be in the future", Collections.<String>emptyList());
+        int fromDay = DateUtils.toEpochDay(from);
+        return changeAll("reschedule",
+                o -> o.getEventDate() != null && DateUtils.toEpochDay(o.getEventDate()) == fromDay,
+                o -> new Order(o.getOrderCode(), o.getCustomerId(), o.getMenuId(), o.getNumOfTables(), to));
+    }
+
+    /**
+     * Switches every upcoming order of a set menu to another set menu, e.g. when a menu is retired
+     *
+     * @param fromMenu ID of the old menu, it does not have to exist any more
+     * @param toMenu   ID of the new menu
+     * @return the number of changed orders, or why none was changed
+     */
+    public BulkResult migrateMenu(String fromMenu, String toMenu) {
+        if (fromMenu == null) return new BulkResult(0, "Menu ID cannot be null", Collections.<String>emptyList());
+        SetMenu menu = toMenu == null ? null : setMenus.getMenuById(toMenu);
+        if (menu == null) return new BulkResult(0, "Menu not found", Collections.<String>emptyList());
+        return changeAll("migrate menu",
+                o -> fromMenu.equalsIgnoreCase(o.getMenuId()),
+                o -> new Order(o.getOrderCode(), o.getCustomerId(), menu.getMenuId(), o.getNumOfTables(), o.getEventDate()));
+    }
+
+    /**
+     * Scales the number of tables of the upcoming orders that match a query, rounded and at least 1
+     *
+     * @param query   the orders to change, see {@link #query(String)}, e.g. date = 20/12/2030 and menu = PW001
+     * @param percent new number of tables in percent of the current one, e.g. 50 halves it
+     * @return the number of changed orders, or why none was changed
+     * @throws IllegalArgumentException if the query is not valid
+     */
+    public BulkResult scaleTables(String query, int percent) {
+        if (percent <= 0) return new BulkResult(0, "Percent must be more than 0", Collections.<String>emptyList());
+        Predicate<Order> target = Query.compile(query, queryFields()).predicate();
+        return changeAll("scale tables", target, o -> new Order(o.getOrderCode(), o.getCustomerId(), o.getMenuId(),
+                (int) Math.min(Integer.MAX_VALUE, Math.max(1, Math.round(o.getNumOfTables() * (percent / 100.0)))),
+                o.getEventDate()));
+    }
+
+    private BulkResult changeAll(String operation, Predicate<Order> target, UnaryOperator<Order> change) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.ORDER_CHANGE).operation(operation);
+        BulkResult result = applyAll(target, change);
+        span.records(result.getChanged()).result(result.getError()).commit();
+        return result;
+    }
+
+    /**
+     * Changes many orders at once: selects them in one pass over a snapshot, checks all of them,
+     * then stores all of them with one {@link RecordStore#putAll(long[], List)} and saves them with one
+     * {@link OrderRepository#saveAll(String, List)}, or marks each changed month once if the repository cannot.
+     * If one order fails a check, no order is changed. Orders whose event has passed are never selected, they cannot be changed
+     *
+     * @param target selects the orders to change
+     * @param change makes the changed copy of an order
+     */
+    private BulkResult applyAll(Predicate<Order> target, UnaryOperator<Order> change) {
+        List<Order> before = new ArrayList<>();
+        List<Order> after = new ArrayList<>();
+        Date now = new Date();
+        for (Order o : snapshot()) {
+            if (o.getEventDate() == null || o.getEventDate().before(now) || !target.test(o)) continue;
+            Order changed = change.apply(o);
+            if (changed.getNumOfTables() == o.getNumOfTables() && changed.getMenuId().equals(o.getMenuId())
+                    && Objects.equals(changed.getEventDate(), o.getEventDate())) continue;
+            before.add(o);
+            after.add(changed);
+        }
+        if (after.isEmpty()) return new BulkResult(0, null, Collections.<String>emptyList());
+
+        //Duplicate keys that the change adds, an order must not end up with the customer, menu and day of another one
+        List<String> rejected = new ArrayList<>();
+        Map<Long, Integer> added = new HashMap<>();
+        for (Order o : before) added.merge(duplicateKey(o), -1, Integer::sum);
+        for (Order o : after) added.merge(duplicateKey(o), 1, Integer::sum);
+        for (Order o : after) {
+            long key = duplicateKey(o);
+            int delta = added.get(key);
+            Integer count = duplicateKeys.get(key);
+            if (key >= 0 && delta > 0 && (count == null ? 0 : count) + delta > 1) rejected.add(o.getOrderCode());
+        }
+        if (!rejected.isEmpty()) return new BulkResult(0, "Duplicate orders would be created for", rejected);
+
+        long[] keys = new long[after.size()];
+        Map<YearMonth, Long> months = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            Order o = after.get(i);
+            o.setDataSource(customers, setMenus);
+            keys[i] = OrderCodeCodec.pack(o.getOrderCode());
+            months.merge(DateUtils.toYearMonth(before.get(i).getEventDate()), 1L, Long::sum);
+            months.merge(DateUtils.toYearMonth(o.getEventDate()), 1L, Long::sum);
+        }
+        this.orderMap.putAll(keys, after);
+        for (int i = 0; i < keys.length; i++) {
+            Order o = after.get(i);
+            if (columns != null) columns.put(o, setMenus.quote(o));
+            countDuplicateKey(before.get(i), -1);
+            countDuplicateKey(o, 1);
+        }
+        if (!repo.saveAll(pathFile, after)) {
+            for (Map.Entry<YearMonth, Long> e : months.entrySet()) {
+                this.dirtyPartitions.merge(e.getKey(), e.getValue(), Long::sum);
+            }
+            this.isSaved = false;
+        }
+        if (changeLog != null) {
+            for (int i = 0; i < keys.length; i++) {
+                changeLog.publish(ChangeEvent.Type.ORDER_UPDATED, after.get(i).getOrderCode(), before.get(i), after.get(i));
+            }
+        }
+        return new BulkResult(after.size(), null, Collections.<String>emptyList());
     }
 
     /**
      * Searches order id in system
+     * If it is not in memory, looks it up in the archive
      * If found, set the data source
      * 
      * @param id
@@ -137,12 +627,15 @@ public class Orders implements Workable<Order> {
         if (id == null || id.isEmpty()) {
             return null;
         }
-        Order order = this.orderMap.get(id.toUpperCase());
+        Order order = this.orderMap.get(OrderCodeCodec.pack(id));
+        if (order == null && archive != null) {
+            order = archive.get(id.toUpperCase()); //Past event, read-only
+        }
         if (order != null) {
             //Set data source when an order is retrieved, so its method can access related data
             order.setDataSource(customers, setMenus);
         }
-        return this.orderMap.get(id);
+        return order;
     }
 
     /**
@@ -158,7 +651,7 @@ public class Orders implements Workable<Order> {
             return ;
         }
 
-        List<Order> orders = new ArrayList<>(this.orderMap.values());
+        List<Order> orders = snapshot().values();
         orders.sort(Comparator.comparing(Order::getEventDate));
 
         System.out.println("--------------------------------------------------------------------------------------------");
@@ -176,34 +669,217 @@ public class Orders implements Workable<Order> {
                     o.getMenuId(),
                     menu.getPrice(),
                     o.getNumOfTables(),
-                    o.getTotalCost(menu));
+                    setMenus.quote(o));
         }
         System.out.println("--------------------------------------------------------------------------------------------");
+        if (archive != null && archive.size() > 0) {
+            System.out.println(archive.size() + " past orders are archived and not shown.");
+        }
     }
 
     /**
      * Using repository to save data in system, with path file and list of order
      * Set save status to true and show message
+     * If the repository cannot write the data, every change stays marked and the orders stay unsaved, see {@link #isSaved()}
      */
     @Override
     public void saveToFile() {
-        repo.saveToFile(this.pathFile, new ArrayList<>(this.orderMap.values()));
-        this.isSaved = true;
+        //Read the marks before taking the snapshot, so the snapshot contains every marked change.
+        //A mark is only removed if no change was made in that month during the save
+        Map<YearMonth, Long> marks = new HashMap<>(this.dirtyPartitions);
+        if (!repo.save(this.pathFile, snapshot(), marks.keySet())) {
+            this.isSaved = false;
+            System.err.println("Order data is not saved at " + this.pathFile);
+            return;
+        }
+        for (Map.Entry<YearMonth, Long> e : marks.entrySet()) {
+            this.dirtyPartitions.remove(e.getKey(), e.getValue());
+        }
+        this.isSaved = this.dirtyPartitions.isEmpty();
         System.out.println("Order data is saved at " + this.pathFile);
     }
 
     /**
      * Using repository to read data from file
      * If order is not exist, initialize new order list and show message
+     * Orders kept outside the heap are streamed from the repository, see {@link #load(RecordStore, boolean)}
      * Set save status to true
      */
     @Override
     public void readFromFile() {
-        this.orderMap = repo.loadFromFile(this.pathFile);
-        if (this.orderMap == null) {
-            this.orderMap = new HashMap<>();
+        if (this.orderMap instanceof CachedStore) ((CachedStore<Order>) this.orderMap).close();
+        boolean read;
+        if (cacheEntries > 0 || offHeap) {
+            //Streamed into the store, so the orders are never all on the heap at once
+            boolean readThrough = cacheEntries > 0 && repo.hasKeyLookup();
+            RecordStore<Order> store = cacheEntries > 0
+                    ? new CachedStore<>(pathFile + ".records", cacheEntries, o -> o.setDataSource(customers, setMenus),
+                            readThrough ? this::readOrders : null)
+                    : new OffHeapStore<>(offHeapLayout);
+            read = load(store, readThrough);
+            this.orderMap = store;
+        } else {
+            LongHashMap<Order> loaded = repo.load(this.pathFile);
+            read = loaded != null;
+            PersistentLongMap.Builder<Order> builder = PersistentLongMap.<Order>empty().toBuilder();
+            if (loaded != null) loaded.stream().forEach(o -> builder.put(OrderCodeCodec.pack(o.getOrderCode()), o));
+            this.orderMap = new PersistentLongStore<>(builder.build());
+        }
+        if (!read) {
             System.err.println("Warning: cannot get order data from file: " + this.pathFile);
         }
+        this.dirtyPartitions.clear();
         this.isSaved = true;
+        if (archive != null) {
+            removeArchived(); //Marks the months of archived orders still in the file as changed
+        }
+        if (columns != null) {
+            rebuildColumns();
+        }
+        rebuildDuplicateKeys();
+    }
+
+    /**
+     * Streams the orders of the repository into a store, {@value #LOAD_BATCH} at a time.
+     * A store that reads through the repository only gets their codes
+     *
+     * @param store       an empty store
+     * @param readThrough true if the store reads the orders from the repository, see {@link CachedStore#putFromSource(long[])}
+     * @return true if every order was read
+     */
+    private boolean load(RecordStore<Order> store, boolean readThrough) {
+        long[] keys = new long[LOAD_BATCH];
+        List<Order> batch = new ArrayList<>(LOAD_BATCH);
+        boolean read = repo.forEach(this.pathFile, o -> {
+            long key = OrderCodeCodec.pack(o.getOrderCode());
+            if (key == OrderCodeCodec.INVALID) {
+                System.err.println("Warning: skipping order with invalid code: " + o.getOrderCode());
+                return;
+            }
+            keys[batch.size()] = key;
+            batch.add(o);
+            if (batch.size() == LOAD_BATCH) {
+                putBatch(store, readThrough, keys, batch);
+                batch.clear();
+            }
+        });
+        putBatch(store, readThrough, Arrays.copyOf(keys, batch.size()), batch);
+        return read;
+    }
+
+    private static void putBatch(RecordStore<Order> store, boolean readThrough, long[] keys, List<Order> batch) {
+        if (readThrough) ((CachedStore<Order>) store).putFromSource(keys);
+        else store.putAll(keys, batch);
+    }
+
+    /**
+     * Reads orders by packed code from the repository, for a store that reads through it
+     *
+     * @throws UncheckedIOException if the repository cannot be read
+     */
+    private List<Order> readOrders(long[] codes) {
+        List<Order> found = repo.findAllByCode(this.pathFile, codes);
+        if (found == null) throw new UncheckedIOException(new IOException("Cannot read orders from " + this.pathFile));
+        return found;
+    }
+
+    /**
+     * Streams the orders of a store in parallel when they are all in memory; a store on disk is streamed
+     * in batches, so its orders are not first read into one list
+     */
+    private static Stream<Order> scan(RecordStore<Order> store) {
+        return store instanceof CachedStore ? store.stream() : store.values().parallelStream();
+    }
+
+    /**
+     * Drops the orders that are already in the archive from memory
+     */
+    private void removeArchived() {
+        List<Order> archived = this.orderMap.stream()
+                .filter(o -> archive.contains(o.getOrderCode()))
+                .collect(Collectors.toList());
+        if (archived.isEmpty()) return;
+        long[] keys = new long[archived.size()];
+        for (int i = 0; i < keys.length; i++) keys[i] = OrderCodeCodec.pack(archived.get(i).getOrderCode());
+        this.orderMap.removeAll(keys);
+        for (Order o : archived) markDirty(o); //The next save drops the stale copies from their partitions
+    }
+
+    /**
+     * Marks the event month of an order as changed
+     * Both the order map and the mark must be written before the mark is read by saveToFile
+     */
+    private void markDirty(Order o) {
+        this.dirtyPartitions.merge(DateUtils.toYearMonth(o.getEventDate()), 1L, Long::sum);
+        this.isSaved = false;
+    }
+
+    /**
+     * Packs customer slot (15 bits), menu slot (10 bits) and event day (32 bits) into one key
+     *
+     * @param o the order
+     * @return the key, or -1 if the customer ID or menu ID does not have a valid format
+     */
+    private static long duplicateKey(Order o) {
+        int customer = DirectIndex.customerSlot(o.getCustomerId());
+        int menu = DirectIndex.menuSlot(o.getMenuId());
+        if (customer < 0 || menu < 0 || o.getEventDate() == null) return -1;
+        return (long) customer << 42 | (long) menu << 32 | (DateUtils.toEpochDay(o.getEventDate()) & 0xFFFFFFFFL);
+    }
+
+    private void countDuplicateKey(Order o, int delta) {
+        long key = duplicateKey(o);
+        if (key < 0) return;
+        Integer count = duplicateKeys.get(key);
+        int n = (count == null ? 0 : count) + delta;
+        if (n > 0) duplicateKeys.put(key, n);
+        else duplicateKeys.remove(key);
     }
+
+    private void rebuildDuplicateKeys() {
+        this.duplicateKeys = new LongHashMap<>(this.orderMap.size());
+        for (Order o : this.orderMap) countDuplicateKey(o, 1);
+    }
+
+    /**
+     * Fills the column mirror with the orders in memory
+     * Orders whose menu no longer exists are stored with a cost of 0
+     */
+    private void rebuildColumns() {
+        columnsVersion = setMenus == null ? 0 : setMenus.version();
+        columns.clear();
+        for (Order o : snapshot()) {
+            columns.put(o, setMenus.quote(o));
+        }
+    }
+
+    /**
+     * Record of an order outside the heap: dictionary codes of customer ID and menu ID, number of tables,
+     * event date in milliseconds (Long.MIN_VALUE for none). The order code is the key
+     * Orders read back are linked to the customers and set menus
+     */
+    private final OffHeapStore.Codec<Order> offHeapLayout = new OffHeapStore.Codec<Order>() {
+        @Override
+        public int recordBytes() {
+            return 20;
+        }
+
+        @Override
+        public void write(Order o, ByteBuffer buffer, int offset, StringDictionary strings) {
+            buffer.putInt(offset, strings.encode(o.getCustomerId()));
+            buffer.putInt(offset + 4, strings.encode(o.getMenuId()));
+            buffer.putInt(offset + 8, o.getNumOfTables());
+            buffer.putLong(offset + 12, o.getEventDate() == null ? Long.MIN_VALUE : o.getEventDate().getTime());
+        }
+
+        @Override
+        public Order read(long key, ByteBuffer buffer, int offset, StringDictionary strings) {
+            long millis = buffer.getLong(offset + 12);
+            Order o = new Order(OrderCodeCodec.unpack(key), strings.decode(buffer.getInt(offset)),
+                    strings.decode(buffer.getInt(offset + 4)), buffer.getInt(offset + 8),
+                    millis == Long.MIN_VALUE ? null : new Date(millis));
+            o.setDataSource(customers, setMenus);
+            return o;
+        }
+    };
 }
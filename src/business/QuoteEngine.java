@@ -0,0 +1,154 @@
+package business;
+
+import model.Order;
+import model.SetMenu;
+import tools.DateUtils;
+import tools.DirectIndex;
+
+import java.util.Date;
+
+/**
+ * Prices orders: list price of the menu times the number of tables, then
+ *   a volume discount by number of tables,
+ *   a surcharge for events on Saturday or Sunday,
+ *   a discount by customer type, the first letter of the customer ID (C, G or K).
+ * Rates are in basis points (1/100 of a percent). The rules are compiled once into a table with one factor
+ * per (volume tier, day class, customer type), so a quote is a few array reads and one multiplication.
+ *
+ * Quotes are not cached: the table lookup is as fast as a cache hit and always uses the current menu prices.
+ * The day class of each event date is cached, since the time zone conversion costs more than the pricing.
+ * @author mymym
+ */
+public class QuoteEngine {
+    public static final int[] DEFAULT_TIER_TABLES = {1, 10, 20, 50};          // First number of tables of each tier
+    public static final int[] DEFAULT_TIER_DISCOUNTS = {0, 300, 500, 800};
+    public static final int DEFAULT_WEEKEND_SURCHARGE = 1000;
+    public static final int[] DEFAULT_CUSTOMER_DISCOUNTS = {0, 200, 500};     // C, G, K
+
+    private static final long SCALE = 10_000;
+    private static final int WEEKDAY = 0, WEEKEND = 1;
+    private static final int CUSTOMER_TYPES = 3;
+    private static final int DAY_CACHE_BITS = 12;
+
+    private final SetMenus setMenus;
+    private final byte[] tierOfTables;  // Tier of 0 .. last tier start tables, larger numbers are in the last tier
+    private final long[] factors;       // Index (tier * 2 + day class) * 3 + customer type, in SCALE units
+    private final DayEntry[] dayCache;  // Event date in milliseconds -> day class
+
+    private static final class DayEntry {
+        final long millis;
+        final int day;
+
+        DayEntry(long millis, int day) {
+            this.millis = millis;
+            this.day = day;
+        }
+    }
+
+    /**
+     * Constructor with the default rules
+     *
+     * @param setMenus set menus that give the list prices
+     */
+    public QuoteEngine(SetMenus setMenus) {
+        this(setMenus, DEFAULT_TIER_TABLES, DEFAULT_TIER_DISCOUNTS, DEFAULT_WEEKEND_SURCHARGE, DEFAULT_CUSTOMER_DISCOUNTS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param setMenus          set menus that give the list prices
+     * @param tierTables        first number of tables of each volume tier, ascending, starting at 0 or 1
+     * @param tierDiscounts     discount of each volume tier
+     * @param weekendSurcharge  surcharge for events on Saturday or Sunday
+     * @param customerDiscounts discount for customer IDs starting with C, G and K
+     * @throws IllegalArgumentException if the rules are not consistent
+     */
+    public QuoteEngine(SetMenus setMenus, int[] tierTables, int[] tierDiscounts, int weekendSurcharge, int[] customerDiscounts) {
+        if (tierTables.length == 0 || tierTables.length != tierDiscounts.length || tierTables[0] > 1) {
+            throw new IllegalArgumentException("Volume tiers must start at 0 or 1 table and have one discount each");
+        }
+        if (customerDiscounts.length != CUSTOMER_TYPES) {
+            throw new IllegalArgumentException("Need one discount for each customer type C, G, K");
+        }
+        for (int i = 1; i < tierTables.length; i++) {
+            if (tierTables[i] <= tierTables[i - 1]) throw new IllegalArgumentException("Volume tiers must be ascending");
+        }
+        this.setMenus = setMenus;
+
+        int last = tierTables[tierTables.length - 1];
+        this.tierOfTables = new byte[last + 1];
+        for (int t = 0, tier = 0; t <= last; t++) {
+            while (tier + 1 < tierTables.length && tierTables[tier + 1] <= t) tier++;
+            tierOfTables[t] = (byte) tier;
+        }
+
+        this.factors = new long[tierTables.length * 2 * CUSTOMER_TYPES];
+        for (int tier = 0; tier < tierTables.length; tier++) {
+            for (int day = WEEKDAY; day <= WEEKEND; day++) {
+                for (int type = 0; type < CUSTOMER_TYPES; type++) {
+                    long f = (SCALE - tierDiscounts[tier]) * (SCALE + (day == WEEKEND ? weekendSurcharge : 0))
+                            * (SCALE - customerDiscounts[type]);
+                    factors[(tier * 2 + day) * CUSTOMER_TYPES + type] = (f + SCALE * SCALE / 2) / (SCALE * SCALE);
+                }
+            }
+        }
+        this.dayCache = new DayEntry[1 << DAY_CACHE_BITS];
+    }
+
+    /**
+     * Quotes an order
+     *
+     * @param o the order
+     * @return the price to pay, 0 if the menu does not exist
+     */
+    public long quote(Order o) {
+        int tables = o.getNumOfTables();
+        if (DirectIndex.menuSlot(o.getMenuId()) < 0 || tables <= 0) return 0;
+        return quote(setMenus.getMenuById(o.getMenuId()), tables, dayClass(o.getEventDate()), customerType(o.getCustomerId()));
+    }
+
+    /**
+     * Quotes an order that is not created yet
+     *
+     * @param menu       the set menu
+     * @param tables     number of tables
+     * @param eventDate  event date
+     * @param customerId customer ID
+     * @return the price to pay, 0 if the menu is null
+     */
+    public long quote(SetMenu menu, int tables, Date eventDate, String customerId) {
+        return tables <= 0 ? 0 : quote(menu, tables, dayClass(eventDate), customerType(customerId));
+    }
+
+    private long quote(SetMenu menu, int tables, int day, int type) {
+        if (menu == null) return 0;
+        int tier = tierOfTables[Math.min(tables, tierOfTables.length - 1)];
+        long factor = factors[(tier * 2 + day) * CUSTOMER_TYPES + type];
+        return (menu.getPrice() * tables * factor + SCALE / 2) / SCALE;
+    }
+
+    /**
+     * @return WEEKEND for Saturday and Sunday, WEEKDAY otherwise
+     */
+    private int dayClass(Date date) {
+        if (date == null) return WEEKDAY;
+        long millis = date.getTime();
+        int slot = (int) ((millis * 0x9E3779B97F4A7C15L) >>> (64 - DAY_CACHE_BITS));
+        DayEntry e = dayCache[slot];
+        if (e != null && e.millis == millis) return e.day;
+
+        int dayOfWeek = Math.floorMod(DateUtils.toEpochDay(date) + 3, 7); // 01/01/1970 was a Thursday, Monday is 0
+        int day = dayOfWeek >= 5 ? WEEKEND : WEEKDAY;
+        dayCache[slot] = new DayEntry(millis, day);
+        return day;
+    }
+
+    /**
+     * @return 0, 1, 2 for IDs starting with C, G, K, and 0 for anything else
+     */
+    private static int customerType(String customerId) {
+        int slot = DirectIndex.customerSlot(customerId);
+        return slot < 0 ? 0 : slot / 10_000;
+    }
+}
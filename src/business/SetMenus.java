@@ -1,10 +1,14 @@
 package business;
 
+import model.Order;
 import model.SetMenu;
 import repository.SetMenuRepository;
+import tools.DirectIndex;
+import tools.JfrEvents;
 import tools.Workable;
 
 import java.util.*;
+import java.util.stream.Stream;
 import tools.FileUtils;
 
 /**
@@ -16,7 +20,12 @@ public class SetMenus implements Workable<SetMenu> {
     private final String pathFile;
     private boolean isFileAvailable = true;
     private transient final SetMenuRepository repo;
-    private Map<String, SetMenu> setMenuMap;
+    private DirectIndex<SetMenu> setMenuMap; //Menu IDs have a fixed format, one array slot per possible ID
+    private volatile int version; //Changes every time the menus are loaded or the pricing rules change, so cached prices can be dropped
+    private QuoteEngine quoteEngine;
+    /** Order of the menu list: price, then ID so that no two menus are equal */
+    public static final Comparator<SetMenu> BY_PRICE =
+            Comparator.comparingLong(SetMenu::getPrice).thenComparing(SetMenu::getMenuId);
     
     /**
      * Constructor
@@ -28,8 +37,36 @@ public class SetMenus implements Workable<SetMenu> {
         super();
         this.pathFile = pathFile;
         this.repo = new SetMenuRepository();
-        this.setMenuMap = new HashMap<>();
+        this.setMenuMap = DirectIndex.forMenus();
         readFromFile(); //Load data
+        this.quoteEngine = new QuoteEngine(this);
+    }
+
+    /**
+     * @return a number that changes every time the menus are loaded
+     */
+    public int version() { return version; }
+
+    /**
+     * Gets the price to pay for an order, with volume, weekend and customer type adjustments
+     *
+     * @param o the order
+     * @return the price, 0 if the menu does not exist
+     */
+    public long quote(Order o) {
+        return quoteEngine.quote(o);
+    }
+
+    public QuoteEngine getQuoteEngine() { return quoteEngine; }
+
+    /**
+     * Replaces the pricing rules, prices computed before are out of date
+     *
+     * @param quoteEngine quote engine built for these set menus
+     */
+    public void setQuoteEngine(QuoteEngine quoteEngine) {
+        this.quoteEngine = quoteEngine;
+        this.version++;
     }
 
     /**
@@ -47,6 +84,18 @@ public class SetMenus implements Workable<SetMenu> {
      */
     public boolean isAvailableFile() { return this.isFileAvailable; }
 
+    public int size() { return this.setMenuMap.size(); }
+
+    /**
+     * Streams the menus of a snapshot in ID order
+     *
+     * @return the stream
+     */
+    @Override
+    public Stream<SetMenu> stream() {
+        return this.setMenuMap.snapshot().stream();
+    }
+
     /**
      * Show list of dished on the menu, sorted by price
      * If the data or file was not found, show the message
@@ -64,8 +113,8 @@ public class SetMenus implements Workable<SetMenu> {
         System.out.println("----------------------------------------------------------------");
         System.out.println("List of Set Menus for ordering party:");
         System.out.println("----------------------------------------------------------------");
-        List<SetMenu> list = new ArrayList<>(this.setMenuMap.values());
-        list.sort(Comparator.comparingLong(SetMenu::getPrice));
+        List<SetMenu> list = this.setMenuMap.values();
+        list.sort(BY_PRICE);
         for (SetMenu menu : list) {
             System.out.println(menu);
             System.out.println("----------------------------------------------------------------");
@@ -79,8 +128,7 @@ public class SetMenus implements Workable<SetMenu> {
      * @return true if menu is available, otherwise false 
      */
     public SetMenu getMenuById(String menuId) {
-        if (menuId == null) return null;
-        return this.setMenuMap.get(menuId.toUpperCase());
+        return this.setMenuMap.get(menuId);
     }
 
     // --- Workable methos ---
@@ -115,7 +163,19 @@ public class SetMenus implements Workable<SetMenu> {
      */
     @Override
     public void readFromFile() {
-        this.setMenuMap = repo.loadFromFile(this.pathFile);
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.LOAD).operation("set menus").path(this.pathFile);
+        this.setMenuMap = DirectIndex.forMenus();
+        Map<String, SetMenu> loaded = repo.loadFromFile(this.pathFile);
+        if (loaded != null) {
+            for (SetMenu menu : loaded.values()) {
+                if (this.setMenuMap.accepts(menu.getMenuId())) {
+                    this.setMenuMap.put(menu.getMenuId(), menu);
+                } else {
+                    System.err.println("Warning: skipping set menu with invalid code: " + menu.getMenuId());
+                }
+            }
+        }
+        this.version++;
         boolean isGoodFile = FileUtils.fileExistsAndReadable(this.pathFile);
         this.isFileAvailable = isGoodFile && !this.setMenuMap.isEmpty();
 
@@ -125,6 +185,7 @@ public class SetMenus implements Workable<SetMenu> {
         else if (!isFileAvailable && isGoodFile && this.setMenuMap.isEmpty()) {
             System.err.println("Warning: Menu data file is empty.");
         }
+        span.records(this.setMenuMap.size()).result(isFileAvailable ? null : "no set menus").commit();
     }
 
 }
@@ -0,0 +1,1013 @@
+package dispatcher;
+
+import business.AsyncStore;
+import business.Customers;
+import business.OrderColumns;
+import business.Orders;
+import business.QuoteEngine;
+import business.SetMenus;
+import model.Customer;
+import model.Order;
+import tools.DateUtils;
+import tools.DirectIndex;
+import tools.FileUtils;
+import tools.FuzzyIndex;
+import tools.LongHashMap;
+import tools.LsmTree;
+import tools.OrderCodeCodec;
+import tools.PersistentLongMap;
+import repository.FileCustomerRepository;
+import repository.JdbcOrderRepository;
+import repository.LsmOrderRepository;
+import repository.FileOrderRepository;
+import repository.OrderRepository;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Small measurement programs for the storage layer, run separately from the console application.
+ * Usage: java dispatcher.Benchmark &lt;name&gt; [count] [JDBC URL for sql]
+ *   footprint   heap used by orders as objects in a HashMap vs. as OrderColumns
+ *   scan        revenue-in-a-date-window scan over Order objects vs. OrderColumns
+ *   customers   customer lookup and iteration, HashMap vs. DirectIndex
+ *   orders      order lookup latency and map heap, HashMap with String keys vs. LongHashMap with packed codes
+ *   snapshot    edits mixed with saves: copy values into an ArrayList vs. PersistentLongMap snapshots
+ *   async       bookings from 64 client threads with periodic saves: blocking Orders API vs. AsyncStore
+ *   quote       pricing a listing: list price vs. QuoteEngine rules with the menu given vs. QuoteEngine by order
+ *   fuzzy       name searches with typos: FuzzyIndex vs. comparing the query with every name
+ *   offheap     heap, direct memory and GC with customers and orders kept on the heap vs. in an OffHeapStore
+ *   lsm         saving, loading, persisting single updates and reading single orders: one file vs. an LSM tree
+ *   sql         the same writes plus orders by customer and by event week: one file vs. a table of an embedded SQL
+ *               database, by default H2 in a temporary directory, the driver must be on the class path
+ * Run with a large enough heap, e.g. -Xmx2g for 1,000,000 orders.
+ */
+public class Benchmark {
+    private static final int DEFAULT_COUNT = 1_000_000;
+
+    public static void main(String[] args) {
+        String name = args.length > 0 ? args[0] : "footprint";
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_COUNT;
+
+        switch (name) {
+            case "footprint":
+                footprint(count);
+                break;
+            case "scan":
+                scan(count);
+                break;
+            case "customers":
+                customers(count);
+                break;
+            case "orders":
+                orders(count);
+                break;
+            case "snapshot":
+                snapshot(count);
+                break;
+            case "async":
+                async(count);
+                break;
+            case "quote":
+                quote(count);
+                break;
+            case "fuzzy":
+                fuzzy(count);
+                break;
+            case "offheap":
+                offHeap(count);
+                break;
+            case "lsm":
+                lsm(count);
+                break;
+            case "sql":
+                sql(count, args.length > 2 ? args[2] : null);
+                break;
+            default:
+                System.err.println("Unknown benchmark: " + name);
+        }
+    }
+
+    /**
+     * Compares the heap used by the object layout (HashMap of Order, as loaded from file)
+     * and the compact column layout for the same orders
+     *
+     * @param count number of orders
+     */
+    private static void footprint(int count) {
+        List<Order> source = generateOrders(count, 30_000);
+        long base = usedHeap();
+
+        Map<String, Order> objects = new HashMap<>();
+        for (Order o : source) {
+            //Orders read from file each have their own copies of the strings and Date
+            Order copy = new Order(new String(o.getCustomerId()), new String(o.getMenuId()),
+                    o.getNumOfTables(), new Date(o.getEventDate().getTime()));
+            copy.setOrderCode(new String(o.getOrderCode()));
+            objects.put(copy.getOrderCode(), copy);
+        }
+        long objectBytes = usedHeap() - base;
+        objects = null;
+
+        base = usedHeap();
+        OrderColumns columns = new OrderColumns();
+        for (Order o : source) {
+            Order copy = new Order(o.getCustomerId(), o.getMenuId(), o.getNumOfTables(), o.getEventDate());
+            copy.setOrderCode(new String(o.getOrderCode()));
+            columns.put(copy);
+        }
+        long columnBytes = usedHeap() - base;
+
+        System.out.printf("Orders                : %,d%n", columns.size());
+        System.out.printf("HashMap<String, Order>: %,d bytes (%d bytes/order)%n", objectBytes, objectBytes / count);
+        System.out.printf("OrderColumns          : %,d bytes (%d bytes/order)%n", columnBytes, columnBytes / count);
+        System.out.printf("Saved                 : %.1f%%%n", 100.0 * (objectBytes - columnBytes) / objectBytes);
+    }
+
+    /**
+     * Measures the throughput of a revenue query (orders in a 90 day window) over
+     * the objects in a HashMap, the same way Orders walks orderMap, and over OrderColumns
+     *
+     * @param count number of orders
+     */
+    private static void scan(int count) {
+        Map<String, Long> prices = new HashMap<>();
+        for (int i = 1; i <= 6; i++) prices.put(String.format("PW%03d", i), 1_000_000L * i);
+
+        Map<String, Order> objects = new HashMap<>();
+        OrderColumns columns = new OrderColumns();
+        for (Order o : generateOrders(count, 30_000)) {
+            objects.put(o.getOrderCode(), o);
+            columns.put(o, prices.get(o.getMenuId()) * o.getNumOfTables());
+        }
+
+        Date from = new Date(System.currentTimeMillis() + 100 * 86_400_000L);
+        Date to = new Date(from.getTime() + 90 * 86_400_000L);
+        int fromDay = DateUtils.toEpochDay(from);
+        int toDay = DateUtils.toEpochDay(to);
+        long fromMillis = DateUtils.fromEpochDay(fromDay).getTime();
+        long toMillis = DateUtils.fromEpochDay(toDay + 1).getTime();
+
+        final int rounds = 20;
+        long result = 0;
+        long[] times = new long[3];
+        for (int r = 0; r < rounds * 2; r++) {
+            boolean measure = r >= rounds; //First half is warm up
+
+            long t0 = System.nanoTime();
+            long sum = 0;
+            for (Order o : objects.values()) {
+                long t = o.getEventDate().getTime();
+                if (t >= fromMillis && t < toMillis) sum += prices.get(o.getMenuId()) * o.getNumOfTables();
+            }
+            long t1 = System.nanoTime();
+            long seq = columns.revenueBetween(fromDay, toDay, false);
+            long t2 = System.nanoTime();
+            long par = columns.revenueBetween(fromDay, toDay, true);
+            long t3 = System.nanoTime();
+
+            if (sum != seq || seq != par) throw new IllegalStateException("Scan results differ: " + sum + " " + seq + " " + par);
+            result = sum;
+            if (measure) {
+                times[0] += t1 - t0;
+                times[1] += t2 - t1;
+                times[2] += t3 - t2;
+            }
+        }
+
+        System.out.printf("Orders: %,d, revenue in window: %,d%n", count, result);
+        String[] names = {"Order objects (HashMap)", "OrderColumns sequential", "OrderColumns parallel"};
+        for (int i = 0; i < names.length; i++) {
+            double ms = times[i] / 1e6 / rounds;
+            System.out.printf("%-24s: %8.2f ms/scan, %,12.0f rows/s%n", names[i], ms, count / (ms / 1000));
+        }
+    }
+
+    /**
+     * Compares customer lookups the way Customers did it (HashMap, ID upper-cased on every search)
+     * with DirectIndex, and a full iteration over both
+     *
+     * @param count number of lookups per round
+     */
+    private static void customers(int count) {
+        Map<String, Customer> map = new HashMap<>();
+        DirectIndex<Customer> index = DirectIndex.forCustomers();
+        String prefixes = "CGK";
+        for (int i = 0; i < DirectIndex.CUSTOMER_SLOTS; i += 2) { //Half of all possible IDs
+            String id = prefixes.charAt(i / 10_000) + String.format("%04d", i % 10_000);
+            Customer c = new Customer(id, "Customer " + i, "0912345678", "c" + i + "@mail.com");
+            map.put(id, c);
+            index.put(id, c);
+        }
+
+        Random random = new Random(7);
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            int slot = random.nextInt(DirectIndex.CUSTOMER_SLOTS);
+            String id = prefixes.charAt(slot / 10_000) + String.format("%04d", slot % 10_000);
+            keys[i] = random.nextBoolean() ? id : id.toLowerCase(); //Clerks type IDs in both cases
+        }
+
+        final int rounds = 10;
+        long[] times = new long[4];
+        long found = 0;
+        for (int r = 0; r < rounds * 2; r++) {
+            boolean measure = r >= rounds;
+            long t0 = System.nanoTime();
+            for (String k : keys) if (map.get(k.toUpperCase()) != null) found++;
+            long t1 = System.nanoTime();
+            for (String k : keys) if (index.get(k) != null) found--;
+            long t2 = System.nanoTime();
+            long a = map.values().stream().mapToLong(c -> c.getId().charAt(4)).sum();
+            long t3 = System.nanoTime();
+            long b = index.stream().mapToLong(c -> c.getId().charAt(4)).sum();
+            long t4 = System.nanoTime();
+            if (found != 0 || a != b) throw new IllegalStateException("Lookup results differ");
+            if (measure) {
+                times[0] += t1 - t0;
+                times[1] += t2 - t1;
+                times[2] += t3 - t2;
+                times[3] += t4 - t3;
+            }
+        }
+
+        System.out.printf("Customers: %,d, lookups per round: %,d%n", index.size(), count);
+        System.out.printf("HashMap lookup     : %6.1f ns/lookup%n", (double) times[0] / rounds / count);
+        System.out.printf("DirectIndex lookup : %6.1f ns/lookup%n", (double) times[1] / rounds / count);
+        System.out.printf("HashMap iterate    : %6.2f ms%n", times[2] / 1e6 / rounds);
+        System.out.printf("DirectIndex iterate: %6.2f ms%n", times[3] / 1e6 / rounds);
+    }
+
+    /**
+     * Compares order lookups the way Orders did it (HashMap keyed by the code String, upper-cased on every search)
+     * with LongHashMap keyed by the packed code, and the heap used by each map on top of the orders themselves
+     *
+     * @param count number of orders
+     */
+    private static void orders(int count) {
+        List<Order> source = generateOrders(count, 30_000);
+
+        long base = usedHeap();
+        Map<String, Order> map = new HashMap<>();
+        for (Order o : source) map.put(o.getOrderCode(), o);
+        long mapBytes = usedHeap() - base;
+
+        base = usedHeap();
+        LongHashMap<Order> packed = new LongHashMap<>();
+        for (Order o : source) packed.put(OrderCodeCodec.pack(o.getOrderCode()), o);
+        long packedBytes = usedHeap() - base;
+
+        Random random = new Random(3);
+        int lookups = Math.min(count, 1_000_000);
+        String[] keys = new String[lookups];
+        for (int i = 0; i < lookups; i++) {
+            keys[i] = new String(source.get(random.nextInt(count)).getOrderCode()); //Typed by the user, not the stored String
+        }
+
+        final int rounds = 10;
+        long[] times = new long[2];
+        for (int r = 0; r < rounds * 2; r++) {
+            long found = 0;
+            long t0 = System.nanoTime();
+            for (String k : keys) if (map.get(k.toUpperCase()) != null) found++;
+            long t1 = System.nanoTime();
+            for (String k : keys) if (packed.get(OrderCodeCodec.pack(k)) != null) found--;
+            long t2 = System.nanoTime();
+            if (found != 0) throw new IllegalStateException("Lookup results differ");
+            if (r >= rounds) {
+                times[0] += t1 - t0;
+                times[1] += t2 - t1;
+            }
+        }
+
+        System.out.printf("Orders: %,d%n", packed.size());
+        System.out.printf("HashMap<String, Order> : %6.1f ns/lookup, %,d bytes (%d bytes/order)%n",
+                (double) times[0] / rounds / lookups, mapBytes, mapBytes / count);
+        System.out.printf("LongHashMap<Order>     : %6.1f ns/lookup, %,d bytes (%d bytes/order)%n",
+                (double) times[1] / rounds / lookups, packedBytes, packedBytes / count);
+    }
+
+    /**
+     * Runs the same workload twice: random order updates, and every 10,000 updates a save that iterates all orders.
+     * The first run copies the values into an ArrayList before each save (what Orders did before),
+     * the second takes a PersistentLongMap snapshot. Reports time, allocated bytes and GC activity.
+     *
+     * @param count number of orders
+     */
+    private static void snapshot(int count) {
+        List<Order> source = generateOrders(count, 30_000);
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) keys[i] = OrderCodeCodec.pack(source.get(i).getOrderCode());
+        final int edits = 200_000;
+        final int saveEvery = 10_000;
+
+        LongHashMap<Order> mutable = new LongHashMap<>(count);
+        for (int i = 0; i < count; i++) mutable.put(keys[i], source.get(i));
+        long[] copyStats = measure(() -> {
+            Random random = new Random(11);
+            long tables = 0, copyNanos = 0;
+            for (int e = 1; e <= edits; e++) {
+                int i = random.nextInt(count);
+                mutable.put(keys[i], source.get(random.nextInt(count)));
+                if (e % saveEvery == 0) {
+                    long t = System.nanoTime();
+                    List<Order> copy = new ArrayList<>(mutable.values());
+                    copyNanos += System.nanoTime() - t;
+                    for (Order o : copy) tables += o.getNumOfTables();
+                }
+            }
+            return copyNanos;
+        });
+
+        PersistentLongMap.Builder<Order> builder = PersistentLongMap.<Order>empty().toBuilder();
+        for (int i = 0; i < count; i++) builder.put(keys[i], source.get(i));
+        AtomicReference<PersistentLongMap<Order>> persistent = new AtomicReference<>(builder.build());
+        long[] snapshotStats = measure(() -> {
+            Random random = new Random(11);
+            long tables = 0, snapshotNanos = 0;
+            for (int e = 1; e <= edits; e++) {
+                int i = random.nextInt(count);
+                persistent.set(persistent.get().plus(keys[i], source.get(random.nextInt(count))));
+                if (e % saveEvery == 0) {
+                    long t = System.nanoTime();
+                    PersistentLongMap<Order> snap = persistent.get();
+                    snapshotNanos += System.nanoTime() - t;
+                    for (Order o : snap) tables += o.getNumOfTables();
+                }
+            }
+            return snapshotNanos;
+        });
+
+        System.out.printf("Orders: %,d, edits: %,d, saves: %d%n", count, edits, edits / saveEvery);
+        System.out.printf("%-26s %10s %12s %16s %10s %10s%n", "", "total ms", "copy ms", "allocated MB", "GCs", "GC ms");
+        printStats("ArrayList copy per save", copyStats);
+        printStats("PersistentLongMap snapshot", snapshotStats);
+    }
+
+    /**
+     * Books orders from many client threads, with a save of all orders every 5,000 bookings.
+     * Blocking: the clients share one lock around Orders (it is not thread-safe), so a save stops every client.
+     * Async: the clients hand the bookings to an AsyncStore and only wait when 16 of their own are still pending,
+ * saves run on the I/O thread.
+     * Reports throughput and the latency of a booking from request to completion.
+     *
+     * @param count number of bookings
+     */
+    private static void async(int count) {
+        final int clients = 64;
+        final int saveEvery = 5_000;
+        File dir = menuDirectory();
+        if (dir == null) return;
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new OutputStream() { //The business classes print every booking
+            @Override
+            public void write(int b) { }
+        }));
+        long[][] results = new long[2][];
+        try {
+            Customers customers = new Customers(new File(dir, "customers.dat").getPath());
+            String prefixes = "CGK";
+            for (int i = 0; i < DirectIndex.CUSTOMER_SLOTS; i++) {
+                customers.tryAdd(new Customer(prefixes.charAt(i / 10_000) + String.format("%04d", i % 10_000),
+                        "Customer " + i, String.format("09%08d", i), "c" + i + "@mail.com")); //Phones and emails must be unique
+            }
+            SetMenus setMenus = new SetMenus(new File(dir, "menu.csv").getPath());
+            List<Order> bookings = generateOrders(count, 30_000);
+            ExecutorService clientPool = Executors.newFixedThreadPool(clients);
+
+            //Blocking API
+            Orders blocking = new Orders(new File(dir, "blocking.dat").getPath(), customers, setMenus, new FileOrderRepository());
+            Object lock = new Object();
+            AtomicInteger booked = new AtomicInteger();
+            long[] latency = new long[count];
+            long t0 = System.nanoTime();
+            runClients(clientPool, clients, count, i -> {
+                long start = System.nanoTime();
+                synchronized (lock) {
+                    blocking.addNew(bookings.get(i));
+                    if (booked.incrementAndGet() % saveEvery == 0) blocking.saveToFile();
+                }
+                latency[i] = System.nanoTime() - start;
+            });
+            results[0] = summarize(System.nanoTime() - t0, latency, blocking.size());
+
+            //AsyncStore
+            Orders orders = new Orders(new File(dir, "async.dat").getPath(), customers, setMenus, new FileOrderRepository());
+            ExecutorService io = AsyncStore.newIoExecutor(1);
+            AsyncStore<Order> store = AsyncStore.of(orders, io);
+            AtomicInteger requested = new AtomicInteger();
+            List<CompletableFuture<?>> pending = Collections.synchronizedList(new ArrayList<>());
+            long[] asyncLatency = new long[count];
+            t0 = System.nanoTime();
+            Semaphore inFlight = new Semaphore(clients * 16); //Each client keeps at most 16 bookings waiting
+            runClients(clientPool, clients, count, i -> {
+                inFlight.acquireUninterruptibly();
+                long start = System.nanoTime();
+                pending.add(store.addNew(bookings.get(i)).handle((o, e) -> {
+                    asyncLatency[i] = System.nanoTime() - start;
+                    inFlight.release();
+                    return null;
+                }));
+                if (requested.incrementAndGet() % saveEvery == 0) pending.add(store.saveToFile());
+            });
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+            results[1] = summarize(System.nanoTime() - t0, asyncLatency, orders.size());
+            store.close();
+            io.shutdown();
+            clientPool.shutdown();
+        } finally {
+            System.setOut(console);
+        }
+
+        System.out.printf("Bookings: %,d from %d client threads, save every %,d%n", count, clients, saveEvery);
+        System.out.printf("%-12s %10s %12s %10s %10s %10s%n", "", "total ms", "bookings/s", "p50 us", "p99 us", "booked");
+        String[] names = {"Blocking", "AsyncStore"};
+        for (int i = 0; i < 2; i++) {
+            long[] r = results[i];
+            System.out.printf("%-12s %10d %,12.0f %10d %10d %,10d%n",
+                    names[i], r[0] / 1_000_000, count / (r[0] / 1e9), r[1] / 1000, r[2] / 1000, r[3]);
+        }
+        deleteDirectory(dir);
+    }
+
+    /**
+     * Prices the same orders three ways: list price (menu price times tables), the QuoteEngine rules evaluated
+     * for every order with the menu given, and QuoteEngine.quote(Order), which looks up the menu, like Orders.showAll and the reports do
+     *
+     * @param count number of orders
+     */
+    private static void quote(int count) {
+        File dir = menuDirectory();
+        if (dir == null) return;
+        SetMenus setMenus = new SetMenus(new File(dir, "menu.csv").getPath());
+        QuoteEngine engine = setMenus.getQuoteEngine();
+        List<Order> source = generateOrders(count, 30_000);
+
+        final int rounds = 10;
+        long[] times = new long[3];
+        long[] sums = new long[3];
+        for (int r = 0; r < rounds * 2; r++) {
+            Arrays.fill(sums, 0);
+            long t0 = System.nanoTime();
+            for (Order o : source) sums[0] += o.getTotalCost(setMenus.getMenuById(o.getMenuId()));
+            long t1 = System.nanoTime();
+            for (Order o : source) {
+                sums[1] += engine.quote(setMenus.getMenuById(o.getMenuId()), o.getNumOfTables(), o.getEventDate(), o.getCustomerId());
+            }
+            long t2 = System.nanoTime();
+            for (Order o : source) sums[2] += engine.quote(o);
+            long t3 = System.nanoTime();
+            if (sums[1] != sums[2]) throw new IllegalStateException("Quote results differ");
+            if (r >= rounds) {
+                times[0] += t1 - t0;
+                times[1] += t2 - t1;
+                times[2] += t3 - t2;
+            }
+        }
+
+        System.out.printf("Orders: %,d, list price total %,d, quoted total %,d%n", count, sums[0], sums[2]);
+        String[] names = {"List price", "QuoteEngine, rules", "QuoteEngine, by order"};
+        for (int i = 0; i < names.length; i++) {
+            System.out.printf("%-22s: %6.1f ns/order%n", names[i], (double) times[i] / rounds / count);
+        }
+        deleteDirectory(dir);
+    }
+
+    /**
+     * Indexes generated names, then searches for names with a typo and without diacritics,
+     * with FuzzyIndex and by computing the distance to every word of every name
+     *
+     * @param count number of names
+     */
+    private static void fuzzy(int count) {
+        Random random = new Random(42);
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) names[i] = Workload.randomName(random);
+
+        long base = usedHeap();
+        long t0 = System.nanoTime();
+        FuzzyIndex index = new FuzzyIndex();
+        for (int i = 0; i < count; i++) index.add(i, names[i]);
+        long buildNanos = System.nanoTime() - t0;
+        long indexBytes = usedHeap() - base;
+
+        final int queries = 1_000, checked = 10, limit = 10;
+        String[] typed = new String[queries];
+        for (int q = 0; q < queries; q++) typed[q] = withTypo(FuzzyIndex.normalize(names[random.nextInt(count)]), random);
+        for (String q : typed) index.search(q, limit); //Warm up
+        long[] latency = new long[queries];
+        long found = 0;
+        for (int q = 0; q < queries; q++) {
+            long start = System.nanoTime();
+            found += index.search(typed[q], limit).size();
+            latency[q] = System.nanoTime() - start;
+        }
+        Arrays.sort(latency);
+
+        long scanNanos = 0;
+        for (int q = 0; q < checked; q++) {
+            long start = System.nanoTime();
+            int matches = scanMatches(names, typed[q]);
+            scanNanos += System.nanoTime() - start;
+            int indexed = index.search(typed[q], Integer.MAX_VALUE).size();
+            if (matches != indexed) throw new IllegalStateException("Different results for " + typed[q] + ": " + matches + " vs " + indexed);
+        }
+
+        System.out.printf("Names: %,d, distinct words %,d, built in %,d ms, %,d bytes%n",
+                count, index.wordCount(), buildNanos / 1_000_000, indexBytes);
+        System.out.printf("FuzzyIndex, top %d : p50 %.2f ms, p99 %.2f ms, %.1f results per search%n",
+                limit, latency[queries / 2] / 1e6, latency[queries * 99 / 100] / 1e6, (double) found / queries);
+        System.out.printf("Scan of every name: %.2f ms per search (same matches as the index for %d searches)%n",
+                scanNanos / 1e6 / checked, checked);
+    }
+
+    /**
+     * @return the text with one character of one word of more than 4 letters replaced, removed or swapped with the next
+     */
+    private static String withTypo(String text, Random random) {
+        String[] words = text.split(" ");
+        int w = random.nextInt(words.length);
+        String word = words[w];
+        if (word.length() <= FuzzyIndex.SHORT_WORD) return text;
+        int i = random.nextInt(word.length() - 1);
+        switch (random.nextInt(3)) {
+            case 0:
+                word = word.substring(0, i) + (char) ('a' + random.nextInt(26)) + word.substring(i + 1);
+                break;
+            case 1:
+                word = word.substring(0, i) + word.substring(i + 1);
+                break;
+            default:
+                word = word.substring(0, i) + word.charAt(i + 1) + word.charAt(i) + word.substring(i + 2);
+        }
+        words[w] = word;
+        return String.join(" ", words);
+    }
+
+    /**
+     * @return number of names that have a word close to every word of the query, the same rule as FuzzyIndex
+     */
+    private static int scanMatches(String[] names, String query) {
+        List<String> queryWords = new ArrayList<>(new LinkedHashSet<>(FuzzyIndex.words(query)));
+        int matches = 0;
+        for (String name : names) {
+            List<String> nameWords = FuzzyIndex.words(name);
+            boolean all = true;
+            for (String q : queryWords) {
+                int max = q.length() <= FuzzyIndex.SHORT_WORD ? 1 : 2;
+                boolean close = false;
+                for (String w : nameWords) {
+                    if (FuzzyIndex.distance(q, w) <= max) {
+                        close = true;
+                        break;
+                    }
+                }
+                if (!close) {
+                    all = false;
+                    break;
+                }
+            }
+            if (all) matches++;
+        }
+        return matches;
+    }
+
+    /**
+     * Loads the same 30,000 customers and orders into Customers and Orders kept on the heap, then off the heap,
+     * and runs order updates with a walk over a snapshot (like a save) every 10,000 updates.
+     * Reports heap and direct memory after loading, time, allocation and GC activity of the updates,
+     * and how long a full GC takes with the data loaded
+     *
+     * @param count number of orders
+     */
+    private static void offHeap(int count) {
+        final int edits = 200_000;
+        final int saveEvery = 10_000;
+        File dir = menuDirectory();
+        if (dir == null) return;
+        List<Order> source = generateOrders(count, 30_000);
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new OutputStream() { //Loading an empty file prints a warning
+            @Override
+            public void write(int b) { }
+        }));
+        long[][] results = new long[2][];
+        try {
+            for (int mode = 0; mode < 2; mode++) {
+                boolean offHeap = mode == 1;
+                long heapBase = usedHeap();
+                long directBase = LoadGenerator.usedDirectMemory();
+                Customers customers = new Customers(new File(dir, "customers.dat").getPath(), new FileCustomerRepository(), offHeap);
+                SetMenus setMenus = new SetMenus(new File(dir, "menu.csv").getPath());
+                Orders orders = new Orders(new File(dir, "orders.dat").getPath(), new FileOrderRepository(), offHeap);
+                orders.attach(customers, setMenus);
+                String prefixes = "CGK";
+                for (int i = 0; i < DirectIndex.CUSTOMER_SLOTS; i++) {
+                    customers.tryAdd(new Customer(prefixes.charAt(i / 10_000) + String.format("%04d", i % 10_000),
+                            "Customer " + i, String.format("09%08d", i), "c" + i + "@mail.com"));
+                }
+                for (Order o : source) {
+                    //Orders read from file each have their own copies of the strings and Date
+                    orders.tryAdd(new Order(new String(o.getOrderCode()), new String(o.getCustomerId()),
+                            new String(o.getMenuId()), o.getNumOfTables(), new Date(o.getEventDate().getTime())));
+                }
+                long heap = usedHeap() - heapBase;
+                long direct = LoadGenerator.usedDirectMemory() - directBase;
+
+                long[] stats = measure(() -> {
+                    Random random = new Random(11);
+                    long tables = 0, walkNanos = 0;
+                    for (int e = 1; e <= edits; e++) {
+                        Order o = source.get(random.nextInt(count));
+                        orders.tryUpdate(new Order(o.getOrderCode(), o.getCustomerId(), o.getMenuId(),
+                                1 + random.nextInt(100), o.getEventDate()));
+                        if (e % saveEvery == 0) {
+                            long t = System.nanoTime();
+                            for (Order s : orders.snapshot()) tables += s.getNumOfTables();
+                            walkNanos += System.nanoTime() - t;
+                        }
+                    }
+                    return walkNanos;
+                });
+                long t = System.nanoTime();
+                System.gc();
+                long fullGc = System.nanoTime() - t;
+                results[mode] = new long[]{heap, direct, stats[0], stats[1], stats[2], stats[3], stats[4], fullGc, orders.size()};
+            }
+        } finally {
+            System.setOut(console);
+        }
+
+        System.out.printf("Customers: %,d, orders: %,d, updates: %,d, snapshot walks: %d%n",
+                DirectIndex.CUSTOMER_SLOTS, results[0][8], edits, edits / saveEvery);
+        System.out.printf("%-10s %9s %10s %10s %9s %13s %6s %8s %11s%n",
+                "", "heap MB", "direct MB", "total ms", "walk ms", "allocated MB", "GCs", "GC ms", "full GC ms");
+        String[] names = {"Heap", "Off-heap"};
+        for (int i = 0; i < 2; i++) {
+            long[] r = results[i];
+            System.out.printf("%-10s %9d %10d %10d %9d %13d %6d %8d %11.1f%n", names[i], r[0] >> 20, r[1] >> 20,
+                    r[2] / 1_000_000, r[3] / 1_000_000, r[4] >> 20, r[5], r[6], r[7] / 1e6);
+        }
+        deleteDirectory(dir);
+    }
+
+    /**
+     * Stores the same orders with the whole-file FileOrderRepository and with LsmOrderRepository and measures
+     * the first save of all orders, a load of all orders, persisting one updated order (the file is written again,
+     * the tree appends to its log) and reading single orders from disk (the file must be loaded, the tree reads one block)
+     *
+     * @param count number of orders
+     */
+    private static void lsm(int count) {
+        final int fileUpdates = 20;
+        final int lsmUpdates = 20_000;
+        final int reads = 20_000;
+        File dir;
+        try {
+            dir = Files.createTempDirectory("benchmark").toFile();
+        } catch (IOException e) {
+            System.err.println("Cannot create benchmark files. Error: " + e.getMessage());
+            return;
+        }
+        String filePath = new File(dir, "orders.dat").getPath();
+        String lsmPath = new File(dir, "orders.lsm").getPath();
+        List<Order> source = generateOrders(count, 30_000);
+        long[][] results = new long[2][];
+
+        //Whole file
+        FileOrderRepository fileRepo = new FileOrderRepository();
+        List<Order> fileOrders = new ArrayList<>(source);
+        long t = System.nanoTime();
+        fileRepo.save(filePath, fileOrders);
+        long save = System.nanoTime() - t;
+        t = System.nanoTime();
+        int loaded = fileRepo.load(filePath).size();
+        long load = System.nanoTime() - t;
+        Random random = new Random(7);
+        t = System.nanoTime();
+        for (int u = 0; u < fileUpdates; u++) {
+            int i = random.nextInt(count);
+            fileOrders.set(i, changedTables(fileOrders.get(i), random));
+            fileRepo.save(filePath, fileOrders);
+        }
+        long update = (System.nanoTime() - t) / fileUpdates;
+        //Reading one order means loading the file
+        results[0] = new long[]{save, load, update, load, load, new File(filePath).length(), loaded};
+
+        //LSM tree
+        LsmOrderRepository lsmRepo = new LsmOrderRepository();
+        t = System.nanoTime();
+        lsmRepo.saveAll(lsmPath, source);
+        save = System.nanoTime() - t;
+        closeQuietly(lsmRepo);
+        lsmRepo = new LsmOrderRepository();
+        t = System.nanoTime();
+        loaded = lsmRepo.load(lsmPath).size();
+        load = System.nanoTime() - t;
+        random = new Random(7);
+        t = System.nanoTime();
+        for (int u = 0; u < lsmUpdates; u++) {
+            Order o = source.get(random.nextInt(count));
+            lsmRepo.saveAll(lsmPath, Collections.singletonList(changedTables(o, random)));
+        }
+        update = (System.nanoTime() - t) / lsmUpdates;
+        closeQuietly(lsmRepo);
+
+        t = System.nanoTime();
+        LsmTree tree = new LsmTree(lsmPath);
+        long open = System.nanoTime() - t;
+        random = new Random(3);
+        long tables = 0;
+        t = System.nanoTime();
+        for (int r = 0; r < reads; r++) {
+            byte[] bytes = tree.get(OrderCodeCodec.pack(source.get(random.nextInt(count)).getOrderCode()));
+            Order o = FileUtils.fromBytes(bytes);
+            tables += o.getNumOfTables();
+        }
+        long read = (System.nanoTime() - t) / reads;
+        results[1] = new long[]{save, load, update, open, read, tree.diskBytes(), loaded};
+        System.out.printf("LSM tree after the updates: %d table files, checksum %d%n", tree.tableCount(), tables);
+        closeQuietly(tree);
+
+        System.out.printf("Orders: %,d, persisted updates: %,d (file) and %,d (LSM), point reads: %,d%n",
+                count, fileUpdates, lsmUpdates, reads);
+        System.out.printf("%-10s %12s %10s %15s %12s %14s %10s %10s%n",
+                "", "first save ms", "load ms", "update+save us", "open ms", "point read us", "disk MB", "loaded");
+        String[] names = {"File", "LSM tree"};
+        for (int i = 0; i < 2; i++) {
+            long[] r = results[i];
+            System.out.printf("%-10s %12d %10d %15.1f %12d %14.1f %10.1f %,10d%n", names[i], r[0] / 1_000_000, r[1] / 1_000_000,
+                    r[2] / 1e3, r[3] / 1_000_000, r[4] / 1e3, r[5] / 1048576.0, r[6]);
+        }
+        deleteDirectory(dir);
+    }
+
+    /**
+     * Stores the same orders with the whole-file FileOrderRepository and with JdbcOrderRepository and measures
+     * the first save of all orders, a load of all orders, persisting one updated order (the file is written again,
+     * the database runs one transaction), a full save with one changed order (the database writes only that row)
+     * and the selective reads: the orders of one customer and the orders of one event week (the file must be loaded
+     * and filtered, the database reads the rows through an index)
+     *
+     * @param count number of orders
+     * @param url   JDBC URL of the database, null for an H2 database in the temporary directory
+     */
+    private static void sql(int count, String url) {
+        final int fileUpdates = 20;
+        final int sqlUpdates = 5_000;
+        final int fileQueries = 5;
+        final int sqlQueries = 5_000;
+        File dir;
+        try {
+            dir = Files.createTempDirectory("benchmark").toFile();
+        } catch (IOException e) {
+            System.err.println("Cannot create benchmark files. Error: " + e.getMessage());
+            return;
+        }
+        if (url == null) url = "jdbc:h2:file:" + dir.getPath().replace('\\', '/') + "/bench";
+        String filePath = new File(dir, "orders.dat").getPath();
+        String sqlPath = new File(dir, "orders").getPath();
+        JdbcOrderRepository sqlRepo = new JdbcOrderRepository(url);
+        if (!sqlRepo.exists(sqlPath)) {
+            System.err.println("Put the JDBC driver of " + url + " on the class path, e.g. java -cp out:h2.jar dispatcher.Benchmark sql");
+            deleteDirectory(dir);
+            return;
+        }
+        List<Order> source = generateOrders(count, 30_000);
+        long[][] results = new long[2][];
+
+        //Whole file
+        FileOrderRepository fileRepo = new FileOrderRepository();
+        List<Order> fileOrders = new ArrayList<>(source);
+        long t = System.nanoTime();
+        fileRepo.save(filePath, fileOrders);
+        long save = System.nanoTime() - t;
+        t = System.nanoTime();
+        int loaded = fileRepo.load(filePath).size();
+        long load = System.nanoTime() - t;
+        Random random = new Random(7);
+        t = System.nanoTime();
+        for (int u = 0; u < fileUpdates; u++) {
+            int i = random.nextInt(count);
+            fileOrders.set(i, changedTables(fileOrders.get(i), random));
+            fileRepo.save(filePath, fileOrders);
+        }
+        long update = (System.nanoTime() - t) / fileUpdates;
+        long[] lookups = lookups(fileRepo, filePath, source, fileQueries);
+        //A full save of the file is the same rewrite as persisting one update
+        results[0] = new long[]{save, load, update, update, lookups[0], lookups[1], new File(filePath).length(), loaded, lookups[2]};
+
+        //SQL table
+        t = System.nanoTime();
+        sqlRepo.save(sqlPath, source);
+        save = System.nanoTime() - t;
+        closeQuietly(sqlRepo);
+        sqlRepo = new JdbcOrderRepository(url);
+        t = System.nanoTime();
+        loaded = sqlRepo.load(sqlPath).size();
+        load = System.nanoTime() - t;
+        random = new Random(7);
+        t = System.nanoTime();
+        for (int u = 0; u < sqlUpdates; u++) {
+            Order o = source.get(random.nextInt(count));
+            sqlRepo.saveAll(sqlPath, Collections.singletonList(changedTables(o, random)));
+        }
+        update = (System.nanoTime() - t) / sqlUpdates;
+        //A full save with one changed order compares all rows and writes one
+        List<Order> current = sqlRepo.load(sqlPath).values();
+        current.set(0, changedTables(current.get(0), random));
+        t = System.nanoTime();
+        sqlRepo.save(sqlPath, current);
+        long fullSave = System.nanoTime() - t;
+        lookups = lookups(sqlRepo, sqlPath, source, sqlQueries);
+        closeQuietly(sqlRepo);
+        long disk = 0;
+        for (File f : Objects.requireNonNull(dir.listFiles())) {
+            if (!f.getPath().equals(filePath)) disk += f.length();
+        }
+        results[1] = new long[]{save, load, update, fullSave, lookups[0], lookups[1], disk, loaded, lookups[2]};
+
+        System.out.printf("Orders: %,d, database: %s, persisted updates: %,d (file) and %,d (SQL), queries: %,d and %,d%n",
+                count, url, fileUpdates, sqlUpdates, fileQueries, sqlQueries);
+        System.out.printf("%-10s %12s %10s %15s %12s %14s %12s %10s %10s %10s%n", "", "first save ms", "load ms",
+                "update+save us", "full save ms", "by customer us", "by week us", "disk MB", "loaded", "found");
+        String[] names = {"File", "SQL"};
+        for (int i = 0; i < 2; i++) {
+            long[] r = results[i];
+            System.out.printf("%-10s %12d %10d %15.1f %12d %14.1f %12.1f %10.1f %,10d %,10d%n", names[i], r[0] / 1_000_000,
+                    r[1] / 1_000_000, r[2] / 1e3, r[3] / 1_000_000, r[4] / 1e3, r[5] / 1e3, r[6] / 1048576.0, r[7], r[8]);
+        }
+        deleteDirectory(dir);
+    }
+
+    /**
+     * Looks up the orders of random customers and of random event weeks, the same ones for every repository
+     *
+     * @return average time of a customer lookup and of a week lookup in nanoseconds, and the number of orders found
+     */
+    private static long[] lookups(OrderRepository repo, String location, List<Order> source, int queries) {
+        Random random = new Random(11);
+        long found = 0;
+        long t = System.nanoTime();
+        for (int q = 0; q < queries; q++) {
+            found += repo.findByCustomer(location, source.get(random.nextInt(source.size())).getCustomerId()).size();
+        }
+        long byCustomer = (System.nanoTime() - t) / queries;
+        t = System.nanoTime();
+        for (int q = 0; q < queries; q++) {
+            Date from = source.get(random.nextInt(source.size())).getEventDate();
+            found += repo.findBetween(location, from, new Date(from.getTime() + 7 * 86_400_000L)).size();
+        }
+        long byWeek = (System.nanoTime() - t) / queries;
+        return new long[]{byCustomer, byWeek, found / queries};
+    }
+
+    private static Order changedTables(Order o, Random random) {
+        return new Order(o.getOrderCode(), o.getCustomerId(), o.getMenuId(), 1 + random.nextInt(100), o.getEventDate());
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close. Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates a temporary directory with a menu.csv of 6 set menus, PW001 to PW006
+     *
+     * @return the directory, null if it cannot be created
+     */
+    private static File menuDirectory() {
+        try {
+            File dir = Files.createTempDirectory("benchmark").toFile();
+            try (PrintWriter pw = new PrintWriter(new File(dir, "menu.csv"), "UTF-8")) {
+                pw.println("Code,Name,Price,Ingredients");
+                for (int i = 1; i <= 6; i++) pw.println("PW00" + i + ",Menu " + i + "," + (1_000_000 * i) + ",\"Dish\"");
+            }
+            return dir;
+        } catch (IOException e) {
+            System.err.println("Cannot create benchmark files. Error: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void deleteDirectory(File dir) {
+        for (File f : Objects.requireNonNull(dir.listFiles())) {
+            if (f.isDirectory()) deleteDirectory(f);
+            else f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * Runs a task for every index from several threads, each thread takes a slice, and waits until all are done
+     */
+    private static void runClients(ExecutorService pool, int clients, int count, java.util.function.IntConsumer task) {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            int from = (int) ((long) count * c / clients), to = (int) ((long) count * (c + 1) / clients);
+            futures.add(pool.submit(() -> {
+                for (int i = from; i < to; i++) task.accept(i);
+            }));
+        }
+        try {
+            for (Future<?> f : futures) f.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return total nanoseconds, p50 and p99 latency in nanoseconds, number of stored orders
+     */
+    private static long[] summarize(long total, long[] latency, int stored) {
+        long[] sorted = latency.clone();
+        Arrays.sort(sorted);
+        return new long[]{total, sorted[sorted.length / 2], sorted[(int) (sorted.length * 0.99)], stored};
+    }
+
+    private static void printStats(String name, long[] stats) {
+        System.out.printf("%-26s %10d %12.2f %16d %10d %10d%n",
+                name, stats[0] / 1_000_000, stats[1] / 1e6, stats[2] >> 20, stats[3], stats[4]);
+    }
+
+    /**
+     * Runs a task and measures it
+     *
+     * @param task returns the nanoseconds it spent in the step it wants reported
+     * @return total nanoseconds, reported nanoseconds, allocated bytes, GC count, GC milliseconds
+     */
+    private static long[] measure(java.util.function.LongSupplier task) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        usedHeap();
+        long gcCount = 0, gcTime = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount -= gc.getCollectionCount();
+            gcTime -= gc.getCollectionTime();
+        }
+        long allocated = threads.getThreadAllocatedBytes(tid);
+        long t0 = System.nanoTime();
+        long reported = task.getAsLong();
+        long total = System.nanoTime() - t0;
+        allocated = threads.getThreadAllocatedBytes(tid) - allocated;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += gc.getCollectionCount();
+            gcTime += gc.getCollectionTime();
+        }
+        return new long[]{total, reported, allocated, gcCount, gcTime};
+    }
+
+    /**
+     * Generates orders with valid IDs, spread over the next two years
+     *
+     * @param count     number of orders
+     * @param customers number of distinct customers
+     * @return list of orders
+     */
+    static List<Order> generateOrders(int count, int customers) {
+        Random random = new Random(42);
+        String prefixes = "CGK";
+        long today = System.currentTimeMillis();
+        List<Order> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int c = random.nextInt(customers);
+            String customerId = prefixes.charAt(c % 3) + String.format("%04d", c % 10_000);
+            String menuId = String.format("PW%03d", 1 + random.nextInt(6));
+            Date date = new Date(today + random.nextInt(730) * 86_400_000L);
+            Order o = new Order(customerId, menuId, 1 + random.nextInt(100), date);
+            o.setOrderCode(String.format("ORD-%08X", i));
+            list.add(o);
+        }
+        return list;
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
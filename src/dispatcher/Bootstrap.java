@@ -0,0 +1,121 @@
+package dispatcher;
+
+import business.Customers;
+import business.Orders;
+import business.SetMenus;
+import repository.CustomerRepository;
+import repository.OrderArchive;
+import repository.OrderRepository;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Loads customers, set menus and orders at the same time, each on its own thread,
+ * so start up takes as long as the slowest file instead of the sum of the three.
+ * Orders are linked to customers and menus only after all three sources are loaded.
+ */
+public class Bootstrap {
+    private Customers customers;
+    private SetMenus setMenus;
+    private Orders orders;
+
+    public Customers getCustomers() { return customers; }
+    public SetMenus getSetMenus() { return setMenus; }
+    public Orders getOrders() { return orders; }
+
+    /**
+     * Loads the three data sources in parallel and prints the load time of each one
+     *
+     * @param customerPath customer data file
+     * @param customerRepo repository used to load and save customers
+     * @param menuPath     set menu csv file
+     * @param orderPath    order data file or directory, depends on the repository
+     * @param orderRepo    repository used to load and save orders
+     * @param archivePath  order archive file, null to not use an archive
+     * @return true if all sources were loaded, false if a loader failed
+     */
+    public boolean load(String customerPath, CustomerRepository customerRepo, String menuPath, String orderPath, OrderRepository orderRepo, String archivePath) {
+        return load(customerPath, customerRepo, menuPath, orderPath, orderRepo, archivePath, false);
+    }
+
+    /**
+     * Loads the three data sources in parallel, with customers and orders kept on or off the heap
+     *
+     * @param offHeap true to keep customers and orders outside the heap, see {@link tools.OffHeapStore}
+     * @return true if all sources were loaded, false if a loader failed
+     * @see #load(String, CustomerRepository, String, String, OrderRepository, String)
+     */
+    public boolean load(String customerPath, CustomerRepository customerRepo, String menuPath, String orderPath, OrderRepository orderRepo,
+                        String archivePath, boolean offHeap) {
+        return load(customerPath, customerRepo, menuPath, orderPath, orderRepo, archivePath, offHeap, 0);
+    }
+
+    /**
+     * Loads the three data sources in parallel, with customers and orders kept on or off the heap or on disk with a cache
+     *
+     * @param offHeap      true to keep customers and orders outside the heap, see {@link tools.OffHeapStore}
+     * @param cacheEntries more than 0 to keep customers and orders on disk, each with a cache of this many entries,
+     *                     see {@link tools.CachedStore}
+     * @return true if all sources were loaded, false if a loader failed
+     * @see #load(String, CustomerRepository, String, String, OrderRepository, String)
+     */
+    public boolean load(String customerPath, CustomerRepository customerRepo, String menuPath, String orderPath, OrderRepository orderRepo,
+                        String archivePath, boolean offHeap, int cacheEntries) {
+        ExecutorService executor = Executors.newFixedThreadPool(3, r -> {
+            Thread t = new Thread(r, "loader");
+            t.setDaemon(true);
+            return t;
+        });
+        long start = System.nanoTime();
+        try {
+            Future<Customers> customerTask = executor.submit(timed("Customers", () -> new Customers(customerPath, customerRepo, offHeap, cacheEntries)));
+            Future<SetMenus> menuTask = executor.submit(timed("Set menus", () -> new SetMenus(menuPath)));
+            Future<Orders> orderTask = executor.submit(timed("Orders", () -> {
+                Orders o = new Orders(orderPath, orderRepo, offHeap, cacheEntries);
+                if (archivePath != null) o.useArchive(new OrderArchive(archivePath));
+                return o;
+            }));
+
+            this.customers = customerTask.get();
+            this.setMenus = menuTask.get();
+            this.orders = orderTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Loading data was interrupted.");
+            return false;
+        } catch (ExecutionException e) {
+            System.err.println("Failed to load data. Error: " + e.getCause());
+            return false;
+        } finally {
+            executor.shutdown();
+        }
+
+        long linkStart = System.nanoTime();
+        List<String> broken = orders.attach(customers, setMenus);
+        long end = System.nanoTime();
+        System.out.printf("Checked %d orders in %d ms, total start up %d ms%n",
+                orders.size(), (end - linkStart) / 1_000_000, (end - start) / 1_000_000);
+        if (!broken.isEmpty()) {
+            System.err.println("Warning: " + broken.size() + " orders refer to a missing customer or menu: " + broken);
+        }
+        return true;
+    }
+
+    /**
+     * Wraps a loader so that it prints how long it took
+     *
+     * @param name   name of the data source
+     * @param loader the loader
+     * @param <T>    type of the loaded data
+     * @return a loader that measures itself
+     */
+    private static <T> Callable<T> timed(String name, Callable<T> loader) {
+        return () -> {
+            long t0 = System.nanoTime();
+            T result = loader.call();
+            System.out.printf("Loaded %s in %d ms%n", name, (System.nanoTime() - t0) / 1_000_000);
+            return result;
+        };
+    }
+}
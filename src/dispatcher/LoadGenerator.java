@@ -0,0 +1,427 @@
+package dispatcher;
+
+import business.AsyncStore;
+import business.Customers;
+import business.Orders;
+import business.SetMenus;
+import model.Customer;
+import model.Order;
+import model.SetMenu;
+import repository.FileCustomerRepository;
+import repository.PartitionedOrderRepository;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+/**
+ * Runs a peak season workload against Customers, SetMenus and Orders to see how much load they take,
+ * run separately from the console application. See {@link Workload} for what is generated.
+ *
+ * Several client threads send the operations through {@link AsyncStore} at the times of the workload
+ * (open loop), so a slow store makes requests wait instead of lowering the load. Latency is measured from
+ * the planned time of each operation, so it includes the time spent waiting behind earlier operations.
+ * The report gives throughput, latency percentiles per operation, heap and direct memory growth and GC time.
+ *
+ * Usage: java dispatcher.LoadGenerator [options]
+ *   --menu file        set menu catalog, default ./data/FeastMenu.csv
+ *   --data dir         directory of the customer and order files, default a temporary directory deleted at the end
+ *   --ops n            number of operations, default 100000
+ *   --customers n      number of customers registered during the run, default 5000, at most 30000
+ *   --rate n           average operations per second, 0 for as fast as possible, default 2000
+ *   --threads n        client threads, default 8
+ *   --save-every n     save customers and orders every n operations, 0 for no saves, default 5000
+ *   --seed n           random seed, default 42
+ *   --store kind       where customers and orders are kept: heap (objects), off-heap (see OffHeapStore)
+ *                      or cached (on disk with a cache, see CachedStore), default heap
+ *   --cache-entries n  customers and orders in each cache of the cached store, default 1000
+ *   --trace file       write the generated workload to a trace file
+ *   --replay file      run the workload of a trace file instead of generating one,
+ *                      --rate changes its pace, --ops, --customers, --save-every and --seed are not used
+ * Run with a large enough heap for the number of operations, e.g. -Xmx1g for 1,000,000.
+ * @author mymym
+ */
+public class LoadGenerator {
+    private static final int WINDOW_PER_THREAD = 64;    // Operations a client thread may have waiting
+    private static final long HEAP_SAMPLE_MILLIS = 100;
+    private static final long MAX_SPIN_NANOS = 50_000;
+
+    private final Map<String, String> options;
+    private final Customers customers;
+    private final SetMenus setMenus;
+    private final Orders orders;
+
+    private LoadGenerator(Map<String, String> options, Customers customers, SetMenus setMenus, Orders orders) {
+        this.options = options;
+        this.customers = customers;
+        this.setMenus = setMenus;
+        this.orders = orders;
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options;
+        try {
+            options = parseOptions(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        File dataDir;
+        boolean temporary = !options.containsKey("data");
+        try {
+            dataDir = temporary ? Files.createTempDirectory("load").toFile() : new File(options.get("data"));
+        } catch (IOException e) {
+            System.err.println("Cannot create data directory. Error: " + e.getMessage());
+            return;
+        }
+        if (!dataDir.exists() && !dataDir.mkdirs()) {
+            System.err.println("Failed to create data directory: " + dataDir.getAbsolutePath());
+            return;
+        }
+
+        Bootstrap bootstrap = new Bootstrap();
+        if (!bootstrap.load(new File(dataDir, "customers.dat").getPath(), new FileCustomerRepository(),
+                options.getOrDefault("menu", "./data/FeastMenu.csv"), new File(dataDir, "orders").getPath(),
+                new PartitionedOrderRepository(), null, options.getOrDefault("store", "heap").equals("off-heap"),
+                options.getOrDefault("store", "heap").equals("cached") ? Integer.parseInt(options.getOrDefault("cache-entries", "1000")) : 0)) {
+            return;
+        }
+        try {
+            new LoadGenerator(options, bootstrap.getCustomers(), bootstrap.getSetMenus(), bootstrap.getOrders()).run();
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Cannot use trace file. Error: " + e.getMessage());
+        } finally {
+            if (temporary) deleteRecursively(dataDir);
+        }
+    }
+
+    private void run() throws IOException {
+        int threads = intOption("threads", 8);
+        if (threads < 1) throw new IllegalArgumentException("--threads must be at least 1");
+        double rate = Double.parseDouble(options.getOrDefault("rate", "2000"));
+
+        Workload workload;
+        if (options.containsKey("replay")) {
+            workload = Workload.read(options.get("replay"));
+            if (options.containsKey("rate")) workload = workload.withRate(rate);
+            System.out.printf("Replaying %,d operations from %s%n", workload.getOps().size(), options.get("replay"));
+        } else {
+            //Catalog order is the popularity order: the first menus are booked most
+            List<String> menuIds = setMenus.stream().map(SetMenu::getMenuId).sorted().collect(Collectors.toList());
+            int count = intOption("ops", 100_000);
+            int customerCount = intOption("customers", 5_000);
+            int saveEvery = intOption("save-every", 5_000);
+            long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+            workload = Workload.generate(menuIds, count, customerCount, rate, saveEvery, seed);
+            if (options.containsKey("trace")) {
+                workload.write(options.get("trace"), String.format("seed=%d ops=%d customers=%d rate=%s save-every=%d menus=%s",
+                        seed, count, customerCount, options.getOrDefault("rate", "2000"), saveEvery, menuIds));
+                System.out.println("Workload written to " + options.get("trace"));
+            }
+        }
+        if (workload.getOps().isEmpty()) throw new IllegalArgumentException("The workload has no operations");
+
+        int customersBefore = customers.size(), ordersBefore = orders.size();
+        long heapBefore = usedHeapAfterGc();
+        long directBefore = usedDirectMemory();
+        long[] gcBefore = gcTotals();
+        Result result;
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new OutputStream() { //Saves print a line each time
+            @Override
+            public void write(int b) { }
+        }));
+        try {
+            result = execute(workload.getOps(), threads, workload.duration() > 0);
+        } finally {
+            System.setOut(console);
+        }
+        long[] gcAfter = gcTotals();
+        long heapAfter = usedHeapAfterGc();
+
+        report(workload, threads, result);
+        int created = customers.size() - customersBefore + orders.size() - ordersBefore;
+        System.out.printf("Heap: before %,d KB, peak %,d KB, after %,d KB, retained growth %,d KB"
+                        + " for %,d new customers and orders (%,d bytes each)%n",
+                heapBefore >> 10, result.peakHeap >> 10, heapAfter >> 10, (heapAfter - heapBefore) >> 10,
+                created, created == 0 ? 0 : (heapAfter - heapBefore) / created);
+        System.out.printf("Direct memory: before %,d KB, after %,d KB%n", directBefore >> 10, usedDirectMemory() >> 10);
+        System.out.printf("GC: %,d collections, %,d ms%n", gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]);
+        System.out.printf("Stored: %,d customers, %,d orders%n", customers.size(), orders.size());
+        if (customers.cacheStats() != null) System.out.println("Customer cache: " + customers.cacheStats());
+        if (orders.cacheStats() != null) System.out.println("Order cache: " + orders.cacheStats());
+    }
+
+    /**
+     * Measurements of one run
+     */
+    private static final class Result {
+        long[] latency;         // Nanoseconds from the planned time to completion, per operation
+        boolean[] failed;       // Rejected, not found or threw
+        long elapsed;           // Nanoseconds from the start to the last completion
+        long maxLag;            // Largest delay in nanoseconds between the planned time and the sending of an operation
+        long peakHeap;
+    }
+
+    /**
+     * Sends every operation at its planned time from several threads and waits for all of them to complete
+     *
+     * @param paced false to send the operations as fast as possible and measure latency from the sending
+     */
+    private Result execute(List<Workload.Op> ops, int threads, boolean paced) {
+        ExecutorService io = AsyncStore.newIoExecutor(1);
+        AsyncStore<Customer> customerStore = AsyncStore.of(customers, io);
+        AsyncStore<SetMenu> menuStore = AsyncStore.of(setMenus, io);
+        AsyncStore<Order> orderStore = AsyncStore.of(orders, io);
+
+        Result result = new Result();
+        result.latency = new long[ops.size()];
+        result.failed = new boolean[ops.size()];
+        AtomicLong peakHeap = new AtomicLong();
+        AtomicLong maxLag = new AtomicLong();
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(ops.size());
+        Semaphore inFlight = new Semaphore(threads * WINDOW_PER_THREAD);
+
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "heap-sampler");
+            t.setDaemon(true);
+            return t;
+        });
+        sampler.scheduleAtFixedRate(() -> {
+            long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            peakHeap.accumulateAndGet(used, Math::max);
+        }, 0, HEAP_SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        AtomicLong lastDone = new AtomicLong(start);
+        List<Thread> clients = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread client = new Thread(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < ops.size()) {
+                    Workload.Op op = ops.get(i);
+                    long planned = start + op.getOffsetMicros() * 1000;
+                    waitUntil(planned);
+                    inFlight.acquireUninterruptibly();
+                    long sent = System.nanoTime();
+                    maxLag.accumulateAndGet(sent - planned, Math::max);
+                    int index = i;
+                    CompletableFuture<Boolean> f;
+                    try {
+                        f = send(op, customerStore, menuStore, orderStore);
+                    } catch (RuntimeException e) {
+                        f = new CompletableFuture<>();
+                        f.completeExceptionally(e);
+                    }
+                    f.whenComplete((ok, e) -> {
+                        long now = System.nanoTime();
+                        result.latency[index] = now - (paced ? planned : sent);
+                        result.failed[index] = e != null || !ok;
+                        lastDone.accumulateAndGet(now, Math::max);
+                        inFlight.release();
+                        done.countDown();
+                    });
+                }
+            }, "load-client-" + t);
+            clients.add(client);
+            client.start();
+        }
+        try {
+            done.await();
+            for (Thread client : clients) client.join();
+            customerStore.saveToFile().join();
+            orderStore.saveToFile().join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Load run was interrupted.");
+        } finally {
+            sampler.shutdown();
+            customerStore.close();
+            menuStore.close();
+            orderStore.close();
+            io.shutdown();
+        }
+        result.elapsed = lastDone.get() - start;
+        result.maxLag = maxLag.get();
+        result.peakHeap = peakHeap.get();
+        return result;
+    }
+
+    /**
+     * Sends one operation
+     *
+     * @return completes with false if the store rejected the change or the object was not found
+     */
+    private CompletableFuture<Boolean> send(Workload.Op op, AsyncStore<Customer> customerStore,
+                                            AsyncStore<SetMenu> menuStore, AsyncStore<Order> orderStore) {
+        switch (op.getType()) {
+            case REGISTER:
+                return customerStore.addNew(op.toCustomer()).thenApply(c -> true);
+            case UPDATE_CUSTOMER:
+                return customerStore.update(op.toCustomer()).thenApply(c -> true);
+            case BOOK:
+                return orderStore.addNew(op.toOrder()).thenApply(o -> true);
+            case RESCHEDULE:
+                return orderStore.update(op.toOrder()).thenApply(o -> true);
+            case FIND_CUSTOMER:
+                return customerStore.searchById(op.getKey()).thenApply(Objects::nonNull);
+            case FIND_ORDER:
+                return orderStore.searchById(op.getKey()).thenApply(Objects::nonNull);
+            case BROWSE_MENUS:
+                return menuStore.page(SetMenus.BY_PRICE, op.getPageOffset(), Workload.MENU_PAGE_SIZE).thenApply(page -> !page.isEmpty());
+            default:
+                return CompletableFuture.allOf(customerStore.saveToFile(), orderStore.saveToFile()).thenApply(v -> true);
+        }
+    }
+
+    private void report(Workload workload, int threads, Result result) {
+        List<Workload.Op> ops = workload.getOps();
+        double seconds = result.elapsed / 1e9;
+        long paced = workload.duration();
+        System.out.printf("Operations: %,d from %d client threads in %.1f s, %,.0f ops/s", ops.size(), threads, seconds, ops.size() / seconds);
+        if (paced > 0) System.out.printf(" (planned %,.0f ops/s)", ops.size() / (paced / 1e6));
+        System.out.println();
+        if (paced > 0) {
+            System.out.printf("Largest sending delay: %,d ms%s%n", result.maxLag / 1_000_000,
+                    result.maxLag > 1_000_000_000L ? " - the planned rate is more than the stores can take" : "");
+        }
+
+        System.out.printf("%-16s %9s %9s %9s %9s %9s %9s %9s%n", "Operation", "count", "failed", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us");
+        for (Workload.Type type : Workload.Type.values()) {
+            printRow(type.name(), ops, result, type);
+        }
+        printRow("ALL", ops, result, null);
+    }
+
+    private static void printRow(String name, List<Workload.Op> ops, Result result, Workload.Type type) {
+        long[] latency = new long[ops.size()];
+        int n = 0, failed = 0;
+        for (int i = 0; i < ops.size(); i++) {
+            if (type != null && ops.get(i).getType() != type) continue;
+            latency[n++] = result.latency[i];
+            if (result.failed[i]) failed++;
+        }
+        if (n == 0) return;
+        Arrays.sort(latency, 0, n);
+        System.out.printf("%-16s %,9d %,9d %,9d %,9d %,9d %,9d %,9d%n", name, n, failed,
+                percentile(latency, n, 0.50), percentile(latency, n, 0.90), percentile(latency, n, 0.99),
+                percentile(latency, n, 0.999), latency[n - 1] / 1000);
+    }
+
+    /**
+     * @return the percentile in microseconds of the first n sorted latencies
+     */
+    private static long percentile(long[] sorted, int n, double p) {
+        return sorted[Math.min(n - 1, (int) Math.ceil(n * p) - 1)] / 1000;
+    }
+
+    /**
+     * Sleeps until shortly before the time, then spins for precision
+     */
+    private static void waitUntil(long nanoTime) {
+        long left;
+        while ((left = nanoTime - System.nanoTime()) > 0) {
+            if (left > MAX_SPIN_NANOS) LockSupport.parkNanos(left - MAX_SPIN_NANOS);
+            else Thread.yield();
+        }
+    }
+
+    /**
+     * @return total number of collections and total collection time in milliseconds
+     */
+    private static long[] gcTotals() {
+        long count = 0, time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[]{count, time};
+    }
+
+    /**
+     * @return bytes of the direct buffers in use, where {@link tools.OffHeapStore} keeps its records
+     */
+    static long usedDirectMemory() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) return pool.getMemoryUsed();
+        }
+        return 0;
+    }
+
+    private static long usedHeapAfterGc() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private int intOption(String name, int defaultValue) {
+        String value = options.get(name);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--" + name + " needs a whole number, not \"" + value + "\"");
+        }
+    }
+
+    /**
+     * @return option name without the leading -- mapped to its value
+     * @throws IllegalArgumentException if an option is unknown or has no value
+     */
+    private static Map<String, String> parseOptions(String[] args) {
+        List<String> known = Arrays.asList("menu", "data", "ops", "customers", "rate", "threads", "save-every", "seed", "store",
+                "cache-entries", "trace", "replay");
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i].startsWith("--") ? args[i].substring(2) : "";
+            if (!known.contains(name)) throw new IllegalArgumentException("Unknown option \"" + args[i] + "\", use one of " + known);
+            if (i + 1 >= args.length) throw new IllegalArgumentException("Missing value for " + args[i]);
+            options.put(name, args[++i]);
+        }
+        if (options.containsKey("rate")) {
+            try {
+                if (Double.parseDouble(options.get("rate")) < 0) throw new NumberFormatException();
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("--rate needs a number of operations per second, 0 or more");
+            }
+        }
+        if (!Arrays.asList("heap", "off-heap", "cached").contains(options.getOrDefault("store", "heap"))) {
+            throw new IllegalArgumentException("--store must be heap, off-heap or cached");
+        }
+        if (options.containsKey("cache-entries") && !options.get("cache-entries").matches("[1-9]\\d{0,8}")) {
+            throw new IllegalArgumentException("--cache-entries needs a whole number, 1 or more");
+        }
+        return options;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) deleteRecursively(child);
+        }
+        file.delete();
+    }
+}
@@ -1,19 +1,131 @@
 package dispatcher;
 
+import business.Branches;
+import business.ChangeLog;
 import business.Customers;
+import business.OrderColumns;
 import business.Orders;
 import business.SetMenus;
+import model.Customer;
+import repository.ChangeLogFile;
+import repository.CustomerRepository;
+import repository.FileCustomerRepository;
+import repository.JdbcCustomerRepository;
+import repository.JdbcOrderRepository;
+import repository.LsmCustomerRepository;
+import repository.LsmOrderRepository;
+import repository.OrderRepository;
+import repository.PartitionedOrderRepository;
+import tools.CachedStore;
+import tools.DateUtils;
+import tools.FileUtils;
+import tools.LsmTree;
+import tools.OffHeapStore;
+import ui.BatchRunner;
 import ui.ConsoleUI;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
 
+/**
+ * Entry point
+ * Usage: Main                      interactive menu
+ *        Main --batch script.txt   run the commands of a script, see {@link BatchRunner}
+ *        Main --batch -            run commands read from standard input
+ *        Main --duplicates         list the customers that share a phone or an email
+ *        Main --compress ...       any of the above with customer and order data files saved compressed, see {@link FileUtils}.
+ *                                  Plain and compressed files are both read, a file changes format on its next save
+ *        Main --io-stats ...       any of the above printing the size, compression ratio and time of each compressed load and save
+ *        Main --off-heap ...       any of the above with customers and orders kept outside the heap, see {@link OffHeapStore}
+ *        Main --reports ...        any of the above keeping a column copy of the orders for the revenue and tables reports
+ *                                  of the list menu, see {@link OrderColumns}
+ *        Main --archive-past ...   any of the above moving the orders of past days to the archive at start up
+ *        Main --cache N ...        any of the above with customers and orders kept in record logs on disk, only the N most
+ *                                  used of each on the heap, see {@link CachedStore}. With --lsm or --sql they are read
+ *                                  from the trees or tables instead of a log. Cache statistics are printed at the end
+ *        Main --lsm ...            any of the above with customers and orders stored in log-structured merge trees in
+ *                                  customers.lsm and orders.lsm, changes are written at once, see {@link LsmTree}.
+ *                                  Existing data files are not migrated
+ *        Main --sql URL ...        any of the above with customers and orders stored in the tables customers and orders of an
+ *                                  embedded SQL database, changes are written at once. {dir} in the URL is the data directory,
+ *                                  e.g. jdbc:h2:file:{dir}/feast or jdbc:sqlite:{dir}/feast.db, the driver must be on the
+ *                                  class path. With --branch the URL must contain {dir}, so each branch has its own database.
+ *                                  Existing data files are not migrated
+ *        Main --branch ID [--branch-budget MB] ...
+ *                                  any of the above on the data of a branch in ./data/branches/ID, see {@link Branches}.
+ *                                  Batch scripts can switch branch, idle branches are saved and dropped over the budget.
+ *                                  As with one set of data, changes that were not saved are discarded at the end.
+ */
 public class Main {
-    private static final String CUSTOMER_FILE_PATH = "./data/customers.dat";
-    private static final String FEAST_MENU_CSV_PATH = "./data/FeastMenu.csv";
-    private static final String ORDER_FILE_PATH = "./data/orders.dat";
+    private static final String DATA_DIR = "./data";
+    private static final String BRANCH_ROOT_DIR = "./data/branches";
+    private static final String CUSTOMER_FILE = "customers.dat";
+    private static final String FEAST_MENU_CSV = "FeastMenu.csv"; //A branch without its own menu uses the one in ./data
+    private static final String ORDER_ARCHIVE_FILE = "orders-archive.dat";
+    private static final String ORDER_DATA_DIR = "orders"; //Partitioned by event month, migrates orders.dat
+    private static final String CUSTOMER_LSM_DIR = "customers.lsm";
+    private static final String ORDER_LSM_DIR = "orders.lsm";
+    private static final String CUSTOMER_TABLE = "customers";
+    private static final String ORDER_TABLE = "orders";
+    private static final String CHANGE_LOG_DIR = "changes"; //Events for downstream systems, see ChangeLog
+    private static final long DEFAULT_BRANCH_BUDGET_MB = 256;
+    private static final int CHANGE_LOG_CAPACITY = 4096;
+    private static final long CHANGE_LOG_FILE_BYTES = 4L * 1024 * 1024;
+    private static final int CHANGE_LOG_FILES = 8;
 
     public static void main(String[] args) {
-        File dataDir = new File("./data");
+        boolean offHeap = false;
+        boolean lsm = false;
+        boolean compress = false;
+        boolean archivePast = false;
+        boolean reports = false;
+        String sqlUrl = null;
+        String branchId = null;
+        long branchBudgetMb = DEFAULT_BRANCH_BUDGET_MB;
+        int cacheEntries = 0;
+        int first = 0;
+        try {
+            for (; first < args.length; first++) {
+                if (args[first].equals("--off-heap")) {
+                    offHeap = true;
+                } else if (args[first].equals("--compress")) {
+                    compress = true;
+                } else if (args[first].equals("--io-stats")) {
+                    FileUtils.setReportStats(true);
+                } else if (args[first].equals("--reports")) {
+                    reports = true;
+                } else if (args[first].equals("--archive-past")) {
+                    archivePast = true;
+                } else if (args[first].equals("--lsm")) {
+                    lsm = true;
+                } else if (args[first].equals("--sql") && first + 1 < args.length) {
+                    sqlUrl = args[++first];
+                } else if (args[first].equals("--branch") && first + 1 < args.length) {
+                    branchId = args[++first];
+                } else if (args[first].equals("--branch-budget") && first + 1 < args.length) {
+                    branchBudgetMb = Long.parseLong(args[++first]);
+                } else if (args[first].equals("--cache") && first + 1 < args.length) {
+                    cacheEntries = Integer.parseInt(args[++first]);
+                } else {
+                    break;
+                }
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number: " + args[first]);
+            return;
+        }
+        args = Arrays.copyOfRange(args, first, args.length);
+        if (branchId != null && sqlUrl != null && !sqlUrl.contains("{dir}")) {
+            //Every branch uses the tables customers and orders, they need a database each
+            System.err.println("With --branch the --sql URL must contain {dir}, e.g. jdbc:h2:file:{dir}/feast");
+            return;
+        }
+
+        File dataDir = new File(DATA_DIR);
         if (!dataDir.exists()) {
             if (!dataDir.mkdirs()) {
                 System.err.println("Failed to create data directory: " + dataDir.getAbsolutePath());
@@ -21,12 +133,188 @@ public class Main {
             }
         }
 
-        Customers customers = new Customers(CUSTOMER_FILE_PATH);
-        SetMenus setMenus = new SetMenus(FEAST_MENU_CSV_PATH);
-        Orders orders = new Orders(ORDER_FILE_PATH, customers, setMenus);
+        boolean useOffHeap = offHeap;
+        int useCacheEntries = cacheEntries;
+        boolean useLsm = lsm;
+        String useSqlUrl = sqlUrl;
+        boolean useCompress = compress;
+        boolean useArchivePast = archivePast;
+        boolean useReports = reports;
+        Branches branches = null;
+        Branches.Branch branch;
+        if (branchId == null) {
+            branch = openBranch("main", dataDir, useOffHeap, useCacheEntries, useLsm, useSqlUrl, useCompress, useArchivePast, useReports);
+        } else {
+            branches = new Branches(BRANCH_ROOT_DIR, branchBudgetMb * 1024 * 1024, (id, dir) -> openBranch(id, dir, useOffHeap, useCacheEntries, useLsm, useSqlUrl, useCompress, useArchivePast, useReports));
+            try {
+                branch = branches.acquire(branchId);
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                return;
+            }
+        }
+        if (branch == null) return;
+        Customers customers = branch.getCustomers();
+        SetMenus setMenus = branch.getSetMenus();
+        Orders orders = branch.getOrders();
+
+        if (args.length > 0 && args[0].equals("--batch")) {
+            BatchRunner runner = branches == null ? new BatchRunner(customers, orders) : new BatchRunner(branches, branch);
+            boolean ok = runner.run(args.length > 1 ? args[1] : "-");
+            printCacheStats(customers, orders);
+            close(branches, branches == null ? branch : runner.getBranch()); //The script may have switched branch
+            System.exit(ok ? 0 : 1);
+        }
+
+        if (args.length > 0 && args[0].equals("--duplicates")) {
+            printDuplicates(customers);
+        } else {
+            ConsoleUI consoleUI = new ConsoleUI(customers, setMenus, orders);
+            consoleUI.start();
+        }
+        close(branches, branch);
+    }
+
+    /**
+     * Loads the customers, set menus and orders of a data directory and connects them to a change log in it
+     *
+     * @param id           branch ID
+     * @param dir          data directory
+     * @param offHeap      true to keep customers and orders outside the heap
+     * @param cacheEntries more than 0 to keep customers and orders on disk with a cache of this many entries
+     * @param lsm          true to store customers and orders in LSM trees instead of data files
+     * @param sqlUrl       JDBC URL to store customers and orders in a SQL database instead, {dir} is replaced by the data directory;
+     *                     null to not use a database
+     * @param compress     true to save the data files compressed
+     * @param archivePast  true to move the orders of past days to the archive
+     * @param reports      true to keep a column mirror of the orders for the reports
+     * @return the branch, or null if it cannot be loaded
+     */
+    private static Branches.Branch openBranch(String id, File dir, boolean offHeap, int cacheEntries, boolean lsm, String sqlUrl,
+                                              boolean compress, boolean archivePast,
+                                              boolean reports) {
+        File menuFile = new File(dir, FEAST_MENU_CSV);
+        if (!menuFile.exists()) menuFile = new File(DATA_DIR, FEAST_MENU_CSV);
+        CustomerRepository customerRepo;
+        OrderRepository orderRepo;
+        String customerPath;
+        String orderPath;
+        Closeable stores = null;
+        if (sqlUrl != null) {
+            String url = sqlUrl.replace("{dir}", dir.getPath().replace('\\', '/'));
+            JdbcCustomerRepository sqlCustomers = new JdbcCustomerRepository(url);
+            JdbcOrderRepository sqlOrders = new JdbcOrderRepository(url);
+            customerPath = new File(dir, CUSTOMER_TABLE).getPath();
+            orderPath = new File(dir, ORDER_TABLE).getPath();
+            if (!sqlCustomers.exists(customerPath) || !sqlOrders.exists(orderPath)) {
+                sqlCustomers.close();
+                sqlOrders.close();
+                return null;
+            }
+            customerRepo = sqlCustomers;
+            orderRepo = sqlOrders;
+            stores = () -> {
+                sqlCustomers.close();
+                sqlOrders.close();
+            };
+        } else if (lsm) {
+            LsmCustomerRepository lsmCustomers = new LsmCustomerRepository();
+            LsmOrderRepository lsmOrders = new LsmOrderRepository();
+            customerPath = new File(dir, CUSTOMER_LSM_DIR).getPath();
+            orderPath = new File(dir, ORDER_LSM_DIR).getPath();
+            customerRepo = lsmCustomers;
+            orderRepo = lsmOrders;
+            stores = () -> {
+                lsmCustomers.close();
+                lsmOrders.close();
+            };
+        } else {
+            customerPath = new File(dir, CUSTOMER_FILE).getPath();
+            orderPath = new File(dir, ORDER_DATA_DIR).getPath();
+            customerRepo = new FileCustomerRepository(compress);
+            orderRepo = new PartitionedOrderRepository(null, compress);
+        }
+        Bootstrap bootstrap = new Bootstrap();
+        boolean loaded = bootstrap.load(customerPath, customerRepo, menuFile.getPath(), orderPath, orderRepo,
+                new File(dir, ORDER_ARCHIVE_FILE).getPath(), offHeap, cacheEntries);
+        if (!loaded) {
+            if (stores != null) {
+                try {
+                    stores.close();
+                } catch (IOException e) {
+                    System.err.println("Failed to close data stores. Error: " + e.getMessage());
+                }
+            }
+            return null;
+        }
+        Customers customers = bootstrap.getCustomers();
+        Orders orders = bootstrap.getOrders();
+        ChangeLogFile changeFile = new ChangeLogFile(new File(dir, CHANGE_LOG_DIR).getPath(), CHANGE_LOG_FILE_BYTES, CHANGE_LOG_FILES);
+        ChangeLog changeLog = new ChangeLog(CHANGE_LOG_CAPACITY, changeFile);
+        customers.setChangeLog(changeLog);
+        orders.setChangeLog(changeLog);
+        //Past events can't be updated, keep them out of memory. Today's events stay active
+        int archived = archivePast ? orders.archiveBefore(DateUtils.fromEpochDay(DateUtils.toEpochDay(new Date()))) : 0;
+        if (archived > 0) {
+            System.out.println(archived + " past orders moved to the archive. Save order data to remove them from the active file.");
+        }
+        if (reports) orders.enableColumnMirror(); //After archiving, so no rows are built for orders that move out
+        Closeable resources = changeFile;
+        if (stores != null) {
+            Closeable repositories = stores;
+            resources = () -> {
+                changeFile.close();
+                repositories.close();
+            };
+        }
+        return new Branches.Branch(id, dir, customers, bootstrap.getSetMenus(), orders, resources);
+    }
+
+    /**
+     * Prints the hit rate and evictions of the customer and order caches, if they are used
+     */
+    private static void printCacheStats(Customers customers, Orders orders) {
+        if (customers.cacheStats() != null) System.out.println("Customer cache: " + customers.cacheStats());
+        if (orders.cacheStats() != null) System.out.println("Order cache: " + orders.cacheStats());
+    }
+
+    /**
+     * Closes the change log and stores of the only branch if there is no registry, without saving.
+     * Otherwise releases the branch in use, drops every loaded branch without saving
+     * and prints how many loads and evictions there were
+     *
+     * @param branches the branch registry, null if only one branch is used
+     * @param branch   the branch in use, acquired from the registry if there is one
+     */
+    private static void close(Branches branches, Branches.Branch branch) {
+        if (branches == null) {
+            branch.close();
+            return;
+        }
+        branches.release(branch);
+        List<String> unsaved = branches.close();
+        System.out.printf("Branches: %d loads, %d evictions%n", branches.getLoads(), branches.getEvictions());
+        if (!unsaved.isEmpty()) System.out.println("Unsaved changes discarded in branches " + unsaved);
+    }
 
-        ConsoleUI consoleUI = new ConsoleUI(customers, setMenus, orders);
-        consoleUI.start();
+    /**
+     * Prints the groups of customers that are probably the same person, see {@link Customers#findDuplicates()}
+     *
+     * @param customers customer data
+     */
+    private static void printDuplicates(Customers customers) {
+        long t0 = System.nanoTime();
+        List<List<Customer>> groups = customers.findDuplicates();
+        long ms = (System.nanoTime() - t0) / 1_000_000;
+        int total = 0;
+        for (List<Customer> group : groups) total += group.size();
+        System.out.printf("Checked %d customers in %d ms: %d groups, %d customers share a phone or an email%n",
+                customers.size(), ms, groups.size(), total);
+        for (List<Customer> group : groups) {
+            System.out.println("----------------------------------------------------------------------");
+            for (Customer c : group) System.out.println(c);
+        }
+        if (!groups.isEmpty()) System.out.println("----------------------------------------------------------------------");
     }
 
 }
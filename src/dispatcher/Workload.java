@@ -0,0 +1,440 @@
+package dispatcher;
+
+import model.Customer;
+import model.Order;
+import tools.Acceptable;
+import tools.DateUtils;
+import tools.DirectIndex;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.*;
+
+/**
+ * A sequence of operations on the stores, generated or read from a trace file, used by {@link LoadGenerator}.
+ *
+ * Generated workloads look like the wedding season: customers registered with Vietnamese names, valid phones
+ * and emails, bookings against the real set menu catalog with event dates crowded into the peak months
+ * (October to February) and onto weekends, a few customers and menus booked much more often than others,
+ * and Poisson arrivals at a given average rate. Operations only refer to customers and orders created
+ * at least {@link #SETTLE_OPS} operations earlier, so they rarely overtake the change they depend on.
+ *
+ * Trace file: UTF-8 text, lines starting with # are comments, one operation per line with tab separated fields:
+ *   offset in microseconds from the start, operation type, then the fields of the operation:
+ *   REGISTER / UPDATE_CUSTOMER   id, name, phone, email
+ *   BOOK / RESCHEDULE            order code, customer id, menu id, tables, event date dd/MM/yyyy
+ *   FIND_CUSTOMER / FIND_ORDER   id or order code
+ *   BROWSE_MENUS                 offset of the page
+ *   SAVE                         (none)
+ * @author mymym
+ */
+public class Workload {
+    public enum Type { REGISTER, UPDATE_CUSTOMER, BOOK, RESCHEDULE, FIND_CUSTOMER, FIND_ORDER, BROWSE_MENUS, SAVE }
+
+    public static final int SETTLE_OPS = 256;
+    public static final int MENU_PAGE_SIZE = 5;
+
+    //Share of each operation type, in the order of Type, SAVE is added every saveEvery operations
+    private static final int[] MIX = {10, 3, 35, 7, 15, 20, 10};
+    //Share of events in each month, January first: wedding season is October to February
+    private static final int[] SEASON = {12, 7, 5, 4, 3, 3, 2, 4, 7, 14, 17, 22};
+    private static final double WEEKEND_SHARE = 0.65;
+
+    private static final String[][] FAMILY_NAMES = {
+            {"Nguyễn", "nguyen"}, {"Trần", "tran"}, {"Lê", "le"}, {"Phạm", "pham"}, {"Hoàng", "hoang"},
+            {"Huỳnh", "huynh"}, {"Phan", "phan"}, {"Vũ", "vu"}, {"Võ", "vo"}, {"Đặng", "dang"},
+            {"Bùi", "bui"}, {"Đỗ", "do"}, {"Hồ", "ho"}, {"Ngô", "ngo"}, {"Dương", "duong"}, {"Lý", "ly"}};
+    private static final int[] FAMILY_WEIGHTS = {380, 110, 95, 70, 51, 50, 45, 39, 39, 21, 20, 14, 13, 13, 10, 5};
+    private static final String[] MIDDLE_NAMES = {"Văn", "Thị", "Minh", "Ngọc", "Đức", "Thanh", "Hoài", "Quốc"};
+    private static final String[][] GIVEN_NAMES = {
+            {"An", "an"}, {"Bình", "binh"}, {"Chi", "chi"}, {"Dũng", "dung"}, {"Hà", "ha"}, {"Hạnh", "hanh"},
+            {"Hùng", "hung"}, {"Lan", "lan"}, {"Linh", "linh"}, {"Minh", "minh"}, {"Nam", "nam"}, {"Ngọc", "ngoc"},
+            {"Phương", "phuong"}, {"Quân", "quan"}, {"Thảo", "thao"}, {"Trang", "trang"}, {"Tuấn", "tuan"}, {"Vy", "vy"}};
+    private static final String[] MAIL_DOMAINS = {"gmail.com", "yahoo.com", "outlook.com", "fpt.edu.vn"};
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/uuuu").withResolverStyle(ResolverStyle.STRICT);
+    private static final String HEADER = "# LoadGenerator trace";
+
+    /**
+     * One operation
+     * Fields are parsed when the operation is created, so the objects can be built from any thread
+     */
+    public static final class Op {
+        private final long offsetMicros;
+        private final Type type;
+        private final String[] fields;
+        private final int tables;       // BOOK and RESCHEDULE only
+        private final int eventDay;     // BOOK and RESCHEDULE only, days since 01/01/1970
+        private final int pageOffset;   // BROWSE_MENUS only
+
+        /**
+         * @throws IllegalArgumentException if the fields do not fit the type
+         */
+        Op(long offsetMicros, Type type, String... fields) {
+            int expected;
+            switch (type) {
+                case REGISTER: case UPDATE_CUSTOMER: expected = 4; break;
+                case BOOK: case RESCHEDULE: expected = 5; break;
+                case SAVE: expected = 0; break;
+                default: expected = 1;
+            }
+            if (fields.length != expected) {
+                throw new IllegalArgumentException(type + " needs " + expected + " fields, found " + fields.length);
+            }
+            this.offsetMicros = offsetMicros;
+            this.type = type;
+            this.fields = fields;
+            try {
+                this.tables = type == Type.BOOK || type == Type.RESCHEDULE ? Integer.parseInt(fields[3]) : 0;
+                this.eventDay = type == Type.BOOK || type == Type.RESCHEDULE ? (int) LocalDate.parse(fields[4], DATE_FORMAT).toEpochDay() : 0;
+                this.pageOffset = type == Type.BROWSE_MENUS ? Integer.parseInt(fields[0]) : 0;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number in " + type + ": " + e.getMessage());
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid event date \"" + fields[4] + "\", use dd/MM/yyyy");
+            }
+        }
+
+        public long getOffsetMicros() { return offsetMicros; }
+        public Type getType() { return type; }
+
+        /**
+         * @return customer ID, order code or the empty string
+         */
+        public String getKey() {
+            return fields.length > 0 ? fields[0] : "";
+        }
+
+        public int getPageOffset() { return pageOffset; }
+
+        /**
+         * @return a new Customer for REGISTER and UPDATE_CUSTOMER, with its own copies of the strings like a customer read from file
+         */
+        public Customer toCustomer() {
+            return new Customer(new String(fields[0]), new String(fields[1]), new String(fields[2]), new String(fields[3]));
+        }
+
+        /**
+         * @return a new Order with the traced order code for BOOK and RESCHEDULE, with its own copies of the strings
+         */
+        public Order toOrder() {
+            Order o = new Order(new String(fields[1]), new String(fields[2]), tables, DateUtils.fromEpochDay(eventDay));
+            o.setOrderCode(new String(fields[0]));
+            return o;
+        }
+
+        private String toLine() {
+            StringBuilder sb = new StringBuilder().append(offsetMicros).append('\t').append(type);
+            for (String f : fields) sb.append('\t').append(f);
+            return sb.toString();
+        }
+    }
+
+    private final List<Op> ops;
+
+    private Workload(List<Op> ops) {
+        this.ops = ops;
+    }
+
+    public List<Op> getOps() {
+        return ops;
+    }
+
+    /**
+     * @return time of the last operation in microseconds, 0 if the operations are not paced
+     */
+    public long duration() {
+        return ops.isEmpty() ? 0 : ops.get(ops.size() - 1).offsetMicros;
+    }
+
+    /**
+     * Changes the pace of the operations, keeping their order and the shape of the arrivals
+     *
+     * @param rate average number of operations per second, 0 to run them all at once
+     * @return a workload with the same operations at the new rate
+     */
+    public Workload withRate(double rate) {
+        long duration = duration();
+        List<Op> result = new ArrayList<>(ops.size());
+        for (int i = 0; i < ops.size(); i++) {
+            Op op = ops.get(i);
+            long offset;
+            if (rate <= 0) offset = 0;
+            else if (duration == 0) offset = (long) (i * 1e6 / rate);  // Trace without pacing: even spacing
+            else offset = (long) (op.offsetMicros * (ops.size() / (duration / 1e6)) / rate);
+            result.add(new Op(offset, op.type, op.fields));
+        }
+        return new Workload(result);
+    }
+
+    /**
+     * @param random random source
+     * @return a Vietnamese full name, family names as common as they are in the population
+     */
+    static String randomName(Random random) {
+        return FAMILY_NAMES[pick(random, FAMILY_WEIGHTS)][0] + " " + MIDDLE_NAMES[random.nextInt(MIDDLE_NAMES.length)]
+                + " " + GIVEN_NAMES[random.nextInt(GIVEN_NAMES.length)][0];
+    }
+
+    /**
+     * @return index picked with a chance proportional to its weight
+     */
+    private static int pick(Random random, int[] weights) {
+        int total = 0;
+        for (int w : weights) total += w;
+        int r = random.nextInt(total);
+        for (int i = 0; i < weights.length; i++) {
+            r -= weights[i];
+            if (r < 0) return i;
+        }
+        return weights.length - 1;
+    }
+
+    /**
+     * Generates a peak season workload
+     *
+     * @param menuIds   IDs of the set menus that can be booked, most popular first
+     * @param count     number of operations
+     * @param customers number of customers to register, at most {@link DirectIndex#CUSTOMER_SLOTS}
+     * @param rate      average number of operations per second, 0 to run them all at once
+     * @param saveEvery number of operations between two saves, 0 for no saves
+     * @param seed      random seed, the same seed and parameters give the same workload
+     * @return the workload
+     * @throws IllegalArgumentException if the parameters are not valid
+     */
+    public static Workload generate(List<String> menuIds, int count, int customers, double rate, int saveEvery, long seed) {
+        if (menuIds.isEmpty()) throw new IllegalArgumentException("There are no set menus to book");
+        if (customers < 1 || customers > DirectIndex.CUSTOMER_SLOTS) {
+            throw new IllegalArgumentException("Number of customers must be between 1 and " + DirectIndex.CUSTOMER_SLOTS);
+        }
+        return new Generator(menuIds, customers, seed).run(count, rate, saveEvery);
+    }
+
+    /**
+     * Reads a trace file
+     *
+     * @param path the file
+     * @return the workload
+     * @throws IOException              if the file cannot be read
+     * @throws IllegalArgumentException if a line is not valid, the message has the line number
+     */
+    public static Workload read(String path) throws IOException {
+        List<Op> ops = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNo = 0;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] parts = line.split("\t", -1);
+                try {
+                    if (parts.length < 2) throw new IllegalArgumentException("Missing operation type");
+                    Type type;
+                    try {
+                        type = Type.valueOf(parts[1]);
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("Unknown operation \"" + parts[1] + "\"");
+                    }
+                    long offset;
+                    try {
+                        offset = Long.parseLong(parts[0]);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid offset \"" + parts[0] + "\"");
+                    }
+                    ops.add(new Op(offset, type, Arrays.copyOfRange(parts, 2, parts.length)));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Line " + lineNo + ": " + e.getMessage());
+                }
+            }
+        }
+        return new Workload(ops);
+    }
+
+    /**
+     * Writes the workload to a trace file that {@link #read(String)} can replay
+     *
+     * @param path    the file
+     * @param comment first comment line, describes how the workload was made
+     * @throws IOException if the file cannot be written
+     */
+    public void write(String path, String comment) throws IOException {
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8)))) {
+            pw.println(HEADER);
+            pw.println("# " + comment);
+            for (Op op : ops) pw.println(op.toLine());
+            if (pw.checkError()) throw new IOException("Failed to write " + path);
+        }
+    }
+
+    /**
+     * State of one generation run
+     */
+    private static final class Generator {
+        private final Random random;
+        private final List<String> menuIds;
+        private final List<String> freeIds;             // Customer IDs not used yet, in random order
+        private final int customers;
+        private final List<String[]> customerData = new ArrayList<>();  // Latest fields of each registered customer
+        private final List<Integer> customerSince = new ArrayList<>();  // Operation that registered the customer
+        private final List<String[]> orderData = new ArrayList<>();     // Latest fields of each booked order
+        private final List<Integer> orderSince = new ArrayList<>();
+        private final Set<String> usedPhones = new HashSet<>();
+        private final LocalDate today = LocalDate.now();
+        private final int codeSalt;
+        private int index;
+
+        Generator(List<String> menuIds, int customers, long seed) {
+            this.random = new Random(seed);
+            this.menuIds = menuIds;
+            this.customers = customers;
+            this.codeSalt = random.nextInt();
+            this.freeIds = new ArrayList<>(DirectIndex.CUSTOMER_SLOTS);
+            String prefixes = "CGK";
+            for (int i = 0; i < DirectIndex.CUSTOMER_SLOTS; i++) {
+                freeIds.add(prefixes.charAt(i / 10_000) + String.format("%04d", i % 10_000));
+            }
+            Collections.shuffle(freeIds, random);
+        }
+
+        Workload run(int count, double rate, int saveEvery) {
+            List<Op> ops = new ArrayList<>(count);
+            double offset = 0;
+            for (index = 0; index < count; index++) {
+                if (rate > 0) offset += -Math.log(1 - random.nextDouble()) * 1e6 / rate;
+                if (saveEvery > 0 && index > 0 && index % saveEvery == 0) {
+                    ops.add(new Op((long) offset, Type.SAVE));
+                } else {
+                    ops.add(next((long) offset));
+                }
+            }
+            return new Workload(ops);
+        }
+
+        private Op next(long offset) {
+            int settledCustomers = settled(customerSince);
+            int settledOrders = settled(orderSince);
+            int[] weights = MIX.clone();
+            if (customerData.size() >= customers) weights[Type.REGISTER.ordinal()] = 0;
+            if (settledCustomers == 0) {
+                weights[Type.UPDATE_CUSTOMER.ordinal()] = weights[Type.BOOK.ordinal()] = weights[Type.FIND_CUSTOMER.ordinal()] = 0;
+            }
+            if (settledOrders == 0) weights[Type.RESCHEDULE.ordinal()] = weights[Type.FIND_ORDER.ordinal()] = 0;
+            Type type = Type.values()[pick(weights)];
+
+            switch (type) {
+                case REGISTER: {
+                    String[] c = newCustomer(freeIds.get(customerData.size()));
+                    customerData.add(c);
+                    customerSince.add(index);
+                    return new Op(offset, type, c);
+                }
+                case UPDATE_CUSTOMER: {
+                    int i = skewed(settledCustomers, 2);
+                    String[] c = customerData.get(i).clone();
+                    c[2] = newPhone();
+                    customerData.set(i, c);
+                    return new Op(offset, type, c);
+                }
+                case BOOK: {
+                    String customerId = customerData.get(skewed(settledCustomers, 2))[0];
+                    String menuId = menuIds.get(skewed(menuIds.size(), 1.5));
+                    String code = String.format("ORD-%08X", (orderData.size() + 1) * 0x9E3779B1 ^ codeSalt); // Unique for 2^32 orders
+                    String[] o = {code, customerId, menuId, String.valueOf(newTables()), newEventDate().format(DATE_FORMAT)};
+                    orderData.add(o);
+                    orderSince.add(index);
+                    return new Op(offset, type, o);
+                }
+                case RESCHEDULE: {
+                    int i = settledOrders - 1 - skewed(settledOrders, 2);  // Recent bookings change more often
+                    String[] o = orderData.get(i).clone();
+                    if (random.nextBoolean()) o[3] = String.valueOf(newTables());
+                    else o[4] = newEventDate().format(DATE_FORMAT);
+                    orderData.set(i, o);
+                    return new Op(offset, type, o);
+                }
+                case FIND_CUSTOMER:
+                    return new Op(offset, type, customerData.get(skewed(settledCustomers, 2))[0]);
+                case FIND_ORDER:
+                    return new Op(offset, type, orderData.get(settledOrders - 1 - skewed(settledOrders, 2))[0]);
+                default:
+                    return new Op(offset, Type.BROWSE_MENUS, String.valueOf(
+                            MENU_PAGE_SIZE * random.nextInt((menuIds.size() + MENU_PAGE_SIZE - 1) / MENU_PAGE_SIZE)));
+            }
+        }
+
+        /**
+         * @return number of objects created at least SETTLE_OPS operations ago
+         */
+        private int settled(List<Integer> since) {
+            int n = since.size();
+            while (n > 0 && since.get(n - 1) > index - SETTLE_OPS) n--;
+            return n;
+        }
+
+        private String[] newCustomer(String id) {
+            String[] family = FAMILY_NAMES[pick(FAMILY_WEIGHTS)];
+            String middle = MIDDLE_NAMES[random.nextInt(MIDDLE_NAMES.length)];
+            String[] given = GIVEN_NAMES[random.nextInt(GIVEN_NAMES.length)];
+            String name = family[0] + " " + middle + " " + given[0];
+            //Customers refuses a phone or email that another customer uses, the ID keeps the email unique
+            String email = given[1] + "." + family[1] + "." + id.toLowerCase() + "@" + MAIL_DOMAINS[random.nextInt(MAIL_DOMAINS.length)];
+            String[] c = {id, name, newPhone(), email};
+            if (!Acceptable.isValid(c[1], Acceptable.NAME_VALID) || !Acceptable.isValid(c[3], Acceptable.EMAIL_VALID)) {
+                throw new IllegalStateException("Generated customer does not match the input formats: " + String.join(", ", c));
+            }
+            return c;
+        }
+
+        /**
+         * @return a phone that no generated customer had before
+         */
+        private String newPhone() {
+            while (true) {
+                StringBuilder sb = new StringBuilder("0").append("98753".charAt(random.nextInt(5)));
+                for (int i = 0; i < 8; i++) sb.append((char) ('0' + random.nextInt(10)));
+                if (usedPhones.add(sb.toString())) return sb.toString();
+            }
+        }
+
+        /**
+         * @return mostly small parties, some large weddings
+         */
+        private int newTables() {
+            double u = random.nextDouble();
+            if (u < 0.6) return 1 + random.nextInt(15);
+            if (u < 0.9) return 15 + random.nextInt(26);
+            return 40 + random.nextInt(61);
+        }
+
+        /**
+         * @return a date in the next 18 months, in a month picked by SEASON, moved to a weekend by WEEKEND_SHARE
+         */
+        private LocalDate newEventDate() {
+            int[] weights = new int[18];
+            LocalDate firstMonth = today.withDayOfMonth(1);
+            for (int m = 0; m < weights.length; m++) weights[m] = SEASON[firstMonth.plusMonths(m).getMonthValue() - 1];
+            LocalDate month = firstMonth.plusMonths(pick(weights));
+            LocalDate date = month.plusDays(random.nextInt(month.lengthOfMonth()));
+            if (random.nextDouble() < WEEKEND_SHARE && date.getDayOfWeek().getValue() < DayOfWeek.SATURDAY.getValue()) {
+                date = date.plusDays(DayOfWeek.SATURDAY.getValue() - date.getDayOfWeek().getValue() + random.nextInt(2));
+            }
+            return date.isAfter(today) ? date : today.plusDays(1 + random.nextInt(7));
+        }
+
+        private int pick(int[] weights) {
+            return Workload.pick(random, weights);
+        }
+
+        /**
+         * @return index in [0, n), small indexes more often, the higher the power the stronger the skew
+         */
+        private int skewed(int n, double power) {
+            return Math.min(n - 1, (int) (n * Math.pow(random.nextDouble(), power)));
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package model;
+
+import java.io.Serializable;
+
+/**
+ * Represents one change made to the customer or order data.
+ * Events are numbered by the change log in the order they happened, starting from 1.
+ * @param <T> type of the changed object, Customer or Order
+ */
+public class ChangeEvent<T extends Serializable> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Type {
+        CUSTOMER_ADDED, CUSTOMER_UPDATED, ORDER_ADDED, ORDER_UPDATED
+    }
+
+    private final long sequence;    // Position in the change log
+    private final long timestamp;   // Time of the change in milliseconds
+    private final Type type;
+    private final String key;       // Customer ID or order code
+    private final T before;         // Value before the change, null for an added object
+    private final T after;          // Value after the change
+
+    public ChangeEvent(long sequence, long timestamp, Type type, String key, T before, T after) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.type = type;
+        this.key = key;
+        this.before = before;
+        this.after = after;
+    }
+
+    public long getSequence() { return sequence; }
+    public long getTimestamp() { return timestamp; }
+    public Type getType() { return type; }
+    public String getKey() { return key; }
+    public T getBefore() { return before; }
+    public T getAfter() { return after; }
+
+    @Override
+    public String toString() {
+        return "#" + sequence + " " + type + " " + key;
+    }
+}
@@ -60,6 +60,22 @@ public class Order implements Serializable {
         this.eventDate = date;
     }
 
+    /**
+     * Constructor for an order that already has a code, e.g. read back from storage
+     * @param orderCode the code of the order
+     * @param customerId the id of the customer
+     * @param menuId the id of the set menu
+     * @param numOfTables the number of table for the order
+     * @param date the date of the event
+     */
+    public Order(String orderCode, String customerId, String menuId, int numOfTables, Date date) {
+        this.orderCode = orderCode;
+        this.customerId = customerId;
+        this.menuId = menuId;
+        this.numOfTables = numOfTables;
+        this.eventDate = date;
+    }
+
     //getters & setter
     public String getOrderCode() {
         return orderCode;
@@ -104,8 +120,8 @@ public class Order implements Serializable {
     }
 
     /**
-     * Calculates the total cost of the order.
-     * Total cost = SetMenu price * number of tables.
+     * Calculates the list price of the order, before the adjustments of {@link SetMenus#quote(Order)}.
+     * List price = SetMenu price * number of tables.
      *
      * @param setMenu The SetMenu object corresponding to this order's menuId.
      * @return The total cost of the order. Returns 0 if the SetMenu is null.
@@ -134,7 +150,7 @@ public class Order implements Serializable {
         if (customer == null || setMenu == null) return "Invalid customer or menu reference.";
 
         String dateStr = (this.eventDate != null) ? DateUtils.formatDate(eventDate) : "N/A";
-        long totalCost = getTotalCost(setMenu);
+        long totalCost = setMenus.quote(this);
 
 
 
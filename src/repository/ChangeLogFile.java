@@ -0,0 +1,174 @@
+package repository;
+
+import model.ChangeEvent;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rolling files that keep a copy of the change events, so a consumer can catch up on events that
+ * are no longer in memory, also after a restart.
+ * Each file is named after the sequence number of its first event and holds records of
+ * (length, serialized ChangeEvent). A new file is started when the current one is full or the program restarts,
+ * and the oldest files are deleted when there are too many.
+ * @author mymym
+ */
+public class ChangeLogFile implements Closeable {
+    private static final String FILE_PREFIX = "changes-";
+    private static final String FILE_SUFFIX = ".log";
+
+    private final File dir;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private DataOutputStream out;   // Null until the first event of this run
+    private long currentBytes;
+    private long lastSequence;
+
+    /**
+     * Constructor
+     * Creates the directory if needed and finds the last stored sequence number
+     *
+     * @param dirPath      directory of the log files
+     * @param maxFileBytes size after which a new file is started
+     * @param maxFiles     number of files kept, older files are deleted
+     */
+    public ChangeLogFile(String dirPath, long maxFileBytes, int maxFiles) {
+        this.dir = new File(dirPath);
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = Math.max(1, maxFiles);
+        if (!dir.exists() && !dir.mkdirs()) {
+            System.err.println("Failed to create change log directory: " + dir.getAbsolutePath());
+        }
+        File[] files = listFiles();
+        for (int i = files.length - 1; i >= 0 && lastSequence == 0; i--) {
+            List<ChangeEvent<?>> events = readFile(files[i], 0, Integer.MAX_VALUE);
+            if (!events.isEmpty()) lastSequence = events.get(events.size() - 1).getSequence();
+        }
+    }
+
+    /**
+     * @return sequence number of the last stored event, 0 if there is none
+     */
+    public synchronized long lastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Appends an event and flushes it to the file
+     *
+     * @param event the event, its sequence number must be higher than the last stored one
+     * @return true if the event was written, false otherwise
+     */
+    public synchronized boolean append(ChangeEvent<?> event) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                oos.writeObject(event);
+            }
+            if (out == null || currentBytes >= maxFileBytes) roll(event.getSequence());
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+            out.flush();
+            currentBytes += 4 + bytes.size();
+            lastSequence = event.getSequence();
+            return true;
+        } catch (IOException e) {
+            System.err.println("Failed to write change event " + event + ". Error: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Reads stored events in sequence order
+     *
+     * @param fromSequence first wanted sequence number
+     * @param max          maximum number of events
+     * @return the events with a sequence number from fromSequence, may start later if older files were deleted
+     */
+    public synchronized List<ChangeEvent<?>> read(long fromSequence, int max) {
+        File[] files = listFiles();
+        int first = 0;
+        for (int i = 0; i < files.length; i++) {
+            if (firstSequence(files[i]) <= fromSequence) first = i;
+        }
+        List<ChangeEvent<?>> result = new ArrayList<>();
+        for (int i = first; i < files.length && result.size() < max; i++) {
+            result.addAll(readFile(files[i], fromSequence, max - result.size()));
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close change log. Error: " + e.getMessage());
+        }
+        out = null;
+    }
+
+    /**
+     * Starts a new file and deletes the oldest files over the limit
+     *
+     * @param firstSequence sequence number of the first event of the new file
+     * @throws IOException if the file cannot be created
+     */
+    private void roll(long firstSequence) throws IOException {
+        close();
+        File file = new File(dir, String.format("%s%020d%s", FILE_PREFIX, firstSequence, FILE_SUFFIX));
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        currentBytes = 0;
+
+        File[] files = listFiles();
+        for (int i = 0; i < files.length - maxFiles; i++) {
+            if (!files[i].delete()) {
+                System.err.println("Failed to delete old change log: " + files[i].getPath());
+            }
+        }
+    }
+
+    /**
+     * Reads the events of one file, a record cut short by a crash ends the file
+     */
+    private List<ChangeEvent<?>> readFile(File file, long fromSequence, int max) {
+        List<ChangeEvent<?>> result = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (result.size() < max) {
+                byte[] record = new byte[in.readInt()];
+                in.readFully(record);
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(record))) {
+                    ChangeEvent<?> event = (ChangeEvent<?>) ois.readObject();
+                    if (event.getSequence() >= fromSequence) result.add(event);
+                }
+            }
+        } catch (EOFException e) {
+            // End of file
+        } catch (IOException | ClassNotFoundException e) {
+            System.err.println("Failed to read change log: " + file.getPath() + ". Error: " + e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * @return the log files, oldest first
+     */
+    private File[] listFiles() {
+        File[] files = dir.listFiles((d, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+        if (files == null) return new File[0];
+        Arrays.sort(files); // Names contain the zero padded first sequence number
+        return files;
+    }
+
+    private static long firstSequence(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+}
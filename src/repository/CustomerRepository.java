@@ -1,58 +1,102 @@
 package repository;
 
 import model.Customer;
-import tools.FileUtils;
 
-import java.io.File;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
- * 
+ * Loads and saves the customers of {@link business.Customers}, so the business layer does not depend on how they are stored.
+ * The location is given by the caller and means what the implementation needs: a data file ({@link FileCustomerRepository}),
+ * a directory ({@link LsmCustomerRepository}) or a table ({@link JdbcCustomerRepository}).
  * @author mymym
  */
-public class CustomerRepository {
-
-    /**
-     * Function to read data from filePath
-     * using FileUtils to load data then put it in Map<String, Customer>
-     * 
-     * @param filePath
-     * @return A Map that contains customer data from file
-     */
-    public Map<String, Customer> loadFromFile(String filePath) {
-        Map<String, Customer> customerMap = new HashMap<>();
-        List<Customer> customersList = FileUtils.loadData(filePath);
-        if (customersList != null) {
-            for (Customer customer : customersList) {
-                if (customer != null && customer.getId() != null) {
-                    //Update information from file
-                    customerMap.put(customer.getId().toUpperCase(), customer);
-                }
-            }
-        }
-        return customerMap;
+public interface CustomerRepository {
+
+    /**
+     * Reads every customer
+     *
+     * @param location where the customers are stored
+     * @return A Map of customers by upper case ID, empty if nothing is stored yet, null if the data cannot be read
+     */
+    Map<String, Customer> load(String location);
+
+    /**
+     * Calls an action with every customer, repositories that read them one by one do not keep them all in memory.
+     * By default all customers are loaded first
+     *
+     * @param location where the customers are stored
+     * @param action   called with every customer
+     * @return true if every customer was read, false if the data cannot be read (the action may have seen some customers)
+     */
+    default boolean forEach(String location, Consumer<Customer> action) {
+        Map<String, Customer> all = load(location);
+        if (all == null) return false;
+        all.values().forEach(action);
+        return true;
+    }
+
+    /**
+     * Stores exactly the given customers, replacing the ones stored before
+     *
+     * @param location  where the customers are stored
+     * @param customers all customers
+     * @return true if the customers were saved, false if they could not be written
+     */
+    boolean save(String location, Iterable<Customer> customers);
+
+    /**
+     * Saves one new or changed customer at once, for repositories that can write a single record.
+     * By default nothing is written and the change waits for {@link #save(String, Iterable)}
+     *
+     * @param location where the customers are stored
+     * @param customer the new or changed customer
+     * @return true if the customer was saved, false if it must be saved with the others
+     */
+    default boolean saveOne(String location, Customer customer) {
+        return false;
+    }
+
+    /**
+     * Reads one customer. By default all customers are loaded to find it, repositories with an index look it up
+     *
+     * @param location where the customers are stored
+     * @param id       customer ID, any case
+     * @return the customer, null if it is not stored
+     */
+    default Customer findById(String location, String id) {
+        Map<String, Customer> all = load(location);
+        return all == null || id == null ? null : all.get(id.toUpperCase());
     }
 
     /**
-     * Function using FileUtils to save data
-     * 
-     * @param filePath  Path of file to be saved
-     * @param customers List of data need to saved
+     * Reads customers by ID. By default all customers are loaded to find them, see {@link #hasKeyLookup()}
+     *
+     * @param location where the customers are stored
+     * @param ids      customer IDs, upper case
+     * @return the customers in the order of the IDs, null for an ID that is not stored; null if the data cannot be read
      */
-    public void saveToFile(String filePath, List<Customer> customers) {
-        FileUtils.saveData(filePath, customers);
+    default List<Customer> findAllById(String location, List<String> ids) {
+        Map<String, Customer> all = load(location);
+        if (all == null) return null;
+        List<Customer> found = new ArrayList<>(ids.size());
+        for (String id : ids) found.add(all.get(id));
+        return found;
     }
 
     /**
-     * Function checking if path file be able to read or existed in system
-     * 
-     * @param filePath path
-     * @return true if the file is existed and can be read, false otherwise
+     * @return true if {@link #findById(String, String)} and {@link #findAllById(String, List)} read only the asked customers,
+     * so the others need not be kept in memory
      */
-    public boolean fileExistsAndReadable(String filePath) {
-        File file = new File(filePath);
-        return file.exists() && file.canRead();
+    default boolean hasKeyLookup() {
+        return false;
     }
-}
\ No newline at end of file
+
+    /**
+     * @param location where the customers are stored
+     * @return true if there is stored data that can be read
+     */
+    boolean exists(String location);
+}
@@ -0,0 +1,109 @@
+package repository;
+
+import model.Customer;
+import tools.FileUtils;
+import tools.JfrEvents;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Stores all customers in one data file of serialized objects, plain or compressed, see {@link FileUtils}
+ * @author mymym
+ */
+public class FileCustomerRepository implements CustomerRepository {
+    private final boolean compress;
+
+    /**
+     * Constructor that saves plain files
+     */
+    public FileCustomerRepository() {
+        this(false);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param compress true to save the file in compressed blocks, both kinds of file can always be loaded
+     */
+    public FileCustomerRepository(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * Function to read data from filePath
+     * using FileUtils to load data then put it in Map<String, Customer>
+     * 
+     * @param filePath
+     * @return A Map that contains customer data from file
+     */
+    @Override
+    public Map<String, Customer> load(String filePath) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.LOAD).operation("customers").path(filePath);
+        Map<String, Customer> customerMap = new HashMap<>();
+        List<Customer> customersList = FileUtils.loadData(filePath);
+        if (customersList != null) {
+            for (Customer customer : customersList) {
+                if (customer != null && customer.getId() != null) {
+                    //Update information from file
+                    customerMap.put(customer.getId().toUpperCase(), customer);
+                }
+            }
+        }
+        if (span.isRecording()) span.records(customerMap.size()).bytes(new File(filePath).length()).commit();
+        return customerMap;
+    }
+
+    /**
+     * Reads the customers of the file one by one, see {@link FileUtils#forEachData(String, Consumer)}
+     *
+     * @param filePath path of the file
+     * @param action   called with every customer
+     * @return true if the whole file was read or it does not exist
+     */
+    @Override
+    public boolean forEach(String filePath, Consumer<Customer> action) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.LOAD).operation("customers").path(filePath);
+        int[] count = new int[1];
+        boolean read = FileUtils.<Customer>forEachData(filePath, customer -> {
+            if (customer != null && customer.getId() != null) {
+                action.accept(customer);
+                count[0]++;
+            }
+        });
+        if (!read) span.result("not read");
+        if (span.isRecording()) span.records(count[0]).bytes(new File(filePath).length()).commit();
+        return read;
+    }
+
+    /**
+     * Function using FileUtils to save data
+     * 
+     * @param filePath  Path of file to be saved
+     * @param customers data need to saved
+     * @return true if the file was written
+     */
+    @Override
+    public boolean save(String filePath, Iterable<Customer> customers) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.SAVE).operation("customers").path(filePath).records(customers);
+        boolean saved = compress ? FileUtils.saveCompressedData(filePath, customers) : FileUtils.saveData(filePath, customers);
+        if (!saved) span.result("not saved");
+        if (span.isRecording()) span.bytes(new File(filePath).length()).commit();
+        return saved;
+    }
+
+    /**
+     * Function checking if path file be able to read or existed in system
+     * 
+     * @param filePath path
+     * @return true if the file is existed and can be read, false otherwise
+     */
+    @Override
+    public boolean exists(String filePath) {
+        File file = new File(filePath);
+        return file.exists() && file.canRead();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,119 @@
+package repository;
+
+import model.Order;
+import tools.FileUtils;
+import tools.JfrEvents;
+import tools.LongHashMap;
+
+import java.io.File;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Stores all orders in one data file of serialized objects, plain or compressed, see {@link FileUtils}
+ * @author mymym
+ */
+public class FileOrderRepository implements OrderRepository {
+    private final boolean compress;
+
+    /**
+     * Constructor that saves plain files
+     */
+    public FileOrderRepository() {
+        this(false);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param compress true to save files in compressed blocks, both kinds of file can always be loaded
+     */
+    public FileOrderRepository(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * Read data through FileUtils method into a list, then convert it to a map keyed by packed order code
+     * @param filePath
+     * @return A map of orders, empty if the file does not exist yet, null if it cannot be read completely
+     */
+    @Override
+    public LongHashMap<Order> load(String filePath) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.LOAD).operation("orders").path(filePath);
+        if (!new File(filePath).exists()) {
+            span.result("not found").commit();
+            return new LongHashMap<>();
+        }
+        List<Order> ordersList = FileUtils.loadDataOrNull(filePath);
+        if (ordersList == null) {
+            span.result("not read").commit();
+            return null;
+        }
+        LongHashMap<Order> orderMap = new LongHashMap<>(ordersList.size());
+        for (Order order : ordersList) {
+            OrderRepository.putOrder(orderMap, order);
+        }
+        if (span.isRecording()) span.records(orderMap.size()).bytes(new File(filePath).length()).commit();
+        return orderMap;
+    }
+
+    /**
+     * Reads the orders of the file one by one, see {@link FileUtils#forEachData(String, Consumer)}
+     *
+     * @param filePath path of the file
+     * @param action   called with every order
+     * @return true if the whole file was read or it does not exist
+     */
+    @Override
+    public boolean forEach(String filePath, Consumer<Order> action) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.LOAD).operation("orders").path(filePath);
+        int[] count = new int[1];
+        boolean read = readFile(filePath, order -> {
+            action.accept(order);
+            count[0]++;
+        });
+        if (!read) span.result("not read");
+        if (span.isRecording()) span.records(count[0]).bytes(new File(filePath).length()).commit();
+        return read;
+    }
+
+    /**
+     * Reads the orders of one file one by one, skipping null objects
+     *
+     * @param filePath file path
+     * @param action   called with every order
+     * @return true if the whole file was read or it does not exist
+     */
+    protected boolean readFile(String filePath, Consumer<Order> action) {
+        return FileUtils.<Order>forEachData(filePath, order -> {
+            if (order != null) action.accept(order);
+        });
+    }
+
+    /**
+     * Save data in file path by FileUtils methods
+     * 
+     * @param filePath file path
+     * @param orders   orders need to save
+     * @return true if the file was written
+     */
+    @Override
+    public boolean save(String filePath, Iterable<Order> orders) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.SAVE).operation("orders").path(filePath).records(orders);
+        boolean saved = writeFile(filePath, orders);
+        if (!saved) span.result("not saved");
+        if (span.isRecording()) span.bytes(new File(filePath).length()).commit();
+        return saved;
+    }
+
+    /**
+     * Writes orders to one file, compressed or not depending on this repository
+     *
+     * @param filePath file path
+     * @param orders   orders need to save
+     * @return true if the file was written
+     */
+    protected boolean writeFile(String filePath, Iterable<Order> orders) {
+        return compress ? FileUtils.saveCompressedData(filePath, orders) : FileUtils.saveData(filePath, orders);
+    }
+}
@@ -0,0 +1,235 @@
+package repository;
+
+import model.Customer;
+import tools.JfrEvents;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Stores customers in a table of a SQL database, see {@link JdbcRepository}:
+ *   id (primary key), name, phone, email, with an index on phone and one on email
+ *
+ * {@link #saveOne(String, Customer)} writes a new or changed customer at once in its own transaction;
+ * {@link #save(String, Iterable)} compares the table with all customers and writes only the differences in one transaction.
+ * {@link #findById(String, String)} reads one row by its key, {@link #findAllById(String, List)} many rows by their keys.
+ * @author mymym
+ */
+public class JdbcCustomerRepository extends JdbcRepository implements CustomerRepository {
+    private static final String COLUMNS = "id, name, phone, email";
+
+    /**
+     * Constructor for a database without user
+     *
+     * @param url JDBC URL, e.g. jdbc:h2:file:./data/feast
+     */
+    public JdbcCustomerRepository(String url) {
+        this(url, null, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param url      JDBC URL
+     * @param user     user name
+     * @param password password
+     */
+    public JdbcCustomerRepository(String url, String user, String password) {
+        super(url, user, password);
+    }
+
+    @Override
+    protected String[] schema(String table) {
+        return new String[]{
+                "CREATE TABLE IF NOT EXISTS " + table + " (id VARCHAR(5) PRIMARY KEY, name VARCHAR(100) NOT NULL, "
+                        + "phone VARCHAR(20) NOT NULL, email VARCHAR(100) NOT NULL)",
+                "CREATE INDEX IF NOT EXISTS " + table + "_phone ON " + table + " (phone)",
+                "CREATE INDEX IF NOT EXISTS " + table + "_email ON " + table + " (email)"};
+    }
+
+    /**
+     * Reads every row of the table
+     *
+     * @param location path named after the table, e.g. ./data/customers
+     * @return A Map that contains customer data, null if the database cannot be read
+     */
+    @Override
+    public synchronized Map<String, Customer> load(String location) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.LOAD).operation("customers sql").path(location);
+        Map<String, Customer> customerMap = new HashMap<>();
+        try {
+            for (Customer c : readAll(tableName(location))) customerMap.put(c.getId(), c);
+        } catch (SQLException | IllegalArgumentException e) {
+            System.err.println("Failed to load customers from " + getUrl() + ". Error: " + e.getMessage());
+            rollback();
+            span.result(e.getMessage()).commit();
+            return null;
+        }
+        span.records(customerMap.size()).commit();
+        return customerMap;
+    }
+
+    /**
+     * Reads the rows one by one without keeping them
+     *
+     * @param location path named after the table
+     * @param action   called with every customer
+     * @return true if every row was read
+     */
+    @Override
+    public synchronized boolean forEach(String location, Consumer<Customer> action) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.LOAD).operation("customers sql").path(location);
+        try {
+            String table = tableName(location);
+            span.records(forEachRow(table, "SELECT " + COLUMNS + " FROM " + table, JdbcCustomerRepository::read, action)).commit();
+            return true;
+        } catch (SQLException | IllegalArgumentException e) {
+            System.err.println("Failed to load customers from " + getUrl() + ". Error: " + e.getMessage());
+            rollback();
+            span.result(e.getMessage()).commit();
+            return false;
+        }
+    }
+
+    /**
+     * Makes the table hold exactly the given customers in one transaction: deletes the rows of removed or changed customers,
+     * then inserts the new and changed ones with batched statements. Unchanged rows are only compared
+     *
+     * @param location  path named after the table
+     * @param customers all customers
+     * @return true if the rows were written
+     */
+    @Override
+    public synchronized boolean save(String location, Iterable<Customer> customers) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.SAVE).operation("customers sql").path(location).records(customers);
+        try {
+            String table = tableName(location);
+            List<Customer> toDelete = new ArrayList<>();
+            List<Customer> toInsert = new ArrayList<>();
+            diff(readAll(table), customers, Customer::getId, JdbcCustomerRepository::sameRow, toDelete, toInsert);
+            executeBatch(prepare(table, "DELETE FROM " + table + " WHERE id = ?"), toDelete, (ps, c) -> ps.setString(1, c.getId()));
+            executeBatch(prepare(table, insertSql(table)), toInsert, JdbcCustomerRepository::bind);
+            connection(table).commit();
+            span.records(toDelete.size() + toInsert.size());
+            span.commit();
+            return true;
+        } catch (SQLException | IllegalArgumentException e) {
+            System.err.println("Failed to save customers to " + getUrl() + ". Error: " + e.getMessage());
+            rollback();
+            span.result(e.getMessage()).commit();
+            return false;
+        }
+    }
+
+    /**
+     * Writes a new or changed customer in its own transaction
+     *
+     * @param location path named after the table
+     * @param customer the new or changed customer
+     * @return true if the customer was saved, false if it could not be written
+     */
+    @Override
+    public synchronized boolean saveOne(String location, Customer customer) {
+        try {
+            String table = tableName(location);
+            List<Customer> one = Collections.singletonList(customer);
+            executeBatch(prepare(table, "DELETE FROM " + table + " WHERE id = ?"), one, (ps, c) -> ps.setString(1, c.getId()));
+            executeBatch(prepare(table, insertSql(table)), one, JdbcCustomerRepository::bind);
+            connection(table).commit();
+            return true;
+        } catch (SQLException | IllegalArgumentException e) {
+            System.err.println("Failed to save customer " + customer.getId() + ". Error: " + e.getMessage());
+            rollback();
+            return false;
+        }
+    }
+
+    /**
+     * Reads one row by its primary key
+     */
+    @Override
+    public synchronized Customer findById(String location, String id) {
+        if (id == null) return null;
+        try {
+            String table = tableName(location);
+            PreparedStatement statement = prepare(table, "SELECT " + COLUMNS + " FROM " + table + " WHERE id = ?");
+            statement.setString(1, id.toUpperCase());
+            Customer found = null;
+            try (ResultSet rs = statement.executeQuery()) {
+                if (rs.next()) found = read(rs);
+            }
+            connection(table).commit();
+            return found;
+        } catch (SQLException | IllegalArgumentException e) {
+            System.err.println("Failed to read customer " + id + ". Error: " + e.getMessage());
+            rollback();
+            return null;
+        }
+    }
+
+    /**
+     * Reads the rows of many keys, {@link #LOOKUP_ROWS} per query
+     */
+    @Override
+    public synchronized List<Customer> findAllById(String location, List<String> ids) {
+        try {
+            String table = tableName(location);
+            return lookup(table, "SELECT " + COLUMNS + " FROM " + table, "id", ids, Customer::getId, JdbcCustomerRepository::read);
+        } catch (SQLException | IllegalArgumentException e) {
+            System.err.println("Failed to read " + ids.size() + " customers. Error: " + e.getMessage());
+            rollback();
+            return null;
+        }
+    }
+
+    @Override
+    public boolean hasKeyLookup() {
+        return true;
+    }
+
+    /**
+     * @param location path named after the table
+     * @return true if the database can be reached, the table is created if needed
+     */
+    @Override
+    public boolean exists(String location) {
+        return canConnect(location);
+    }
+
+    /**
+     * Reads every row and ends the transaction
+     */
+    private List<Customer> readAll(String table) throws SQLException {
+        List<Customer> list = new ArrayList<>();
+        forEachRow(table, "SELECT " + COLUMNS + " FROM " + table, JdbcCustomerRepository::read, list::add);
+        return list;
+    }
+
+    private static boolean sameRow(Customer a, Customer b) {
+        return Objects.equals(a.getName(), b.getName()) && Objects.equals(a.getPhone(), b.getPhone())
+                && Objects.equals(a.getEmail(), b.getEmail());
+    }
+
+    private static String insertSql(String table) {
+        return "INSERT INTO " + table + " (" + COLUMNS + ") VALUES (?, ?, ?, ?)";
+    }
+
+    private static void bind(PreparedStatement statement, Customer c) throws SQLException {
+        statement.setString(1, c.getId());
+        statement.setString(2, c.getName());
+        statement.setString(3, c.getPhone());
+        statement.setString(4, c.getEmail());
+    }
+
+    private static Customer read(ResultSet rs) throws SQLException {
+        return new Customer(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4));
+    }
+}
@@ -0,0 +1,270 @@
+package repository;
+
+import model.Order;
+import tools.JfrEvents;
+import tools.LongHashMap;
+import tools.OrderCodeCodec;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Stores orders in a table of a SQL database, see {@link JdbcRepository}:
+ *   code (packed order code, primary key), order_code, customer_id, menu_id, num_tables, event_date (epoch milliseconds),
+ *   with an index on customer_id and one on event_date
+ *
+ * {@link #saveAll(String, List)} writes placed or changed orders at once in one transaction with batched statements;
+ * {@link #save(String, Iterable)} compares the table with all orders and writes only the differences in one transaction,
+ * so it does not need the dirty months.
+ * {@link #findByCustomer(String, String)} and {@link #findBetween(String, Date, Date)} read only the matching rows through the indexes,
+ * {@link #findAllByCode(String, long[])} the rows of the asked keys.
+ * @author mymym
+ */
+public class JdbcOrderRepository extends JdbcRepository implements OrderRepository {
+    private static final String COLUMNS = "order_code, customer_id, menu_id, num_tables, event_date";
+
+    /**
+     * Constructor for a database without user
+     *
+     * @param url JDBC URL, e.g. jdbc:h2:file:./data/feast
+     */
+    public JdbcOrderRepository(String url) {
+        this(url, null, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param url      JDBC URL
+     * @param user     user name
+     * @param password password
+     */
+    public JdbcOrderRepository(String url, String user, String password) {
+        super(url, user, password);
+    }
+
+    @Override
+    protected String[] schema(String table) {
+        return new String[]{
+                "CREATE TABLE IF NOT EXISTS " + table + " (code BIGINT PRIMARY KEY, order_code VARCHAR(32) NOT NULL, "
+                        + "customer_id VARCHAR(5) NOT NULL, menu_id VARCHAR(5) NOT NULL, num_tables INT NOT NULL, event_date BIGINT)",
+                "CREATE INDEX IF NOT EXISTS " + table + "_customer ON " + table + " (customer_id)",
+                "CREATE INDEX IF NOT EXISTS " + table + "_event ON " + table + " (event_date)"};
+    }
+
+    /**
+     * Reads every row of the table
+     *
+     * @param location path named after the table, e.g. ./data/orders
+     * @return A map that contains order data, key is the packed order code, null if the database cannot be read
+     */
+    @Override
+    public synchronized LongHashMap<Order> load(String location) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.LOAD).operation("orders sql").path(location);
+        try {
+            String table = tableName(location);
+            List<Order> ordersList = query(table, "SELECT " + COLUMNS + " FROM " + table);
+            LongHashMap<Order> orderMap = new LongHashMap<>(ordersList.size());
+            for (Order order : ordersList) {
+                OrderRepository.putOrder(orderMap, order);
+            }
+            span.records(orderMap.size()).commit();
+            return orderMap;
+        } catch (SQLException | IllegalArgumentException e) {
+            System.err.println("Failed to load orders from " + getUrl() + ". Error: " + e.getMessage());
+            rollback();
+            span.result(e.getMessage()).commit();
+            return null;
+        }
+    }
+
+    /**
+     * Reads the rows one by one without keeping them
+     *
+     * @param location path named after the table
+     * @param action   called with every order
+     * @return true if every row was read
+     */
+    @Override
+    public synchronized boolean forEach(String location, Consumer<Order> action) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.LOAD).operation("orders sql").path(location);
+        try {
+            String table = tableName(location);
+            span.records(forEachRow(table, "SELECT " + COLUMNS + " FROM " + table, JdbcOrderRepository::read, action)).commit();
+            return true;
+        } catch (SQLException | IllegalArgumentException e) {
+            System.err.println("Failed to load orders from " + getUrl() + ". Error: " + e.getMessage());
+            rollback();
+            span.result(e.getMessage()).commit();
+            return false;
+        }
+    }
+
+    /**
+     * Makes the table hold exactly the given orders in one transaction: deletes the rows of removed or changed orders,
+     * then inserts the new and changed ones with batched statements. Unchanged rows are only compared
+     *
+     * @param location path named after the table
+     * @param orders   all orders
+     * @return true if the rows were written
+     */
+    @Override
+    public synchronized boolean save(String location, Iterable<Order> orders) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.SAVE).operation("orders sql").path(location).records(orders);
+        try {
+            String table = tableName(location);
+            List<Order> toDelete = new ArrayList<>();
+            List<Order> toInsert = new ArrayList<>();
+            diff(query(table, "SELECT " + COLUMNS + " FROM " + table), orders, o -> OrderCodeCodec.pack(o.getOrderCode()),
+                    JdbcOrderRepository::sameRow, toDelete, toInsert);
+            executeBatch(prepare(table, "DELETE FROM " + table + " WHERE code = ?"), toDelete,
+                    (ps, o) -> ps.setLong(1, OrderCodeCodec.pack(o.getOrderCode())));
+            executeBatch(prepare(table, insertSql(table)), toInsert, JdbcOrderRepository::bind);
+            connection(table).commit();
+            span.records(toDelete.size() + toInsert.size());
+            span.commit();
+            return true;
+        } catch (SQLException | IllegalArgumentException e) {
+            System.err.println("Failed to save orders to " + getUrl() + ". Error: " + e.getMessage());
+            rollback();
+            span.result(e.getMessage()).commit();
+            return false;
+        }
+    }
+
+    /**
+     * Writes placed or changed orders in one transaction: a batch of deletes by key, then a batch of inserts
+     *
+     * @param location path named after the table
+     * @param orders   the new or changed orders
+     * @return true if the orders were saved, false if they could not be written
+     */
+    @Override
+    public synchronized boolean saveAll(String location, List<Order> orders) {
+        try {
+            String table = tableName(location);
+            executeBatch(prepare(table, "DELETE FROM " + table + " WHERE code = ?"), orders,
+                    (ps, o) -> ps.setLong(1, OrderCodeCodec.pack(o.getOrderCode())));
+            executeBatch(prepare(table, insertSql(table)), orders, JdbcOrderRepository::bind);
+            connection(table).commit();
+            return true;
+        } catch (SQLException | IllegalArgumentException e) {
+            System.err.println("Failed to save " + orders.size() + " orders. Error: " + e.getMessage());
+            rollback();
+            return false;
+        }
+    }
+
+    /**
+     * Reads the orders of a customer through the customer_id index
+     */
+    @Override
+    public synchronized List<Order> findByCustomer(String location, String customerId) {
+        if (customerId == null) return Collections.emptyList();
+        try {
+            String table = tableName(location);
+            return query(table, "SELECT " + COLUMNS + " FROM " + table + " WHERE customer_id = ?", customerId.toUpperCase());
+        } catch (SQLException | IllegalArgumentException e) {
+            System.err.println("Failed to read orders of " + customerId + ". Error: " + e.getMessage());
+            rollback();
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Reads the orders in a window of event dates through the event_date index
+     */
+    @Override
+    public synchronized List<Order> findBetween(String location, Date from, Date to) {
+        try {
+            String table = tableName(location);
+            return query(table, "SELECT " + COLUMNS + " FROM " + table + " WHERE event_date >= ? AND event_date < ?",
+                    from.getTime(), to.getTime());
+        } catch (SQLException | IllegalArgumentException e) {
+            System.err.println("Failed to read orders between dates. Error: " + e.getMessage());
+            rollback();
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Reads the rows of many keys, {@link #LOOKUP_ROWS} per query
+     */
+    @Override
+    public synchronized List<Order> findAllByCode(String location, long[] codes) {
+        try {
+            String table = tableName(location);
+            List<Long> keys = new ArrayList<>(codes.length);
+            for (long code : codes) keys.add(code);
+            return lookup(table, "SELECT " + COLUMNS + " FROM " + table, "code", keys,
+                    o -> OrderCodeCodec.pack(o.getOrderCode()), JdbcOrderRepository::read);
+        } catch (SQLException | IllegalArgumentException e) {
+            System.err.println("Failed to read " + codes.length + " orders. Error: " + e.getMessage());
+            rollback();
+            return null;
+        }
+    }
+
+    @Override
+    public boolean hasKeyLookup() {
+        return true;
+    }
+
+    /**
+     * @param location path named after the table
+     * @return true if the database can be reached, the table is created if needed
+     */
+    public boolean exists(String location) {
+        return canConnect(location);
+    }
+
+    /**
+     * Runs a query with parameters and ends its transaction
+     */
+    private List<Order> query(String table, String sql, Object... parameters) throws SQLException {
+        PreparedStatement statement = prepare(table, sql);
+        for (int i = 0; i < parameters.length; i++) statement.setObject(i + 1, parameters[i]);
+        List<Order> orders = new ArrayList<>();
+        try (ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) orders.add(read(rs));
+        }
+        connection(table).commit();
+        return orders;
+    }
+
+    private static Order read(ResultSet rs) throws SQLException {
+        long millis = rs.getLong(5);
+        Date eventDate = rs.wasNull() ? null : new Date(millis);
+        return new Order(rs.getString(1), rs.getString(2), rs.getString(3), rs.getInt(4), eventDate);
+    }
+
+    private static boolean sameRow(Order a, Order b) {
+        return a.getOrderCode().equals(b.getOrderCode()) && Objects.equals(a.getCustomerId(), b.getCustomerId())
+                && Objects.equals(a.getMenuId(), b.getMenuId()) && a.getNumOfTables() == b.getNumOfTables()
+                && Objects.equals(a.getEventDate(), b.getEventDate());
+    }
+
+    private static String insertSql(String table) {
+        return "INSERT INTO " + table + " (code, " + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?)";
+    }
+
+    private static void bind(PreparedStatement statement, Order o) throws SQLException {
+        long code = OrderCodeCodec.pack(o.getOrderCode());
+        if (code == OrderCodeCodec.INVALID) throw new SQLException("Invalid order code: " + o.getOrderCode());
+        statement.setLong(1, code);
+        statement.setString(2, o.getOrderCode());
+        statement.setString(3, o.getCustomerId());
+        statement.setString(4, o.getMenuId());
+        statement.setInt(5, o.getNumOfTables());
+        if (o.getEventDate() == null) statement.setNull(6, Types.BIGINT);
+        else statement.setLong(6, o.getEventDate().getTime());
+    }
+}
@@ -0,0 +1,289 @@
+package repository;
+
+import java.io.Closeable;
+import java.io.File;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Connection handling shared by the repositories that store data in a SQL database through JDBC,
+ * e.g. an embedded H2 (jdbc:h2:file:./data/feast) or SQLite (jdbc:sqlite:./data/feast.db) database.
+ * No driver is part of the project, the driver of the URL must be on the class path.
+ *
+ * A repository keeps one connection, opened on first use with auto-commit off, and its prepared statements.
+ * The table of a location is named after the last part of its path, e.g. ./data/customers is the table customers;
+ * it and its indexes are created if they do not exist. All methods that use the connection must be synchronized.
+ * Full reads stream the rows ({@link #forEachRow}), reads by key ask {@link #LOOKUP_ROWS} keys per query ({@link #lookup}).
+ * Only one set of data can use a table, so branches need one database each, see dispatcher.Main.
+ * @author mymym
+ */
+abstract class JdbcRepository implements Closeable {
+    static final int BATCH_ROWS = 1000;     // Rows sent to the database in one executeBatch
+    static final int LOOKUP_ROWS = 100;     // Keys asked in one SELECT ... IN, so the query text is always the same
+    private static final String TABLE_VALID = "[A-Za-z][A-Za-z0-9_]{0,62}";
+
+    /**
+     * Sets the parameters of a prepared statement from one record
+     */
+    interface Binder<T> {
+        void bind(PreparedStatement statement, T record) throws SQLException;
+    }
+
+    /**
+     * Reads one record from the current row
+     */
+    interface RowReader<T> {
+        T read(ResultSet rs) throws SQLException;
+    }
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private Connection connection;
+    private final Set<String> tables = new HashSet<>();                        // Tables whose schema was checked
+    private final Map<String, PreparedStatement> statements = new HashMap<>();  // By SQL text
+
+    /**
+     * Constructor
+     *
+     * @param url      JDBC URL of the database
+     * @param user     user name, null if the database has none
+     * @param password password, null if the database has none
+     */
+    JdbcRepository(String url, String user, String password) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+    }
+
+    /**
+     * @param table the table
+     * @return the statements that create the table and its indexes if they do not exist
+     */
+    protected abstract String[] schema(String table);
+
+    /**
+     * @param location path of the data, e.g. ./data/orders
+     * @return the name of the table
+     * @throws IllegalArgumentException if the last part of the path is not a valid table name
+     */
+    static String tableName(String location) {
+        String name = new File(location).getName();
+        int dot = name.indexOf('.');
+        if (dot > 0) name = name.substring(0, dot);
+        if (!name.matches(TABLE_VALID)) throw new IllegalArgumentException("Invalid table name: " + name);
+        return name;
+    }
+
+    /**
+     * Opens the connection if needed and creates the table the first time it is used
+     *
+     * @param table the table
+     * @return the connection, auto-commit is off
+     * @throws SQLException if the database cannot be reached or the table cannot be created
+     */
+    protected Connection connection(String table) throws SQLException {
+        if (connection == null || connection.isClosed()) {
+            connection = user == null ? DriverManager.getConnection(url) : DriverManager.getConnection(url, user, password);
+            connection.setAutoCommit(false);
+            tables.clear();
+            statements.clear();
+        }
+        if (!tables.contains(table)) {
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : schema(table)) statement.execute(sql);
+            }
+            connection.commit();
+            tables.add(table);
+        }
+        return connection;
+    }
+
+    /**
+     * Gets a prepared statement, prepared once per connection
+     *
+     * @param table the table, see {@link #connection(String)}
+     * @param sql   the statement
+     * @throws SQLException if the statement cannot be prepared
+     */
+    protected PreparedStatement prepare(String table, String sql) throws SQLException {
+        Connection c = connection(table);
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = c.prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Runs a statement for every record, sending {@link #BATCH_ROWS} at a time
+     *
+     * @param statement the prepared statement
+     * @param records   the records
+     * @param binder    sets the parameters of one record
+     * @return number of records
+     * @throws SQLException if a batch fails
+     */
+    protected static <T> int executeBatch(PreparedStatement statement, Iterable<T> records, Binder<T> binder) throws SQLException {
+        int rows = 0;
+        Iterator<T> it = records.iterator();
+        while (it.hasNext()) {
+            binder.bind(statement, it.next());
+            statement.addBatch();
+            if (++rows % BATCH_ROWS == 0) statement.executeBatch();
+        }
+        if (rows % BATCH_ROWS != 0) statement.executeBatch();
+        return rows;
+    }
+
+    /**
+     * Calls an action with every row of a query without keeping the rows, the driver is asked to fetch
+     * {@link #BATCH_ROWS} at a time. Ends the transaction
+     *
+     * @param table  the table, see {@link #connection(String)}
+     * @param sql    the query
+     * @param reader reads a record from a row
+     * @param action called with every record
+     * @return number of rows
+     * @throws SQLException if the query fails
+     */
+    protected <T> int forEachRow(String table, String sql, RowReader<T> reader, Consumer<T> action) throws SQLException {
+        PreparedStatement statement = prepare(table, sql);
+        statement.setFetchSize(BATCH_ROWS);
+        int rows = 0;
+        try (ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                action.accept(reader.read(rs));
+                rows++;
+            }
+        }
+        connection(table).commit();
+        return rows;
+    }
+
+    /**
+     * Reads records by primary key with one query per {@link #LOOKUP_ROWS} keys; the parameters a query does not need
+     * repeat its first key. Ends the transaction
+     *
+     * @param table     the table, see {@link #connection(String)}
+     * @param select    the query without its WHERE clause
+     * @param keyColumn the primary key column
+     * @param keys      the keys
+     * @param keyOf     primary key of a record
+     * @param reader    reads a record from a row
+     * @return the records in the order of the keys, null for a key that is not stored
+     * @throws SQLException if a query fails
+     */
+    protected <T, K> List<T> lookup(String table, String select, String keyColumn, List<K> keys, Function<T, K> keyOf,
+                                    RowReader<T> reader) throws SQLException {
+        PreparedStatement statement = prepare(table, select + " WHERE " + keyColumn + " IN ("
+                + String.join(", ", Collections.nCopies(LOOKUP_ROWS, "?")) + ")");
+        Map<K, T> found = new HashMap<>(Math.min(keys.size(), LOOKUP_ROWS) * 2);
+        List<T> records = new ArrayList<>(keys.size());
+        for (int from = 0; from < keys.size(); from += LOOKUP_ROWS) {
+            List<K> part = keys.subList(from, Math.min(keys.size(), from + LOOKUP_ROWS));
+            for (int i = 0; i < LOOKUP_ROWS; i++) statement.setObject(i + 1, part.get(i < part.size() ? i : 0));
+            found.clear();
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    T record = reader.read(rs);
+                    found.put(keyOf.apply(record), record);
+                }
+            }
+            for (K key : part) records.add(found.get(key));
+        }
+        connection(table).commit();
+        return records;
+    }
+
+    /**
+     * Compares the stored rows with the records that must be stored, so that a full save writes only the differences
+     *
+     * @param stored   rows read from the table
+     * @param records  all records that must be stored
+     * @param keyOf    primary key of a record
+     * @param sameRow  true if two records with the same key have the same columns
+     * @param toDelete gets the stored rows that are not in the records or differ from them, to delete by key
+     * @param toInsert gets the records that are new or differ from the stored row
+     */
+    protected static <T, K> void diff(List<T> stored, Iterable<T> records, Function<T, K> keyOf, BiPredicate<T, T> sameRow,
+                                      List<T> toDelete, List<T> toInsert) {
+        Map<K, T> byKey = new HashMap<>(stored.size() * 2);
+        for (T row : stored) byKey.put(keyOf.apply(row), row);
+        for (T record : records) {
+            T row = byKey.remove(keyOf.apply(record));
+            if (row == null) {
+                toInsert.add(record);
+            } else if (!sameRow.test(row, record)) {
+                toDelete.add(row);
+                toInsert.add(record);
+            }
+        }
+        toDelete.addAll(byKey.values());
+    }
+
+    /**
+     * Undoes the current transaction after a failed write, the connection is dropped if that fails too
+     */
+    protected void rollback() {
+        if (connection == null) return;
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            System.err.println("Failed to roll back. Error: " + e.getMessage());
+            closeConnection();
+        }
+    }
+
+    /**
+     * @param location where the data is stored
+     * @return true if the database can be reached and has the table, the error is printed otherwise
+     */
+    protected synchronized boolean canConnect(String location) {
+        try {
+            connection(tableName(location));
+            return true;
+        } catch (SQLException | IllegalArgumentException e) {
+            System.err.println("Cannot use database " + url + ". Error: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return the JDBC URL of the database
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Closes the prepared statements and the connection
+     */
+    @Override
+    public synchronized void close() {
+        closeConnection();
+    }
+
+    private void closeConnection() {
+        try {
+            for (PreparedStatement statement : statements.values()) statement.close();
+            if (connection != null) connection.close();
+        } catch (SQLException e) {
+            System.err.println("Failed to close database connection. Error: " + e.getMessage());
+        }
+        statements.clear();
+        tables.clear();
+        connection = null;
+    }
+}
@@ -0,0 +1,181 @@
+package repository;
+
+import model.Customer;
+import tools.DirectIndex;
+import tools.JfrEvents;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Stores customers in a log-structured merge tree, see {@link tools.LsmTree}, in a directory instead of one file.
+ * The key of a customer is its slot, see {@link DirectIndex#customerSlot(CharSequence)}.
+ *
+ * {@link #saveOne(String, Customer)} writes a new or changed customer at once as an append to the tree's log,
+ * so adding or updating a customer does not leave unsaved data. {@link #save(String, Iterable)} is still
+ * needed after other changes and writes only the customers that differ from the stored ones.
+ * {@link #findAllById(String, List)} looks customers up in the tree without reading the others.
+ * Existing .dat files are not migrated into the tree.
+ * @author mymym
+ */
+public class LsmCustomerRepository implements CustomerRepository, Closeable {
+    private final Map<String, LsmRecords<Customer>> stores = new HashMap<>();
+
+    /**
+     * Opens the tree of a directory the first time it is used
+     */
+    private synchronized LsmRecords<Customer> store(String dirPath) {
+        LsmRecords<Customer> store = stores.get(dirPath);
+        if (store == null) {
+            store = new LsmRecords<>(dirPath, c -> DirectIndex.customerSlot(c.getId()));
+            stores.put(dirPath, store);
+        }
+        return store;
+    }
+
+    /**
+     * Reads every customer of the tree
+     *
+     * @param dirPath directory of the tree, created if it does not exist
+     * @return A Map that contains customer data, null if the tree cannot be read
+     */
+    @Override
+    public Map<String, Customer> load(String dirPath) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.LOAD).operation("customers lsm").path(dirPath);
+        Map<String, Customer> customerMap = new HashMap<>();
+        try {
+            LsmRecords<Customer> store = store(dirPath);
+            for (Customer customer : store.loadAll()) {
+                if (customer != null && customer.getId() != null) customerMap.put(customer.getId().toUpperCase(), customer);
+            }
+            if (span.isRecording()) span.records(customerMap.size()).bytes(store.getTree().diskBytes()).commit();
+        } catch (UncheckedIOException e) {
+            System.err.println("Failed to load customers from " + dirPath + ". Error: " + e.getMessage());
+            span.result(e.getMessage()).commit();
+            return null;
+        }
+        return customerMap;
+    }
+
+    /**
+     * Reads the customers of the tree one by one in slot order
+     *
+     * @param dirPath directory of the tree, created if it does not exist
+     * @param action  called with every customer
+     * @return true if the whole tree was read
+     */
+    @Override
+    public boolean forEach(String dirPath, Consumer<Customer> action) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.LOAD).operation("customers lsm").path(dirPath);
+        int[] count = new int[1];
+        try {
+            LsmRecords<Customer> store = store(dirPath);
+            store.forEach(customer -> {
+                if (customer != null && customer.getId() != null) {
+                    action.accept(customer);
+                    count[0]++;
+                }
+            });
+            if (span.isRecording()) span.records(count[0]).bytes(store.getTree().diskBytes()).commit();
+            return true;
+        } catch (UncheckedIOException e) {
+            System.err.println("Failed to load customers from " + dirPath + ". Error: " + e.getMessage());
+            span.result(e.getMessage()).commit();
+            return false;
+        }
+    }
+
+    /**
+     * Makes the tree hold exactly the given customers
+     *
+     * @param dirPath   directory of the tree
+     * @param customers all customers
+     * @return true if the tree was written
+     */
+    @Override
+    public boolean save(String dirPath, Iterable<Customer> customers) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.SAVE).operation("customers lsm").path(dirPath).records(customers);
+        try {
+            store(dirPath).replaceAll(customers);
+            span.commit();
+            return true;
+        } catch (UncheckedIOException e) {
+            System.err.println("Failed to save customers to " + dirPath + ". Error: " + e.getMessage());
+            span.result(e.getMessage()).commit();
+            return false;
+        }
+    }
+
+    /**
+     * Appends a new or changed customer to the tree
+     *
+     * @param dirPath  directory of the tree
+     * @param customer the new or changed customer
+     * @return true if the customer was saved, false if it could not be written
+     */
+    @Override
+    public boolean saveOne(String dirPath, Customer customer) {
+        try {
+            store(dirPath).putAll(Collections.singletonList(customer));
+            return true;
+        } catch (UncheckedIOException e) {
+            System.err.println("Failed to save customer " + customer.getId() + ". Error: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Reads one customer from the tree, without loading the others
+     */
+    @Override
+    public Customer findById(String dirPath, String id) {
+        int slot = DirectIndex.customerSlot(id);
+        return slot < 0 ? null : store(dirPath).get(slot);
+    }
+
+    /**
+     * Looks the customers up in the tree, without loading the others
+     */
+    @Override
+    public List<Customer> findAllById(String dirPath, List<String> ids) {
+        long[] slots = new long[ids.size()];
+        for (int i = 0; i < slots.length; i++) slots[i] = DirectIndex.customerSlot(ids.get(i));
+        try {
+            List<Customer> found = store(dirPath).getAll(slots);
+            for (int i = 0; i < slots.length; i++) {
+                if (slots[i] < 0) found.set(i, null);
+            }
+            return found;
+        } catch (UncheckedIOException e) {
+            System.err.println("Failed to read customers from " + dirPath + ". Error: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public boolean hasKeyLookup() {
+        return true;
+    }
+
+    @Override
+    public boolean exists(String dirPath) {
+        File dir = new File(dirPath);
+        return dir.isDirectory() && dir.canRead();
+    }
+
+    /**
+     * Writes the memtables of the open trees to disk and closes them
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (LsmRecords<Customer> store : stores.values()) store.close();
+        stores.clear();
+    }
+}
@@ -0,0 +1,158 @@
+package repository;
+
+import model.Order;
+import tools.JfrEvents;
+import tools.LongHashMap;
+import tools.OrderCodeCodec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Stores orders in a log-structured merge tree, see {@link tools.LsmTree}, in a directory instead of files.
+ * The key of an order is its packed code, see {@link OrderCodeCodec}, so the tree keeps orders in code order.
+ *
+ * {@link #saveAll(String, List)} writes placed or changed orders at once as one append to the tree's log,
+ * so placing or updating orders does not leave unsaved data. {@link #save(String, Iterable)} is still
+ * needed after other changes (e.g. orders moved to the archive) and writes only the orders that differ from the stored ones,
+ * so it does not need the dirty months. {@link #findAllByCode(String, long[])} looks orders up in the tree without reading the others.
+ * Existing order files are not migrated into the tree.
+ * @author mymym
+ */
+public class LsmOrderRepository implements OrderRepository, Closeable {
+    private final Map<String, LsmRecords<Order>> stores = new HashMap<>();
+
+    /**
+     * Opens the tree of a directory the first time it is used
+     */
+    private synchronized LsmRecords<Order> store(String dirPath) {
+        LsmRecords<Order> store = stores.get(dirPath);
+        if (store == null) {
+            store = new LsmRecords<>(dirPath, o -> OrderCodeCodec.pack(o.getOrderCode()));
+            stores.put(dirPath, store);
+        }
+        return store;
+    }
+
+    /**
+     * Reads every order of the tree
+     *
+     * @param dirPath directory of the tree, created if it does not exist
+     * @return A map that contains order data, key is the packed order code, null if the tree cannot be read
+     */
+    @Override
+    public LongHashMap<Order> load(String dirPath) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.LOAD).operation("orders lsm").path(dirPath);
+        try {
+            LsmRecords<Order> store = store(dirPath);
+            List<Order> ordersList = store.loadAll();
+            LongHashMap<Order> orderMap = new LongHashMap<>(ordersList.size());
+            for (Order order : ordersList) {
+                OrderRepository.putOrder(orderMap, order);
+            }
+            if (span.isRecording()) span.records(orderMap.size()).bytes(store.getTree().diskBytes()).commit();
+            return orderMap;
+        } catch (UncheckedIOException e) {
+            System.err.println("Failed to load orders from " + dirPath + ". Error: " + e.getMessage());
+            span.result(e.getMessage()).commit();
+            return null;
+        }
+    }
+
+    /**
+     * Reads the orders of the tree one by one in code order
+     *
+     * @param dirPath directory of the tree, created if it does not exist
+     * @param action  called with every order
+     * @return true if the whole tree was read
+     */
+    @Override
+    public boolean forEach(String dirPath, Consumer<Order> action) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.LOAD).operation("orders lsm").path(dirPath);
+        int[] count = new int[1];
+        try {
+            LsmRecords<Order> store = store(dirPath);
+            store.forEach(order -> {
+                action.accept(order);
+                count[0]++;
+            });
+            if (span.isRecording()) span.records(count[0]).bytes(store.getTree().diskBytes()).commit();
+            return true;
+        } catch (UncheckedIOException e) {
+            System.err.println("Failed to load orders from " + dirPath + ". Error: " + e.getMessage());
+            span.result(e.getMessage()).commit();
+            return false;
+        }
+    }
+
+    /**
+     * Makes the tree hold exactly the given orders
+     *
+     * @param dirPath directory of the tree
+     * @param orders  all orders
+     * @return true if the tree was written
+     */
+    @Override
+    public boolean save(String dirPath, Iterable<Order> orders) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.SAVE).operation("orders lsm").path(dirPath).records(orders);
+        try {
+            store(dirPath).replaceAll(orders);
+            span.commit();
+            return true;
+        } catch (UncheckedIOException e) {
+            System.err.println("Failed to save orders to " + dirPath + ". Error: " + e.getMessage());
+            span.result(e.getMessage()).commit();
+            return false;
+        }
+    }
+
+    /**
+     * Appends placed or changed orders to the tree
+     *
+     * @param dirPath directory of the tree
+     * @param orders  the new or changed orders
+     * @return true if the orders were saved, false if they could not be written
+     */
+    @Override
+    public boolean saveAll(String dirPath, List<Order> orders) {
+        try {
+            store(dirPath).putAll(orders);
+            return true;
+        } catch (UncheckedIOException e) {
+            System.err.println("Failed to save " + orders.size() + " orders. Error: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Looks the orders up in the tree, without loading the others
+     */
+    @Override
+    public List<Order> findAllByCode(String dirPath, long[] codes) {
+        try {
+            return store(dirPath).getAll(codes);
+        } catch (UncheckedIOException e) {
+            System.err.println("Failed to read orders from " + dirPath + ". Error: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public boolean hasKeyLookup() {
+        return true;
+    }
+
+    /**
+     * Writes the memtables of the open trees to disk and closes them
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (LsmRecords<Order> store : stores.values()) store.close();
+        stores.clear();
+    }
+}
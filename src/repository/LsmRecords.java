@@ -0,0 +1,116 @@
+package repository;
+
+import tools.FileUtils;
+import tools.LongHashMap;
+import tools.LsmTree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Serializable records stored in an {@link LsmTree}, each under a key computed from the record.
+ * Shared by the LSM customer and order repositories.
+ * @param <T> type of the records
+ * @author mymym
+ */
+final class LsmRecords<T> implements Closeable {
+    private final LsmTree tree;
+    private final ToLongFunction<T> keyOf;
+
+    /**
+     * Opens or creates the tree in a directory
+     *
+     * @param dirPath directory of the tree
+     * @param keyOf   key of a record
+     * @throws java.io.UncheckedIOException if the tree cannot be opened
+     */
+    LsmRecords(String dirPath, ToLongFunction<T> keyOf) {
+        this.tree = new LsmTree(dirPath);
+        this.keyOf = keyOf;
+    }
+
+    /**
+     * @return every record in key order
+     */
+    List<T> loadAll() {
+        List<T> list = new ArrayList<>();
+        forEach(list::add);
+        return list;
+    }
+
+    /**
+     * Calls an action with every record in key order, without keeping them
+     */
+    void forEach(Consumer<T> action) {
+        tree.forEach((key, bytes) -> action.accept(FileUtils.<T>fromBytes(bytes)));
+    }
+
+    /**
+     * @param key key of a record
+     * @return the record, null if the key is not stored
+     */
+    T get(long key) {
+        byte[] bytes = tree.get(key);
+        return bytes == null ? null : FileUtils.<T>fromBytes(bytes);
+    }
+
+    /**
+     * @param keys keys of records
+     * @return the records in the order of the keys, null for a key that is not stored
+     */
+    List<T> getAll(long[] keys) {
+        List<T> list = new ArrayList<>(keys.length);
+        for (long key : keys) list.add(get(key));
+        return list;
+    }
+
+    /**
+     * Writes records with one append to the write-ahead log
+     */
+    void putAll(List<T> records) {
+        long[] keys = new long[records.size()];
+        List<byte[]> values = new ArrayList<>(records.size());
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = keyOf.applyAsLong(records.get(i));
+            values.add(FileUtils.toBytes(records.get(i)));
+        }
+        tree.putAll(keys, values);
+    }
+
+    /**
+     * Makes the tree hold exactly the given records: writes the ones that are new or differ from the stored bytes
+     * and deletes the keys that are not given. Unchanged records are only compared, not written again
+     *
+     * @param records all records
+     * @return number of written and deleted keys
+     */
+    int replaceAll(Iterable<T> records) {
+        LongHashMap<T> pending = new LongHashMap<>();
+        for (T r : records) pending.put(keyOf.applyAsLong(r), r);
+
+        List<Long> deleted = new ArrayList<>();
+        tree.forEach((key, bytes) -> {
+            T r = pending.get(key);
+            if (r == null) deleted.add(key);
+            else if (Arrays.equals(FileUtils.toBytes(r), bytes)) pending.remove(key);
+        });
+        List<T> changed = pending.values();
+        if (!changed.isEmpty()) putAll(changed);
+        for (long key : deleted) tree.delete(key);
+        return changed.size() + deleted.size();
+    }
+
+    LsmTree getTree() {
+        return tree;
+    }
+
+    @Override
+    public void close() throws IOException {
+        tree.close();
+    }
+}
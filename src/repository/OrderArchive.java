@@ -0,0 +1,245 @@
+package repository;
+
+import model.Order;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Read-only, compressed cold storage for orders whose event already took place.
+ * Orders are grouped in pages, each page is a gzip compressed list of orders, so one order can be read
+ * without decompressing the whole archive. Only the index (order code to page) is kept in memory,
+ * pages are read on demand and a few recently used pages are cached.
+ *
+ * File layout:
+ *   magic, version
+ *   page 0 .. page n-1         gzip(serialized List of Order)
+ *   index                      page offsets and lengths, then (order code, page number) pairs
+ *   index offset (long)        last 8 bytes of the file
+ * @author mymym
+ */
+public class OrderArchive {
+    private static final int MAGIC = 0x4F524441; // "ORDA"
+    private static final int VERSION = 1;
+    private static final int PAGE_SIZE = 256;        // Orders per page
+    private static final int CACHED_PAGES = 8;
+
+    private final String filePath;
+    private final Map<String, Integer> index;         // Order code -> page number
+    private long[] pageOffsets;
+    private int[] pageLengths;
+    private final Map<Integer, Map<String, Order>> pageCache;
+
+    /**
+     * Constructor
+     * Opens the archive and reads its index, an archive that does not exist yet is treated as empty
+     *
+     * @param filePath archive file path
+     */
+    public OrderArchive(String filePath) {
+        this.filePath = filePath;
+        this.index = new HashMap<>();
+        this.pageOffsets = new long[0];
+        this.pageLengths = new int[0];
+        this.pageCache = new LinkedHashMap<Integer, Map<String, Order>>(CACHED_PAGES, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Map<String, Order>> eldest) {
+                return size() > CACHED_PAGES;
+            }
+        };
+        readIndex();
+    }
+
+    /**
+     * @return number of archived orders
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Checks if an order is in the archive, without reading any page
+     *
+     * @param orderCode order code
+     * @return true if the order is archived, false otherwise
+     */
+    public synchronized boolean contains(String orderCode) {
+        return orderCode != null && index.containsKey(orderCode);
+    }
+
+    /**
+     * Gets an archived order, reading its page from disk if it is not cached
+     *
+     * @param orderCode order code
+     * @return the archived order, null if it is not in the archive or the page cannot be read
+     */
+    public synchronized Order get(String orderCode) {
+        if (orderCode == null) return null;
+        Integer page = index.get(orderCode);
+        if (page == null) return null;
+
+        Map<String, Order> orders = pageCache.get(page);
+        if (orders == null) {
+            orders = readPage(page);
+            if (orders == null) return null;
+            pageCache.put(page, orders);
+        }
+        return orders.get(orderCode);
+    }
+
+    /**
+     * Adds orders to the archive
+     * Existing pages are copied as they are (no decompression), new orders are appended in new pages,
+     * then the file is replaced. Orders that are already archived are ignored.
+     *
+     * @param orders orders need to archive
+     * @return true if the archive was written, false otherwise
+     */
+    public synchronized boolean append(List<Order> orders) {
+        List<Order> newOrders = new ArrayList<>();
+        for (Order o : orders) {
+            if (o != null && o.getOrderCode() != null && !index.containsKey(o.getOrderCode())) newOrders.add(o);
+        }
+        if (newOrders.isEmpty()) return true;
+
+        File target = new File(filePath);
+        File tmp = new File(filePath + ".tmp");
+        int oldPages = pageOffsets.length;
+        int newPages = (newOrders.size() + PAGE_SIZE - 1) / PAGE_SIZE;
+        long[] offsets = Arrays.copyOf(pageOffsets, oldPages + newPages);
+        int[] lengths = Arrays.copyOf(pageLengths, oldPages + newPages);
+        Map<String, Integer> newIndex = new HashMap<>(index);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            long position = 8;
+
+            if (oldPages > 0) {
+                try (RandomAccessFile in = new RandomAccessFile(target, "r")) {
+                    for (int p = 0; p < oldPages; p++) {
+                        byte[] raw = new byte[pageLengths[p]];
+                        in.seek(pageOffsets[p]);
+                        in.readFully(raw);
+                        offsets[p] = position;
+                        out.write(raw);
+                        position += raw.length;
+                    }
+                }
+            }
+
+            for (int p = 0; p < newPages; p++) {
+                List<Order> page = new ArrayList<>(newOrders.subList(p * PAGE_SIZE,
+                        Math.min(newOrders.size(), (p + 1) * PAGE_SIZE)));
+                byte[] raw = compress(page);
+                offsets[oldPages + p] = position;
+                lengths[oldPages + p] = raw.length;
+                out.write(raw);
+                position += raw.length;
+                for (Order o : page) newIndex.put(o.getOrderCode(), oldPages + p);
+            }
+
+            long indexOffset = position;
+            out.writeInt(offsets.length);
+            for (int p = 0; p < offsets.length; p++) {
+                out.writeLong(offsets[p]);
+                out.writeInt(lengths[p]);
+            }
+            out.writeInt(newIndex.size());
+            for (Map.Entry<String, Integer> e : newIndex.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue());
+            }
+            out.writeLong(indexOffset);
+        } catch (IOException e) {
+            System.err.println("Failed to write order archive: " + tmp.getPath() + ". Error: " + e.getMessage());
+            return false;
+        }
+
+        if (target.exists() && !target.delete() || !tmp.renameTo(target)) {
+            System.err.println("Failed to replace order archive: " + target.getPath());
+            return false;
+        }
+        this.pageOffsets = offsets;
+        this.pageLengths = lengths;
+        this.index.clear();
+        this.index.putAll(newIndex);
+        return true;
+    }
+
+    /**
+     * Reads the page table and the code index from the end of the archive file
+     */
+    private void readIndex() {
+        File file = new File(filePath);
+        if (!file.exists()) return;
+
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (in.length() < 16 || in.readInt() != MAGIC || in.readInt() != VERSION) {
+                System.err.println("Warning: not a valid order archive: " + filePath);
+                return;
+            }
+            in.seek(in.length() - 8);
+            long indexOffset = in.readLong();
+            byte[] raw = new byte[(int) (in.length() - 8 - indexOffset)];
+            in.seek(indexOffset);
+            in.readFully(raw);
+            DataInputStream din = new DataInputStream(new ByteArrayInputStream(raw));
+            int pages = din.readInt();
+            long[] offsets = new long[pages];
+            int[] lengths = new int[pages];
+            for (int p = 0; p < pages; p++) {
+                offsets[p] = din.readLong();
+                lengths[p] = din.readInt();
+            }
+            int count = din.readInt();
+            for (int i = 0; i < count; i++) {
+                String code = din.readUTF();
+                index.put(code, din.readInt());
+            }
+            this.pageOffsets = offsets;
+            this.pageLengths = lengths;
+        } catch (IOException e) {
+            System.err.println("Failed to read order archive index: " + filePath + ". Error: " + e.getMessage());
+            index.clear();
+        }
+    }
+
+    /**
+     * Reads and decompresses one page
+     *
+     * @param page page number
+     * @return orders of the page by order code, null if the page cannot be read
+     */
+    private Map<String, Order> readPage(int page) {
+        byte[] raw = new byte[pageLengths[page]];
+        try (RandomAccessFile in = new RandomAccessFile(filePath, "r")) {
+            in.seek(pageOffsets[page]);
+            in.readFully(raw);
+        } catch (IOException e) {
+            System.err.println("Failed to read order archive page " + page + ". Error: " + e.getMessage());
+            return null;
+        }
+
+        try (ObjectInputStream ois = new ObjectInputStream(new GZIPInputStream(new ByteArrayInputStream(raw)))) {
+            @SuppressWarnings("unchecked")
+            List<Order> orders = (List<Order>) ois.readObject();
+            Map<String, Order> map = new HashMap<>();
+            for (Order o : orders) map.put(o.getOrderCode(), o);
+            return map;
+        } catch (IOException | ClassNotFoundException e) {
+            System.err.println("Failed to decompress order archive page " + page + ". Error: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private byte[] compress(List<Order> page) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(new GZIPOutputStream(bos))) {
+            oos.writeObject(page);
+        }
+        return bos.toByteArray();
+    }
+}
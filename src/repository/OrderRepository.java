@@ -1,43 +1,154 @@
 package repository;
 
 import model.Order;
-import tools.FileUtils;
+import tools.LongHashMap;
+import tools.OrderCodeCodec;
 
-import java.util.HashMap;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
- * 
+ * Loads and saves the orders of {@link business.Orders}, so the business layer does not depend on how they are stored.
+ * The location is given by the caller and means what the implementation needs: a data file ({@link FileOrderRepository}),
+ * a directory ({@link PartitionedOrderRepository}, {@link LsmOrderRepository}) or a table ({@link JdbcOrderRepository}).
  * @author mymym
  */
-public class OrderRepository {
-    
-    /**
-     * Read data through FileUtils method into a list, then convert it to a Map
-     * @param filePath
-     * @return 
-     */
-    public Map<String, Order> loadFromFile(String filePath) {
-        Map<String, Order> orderMap = new HashMap<>();
-        List<Order> ordersList = FileUtils.loadData(filePath); // FileUtils.loadData return List<Order>
-        if (ordersList != null) {
-            for (Order order : ordersList) {
-                if (order != null && order.getOrderCode() != null) {
-                    orderMap.put(order.getOrderCode(), order); // Order code is unique
-                }
-            }
+public interface OrderRepository {
+
+    /**
+     * Reads every order
+     *
+     * @param location where the orders are stored
+     * @return A map of orders by packed order code, empty if nothing is stored yet, null if the data cannot be read
+     */
+    LongHashMap<Order> load(String location);
+
+    /**
+     * Calls an action with every order, repositories that read them one by one do not keep them all in memory.
+     * By default all orders are loaded first
+     *
+     * @param location where the orders are stored
+     * @param action   called with every order
+     * @return true if every order was read, false if the data cannot be read (the action may have seen some orders)
+     */
+    default boolean forEach(String location, Consumer<Order> action) {
+        LongHashMap<Order> all = load(location);
+        if (all == null) return false;
+        all.stream().forEach(action);
+        return true;
+    }
+
+    /**
+     * Stores exactly the given orders, replacing the ones stored before
+     *
+     * @param location where the orders are stored
+     * @param orders   all orders
+     * @return true if the orders were saved, false if they could not be written
+     */
+    boolean save(String location, Iterable<Order> orders);
+
+    /**
+     * Saves knowing which event months have changed since the last save.
+     * By default the months are ignored and everything is saved
+     *
+     * @param location        where the orders are stored
+     * @param orders          all orders
+     * @param dirtyPartitions event months that contain new or changed orders
+     * @return true if the orders were saved, false if some could not be written
+     */
+    default boolean save(String location, Iterable<Order> orders, Set<YearMonth> dirtyPartitions) {
+        return save(location, orders);
+    }
+
+    /**
+     * Saves new or changed orders at once, for repositories that can write single records.
+     * By default nothing is written and the changes wait for {@link #save(String, Iterable)}
+     *
+     * @param location where the orders are stored
+     * @param orders   the new or changed orders
+     * @return true if the orders were saved, false if they must be saved with the others
+     */
+    default boolean saveAll(String location, List<Order> orders) {
+        return false;
+    }
+
+    /**
+     * Reads the orders of one customer. By default all orders are loaded to find them, repositories with an index look them up
+     *
+     * @param location   where the orders are stored
+     * @param customerId customer ID
+     * @return the orders, empty if there are none or the data cannot be read
+     */
+    default List<Order> findByCustomer(String location, String customerId) {
+        LongHashMap<Order> all = load(location);
+        if (all == null) return Collections.emptyList();
+        List<Order> found = new ArrayList<>();
+        for (Order o : all.values()) {
+            if (o.getCustomerId() != null && o.getCustomerId().equalsIgnoreCase(customerId)) found.add(o);
         }
-        return orderMap;
+        return found;
     }
 
     /**
-     * Save data in file path by FileUtils methods
-     * 
-     * @param filePath file path
-     * @param orders   list of order need to save
+     * Reads the orders with an event date in a window. By default all orders are loaded to find them,
+     * repositories with an index look them up
+     *
+     * @param location where the orders are stored
+     * @param from     first event date, included
+     * @param to       end of the window, excluded
+     * @return the orders, empty if there are none or the data cannot be read
      */
-    public void saveToFile(String filePath, List<Order> orders) {
-        FileUtils.saveData(filePath, orders); // FileUtils.saveData save List<Order>
+    default List<Order> findBetween(String location, Date from, Date to) {
+        LongHashMap<Order> all = load(location);
+        if (all == null) return Collections.emptyList();
+        List<Order> found = new ArrayList<>();
+        for (Order o : all.values()) {
+            Date d = o.getEventDate();
+            if (d != null && !d.before(from) && d.before(to)) found.add(o);
+        }
+        return found;
+    }
+
+    /**
+     * Reads orders by packed order code. By default all orders are loaded to find them, see {@link #hasKeyLookup()}
+     *
+     * @param location where the orders are stored
+     * @param codes    packed order codes, see {@link OrderCodeCodec#pack(CharSequence)}
+     * @return the orders in the order of the codes, null for a code that is not stored; null if the data cannot be read
+     */
+    default List<Order> findAllByCode(String location, long[] codes) {
+        LongHashMap<Order> all = load(location);
+        if (all == null) return null;
+        List<Order> found = new ArrayList<>(codes.length);
+        for (long code : codes) found.add(all.get(code));
+        return found;
+    }
+
+    /**
+     * @return true if {@link #findAllByCode(String, long[])} reads only the asked orders, so the others need not be kept in memory
+     */
+    default boolean hasKeyLookup() {
+        return false;
+    }
+
+    /**
+     * Puts a loaded order in the map, orders with a missing or invalid code are skipped with a warning
+     *
+     * @param orderMap map keyed by packed order code
+     * @param order    the loaded order
+     */
+    static void putOrder(LongHashMap<Order> orderMap, Order order) {
+        if (order == null) return;
+        long key = OrderCodeCodec.pack(order.getOrderCode());
+        if (key == OrderCodeCodec.INVALID) {
+            System.err.println("Warning: skipping order with invalid code: " + order.getOrderCode());
+            return;
+        }
+        orderMap.put(key, order); // Order code is unique
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,318 @@
+package repository;
+
+import model.Order;
+import tools.DateUtils;
+import tools.FileUtils;
+import tools.JfrEvents;
+import tools.LongHashMap;
+
+import java.io.*;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Stores orders in one segment file per event month, plus a manifest that lists the segments.
+ * Layout of the data directory:
+ *   manifest.txt          one line per segment: yyyy-MM,numberOfOrders
+ *   orders-yyyy-MM.dat    serialized orders whose event date falls in that month, plain or compressed
+ *
+ * Segments are loaded in parallel, or streamed one after the other by {@link #forEach(String, Consumer)},
+ * and only the months that contain changed orders are rewritten on save.
+ * @author mymym
+ */
+public class PartitionedOrderRepository extends FileOrderRepository {
+    private static final String MANIFEST_FILE = "manifest.txt";
+    private static final String SEGMENT_PREFIX = "orders-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    private final YearMonth loadFrom;
+    private final Set<YearMonth> loadedPartitions;
+
+    /**
+     * Constructor that loads every partition
+     */
+    public PartitionedOrderRepository() {
+        this(null, false);
+    }
+
+    /**
+     * Constructor that skips the partitions before a given month
+     *
+     * @param loadFrom first event month to load, null to load all months
+     */
+    public PartitionedOrderRepository(YearMonth loadFrom) {
+        this(loadFrom, false);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param loadFrom first event month to load, null to load all months
+     * @param compress true to save segments in compressed blocks
+     */
+    public PartitionedOrderRepository(YearMonth loadFrom, boolean compress) {
+        super(compress);
+        this.loadFrom = loadFrom;
+        this.loadedPartitions = Collections.synchronizedSet(new HashSet<>());
+    }
+
+    /**
+     * Reads the manifest, then loads every wanted segment in parallel and merges them into one Map
+     * A segment that cannot be read is left out and not marked as loaded, like in {@link #forEach(String, Consumer)}
+     * If the directory has no manifest yet, falls back to the old single file "dirPath.dat" so existing data is migrated
+     *
+     * @param dirPath directory of the partitioned data
+     * @return A map that contains order data, key is the packed order code
+     */
+    @Override
+    public LongHashMap<Order> load(String dirPath) {
+        Map<YearMonth, Integer> manifest = readManifest(dirPath);
+        if (manifest == null) {
+            String legacyPath = dirPath + SEGMENT_SUFFIX;
+            if (FileUtils.fileExistsAndReadable(legacyPath)) {
+                System.out.println("Migrating order data from " + legacyPath + " to partitions in " + dirPath);
+                return super.load(legacyPath);
+            }
+            return new LongHashMap<>();
+        }
+
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.LOAD).operation("order partitions").path(dirPath);
+        List<List<Order>> segments = manifest.keySet().parallelStream()
+                .filter(month -> loadFrom == null || !month.isBefore(loadFrom))
+                .map(month -> {
+                    List<Order> list = FileUtils.loadDataOrNull(segmentPath(dirPath, month));
+                    if (list == null) return Collections.<Order>emptyList(); //Not marked as loaded, a save merges the month with its file
+                    loadedPartitions.add(month);
+                    return list;
+                })
+                .collect(Collectors.toList());
+
+        int total = 0;
+        for (List<Order> segment : segments) total += segment.size();
+        LongHashMap<Order> orderMap = new LongHashMap<>(total);
+        for (List<Order> segment : segments) {
+            for (Order order : segment) {
+                OrderRepository.putOrder(orderMap, order);
+            }
+        }
+        if (span.isRecording()) span.records(orderMap.size()).bytes(directoryBytes(dirPath)).commit();
+        return orderMap;
+    }
+
+    /**
+     * Reads the wanted segments one after the other, each one order by order, so the orders are never all in memory.
+     * Falls back to the old single file like {@link #load(String)}
+     *
+     * @param dirPath directory of the partitioned data
+     * @param action  called with every order
+     * @return true if every wanted segment was read
+     */
+    @Override
+    public boolean forEach(String dirPath, Consumer<Order> action) {
+        Map<YearMonth, Integer> manifest = readManifest(dirPath);
+        if (manifest == null) {
+            String legacyPath = dirPath + SEGMENT_SUFFIX;
+            if (FileUtils.fileExistsAndReadable(legacyPath)) {
+                System.out.println("Migrating order data from " + legacyPath + " to partitions in " + dirPath);
+                return super.forEach(legacyPath, action);
+            }
+            return true;
+        }
+
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.LOAD).operation("order partitions").path(dirPath);
+        int[] count = new int[1];
+        boolean read = true;
+        for (YearMonth month : manifest.keySet()) {
+            if (loadFrom != null && month.isBefore(loadFrom)) continue;
+            boolean segmentRead = readFile(segmentPath(dirPath, month), order -> {
+                action.accept(order);
+                count[0]++;
+            });
+            if (segmentRead) loadedPartitions.add(month);
+            else read = false; //Not marked as loaded, so a save merges the month with its file instead of replacing it
+        }
+        if (!read) span.result("not read");
+        if (span.isRecording()) span.records(count[0]).bytes(directoryBytes(dirPath)).commit();
+        return read;
+    }
+
+    /**
+     * Rewrites every partition
+     *
+     * @param dirPath directory of the partitioned data
+     * @param orders  orders need to save
+     * @return true if every partition and the manifest were written
+     */
+    @Override
+    public boolean save(String dirPath, Iterable<Order> orders) {
+        Set<YearMonth> all = new HashSet<>();
+        for (Order o : orders) all.add(DateUtils.toYearMonth(o.getEventDate()));
+        Map<YearMonth, Integer> manifest = readManifest(dirPath);
+        if (manifest != null) all.addAll(manifest.keySet());
+        return writePartitions(dirPath, orders, all, manifest);
+    }
+
+    /**
+     * Rewrites only the partitions that contain changed orders, then the manifest
+     * If there is no manifest yet (first save or migration), every partition is written
+     *
+     * @param dirPath           directory of the partitioned data
+     * @param orders            orders need to save
+     * @param dirtyPartitions   event months that contain new or changed orders
+     * @return true if the partitions and the manifest were written
+     */
+    @Override
+    public boolean save(String dirPath, Iterable<Order> orders, Set<YearMonth> dirtyPartitions) {
+        Map<YearMonth, Integer> manifest = readManifest(dirPath);
+        if (manifest == null) return save(dirPath, orders);
+        return writePartitions(dirPath, orders, dirtyPartitions, manifest);
+    }
+
+    /**
+     * Writes the given partitions and updates the manifest
+     * A partition that was skipped at load time keeps the orders already stored in its segment
+     *
+     * @param dirPath   directory of the partitioned data
+     * @param orders    all orders in memory
+     * @param toWrite   partitions need to be written
+     * @param manifest  current manifest, null if there is none
+     * @return true if every partition and the manifest were written
+     */
+    private boolean writePartitions(String dirPath, Iterable<Order> orders, Set<YearMonth> toWrite, Map<YearMonth, Integer> manifest) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.SAVE).operation("order partitions").path(dirPath);
+        File dir = new File(dirPath);
+        if (!dir.exists() && !dir.mkdirs()) {
+            System.err.println("Failed to create order data directory: " + dir.getAbsolutePath());
+            span.result("cannot create directory").commit();
+            return false;
+        }
+        long written = 0, bytes = 0;
+        int failed = 0;
+
+        Map<YearMonth, List<Order>> byMonth = new HashMap<>();
+        for (Order o : orders) {
+            YearMonth month = DateUtils.toYearMonth(o.getEventDate());
+            if (toWrite.contains(month)) {
+                byMonth.computeIfAbsent(month, k -> new ArrayList<>()).add(o);
+            }
+        }
+
+        Map<YearMonth, Integer> newManifest = manifest == null ? new TreeMap<>() : new TreeMap<>(manifest);
+        for (YearMonth month : toWrite) {
+            if (month == null) continue;
+            List<Order> segment = byMonth.getOrDefault(month, new ArrayList<>());
+            if (newManifest.containsKey(month) && !loadedPartitions.contains(month)) {
+                //This month was never loaded, keep what is already on disk
+                List<Order> stored = FileUtils.loadDataOrNull(segmentPath(dirPath, month));
+                if (stored == null) {
+                    //Writing only the orders in memory would lose the others, leave the month as it is on disk
+                    System.err.println("Failed to save orders of " + month + ": its partition cannot be read.");
+                    failed++;
+                    continue;
+                }
+                Set<String> codes = new HashSet<>();
+                for (Order o : segment) codes.add(o.getOrderCode());
+                for (Order old : stored) {
+                    if (old != null && !codes.contains(old.getOrderCode())) segment.add(old);
+                }
+            }
+
+            File segmentFile = new File(segmentPath(dirPath, month));
+            if (segment.isEmpty()) {
+                if (segmentFile.exists() && !segmentFile.delete()) {
+                    System.err.println("Failed to delete empty partition: " + segmentFile.getPath());
+                }
+                newManifest.remove(month);
+            } else {
+                if (!writeFile(segmentFile.getPath(), segment)) {
+                    failed++;
+                    continue; //The manifest keeps the count of what is left on disk, the month is saved again next time
+                }
+                newManifest.put(month, segment.size());
+                written += segment.size();
+                if (span.isRecording()) bytes += segmentFile.length();
+            }
+            loadedPartitions.add(month);
+        }
+        if (!writeManifest(dirPath, newManifest)) failed++;
+        if (failed > 0) span.result(failed + " files not saved");
+        span.records(written).bytes(bytes).commit(); //Only the rewritten partitions
+        return failed == 0;
+    }
+
+    /**
+     * @return total size of the segment files of a data directory
+     */
+    private static long directoryBytes(String dirPath) {
+        File[] files = new File(dirPath).listFiles((d, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        long bytes = 0;
+        if (files != null) {
+            for (File f : files) bytes += f.length();
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads the manifest of a data directory
+     *
+     * @param dirPath directory of the partitioned data
+     * @return A Map from event month to number of orders, null if the manifest does not exist
+     */
+    private Map<YearMonth, Integer> readManifest(String dirPath) {
+        File file = new File(dirPath, MANIFEST_FILE);
+        if (!file.exists()) return null;
+
+        Map<YearMonth, Integer> manifest = new TreeMap<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.trim().isEmpty()) continue;
+                String[] parts = line.split(",");
+                try {
+                    manifest.put(YearMonth.parse(parts[0].trim()),
+                            parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 0);
+                } catch (DateTimeParseException | NumberFormatException e) {
+                    System.err.println("Skipping invalid manifest line: " + line);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to read manifest: " + file.getPath() + ". Error: " + e.getMessage());
+            return null;
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes the manifest to a temporary file then replaces the old one,
+     * so a crash during save never leaves a half written manifest
+     *
+     * @param dirPath  directory of the partitioned data
+     * @param manifest event month to number of orders
+     * @return true if the manifest was replaced
+     */
+    private boolean writeManifest(String dirPath, Map<YearMonth, Integer> manifest) {
+        File tmp = new File(dirPath, MANIFEST_FILE + ".tmp");
+        try (PrintWriter pw = new PrintWriter(new FileWriter(tmp))) {
+            for (Map.Entry<YearMonth, Integer> e : manifest.entrySet()) {
+                pw.println(e.getKey() + "," + e.getValue());
+            }
+            if (pw.checkError()) throw new IOException("write error");
+        } catch (IOException e) {
+            System.err.println("Failed to write manifest: " + tmp.getPath() + ". Error: " + e.getMessage());
+            return false;
+        }
+        File target = new File(dirPath, MANIFEST_FILE);
+        if (target.exists() && !target.delete() || !tmp.renameTo(target)) {
+            System.err.println("Failed to replace manifest: " + target.getPath());
+            return false;
+        }
+        return true;
+    }
+
+    private String segmentPath(String dirPath, YearMonth month) {
+        return new File(dirPath, SEGMENT_PREFIX + month + SEGMENT_SUFFIX).getPath();
+    }
+}
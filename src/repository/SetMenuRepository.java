@@ -7,6 +7,7 @@ import java.io.*;
 import java.util.HashMap;
 import java.util.Map;
 import tools.FileUtils;
+import tools.JfrEvents;
 
 /**
  * 
@@ -24,11 +25,14 @@ public class SetMenuRepository {
      * @return A Map contains list of set menus
      */
     public Map<String, SetMenu> loadFromFile(String filePath) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.CSV_PARSE).operation("set menus").path(filePath);
         Map<String, SetMenu> menuMap = new HashMap<>();
         File file = new File(filePath);
         if (!FileUtils.fileExistsAndReadable(filePath)) {
+            span.result("not found").commit();
             return menuMap; //return empty if file can't read
         }
+        int skipped = 0;
 
         FileReader fr = null;
         BufferedReader br = null;
@@ -43,16 +47,21 @@ public class SetMenuRepository {
                 SetMenu set = dataToObject(line);
                 if (set != null && !menuMap.containsKey(set.getMenuId())) { //Checks if file is duplicated or not
                     menuMap.put(set.getMenuId(), set);
+                } else {
+                    skipped++;
                 }
             }
         } catch (FileNotFoundException e) {
             System.err.println("File not found");
+            span.result("not found").commit();
             return null;
         } catch (IOException e) {
             System.err.println("Error reading file");
+            span.result(e.toString()).commit();
             return null;
         } catch (Exception e) {
             System.err.println("Error parsing file");
+            span.result(e.toString()).commit();
             return null;
         } finally {
             try {
@@ -62,6 +71,8 @@ public class SetMenuRepository {
                 System.err.println("Error closing file");
             }
         }
+        span.records(menuMap.size()).bytes(file.length())
+                .result(skipped == 0 ? null : skipped + " invalid or duplicated lines skipped").commit();
         return menuMap;
     }
 
@@ -0,0 +1,46 @@
+package tools;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking version of {@link Workable}: every operation returns at once with a CompletableFuture,
+ * so callers can chain several steps (e.g. register a customer, then place an order) without waiting on a thread.
+ * Rejected changes complete exceptionally with an IllegalArgumentException that tells the reason.
+ * @param <T>
+ */
+public interface AsyncWorkable<T> {
+    /**
+     * @param x the new object
+     * @return completes with the object once it is added
+     */
+    CompletableFuture<T> addNew(T x);
+
+    /**
+     * @param x the updated object
+     * @return completes with the object once it replaced the old one
+     */
+    CompletableFuture<T> update(T x);
+
+    /**
+     * @param id the id of the object to search for
+     * @return completes with the found object, null if there is none
+     */
+    CompletableFuture<T> searchById(String id);
+
+    /**
+     * @return completes with one page of objects, see {@link Workable#page}
+     */
+    CompletableFuture<List<T>> page(Comparator<? super T> order, int offset, int limit);
+
+    /**
+     * @return completes when the changes made before this call are saved
+     */
+    CompletableFuture<Void> saveToFile();
+
+    /**
+     * @return completes when the data is read again from file
+     */
+    CompletableFuture<Void> readFromFile();
+}
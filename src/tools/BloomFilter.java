@@ -0,0 +1,92 @@
+package tools;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Bloom filter of long keys: tells that a key is certainly not in a set, or that it may be.
+ * Uses 10 bits and 7 hash functions per expected key, about 1% false positives.
+ * The bits of key k are h1 + i * h2 for i = 0..6, with two hashes of the key (double hashing).
+ *
+ * Not synchronized, a filter is filled once and then only read.
+ * @author mymym
+ */
+public class BloomFilter {
+    private static final int BITS_PER_KEY = 10;
+    private static final int HASHES = 7;
+
+    private final long[] words;
+    private final long bits;
+
+    /**
+     * Constructs an empty filter
+     *
+     * @param expectedKeys number of keys that will be added, more keys give more false positives
+     */
+    public BloomFilter(int expectedKeys) {
+        this(new long[(int) Math.max(1, ((long) Math.max(1, expectedKeys) * BITS_PER_KEY + 63) / 64)]);
+    }
+
+    private BloomFilter(long[] words) {
+        this.words = words;
+        this.bits = (long) words.length * 64;
+    }
+
+    public void add(long key) {
+        long h1 = mix(key);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bits);
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @param key the key
+     * @return false if the key was never added, true if it may have been
+     */
+    public boolean mightContain(long key) {
+        long h1 = mix(key);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bits);
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return bytes written by {@link #writeTo(DataOutput)}
+     */
+    public int serializedBytes() {
+        return 4 + words.length * 8;
+    }
+
+    /**
+     * Writes the filter: number of words (int), words (long each)
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(words.length);
+        for (long w : words) out.writeLong(w);
+    }
+
+    /**
+     * Reads a filter written by {@link #writeTo(DataOutput)}
+     *
+     * @throws IOException if the data is not a filter
+     */
+    public static BloomFilter readFrom(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 1) throw new IOException("Invalid bloom filter length: " + length);
+        long[] words = new long[length];
+        for (int i = 0; i < length; i++) words[i] = in.readLong();
+        return new BloomFilter(words);
+    }
+
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+}
@@ -0,0 +1,434 @@
+package tools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A {@link RecordStore} for more records than fit in memory: every record is written to a {@link RecordLog}
+ * on disk and only a bounded {@link TinyLfuCache} of the records that are read most keeps objects on the heap.
+ * The heap also holds the location of every record, in a {@link PersistentLongMap} so that a
+ * snapshot is the map of the moment, like {@link PersistentLongStore}.
+ *
+ * With a {@link RecordSource}, e.g. a repository that looks records up by key, the loaded records are not copied:
+ * {@link #putFromSource(long[])} only adds their keys, with one shared location, and they are read from the source when asked.
+ * Only records put later are written to the log. A snapshot reads such records as the source holds them at that time,
+ * so a record that was changed and written to the source after the snapshot shows its new value.
+ *
+ * {@link #get(long)} reads through the cache; a put replaces a cached value, a new value enters the cache when it is read,
+ * so loading does not fill the cache with records nobody asked for. Scans ({@link #stream()}) read in key order, in batches,
+ * and do not change the cache, so a report over all records does not push out the records in use.
+ * Values read from the store may be shared with the cache and must not be changed.
+ *
+ * When more than half of the log is replaced or removed records, the live records are copied to a new log.
+ * Snapshots keep reading the old log, which is closed and deleted once no snapshot can reach it.
+ * @param <V> type of the stored values, must be Serializable
+ * @author mymym
+ */
+public class CachedStore<V> implements RecordStore<V> {
+    private static final int SCAN_BATCH = 256;
+    private static final long COMPACT_MIN_BYTES = 4L << 20; //Smaller logs are not worth copying
+
+    /**
+     * Position and size of a record in the log
+     */
+    private static final class Location {
+        final long position;
+        final int length;
+
+        Location(long position, int length) {
+            this.position = position;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Location of every record that is read from the source, shared so that such a record costs only its map entry
+     */
+    private static final Location IN_SOURCE = new Location(-1, 0);
+
+    /**
+     * A cached value and the location it was read from, it is only used while the key still has that location
+     */
+    private static final class Cached<V> {
+        final Location location;
+        final V value;
+
+        Cached(Location location, V value) {
+            this.location = location;
+            this.value = value;
+        }
+    }
+
+    /**
+     * The log and the locations of the records in it, replaced together by a compaction
+     */
+    private static final class State<V> {
+        final RecordLog<V> log;
+        final PersistentLongMap<Location> locations;
+
+        State(RecordLog<V> log, PersistentLongMap<Location> locations) {
+            this.log = log;
+            this.locations = locations;
+        }
+    }
+
+    /**
+     * A log replaced by a compaction, its file is closed once no snapshot can read the log any more
+     */
+    private static final class Retired extends PhantomReference<RecordLog<?>> {
+        final Closeable closer;
+
+        Retired(RecordLog<?> log, ReferenceQueue<Object> queue) {
+            super(log, queue);
+            this.closer = log.closer();
+        }
+    }
+
+    private final String logPath;
+    private final Consumer<V> onRead;  // Restores the transient fields of a value read from the log, may be null
+    private final RecordSource<V> source;  // May be null, then every record is in the log
+    private final TinyLfuCache<Cached<V>> cache;
+    private final boolean frozen;
+    private volatile State<V> state;
+
+    //Only used by the writable store, under its lock
+    private final ReferenceQueue<Object> retiredQueue;
+    private final Set<Retired> retired;
+    private long liveBytes;
+    private long compactAfter = COMPACT_MIN_BYTES;
+    private int generation;
+
+    /**
+     * Constructs an empty store
+     *
+     * @param logPath      path of the log file, created empty and deleted by {@link #close()}
+     * @param cacheEntries maximum number of values kept on the heap
+     * @throws UncheckedIOException if the log file cannot be created
+     */
+    public CachedStore(String logPath, int cacheEntries) {
+        this(logPath, cacheEntries, null);
+    }
+
+    /**
+     * Constructs an empty store whose values get their transient fields back when they are read from the log
+     *
+     * @param logPath      path of the log file, created empty and deleted by {@link #close()}
+     * @param cacheEntries maximum number of values kept on the heap
+     * @param onRead       called with every value read from the log, e.g. to link it to other data
+     * @throws UncheckedIOException if the log file cannot be created
+     */
+    public CachedStore(String logPath, int cacheEntries, Consumer<V> onRead) {
+        this(logPath, cacheEntries, onRead, null);
+    }
+
+    /**
+     * Constructs an empty store that can hold records read from a source, see {@link #putFromSource(long[])}
+     *
+     * @param logPath      path of the log file, created empty and deleted by {@link #close()}
+     * @param cacheEntries maximum number of values kept on the heap
+     * @param onRead       called with every value read from the log or the source, e.g. to link it to other data
+     * @param source       where the records added by {@link #putFromSource(long[])} are read, null if there are none
+     * @throws UncheckedIOException if the log file cannot be created
+     */
+    public CachedStore(String logPath, int cacheEntries, Consumer<V> onRead, RecordSource<V> source) {
+        this.logPath = logPath;
+        this.onRead = onRead;
+        this.source = source;
+        this.cache = new TinyLfuCache<>(cacheEntries);
+        this.frozen = false;
+        this.state = new State<>(new RecordLog<V>(logPath), PersistentLongMap.<Location>empty());
+        this.retiredQueue = new ReferenceQueue<>();
+        this.retired = new HashSet<>();
+    }
+
+    private CachedStore(CachedStore<V> store, State<V> state) {
+        this.logPath = store.logPath;
+        this.onRead = store.onRead;
+        this.source = store.source;
+        this.cache = store.cache;
+        this.frozen = true;
+        this.state = state;
+        this.retiredQueue = null;
+        this.retired = null;
+    }
+
+    @Override
+    public V get(long key) {
+        State<V> s = state;
+        Location location = s.locations.get(key);
+        if (location == null) return null;
+        Cached<V> cached = frozen ? cache.peek(key) : cache.get(key);
+        if (cached != null && cached.location == location) return cached.value;
+        V value = read(s, key, location);
+        if (!frozen && value != null) cache.put(key, new Cached<>(location, value));
+        return value;
+    }
+
+    /**
+     * Reads a value like {@link #get(long)} but without counting it in the cache
+     */
+    private V current(State<V> s, long key) {
+        Location location = s.locations.get(key);
+        if (location == null) return null;
+        Cached<V> cached = cache.peek(key);
+        return cached != null && cached.location == location ? cached.value : read(s, key, location);
+    }
+
+    private V read(State<V> s, long key, Location location) {
+        V value = location == IN_SOURCE ? source.read(new long[]{key}).get(0) : s.log.read(location.position);
+        if (value != null && onRead != null) onRead.accept(value);
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(long key) {
+        return state.locations.containsKey(key);
+    }
+
+    @Override
+    public synchronized V put(long key, V value) {
+        Objects.requireNonNull(value);
+        checkWritable();
+        State<V> s = state;
+        V old = current(s, key);
+        Location location = append(s.log, value);
+        release(s.locations.get(key));
+        state = new State<>(s.log, s.locations.plus(key, location));
+        if (cache.peek(key) != null) cache.put(key, new Cached<>(location, value));
+        compactIfNeeded();
+        return old;
+    }
+
+    /**
+     * Appends the values to the log, then publishes all locations at once
+     */
+    @Override
+    public synchronized void putAll(long[] keys, List<V> values) {
+        checkWritable();
+        State<V> s = state;
+        PersistentLongMap.Builder<Location> builder = s.locations.toBuilder();
+        for (int i = 0; i < keys.length; i++) {
+            Location location = append(s.log, Objects.requireNonNull(values.get(i)));
+            release(builder.get(keys[i]));
+            builder.put(keys[i], location);
+            cache.invalidate(keys[i]);
+        }
+        state = new State<>(s.log, builder.build());
+        compactIfNeeded();
+    }
+
+    /**
+     * Adds records that stay in the source and are read from it when asked, nothing is written to the log
+     *
+     * @param keys keys of records the source holds
+     * @throws IllegalStateException if the store has no source
+     * @throws UnsupportedOperationException if this store is a snapshot
+     */
+    public synchronized void putFromSource(long[] keys) {
+        checkWritable();
+        if (source == null) throw new IllegalStateException("Store has no record source");
+        State<V> s = state;
+        PersistentLongMap.Builder<Location> builder = s.locations.toBuilder();
+        for (long key : keys) {
+            release(builder.get(key));
+            builder.put(key, IN_SOURCE);
+            cache.invalidate(key);
+        }
+        state = new State<>(s.log, builder.build());
+        compactIfNeeded();
+    }
+
+    @Override
+    public synchronized V remove(long key) {
+        checkWritable();
+        State<V> s = state;
+        Location location = s.locations.get(key);
+        if (location == null) return null;
+        V old = current(s, key);
+        release(location);
+        state = new State<>(s.log, s.locations.minus(key));
+        cache.invalidate(key);
+        compactIfNeeded();
+        return old;
+    }
+
+    @Override
+    public synchronized void removeAll(long[] keys) {
+        checkWritable();
+        State<V> s = state;
+        PersistentLongMap.Builder<Location> builder = s.locations.toBuilder();
+        for (long key : keys) {
+            release(builder.get(key));
+            builder.remove(key);
+            cache.invalidate(key);
+        }
+        state = new State<>(s.log, builder.build());
+        compactIfNeeded();
+    }
+
+    private void checkWritable() {
+        if (frozen) throw new UnsupportedOperationException("Snapshot is read-only");
+    }
+
+    private Location append(RecordLog<V> log, V value) {
+        long position = log.append(value);
+        int length = (int) (log.length() - position);
+        liveBytes += length;
+        return new Location(position, length);
+    }
+
+    /**
+     * Counts the bytes of a replaced or removed record as garbage
+     */
+    private void release(Location location) {
+        if (location != null) liveBytes -= location.length;
+    }
+
+    /**
+     * Compacts the log when it holds more garbage than live records, and at least {@link #COMPACT_MIN_BYTES} of it
+     */
+    private void compactIfNeeded() {
+        long garbage = state.log.length() - liveBytes;
+        if (garbage < compactAfter || garbage < liveBytes) return;
+        try {
+            compact();
+            compactAfter = COMPACT_MIN_BYTES;
+        } catch (UncheckedIOException e) {
+            System.err.println("Failed to compact record log " + logPath + ". Error: " + e.getMessage());
+            compactAfter = garbage * 2; //Tries again when the log has grown
+        }
+    }
+
+    /**
+     * Copies the live records to a new log without deserializing them and reads from it from now on.
+     * Cached values are moved to their new locations
+     */
+    private void compact() {
+        State<V> s = state;
+        RecordLog<V> log = new RecordLog<>(logPath + "." + (++generation));
+        try {
+            PersistentLongMap.Builder<Location> builder = s.locations.toBuilder();
+            for (long key : s.locations.keys()) {
+                Location old = s.locations.get(key);
+                if (old == IN_SOURCE) continue;
+                Location moved = new Location(log.appendRecord(s.log.readRecord(old.position)), old.length);
+                builder.put(key, moved);
+                Cached<V> cached = cache.peek(key);
+                if (cached != null && cached.location == old) cache.put(key, new Cached<>(moved, cached.value));
+            }
+            state = new State<>(log, builder.build());
+        } catch (UncheckedIOException e) {
+            closeQuietly(log);
+            throw e;
+        }
+        retired.add(new Retired(s.log, retiredQueue));
+        closeRetired();
+    }
+
+    /**
+     * Closes the replaced logs that no snapshot can read any more
+     */
+    private void closeRetired() {
+        Reference<?> reference;
+        while ((reference = retiredQueue.poll()) != null) {
+            retired.remove(reference);
+            closeQuietly(((Retired) reference).closer);
+        }
+    }
+
+    private static void closeQuietly(Closeable log) {
+        try {
+            log.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close record log. Error: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public int size() { return state.locations.size(); }
+
+    @Override
+    public CachedStore<V> snapshot() {
+        return frozen ? this : new CachedStore<>(this, state);
+    }
+
+    /**
+     * Streams the values in key order, without going through the cache. The keys are read at once,
+     * the values {@value #SCAN_BATCH} at a time, with one read of the source per batch.
+     * A record of the source that is not found any more is skipped
+     */
+    @Override
+    public Stream<V> stream() {
+        State<V> s = state;
+        long[] keys = s.locations.keys();
+        Arrays.sort(keys);
+        return IntStream.range(0, (keys.length + SCAN_BATCH - 1) / SCAN_BATCH)
+                .mapToObj(b -> readBatch(s, Arrays.copyOfRange(keys, b * SCAN_BATCH, Math.min(keys.length, (b + 1) * SCAN_BATCH))))
+                .flatMap(List::stream);
+    }
+
+    private List<V> readBatch(State<V> s, long[] keys) {
+        Location[] locations = new Location[keys.length];
+        long[] inSource = new long[keys.length];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            locations[i] = s.locations.get(keys[i]);
+            if (locations[i] == IN_SOURCE) inSource[n++] = keys[i];
+        }
+        List<V> found = n == 0 ? Collections.<V>emptyList() : source.read(Arrays.copyOf(inSource, n));
+        List<V> values = new ArrayList<>(keys.length);
+        int next = 0;
+        for (Location location : locations) {
+            V value = location == IN_SOURCE ? found.get(next++) : s.log.read(location.position);
+            if (value == null) continue;
+            if (onRead != null) onRead.accept(value);
+            values.add(value);
+        }
+        return values;
+    }
+
+    @Override
+    public Iterator<V> iterator() {
+        return stream().iterator();
+    }
+
+    /**
+     * @return hit rate and evictions of the cache
+     */
+    public TinyLfuCache.Stats cacheStats() {
+        return cache.stats();
+    }
+
+    /**
+     * @return bytes of the current log file, including replaced records that are not compacted yet
+     */
+    public long logBytes() {
+        return state.log.length();
+    }
+
+    /**
+     * Deletes the log files, the store and its snapshots cannot be read any more
+     */
+    public synchronized void close() {
+        closeQuietly(state.log);
+        if (retired != null) {
+            for (Retired r : retired) closeQuietly(r.closer);
+            retired.clear();
+        }
+    }
+}
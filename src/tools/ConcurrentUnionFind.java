@@ -0,0 +1,58 @@
+package tools;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Disjoint sets over the numbers 0 to size - 1, that several threads can merge at the same time without locks.
+ * Each set is a tree stored as a parent array. A union links the root with the higher number under the other root
+ * with a compare-and-set, and tries again if another thread changed that root first. Finds shorten the path
+ * they walk (path halving), also with compare-and-set, so trees stay flat.
+ * @author mymym
+ */
+public class ConcurrentUnionFind {
+    private final AtomicIntegerArray parent;
+
+    /**
+     * Constructor, every number starts in its own set
+     *
+     * @param size number of elements
+     */
+    public ConcurrentUnionFind(int size) {
+        this.parent = new AtomicIntegerArray(size);
+        for (int i = 0; i < size; i++) parent.set(i, i);
+    }
+
+    /**
+     * @param x an element
+     * @return the root of the set of x, the same for all elements of a set while no union runs
+     */
+    public int find(int x) {
+        while (true) {
+            int p = parent.get(x);
+            if (p == x) return x;
+            int grandparent = parent.get(p);
+            if (p != grandparent) parent.compareAndSet(x, p, grandparent);
+            x = grandparent;
+        }
+    }
+
+    /**
+     * Merges the sets of two elements
+     *
+     * @param a an element
+     * @param b another element
+     * @return true if the sets were merged, false if a and b were already in the same set
+     */
+    public boolean union(int a, int b) {
+        while (true) {
+            int ra = find(a), rb = find(b);
+            if (ra == rb) return false;
+            int low = Math.min(ra, rb), high = Math.max(ra, rb);
+            if (parent.compareAndSet(high, high, low)) return true; // Fails if high stopped being a root
+        }
+    }
+
+    public int size() {
+        return parent.length();
+    }
+}
@@ -0,0 +1,87 @@
+package tools;
+
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Reads a collection page by page in a given order.
+ * Each page is found by a new pass over the collection that keeps only the objects after the last one returned,
+ * so the cursor holds one page in memory and sees objects added after it was opened.
+ * @param <T> type of the objects
+ */
+public class Cursor<T> implements Iterator<List<T>> {
+    private final Workable<T> source;
+    private final Comparator<? super T> order;
+    private final int pageSize;
+    private T last;             // Last object returned, null before the first page
+    private List<T> nextPage;   // Page read by hasNext and not returned yet
+    private boolean finished;
+
+    /**
+     * Constructor
+     *
+     * @param source   the collection
+     * @param order    sort order, must not consider two different objects equal
+     * @param pageSize number of objects per page
+     */
+    public Cursor(Workable<T> source, Comparator<? super T> order, int pageSize) {
+        if (pageSize <= 0) throw new IllegalArgumentException("Page size must be positive");
+        this.source = source;
+        this.order = order;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextPage == null && !finished) {
+            nextPage = source.pageAfter(order, last, pageSize);
+            if (nextPage.isEmpty()) {
+                nextPage = null;
+                finished = true;
+            }
+        }
+        return nextPage != null;
+    }
+
+    @Override
+    public List<T> next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        List<T> page = nextPage;
+        nextPage = null;
+        last = page.get(page.size() - 1);
+        if (page.size() < pageSize) finished = true;
+        return page;
+    }
+
+    /**
+     * @return the last object returned, to continue later with {@link Workable#pageAfter}
+     */
+    public T position() {
+        return last;
+    }
+
+    /**
+     * Gets the k smallest objects of a stream in order, keeping at most k objects in memory
+     *
+     * @param stream the objects
+     * @param order  sort order
+     * @param k      number of objects
+     * @param <T>    type of the objects
+     * @return the k smallest objects sorted, or all objects if there are fewer
+     */
+    static <T> List<T> smallest(Stream<T> stream, Comparator<? super T> order, int k) {
+        if (k <= 0) return new ArrayList<>();
+        PriorityQueue<T> heap = new PriorityQueue<>(Math.min(k, 1024) + 1, Collections.reverseOrder(order)); // Largest on top
+        stream.forEach(x -> {
+            if (heap.size() < k) {
+                heap.add(x);
+            } else if (order.compare(x, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(x);
+            }
+        });
+        List<T> result = new ArrayList<>(heap);
+        result.sort(order);
+        return result;
+    }
+}
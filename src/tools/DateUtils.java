@@ -2,6 +2,9 @@ package tools;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
 import java.util.Date;
 
 /**
@@ -44,4 +47,36 @@ public class DateUtils {
             return null;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Gets the calendar month that a date falls in, using the system time zone.
+     * Unlike {@link #formatDate(Date)} this does not touch the shared formatter, so it is safe to call from several threads.
+     *
+     * @param date The date to convert.
+     * @return The YearMonth of the date, or null if the date is null.
+     */
+    public static YearMonth toYearMonth(Date date) {
+        if (date == null) return null;
+        return YearMonth.from(date.toInstant().atZone(ZoneId.systemDefault()));
+    }
+
+    /**
+     * Converts a date to the number of days since 01/01/1970, using the system time zone.
+     *
+     * @param date The date to convert.
+     * @return The epoch day of the date.
+     */
+    public static int toEpochDay(Date date) {
+        return (int) date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+    }
+
+    /**
+     * Converts a number of days since 01/01/1970 back to a Date at the start of that day.
+     *
+     * @param epochDay The epoch day.
+     * @return The Date at midnight of that day in the system time zone.
+     */
+    public static Date fromEpochDay(int epochDay) {
+        return Date.from(LocalDate.ofEpochDay(epochDay).atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+}
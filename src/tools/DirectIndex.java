@@ -0,0 +1,278 @@
+package tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A map for IDs with a fixed format, stored in arrays.
+ * Every possible ID is turned into its own slot number, so a lookup is two array accesses
+ * (chunk, then slot in chunk), with no hashing and no String allocation (IDs are matched case-insensitively).
+ *
+ * {@link #snapshot()} returns a frozen copy in constant time: both copies share the chunks,
+ * and a chunk is copied only when it is changed for the first time after the snapshot.
+ * Changes and snapshots are synchronized, so a snapshot can be taken while another thread makes changes;
+ * reads are not, a read during a change sees the value before or after it.
+ * As a {@link RecordStore} the keys are the slot numbers.
+ * @param <V> type of the stored values
+ */
+public class DirectIndex<V> implements RecordStore<V> {
+    public static final int CUSTOMER_SLOTS = 3 * 10_000;   // [CGK]\d{4}
+    public static final int MENU_SLOTS = 1_000;            // PW\d{3}
+
+    private static final int CHUNK_BITS = 8;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private final ToIntFunction<CharSequence> encoder;
+    private final int slots;
+    private final Object[][] chunks;
+    private final boolean[] owned;  //False if the chunk is shared with a snapshot and must be copied before a change
+    private final boolean frozen;
+    private int size;
+
+    /**
+     * Constructs an empty index
+     *
+     * @param slots   number of possible IDs
+     * @param encoder turns an ID into its slot, or -1 if the ID does not have the right format
+     */
+    public DirectIndex(int slots, ToIntFunction<CharSequence> encoder) {
+        this.encoder = encoder;
+        this.slots = slots;
+        int chunkCount = (slots + CHUNK_SIZE - 1) >> CHUNK_BITS;
+        this.chunks = new Object[chunkCount][];
+        for (int i = 0; i < chunkCount; i++) chunks[i] = new Object[CHUNK_SIZE];
+        this.owned = new boolean[chunkCount];
+        Arrays.fill(this.owned, true);
+        this.frozen = false;
+    }
+
+    private DirectIndex(DirectIndex<V> source) {
+        this.encoder = source.encoder;
+        this.slots = source.slots;
+        this.chunks = source.chunks.clone();
+        this.owned = new boolean[chunks.length];
+        this.frozen = true;
+        this.size = source.size;
+    }
+
+    /**
+     * Gets a read-only copy of the current content, later changes to this index are not visible in it
+     *
+     * @return the snapshot
+     */
+    @Override
+    public synchronized DirectIndex<V> snapshot() {
+        if (frozen) return this;
+        Arrays.fill(owned, false);
+        return new DirectIndex<>(this);
+    }
+
+    /**
+     * @return an empty index for customer IDs, see {@link Acceptable#CUS_ID_VALID}
+     */
+    public static <V> DirectIndex<V> forCustomers() {
+        return new DirectIndex<>(CUSTOMER_SLOTS, DirectIndex::customerSlot);
+    }
+
+    /**
+     * @return an empty index for set menu IDs, see {@link Acceptable#MENU_ID_VALID}
+     */
+    public static <V> DirectIndex<V> forMenus() {
+        return new DirectIndex<>(MENU_SLOTS, DirectIndex::menuSlot);
+    }
+
+    /**
+     * Gets the slot of a customer ID: C, G, K give 0, 1, 2 and the four digits are added
+     *
+     * @param id customer ID
+     * @return slot from 0 to 29999, or -1 if the ID is not C/G/K followed by 4 digits
+     */
+    public static int customerSlot(CharSequence id) {
+        if (id == null || id.length() != 5) return -1;
+        int prefix;
+        switch (id.charAt(0)) {
+            case 'C': case 'c': prefix = 0; break;
+            case 'G': case 'g': prefix = 1; break;
+            case 'K': case 'k': prefix = 2; break;
+            default: return -1;
+        }
+        int number = digits(id, 1, 5);
+        return number < 0 ? -1 : prefix * 10_000 + number;
+    }
+
+    /**
+     * Gets the customer ID of a slot, the inverse of {@link #customerSlot(CharSequence)}
+     *
+     * @param slot slot from 0 to 29999
+     * @return upper case customer ID
+     * @throws IllegalArgumentException if the slot is out of range
+     */
+    public static String customerId(long slot) {
+        if (slot < 0 || slot >= CUSTOMER_SLOTS) throw new IllegalArgumentException("Invalid customer slot: " + slot);
+        return "CGK".charAt((int) (slot / 10_000)) + String.format("%04d", slot % 10_000);
+    }
+
+    /**
+     * Gets the slot of a set menu ID: the three digits after PW
+     *
+     * @param id set menu ID
+     * @return slot from 0 to 999, or -1 if the ID is not PW followed by 3 digits
+     */
+    public static int menuSlot(CharSequence id) {
+        if (id == null || id.length() != 5) return -1;
+        char p = id.charAt(0), w = id.charAt(1);
+        if ((p != 'P' && p != 'p') || (w != 'W' && w != 'w')) return -1;
+        return digits(id, 2, 5);
+    }
+
+    private static int digits(CharSequence s, int from, int to) {
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            int d = s.charAt(i) - '0';
+            if (d < 0 || d > 9) return -1;
+            n = n * 10 + d;
+        }
+        return n;
+    }
+
+    /**
+     * Checks if an ID has the format accepted by this index
+     *
+     * @param id the ID
+     * @return true if the ID has a slot, false otherwise
+     */
+    public boolean accepts(String id) {
+        return encoder.applyAsInt(id) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(String id) {
+        int slot = encoder.applyAsInt(id);
+        return slot < 0 ? null : (V) chunks[slot >> CHUNK_BITS][slot & (CHUNK_SIZE - 1)];
+    }
+
+    /**
+     * Gets a value by slot number instead of ID
+     *
+     * @param slot the slot, see {@link #customerSlot} and {@link #menuSlot}
+     * @return the value, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V getSlot(int slot) {
+        return slot < 0 || slot >= slots ? null : (V) chunks[slot >> CHUNK_BITS][slot & (CHUNK_SIZE - 1)];
+    }
+
+    @Override
+    public V get(long slot) {
+        return slot < 0 || slot >= slots ? null : getSlot((int) slot);
+    }
+
+    public boolean containsKey(String id) {
+        return get(id) != null;
+    }
+
+    /**
+     * Stores a value for an ID
+     *
+     * @param id    the ID
+     * @param value the value, not null
+     * @return the previous value, or null if there was none
+     * @throws IllegalArgumentException if the ID does not have the format of this index
+     * @throws UnsupportedOperationException if this index is a snapshot
+     */
+    public V put(String id, V value) {
+        int slot = encoder.applyAsInt(id);
+        if (slot < 0) throw new IllegalArgumentException("Invalid ID: " + id);
+        return put(slot, value);
+    }
+
+    /**
+     * Stores a value by slot number instead of ID
+     *
+     * @throws IllegalArgumentException if there is no such slot
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized V put(long slot, V value) {
+        Objects.requireNonNull(value);
+        if (slot < 0 || slot >= slots) throw new IllegalArgumentException("Invalid slot: " + slot);
+        Object[] chunk = writableChunk((int) slot >> CHUNK_BITS);
+        V old = (V) chunk[(int) slot & (CHUNK_SIZE - 1)];
+        chunk[(int) slot & (CHUNK_SIZE - 1)] = value;
+        if (old == null) size++;
+        return old;
+    }
+
+    /**
+     * Removes the value of an ID
+     *
+     * @param id the ID
+     * @return the removed value, or null if there was none
+     * @throws UnsupportedOperationException if this index is a snapshot
+     */
+    public V remove(String id) {
+        return remove(encoder.applyAsInt(id));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized V remove(long slot) {
+        if (get(slot) == null) return null;
+        Object[] chunk = writableChunk((int) slot >> CHUNK_BITS);
+        V old = (V) chunk[(int) slot & (CHUNK_SIZE - 1)];
+        chunk[(int) slot & (CHUNK_SIZE - 1)] = null;
+        size--;
+        return old;
+    }
+
+    private Object[] writableChunk(int c) {
+        if (frozen) throw new UnsupportedOperationException("Snapshot is read-only");
+        if (!owned[c]) {
+            chunks[c] = chunks[c].clone();
+            owned[c] = true;
+        }
+        return chunks[c];
+    }
+
+    @Override
+    public int size() { return size; }
+
+    @Override
+    public boolean isEmpty() { return size == 0; }
+
+    /**
+     * Streams the values lazily, changes made to this index during the stream may or may not be seen.
+     * Stream a {@link #snapshot()} for a stable view.
+     *
+     * @return the stored values in slot order (which is ID order)
+     */
+    @Override
+    public Stream<V> stream() {
+        @SuppressWarnings("unchecked")
+        Stream<V> s = IntStream.range(0, slots)
+                .mapToObj(i -> chunks[i >> CHUNK_BITS][i & (CHUNK_SIZE - 1)])
+                .filter(Objects::nonNull)
+                .map(v -> (V) v);
+        return s;
+    }
+
+    @Override
+    public Iterator<V> iterator() {
+        return stream().iterator();
+    }
+
+    /**
+     * @return a new list of the stored values in slot order
+     */
+    @Override
+    public List<V> values() {
+        return stream().collect(Collectors.toCollection(ArrayList::new));
+    }
+}
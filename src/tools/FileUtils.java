@@ -3,20 +3,126 @@ package tools;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * Utility class for file operations, specifically for loading and saving lists of serializable objects.
+ *
+ * Data can be saved plain (one ObjectOutputStream) or compressed. A compressed file is:
+ *   magic "FOMZ"
+ *   blocks: number of objects, raw length, compressed length, deflated bytes
+ *   0 (end of file marker)
+ * Each block holds its own ObjectOutputStream of up to 1024 objects, so blocks can be inflated in parallel.
+ * A plain file is reset every 1024 objects, so a reader does not keep every object it has read.
+ * {@link #loadData(String)} and {@link #forEachData(String, Consumer)} recognize both kinds of file.
+ * Every load and save is a {@link JfrEvents.Type#FILE_READ} or {@link JfrEvents.Type#FILE_WRITE} event.
  */
 public class FileUtils {
-    
+    private static final int COMPRESSED_MAGIC = 0x464F4D5A; // "FOMZ"
+    private static final int BLOCK_OBJECTS = 1024;
+    private static final int MAX_BLOCK_BYTES = 256 * 1024 * 1024; //Larger lengths in a block header mean the file is corrupt
+    private static volatile boolean reportStats = false;
+
+    /**
+     * Turns on or off printing the size, compression ratio and time of each compressed load and save.
+     *
+     * @param enabled true to print the report
+     */
+    public static void setReportStats(boolean enabled) {
+        reportStats = enabled;
+    }
+
     /**
-     * Loads a list of objects from a specified file.
+     * Loads a list of objects from a specified file, plain or compressed.
      *
      * @param filePath - The path to the file to load data from.
      * @param <T> - The type of objects in the list.
      * @return A List containing the objects read from the file. Returns an empty list if the file is not found or an error occurs.
      */
     public static <T>List<T> loadData(String filePath) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.FILE_READ).path(filePath);
+        List<T> list = loadData(filePath, span, false);
+        span.records(list.size()).commit();
+        return list;
+    }
+
+    /**
+     * Loads a list of objects like {@link #loadData(String)}, for callers that must not mistake a failed read for an empty file.
+     *
+     * @param filePath - The path to the file to load data from.
+     * @param <T> - The type of objects in the list.
+     * @return A List containing all objects of the file, null if the file is not found or cannot be read completely.
+     */
+    public static <T>List<T> loadDataOrNull(String filePath) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.FILE_READ).path(filePath);
+        List<T> list = loadData(filePath, span, true);
+        span.records(list == null ? 0 : list.size()).commit();
+        return list;
+    }
+
+    /**
+     * Reads the objects of a file one by one without keeping them, plain or compressed, so a file larger than the heap can be read.
+     * A compressed file is inflated one block at a time; a plain file only releases its objects at the resets written by
+     * {@link #saveData(String, Iterable)}, older plain files are held by the stream until the end.
+     *
+     * @param filePath - The path to the file to load data from.
+     * @param action   - Called with every object in the order they were saved.
+     * @param <T> - The type of objects in the file.
+     * @return true if the whole file was read or the file is not found, false after an error (the action has seen the objects before it).
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> boolean forEachData(String filePath, Consumer<T> action) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.FILE_READ).path(filePath);
+        File f = new File(filePath);
+        if (!FileUtils.fileExistsAndReadable(filePath)) {
+            System.out.println("File not found or cannot be read: " + filePath);
+            span.result("not found").commit();
+            return true;
+        }
+        span.bytes(f.length());
+        int count = 0;
+        try {
+            if (isCompressed(f)) {
+                span.operation("compressed");
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+                    in.readInt(); // Magic number
+                    int objects;
+                    while ((objects = in.readInt()) > 0) {
+                        int rawLength = in.readInt();
+                        byte[] block = readBlock(in, rawLength);
+                        for (T t : FileUtils.<T>decodeBlock(block, rawLength)) {
+                            action.accept(t);
+                            count++;
+                        }
+                    }
+                }
+            } else {
+                span.operation("plain");
+                try (FileInputStream fis = new FileInputStream(f); ObjectInputStream ois = new ObjectInputStream(fis)) {
+                    while (fis.available() > 0) {
+                        action.accept((T) ois.readObject());
+                        count++;
+                    }
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            System.err.println("Failed to load data from file: " + filePath + ". Error: " + e.getMessage());
+            span.result(e.toString()).records(count).commit();
+            return false;
+        } catch (UncheckedIOException e) {
+            System.err.println("Failed to load data from file: " + filePath + ". Error: " + e.getCause().getMessage());
+            span.result(e.getCause().toString()).records(count).commit();
+            return false;
+        }
+        span.records(count).commit();
+        return true;
+    }
+
+    private static <T>List<T> loadData(String filePath, JfrEvents.Span span, boolean strict) {
         List <T> list = new ArrayList<>();
         FileInputStream fis = null;
         ObjectInputStream ois = null;
@@ -24,8 +130,15 @@ public class FileUtils {
             File f = new File(filePath);
             if (!FileUtils.fileExistsAndReadable(filePath)) { //Checks if file is ready or not
                 System.out.println("File not found or cannot be read: " + filePath);
-                return list; // Return empty list if file doesn't exist or isn't readable
+                span.result("not found");
+                return strict ? null : list; // Return empty list if file doesn't exist or isn't readable
+            }
+            span.bytes(f.length());
+            if (isCompressed(f)) {
+                span.operation("compressed");
+                return loadCompressedData(f, span, strict);
             }
+            span.operation("plain");
             fis = new FileInputStream(f);
             ois = new ObjectInputStream(fis);
             while (fis.available() > 0) { // Check if there's more data to read
@@ -33,6 +146,8 @@ public class FileUtils {
             }
         } catch (IOException | ClassNotFoundException e) { // Catch relevant exceptions
             System.err.println("Failed to load data from file: " + filePath + ". Error: " + e.getMessage());
+            span.result(e.toString());
+            if (strict) list = null;
         } finally {
             try {
                 if (ois != null) ois.close();
@@ -45,35 +160,263 @@ public class FileUtils {
     }
 
     /**
-     * Saves a list of objects to a specified file using ObjectOutputStream.
+     * Saves objects to a specified file using ObjectOutputStream.
+     * Takes any Iterable so that callers can pass a snapshot of their data without copying it into a list.
      *
      * @param filePath The path to the file where data will be saved.
-     * @param list     The list of objects to save.
+     * @param list     The objects to save.
      * @param <T>      The type of objects in the list.
+     * @return true if all objects were written, false if the file could not be written
      */
-    public static <T> void saveData(String filePath, List<T> list) {
+    public static <T> boolean saveData(String filePath, Iterable<T> list) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.FILE_WRITE).operation("plain").path(filePath);
         FileOutputStream fos = null;
         ObjectOutputStream oos = null;
+        int count = 0;
+        boolean saved = false;
         try {
             fos = new FileOutputStream(filePath);
             oos = new ObjectOutputStream(fos);
             for (T t : list) {
+                if (count > 0 && count % BLOCK_OBJECTS == 0) oos.reset(); // Lets a reader drop the objects it has read
                 oos.writeObject(t); // Write each object to the stream
+                count++;
             }
+            saved = true;
         } catch (FileNotFoundException e) {
             System.err.println("File not found for saving: " + filePath + ". Error: " + e.getMessage());
+            span.result(e.toString());
         } catch (IOException e) {
             System.err.println("Failed to save data to file: " + filePath + ". Error: " + e.getMessage());
+            span.result(e.toString());
         } finally {
             try {
                 if (oos != null) oos.close();
                 if (fos != null) fos.close();
             } catch (IOException e) {
                 System.err.println("Failed to close file streams for: " + filePath + ". Error: " + e.getMessage());
+                saved = false; //Buffered objects may not be written
             }
         }
+        if (span.isRecording()) span.records(count).bytes(new File(filePath).length()).commit();
+        return saved;
     }
     
+    /**
+     * Saves objects to a specified file in compressed blocks.
+     *
+     * @param filePath The path to the file where data will be saved.
+     * @param list     The objects to save.
+     * @param <T>      The type of objects in the list.
+     * @return true if all objects were written, false if the file could not be written
+     */
+    public static <T> boolean saveCompressedData(String filePath, Iterable<T> list) {
+        JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.FILE_WRITE).operation("compressed").path(filePath);
+        long start = System.nanoTime();
+        long rawBytes = 0, fileBytes = 8;
+        int count = 0;
+        Deflater deflater = new Deflater();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filePath)))) {
+            out.writeInt(COMPRESSED_MAGIC);
+            ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            ObjectOutputStream oos = null;
+            int inBlock = 0;
+            for (T t : list) {
+                if (oos == null) {
+                    raw.reset();
+                    oos = new ObjectOutputStream(raw);
+                }
+                oos.writeObject(t);
+                count++;
+                if (++inBlock == BLOCK_OBJECTS) {
+                    oos.close();
+                    fileBytes += writeBlock(out, deflater, inBlock, raw.toByteArray());
+                    rawBytes += raw.size();
+                    oos = null;
+                    inBlock = 0;
+                }
+            }
+            if (oos != null) {
+                oos.close();
+                fileBytes += writeBlock(out, deflater, inBlock, raw.toByteArray());
+                rawBytes += raw.size();
+            }
+            out.writeInt(0); // End of file marker
+        } catch (IOException e) {
+            System.err.println("Failed to save data to file: " + filePath + ". Error: " + e.getMessage());
+            span.records(count).result(e.toString()).commit();
+            return false;
+        } finally {
+            deflater.end();
+        }
+        span.records(count).bytes(fileBytes).commit();
+        if (reportStats) {
+            System.out.printf("Saved %d objects to %s: %,d -> %,d bytes (%.1fx) in %d ms%n", count, filePath,
+                    rawBytes, fileBytes, fileBytes > 0 ? (double) rawBytes / fileBytes : 0, (System.nanoTime() - start) / 1_000_000);
+        }
+        return true;
+    }
+
+    private static int writeBlock(DataOutputStream out, Deflater deflater, int objects, byte[] raw) throws IOException {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2 + 64);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            compressed.write(buffer, 0, n);
+        }
+        out.writeInt(objects);
+        out.writeInt(raw.length);
+        out.writeInt(compressed.size());
+        compressed.writeTo(out);
+        return 12 + compressed.size();
+    }
+
+    /**
+     * Checks if a file starts with the compressed data magic number
+     *
+     * @param f the file
+     * @return true if the file is compressed, false otherwise
+     */
+    private static boolean isCompressed(File f) {
+        if (f.length() < 4) return false;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(f))) {
+            return in.readInt() == COMPRESSED_MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads all blocks of a compressed file, then inflates and deserializes them in parallel
+     *
+     * @param f the compressed file
+     * @param span the event of the load, gets the errors
+     * @param <T> The type of objects in the list.
+     * @param strict true to return null after an error
+     * @return the objects in the order they were saved, or the objects read before an error
+     */
+    private static <T> List<T> loadCompressedData(File f, JfrEvents.Span span, boolean strict) {
+        long start = System.nanoTime();
+        List<byte[]> blocks = new ArrayList<>();
+        List<Integer> rawLengths = new ArrayList<>();
+        long rawBytes = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            in.readInt(); // Magic number
+            int objects;
+            while ((objects = in.readInt()) > 0) {
+                int rawLength = in.readInt();
+                blocks.add(readBlock(in, rawLength));
+                rawLengths.add(rawLength);
+                rawBytes += rawLength;
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to load data from file: " + f.getPath() + ". Error: " + e.getMessage());
+            span.result(e.toString());
+            if (strict) return null;
+        }
+
+        List<T> list = new ArrayList<>();
+        try {
+            List<List<T>> decoded = java.util.stream.IntStream.range(0, blocks.size()).parallel()
+                    .mapToObj(i -> FileUtils.<T>decodeBlock(blocks.get(i), rawLengths.get(i)))
+                    .collect(Collectors.toList());
+            for (List<T> block : decoded) list.addAll(block);
+        } catch (UncheckedIOException e) {
+            System.err.println("Failed to load data from file: " + f.getPath() + ". Error: " + e.getCause().getMessage());
+            span.result(e.getCause().toString());
+            if (strict) return null;
+        }
+
+        if (reportStats) {
+            System.out.printf("Loaded %d objects from %s: %,d -> %,d bytes (%.1fx) in %d ms%n", list.size(), f.getPath(),
+                    f.length(), rawBytes, f.length() > 0 ? (double) rawBytes / f.length() : 0, (System.nanoTime() - start) / 1_000_000);
+        }
+        return list;
+    }
+
+    /**
+     * Reads the compressed length and the deflated bytes of a block, after its number of objects and raw length
+     */
+    private static byte[] readBlock(DataInputStream in, int rawLength) throws IOException {
+        int length = in.readInt();
+        if (rawLength < 0 || rawLength > MAX_BLOCK_BYTES || length < 0 || length > MAX_BLOCK_BYTES) {
+            throw new IOException("Corrupt block header: " + length + " -> " + rawLength + " bytes");
+        }
+        byte[] block = new byte[length];
+        in.readFully(block);
+        return block;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> decodeBlock(byte[] block, int rawLength) {
+        Inflater inflater = new Inflater();
+        try {
+            byte[] raw = new byte[rawLength];
+            inflater.setInput(block);
+            int n = 0;
+            while (n < rawLength && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, n, rawLength - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated block: " + n + " of " + rawLength + " bytes");
+                }
+                n += inflated;
+            }
+            List<T> list = new ArrayList<>();
+            ByteArrayInputStream bis = new ByteArrayInputStream(raw, 0, n);
+            try (ObjectInputStream ois = new ObjectInputStream(bis)) {
+                while (bis.available() > 0) {
+                    list.add((T) ois.readObject());
+                }
+            }
+            return list;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (DataFormatException | ClassNotFoundException e) {
+            throw new UncheckedIOException(new IOException(e.getMessage(), e));
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Serializes one object, e.g. to store it as the value of a key
+     *
+     * @param value a serializable object
+     * @return the bytes of the object
+     * @throws UncheckedIOException if the object cannot be serialized
+     */
+    public static byte[] toBytes(Object value) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Reads an object written by {@link #toBytes(Object)}
+     *
+     * @param bytes the bytes of the object
+     * @param <T>   the type of the object
+     * @return the object
+     * @throws UncheckedIOException if the bytes are not a serialized object of a known class
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T fromBytes(byte[] bytes) {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (T) ois.readObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ClassNotFoundException e) {
+            throw new UncheckedIOException(new IOException(e.getMessage(), e));
+        }
+    }
+
     /**
      * Function check if file is exists or readable
      * @param filePath
@@ -0,0 +1,348 @@
+package tools;
+
+import java.text.Normalizer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Typo-tolerant search of names by ID.
+ *
+ * Names are normalized (lower case, Vietnamese diacritics removed, đ read as d) and split into words.
+ * The distinct words are kept in a BK-tree under the Levenshtein distance, so the words close to a misspelled word
+ * are found by visiting a small part of the tree instead of every word. Each word has a sorted array of the IDs
+ * of the names that contain it.
+ *
+ * A search matches every word of the query, so "nguyen an" finds "Nguyễn Văn An", and ranks the names by the sum
+ * of the edit distances of the query words. Words of up to {@link #SHORT_WORD} letters may have 1 typo, longer words 2.
+ * Words that are no longer used stay in the tree with no IDs, the tree only grows with new spellings.
+ * Methods are synchronized, one thread may change the index while others search.
+ * @author mymym
+ */
+public class FuzzyIndex {
+    public static final int SHORT_WORD = 4;
+
+    private static final int[] NO_IDS = new int[0];
+
+    private final Map<String, Node> nodes = new HashMap<>();
+    private Node root;
+
+    private static final class Node {
+        final String word;
+        int[] ids = NO_IDS;     // Sorted
+        int count;
+        int[] childDistances = NO_IDS;
+        Node[] children = new Node[0];
+        int childCount;
+
+        Node(String word) {
+            this.word = word;
+        }
+
+        Node child(int distance) {
+            for (int i = 0; i < childCount; i++) {
+                if (childDistances[i] == distance) return children[i];
+            }
+            return null;
+        }
+
+        void addChild(int distance, Node child) {
+            if (childCount == children.length) {
+                children = Arrays.copyOf(children, Math.max(4, childCount * 2));
+                childDistances = Arrays.copyOf(childDistances, children.length);
+            }
+            children[childCount] = child;
+            childDistances[childCount++] = distance;
+        }
+
+        void addId(int id) {
+            int i = Arrays.binarySearch(ids, 0, count, id);
+            if (i >= 0) return;
+            i = -i - 1;
+            if (count == ids.length) ids = Arrays.copyOf(ids, Math.max(4, count * 2));
+            System.arraycopy(ids, i, ids, i + 1, count - i);
+            ids[i] = id;
+            count++;
+        }
+
+        void removeId(int id) {
+            int i = Arrays.binarySearch(ids, 0, count, id);
+            if (i < 0) return;
+            System.arraycopy(ids, i + 1, ids, i, count - i - 1);
+            count--;
+        }
+    }
+
+    /**
+     * One name found by a search
+     */
+    public static final class Match {
+        private final int id;
+        private final int distance;
+
+        Match(int id, int distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+
+        public int getId() { return id; }
+
+        /**
+         * @return sum of the edit distances between the query words and the matched words of the name
+         */
+        public int getDistance() { return distance; }
+
+        @Override
+        public String toString() {
+            return id + " (" + distance + ")";
+        }
+    }
+
+    /**
+     * Adds a name
+     *
+     * @param id   ID of the name, 0 or more
+     * @param name the name
+     */
+    public synchronized void add(int id, String name) {
+        for (String word : words(name)) {
+            Node node = nodes.get(word);
+            if (node == null) {
+                node = new Node(word);
+                nodes.put(word, node);
+                insert(node);
+            }
+            node.addId(id);
+        }
+    }
+
+    /**
+     * Removes a name, it must be the same name that was added for this ID
+     *
+     * @param id   ID of the name
+     * @param name the name
+     */
+    public synchronized void remove(int id, String name) {
+        for (String word : words(name)) {
+            Node node = nodes.get(word);
+            if (node != null) node.removeId(id);
+        }
+    }
+
+    public synchronized void clear() {
+        nodes.clear();
+        root = null;
+    }
+
+    /**
+     * @return number of distinct words in the tree
+     */
+    public synchronized int wordCount() {
+        return nodes.size();
+    }
+
+    private void insert(Node node) {
+        if (root == null) {
+            root = node;
+            return;
+        }
+        Node parent = root;
+        while (true) {
+            int d = distance(node.word, parent.word);
+            Node child = parent.child(d);
+            if (child == null) {
+                parent.addChild(d, node);
+                return;
+            }
+            parent = child;
+        }
+    }
+
+    /**
+     * Finds the names that contain a word close to every word of the query
+     *
+     * Works one total distance at a time, 0 first. For a total distance, every way to split it over the query words
+     * is tried: the IDs of the words at the wanted distance from the word with the fewest IDs are walked in order
+     * and looked up in the ID arrays of the other words, and the walk stops after limit new names.
+     * So a search costs about limit lookups per split when the names are common, and never builds the full list of matches.
+     *
+     * @param query the name to search, in any case, with or without diacritics
+     * @param limit maximum number of results
+     * @return the matches, closest first, then by ID
+     */
+    public synchronized List<Match> search(String query, int limit) {
+        List<Match> result = new ArrayList<>();
+        List<String> queryWords = new ArrayList<>(new LinkedHashSet<>(words(query)));
+        if (queryWords.isEmpty() || root == null || limit <= 0) return result;
+
+        //Close words of each query word, grouped by their distance to it
+        int m = queryWords.size();
+        List<List<List<Node>>> groups = new ArrayList<>();
+        int maxTotal = 0;
+        for (String word : queryWords) {
+            int max = word.length() <= SHORT_WORD ? 1 : 2;
+            List<List<Node>> byDistance = close(word, max);
+            boolean any = false;
+            for (List<Node> g : byDistance) any |= !g.isEmpty();
+            if (!any) return result;
+            groups.add(byDistance);
+            maxTotal += max;
+        }
+
+        Set<Integer> reported = new HashSet<>();
+        int[] split = new int[m];
+        for (int total = 0; total <= maxTotal && result.size() < limit; total++) {
+            TreeSet<Integer> level = new TreeSet<>();
+            collectSplits(groups, split, 0, total, limit, reported, level);
+            for (int id : level) {
+                if (result.size() == limit) break;
+                result.add(new Match(id, total));
+                reported.add(id);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Tries every way to give the query words distances that add up to left, starting at word i
+     */
+    private static void collectSplits(List<List<List<Node>>> groups, int[] split, int i, int left, int limit,
+                                      Set<Integer> reported, TreeSet<Integer> level) {
+        if (i == split.length) {
+            if (left == 0) collect(groups, split, limit, reported, level);
+            return;
+        }
+        List<List<Node>> byDistance = groups.get(i);
+        for (int d = 0; d < byDistance.size() && d <= left; d++) {
+            if (byDistance.get(d).isEmpty()) continue;
+            split[i] = d;
+            collectSplits(groups, split, i + 1, left - d, limit, reported, level);
+        }
+    }
+
+    /**
+     * Adds to level the first IDs (at most limit new ones) that have, for every query word, a word at the distance of split
+     */
+    private static void collect(List<List<List<Node>>> groups, int[] split, int limit, Set<Integer> reported, TreeSet<Integer> level) {
+        int driver = 0;
+        long fewest = Long.MAX_VALUE;
+        for (int i = 0; i < split.length; i++) {
+            long count = 0;
+            for (Node n : groups.get(i).get(split[i])) count += n.count;
+            if (count < fewest) {
+                fewest = count;
+                driver = i;
+            }
+        }
+        for (Node node : groups.get(driver).get(split[driver])) {
+            int added = 0;
+            for (int k = 0; k < node.count && added < limit; k++) {
+                int id = node.ids[k];
+                if (reported.contains(id) || level.contains(id)) continue;
+                boolean all = true;
+                for (int i = 0; i < split.length && all; i++) {
+                    if (i == driver) continue;
+                    boolean has = false;
+                    for (Node other : groups.get(i).get(split[i])) {
+                        if (Arrays.binarySearch(other.ids, 0, other.count, id) >= 0) {
+                            has = true;
+                            break;
+                        }
+                    }
+                    all = has;
+                }
+                if (all) {
+                    level.add(id);
+                    added++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the words within a distance of a word, in the BK-tree
+     *
+     * @return for each distance from 0 to maxDistance, the words at that distance that are still used
+     */
+    private List<List<Node>> close(String word, int maxDistance) {
+        List<List<Node>> byDistance = new ArrayList<>();
+        for (int d = 0; d <= maxDistance; d++) byDistance.add(new ArrayList<>());
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            int d = distance(word, node.word);
+            if (d <= maxDistance && node.count > 0) byDistance.get(d).add(node);
+            for (int i = 0; i < node.childCount; i++) {
+                if (Math.abs(node.childDistances[i] - d) <= maxDistance) stack.push(node.children[i]);
+            }
+        }
+        return byDistance;
+    }
+
+    /**
+     * Lower case without diacritics, đ becomes d, so "Đặng Thị Hạnh" and "dang thi hanh" are the same
+     *
+     * @param text the text
+     * @return the normalized text
+     */
+    public static String normalize(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) continue;
+            if (c == 'đ' || c == 'Đ') c = 'd';
+            sb.append(Character.toLowerCase(c));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the normalized words of a text, split at anything that is not a letter or digit
+     */
+    public static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) return words;
+        String s = normalize(text);
+        int start = -1;
+        for (int i = 0; i <= s.length(); i++) {
+            boolean letter = i < s.length() && Character.isLetterOrDigit(s.charAt(i));
+            if (letter && start < 0) start = i;
+            if (!letter && start >= 0) {
+                words.add(s.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * @return the Levenshtein distance: number of inserted, deleted or replaced characters to turn a into b
+     */
+    public static int distance(CharSequence a, CharSequence b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) previous[j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            char ca = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = ca == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+            }
+            int[] t = previous;
+            previous = current;
+            current = t;
+        }
+        return previous[b.length()];
+    }
+}
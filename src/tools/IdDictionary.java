@@ -0,0 +1,70 @@
+package tools;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps repeated string IDs (customer IDs, menu IDs) to small int codes and back.
+ * Each distinct ID is stored once, records keep only its code.
+ */
+public class IdDictionary {
+    private final Map<String, Integer> codes;
+    private final List<String> ids;
+
+    /**
+     * Constructs an empty dictionary
+     */
+    public IdDictionary() {
+        this.codes = new HashMap<>();
+        this.ids = new ArrayList<>();
+    }
+
+    /**
+     * Gets the code of an ID, adding the ID if it is not in the dictionary yet.
+     * IDs are compared case-insensitively (stored in uppercase).
+     *
+     * @param id The ID to encode.
+     * @return The code of the ID.
+     */
+    public int encode(String id) {
+        String key = id.toUpperCase();
+        Integer code = codes.get(key);
+        if (code == null) {
+            code = ids.size();
+            codes.put(key, code);
+            ids.add(key);
+        }
+        return code;
+    }
+
+    /**
+     * Gets the code of an ID without adding it.
+     *
+     * @param id The ID to look up.
+     * @return The code of the ID, or -1 if the ID is not in the dictionary.
+     */
+    public int codeOf(String id) {
+        if (id == null) return -1;
+        Integer code = codes.get(id.toUpperCase());
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * Gets the ID of a code.
+     *
+     * @param code The code to decode.
+     * @return The ID of the code.
+     */
+    public String decode(int code) {
+        return ids.get(code);
+    }
+
+    /**
+     * @return number of distinct IDs
+     */
+    public int size() {
+        return ids.size();
+    }
+}
@@ -0,0 +1,249 @@
+package tools;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Custom JDK Flight Recorder events for the business operations and the persistence of the application,
+ * so a recording shows them next to GC, allocation and I/O in JDK Mission Control.
+ * All events are in the category "Feast Order Management" and are named feast.&lt;Type&gt;, e.g. feast.OrderChange.
+ * Each has the fields operation, id (of the customer or order), path, records, bytes and result (null when the operation succeeded).
+ *
+ * The code is compiled for Java 8, which has no jdk.jfr API to extend, so the event types are created when
+ * this class is loaded with jdk.jfr.EventFactory, found by reflection. On a JVM without Flight Recorder
+ * every method does nothing.
+ *
+ * Usage:
+ *   JfrEvents.Span span = JfrEvents.begin(JfrEvents.Type.SAVE);
+ *   ... the operation ...
+ *   span.path(file).records(n).commit();
+ * {@link #begin(Type)} returns a span that does nothing and allocates nothing unless a recording has the event enabled,
+ * so the events can stay in the code and be recorded continuously.
+ * @author mymym
+ */
+public final class JfrEvents {
+    private static final String CATEGORY = "Feast Order Management";
+    private static final int OPERATION = 0, ID = 1, PATH = 2, RECORDS = 3, BYTES = 4, RESULT = 5;
+
+    /**
+     * The event types
+     */
+    public enum Type {
+        CUSTOMER_CHANGE("CustomerChange", "Customer Change", "Business", "A customer was added or updated, result is the reason if it was rejected"),
+        ORDER_CHANGE("OrderChange", "Order Change", "Business", "An order was placed or updated, result is the reason if it was rejected"),
+        DUPLICATE_CHECK("DuplicateCheck", "Duplicate Check", "Business", "A new order or customer was checked against the existing ones"),
+        QUERY("Query", "Query", "Business", "A search or query, records is the number of results"),
+        LOAD("Load", "Load", "Persistence", "Data loaded from files into memory"),
+        SAVE("Save", "Save", "Persistence", "Data saved from memory to files"),
+        CSV_PARSE("CsvParse", "CSV Parse", "Persistence", "A CSV file parsed, result tells the lines that were skipped"),
+        FILE_READ("FileRead", "File Read", "Persistence", "Objects read from a data file, bytes is the file size"),
+        FILE_WRITE("FileWrite", "File Write", "Persistence", "Objects written to a data file, bytes is the file size");
+
+        private final String name;
+        private final String label;
+        private final String category;
+        private final String description;
+
+        Type(String name, String label, String category, String description) {
+            this.name = name;
+            this.label = label;
+            this.category = category;
+            this.description = description;
+        }
+    }
+
+    /**
+     * One running event, fields are set while or after the operation runs and {@link #commit()} writes it
+     */
+    public static class Span {
+        private final Object event;     // A jdk.jfr.Event, null for the span that does nothing
+
+        private Span(Object event) {
+            this.event = event;
+        }
+
+        /**
+         * @return true if the event will be written, to skip computing fields that cost something
+         */
+        public boolean isRecording() {
+            return event != null;
+        }
+
+        public Span operation(String operation) {
+            return set(OPERATION, operation);
+        }
+
+        /**
+         * @param id ID of the customer or code of the order the operation is about
+         */
+        public Span id(String id) {
+            return set(ID, id);
+        }
+
+        public Span path(String path) {
+            return set(PATH, path);
+        }
+
+        public Span records(long records) {
+            return event == null ? this : set(RECORDS, records);
+        }
+
+        /**
+         * Sets records to the size of a collection or {@link RecordStore}, other iterables are not counted
+         */
+        public Span records(Iterable<?> values) {
+            if (values instanceof Collection) return records(((Collection<?>) values).size());
+            if (values instanceof RecordStore) return records(((RecordStore<?>) values).size());
+            return this;
+        }
+
+        public Span bytes(long bytes) {
+            return event == null ? this : set(BYTES, bytes);
+        }
+
+        /**
+         * @param result null if the operation succeeded, otherwise why it failed
+         */
+        public Span result(String result) {
+            return set(RESULT, result);
+        }
+
+        private Span set(int field, Object value) {
+            if (event == null) return this;
+            try {
+                SET.invokeExact(event, field, value);
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+            return this;
+        }
+
+        /**
+         * Ends the event and writes it with its duration
+         */
+        public void commit() {
+            if (event == null) return;
+            try {
+                COMMIT.invokeExact(event);
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static final Span NONE = new Span(null);
+    private static final Object[] FACTORIES;       // jdk.jfr.EventFactory by type ordinal, null without Flight Recorder
+    private static final MethodHandle NEW_EVENT;   // (Object factory) Object
+    private static final MethodHandle IS_ENABLED;  // (Object factory) boolean, true if a recording wants the event type
+    private static final MethodHandle BEGIN;       // (Object event) void
+    private static final MethodHandle SET;         // (Object event, int, Object) void
+    private static final MethodHandle COMMIT;      // (Object event) void
+
+    static {
+        Object[] factories = null;
+        MethodHandle newEvent = null, isEnabled = null, begin = null, set = null, commit = null;
+        try {
+            Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+            Class<?> eventClass = Class.forName("jdk.jfr.Event");
+            Class<?> eventTypeClass = Class.forName("jdk.jfr.EventType");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            MethodType objectToObject = MethodType.methodType(Object.class, Object.class);
+            MethodType objectToVoid = MethodType.methodType(void.class, Object.class);
+
+            MethodHandle getEventType = lookup.unreflect(factoryClass.getMethod("getEventType"));
+            newEvent = lookup.unreflect(factoryClass.getMethod("newEvent")).asType(objectToObject);
+            isEnabled = MethodHandles.filterReturnValue(getEventType, lookup.unreflect(eventTypeClass.getMethod("isEnabled")))
+                    .asType(MethodType.methodType(boolean.class, Object.class));
+            begin = lookup.unreflect(eventClass.getMethod("begin")).asType(objectToVoid);
+            set = lookup.unreflect(eventClass.getMethod("set", int.class, Object.class))
+                    .asType(MethodType.methodType(void.class, Object.class, int.class, Object.class));
+            commit = lookup.unreflect(eventClass.getMethod("commit")).asType(objectToVoid);
+
+            factories = new Object[Type.values().length];
+            for (Type type : Type.values()) factories[type.ordinal()] = createFactory(factoryClass, type);
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            factories = null;   // No Flight Recorder in this JVM
+        }
+        FACTORIES = factories;
+        NEW_EVENT = newEvent;
+        IS_ENABLED = isEnabled;
+        BEGIN = begin;
+        SET = set;
+        COMMIT = commit;
+    }
+
+    private JfrEvents() {
+    }
+
+    /**
+     * @return true if this JVM has Flight Recorder and the event types were created
+     */
+    public static boolean isAvailable() {
+        return FACTORIES != null;
+    }
+
+    /**
+     * Starts an event, its duration runs until {@link Span#commit()}
+     *
+     * @param type the event type
+     * @return the span, one that does nothing if no recording has the event type enabled
+     */
+    public static Span begin(Type type) {
+        if (FACTORIES == null) return NONE;
+        try {
+            Object factory = FACTORIES[type.ordinal()];
+            if (!(boolean) IS_ENABLED.invokeExact(factory)) return NONE;
+            Object event = NEW_EVENT.invokeExact(factory);
+            BEGIN.invokeExact(event);
+            return new Span(event);
+        } catch (Throwable e) {
+            return NONE;
+        }
+    }
+
+    /**
+     * Creates and registers an event type with the six fields
+     */
+    private static Object createFactory(Class<?> factoryClass, Type type) throws ReflectiveOperationException {
+        Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+        Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+        Constructor<?> annotation = annotationElement.getConstructor(Class.class, Object.class);
+        Constructor<?> field = valueDescriptor.getConstructor(Class.class, String.class, List.class);
+
+        List<Object> eventAnnotations = Arrays.asList(
+                annotation.newInstance(annotationClass("jdk.jfr.Name"), "feast." + type.name),
+                annotation.newInstance(annotationClass("jdk.jfr.Label"), type.label),
+                annotation.newInstance(annotationClass("jdk.jfr.Description"), type.description),
+                annotation.newInstance(annotationClass("jdk.jfr.Category"), new String[]{CATEGORY, type.category}));
+
+        List<Object> fields = new ArrayList<>();
+        fields.add(field.newInstance(String.class, "operation",
+                Collections.singletonList(annotation.newInstance(annotationClass("jdk.jfr.Label"), "Operation"))));
+        fields.add(field.newInstance(String.class, "id",
+                Collections.singletonList(annotation.newInstance(annotationClass("jdk.jfr.Label"), "ID"))));
+        fields.add(field.newInstance(String.class, "path",
+                Collections.singletonList(annotation.newInstance(annotationClass("jdk.jfr.Label"), "Path"))));
+        fields.add(field.newInstance(long.class, "records",
+                Collections.singletonList(annotation.newInstance(annotationClass("jdk.jfr.Label"), "Records"))));
+        fields.add(field.newInstance(long.class, "bytes", Arrays.asList(
+                annotation.newInstance(annotationClass("jdk.jfr.Label"), "Bytes"),
+                annotation.newInstance(annotationClass("jdk.jfr.DataAmount"), "BYTES"))));
+        fields.add(field.newInstance(String.class, "result",
+                Collections.singletonList(annotation.newInstance(annotationClass("jdk.jfr.Label"), "Result"))));
+
+        return factoryClass.getMethod("create", List.class, List.class).invoke(null, eventAnnotations, fields);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<? extends Annotation> annotationClass(String name) throws ClassNotFoundException {
+        return (Class<? extends Annotation>) Class.forName(name);
+    }
+}
@@ -0,0 +1,188 @@
+package tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Hash map from non-negative long keys to values, with open addressing and linear probing.
+ * Keys are kept in a long array, so there is no boxing and no entry object per mapping.
+ * Removal shifts the following entries back instead of leaving tombstones.
+ * @param <V> type of the stored values
+ */
+public class LongHashMap<V> {
+    private static final long EMPTY = -1L;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private int mask;
+    private int resizeAt;
+
+    /**
+     * Constructs an empty map
+     */
+    public LongHashMap() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructs an empty map that holds the expected number of entries without resizing
+     *
+     * @param expected expected number of entries
+     */
+    public LongHashMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(INITIAL_CAPACITY, (int) (expected / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        Arrays.fill(this.keys, EMPTY);
+        this.values = new Object[capacity];
+        this.mask = capacity - 1;
+        this.resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L; //Fibonacci hashing spreads sequential codes
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private int find(long key) {
+        if (key < 0) return -1;
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) return i;
+            if (k == EMPTY) return -1;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int i = find(key);
+        return i < 0 ? null : (V) values[i];
+    }
+
+    public boolean containsKey(long key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Stores a value for a key
+     *
+     * @param key   the key, 0 or more
+     * @param value the value
+     * @return the previous value, or null if there was none
+     * @throws IllegalArgumentException if the key is negative
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (key < 0) throw new IllegalArgumentException("Key must not be negative: " + key);
+        int i = slot(key);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > resizeAt) resize();
+        return null;
+    }
+
+    /**
+     * Removes a key
+     *
+     * @param key the key
+     * @return the removed value, or null if the key was not in the map
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = find(key);
+        if (i < 0) return null;
+        V old = (V) values[i];
+        size--;
+
+        //Shift back the entries of the same probe run so lookups never stop at the hole
+        int hole = i;
+        for (int j = (hole + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = slot(keys[j]);
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                hole = j;
+            }
+        }
+        keys[hole] = EMPTY;
+        values[hole] = null;
+        return old;
+    }
+
+    /**
+     * Removes every entry whose value matches a condition
+     *
+     * @param filter the condition
+     * @return number of removed entries
+     */
+    @SuppressWarnings("unchecked")
+    public int removeIf(Predicate<? super V> filter) {
+        List<Long> toRemove = new ArrayList<>();
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY && filter.test((V) values[i])) toRemove.add(keys[i]);
+        }
+        for (long key : toRemove) remove(key);
+        return toRemove.size();
+    }
+
+    public int size() { return size; }
+
+    public boolean isEmpty() { return size == 0; }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * @return the stored values, in no particular order
+     */
+    public Stream<V> stream() {
+        final long[] k = keys;
+        final Object[] v = values;
+        @SuppressWarnings("unchecked")
+        Stream<V> s = IntStream.range(0, k.length).filter(i -> k[i] != EMPTY).mapToObj(i -> (V) v[i]);
+        return s;
+    }
+
+    /**
+     * @return a new list of the stored values
+     */
+    public List<V> values() {
+        return stream().collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resize() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) continue;
+            int j = slot(oldKeys[i]);
+            while (keys[j] != EMPTY) j = (j + 1) & mask;
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+}
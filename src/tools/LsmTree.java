@@ -0,0 +1,520 @@
+package tools;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Log-structured merge tree of long keys and byte[] values, kept in one directory.
+ * A write is appended to the write-ahead log and put in the memtable (a sorted map in memory);
+ * when the memtable is over its size it is written as a new {@link SsTable} and the log starts again.
+ * A read looks in the memtable, then in the tables from newest to oldest, skipping the tables whose bloom filter
+ * does not have the key, so a lookup reads at most one block of each table that may hold the key.
+ * When there are {@link #COMPACTION_TABLES} tables, a background thread merges all of them into one, keeping the
+ * newest value of every key and dropping the deleted keys; reads and writes go on while it runs.
+ *
+ * Layout of the directory:
+ *   wal.log            writes since the last flush: key (long), value length (int, -1 for a delete), value bytes
+ *   sst-NNNNNNNNNN.db  tables, a greater sequence number holds newer data
+ * On open the tables are read (index and bloom filter only) and the log is replayed into the memtable.
+ * A table left by a compaction that did not finish is recognised by the sequences the merged table covers and deleted.
+ *
+ * Writes are synchronized and are not forced to disk one by one, see {@link #sync()}; reads are not synchronized.
+ * @author mymym
+ */
+public class LsmTree implements Closeable {
+    public static final long DEFAULT_MEMTABLE_BYTES = 4L << 20;
+    public static final int COMPACTION_TABLES = 4;
+    private static final String WAL_FILE = "wal.log";
+    private static final String TABLE_PREFIX = "sst-";
+    private static final String TABLE_SUFFIX = ".db";
+    private static final long ENTRY_OVERHEAD = 64; // Skip list node, boxed key and array header of a memtable entry
+
+    /**
+     * Value that marks a deleted key in the memtable and in tables, compared by identity
+     */
+    static final byte[] TOMBSTONE = new byte[0];
+
+    private final File dir;
+    private final long memtableLimit;
+    private final ReadWriteLock tablesLock = new ReentrantReadWriteLock();
+    private final List<SsTable> tables = new ArrayList<>();  // Newest first, guarded by tablesLock
+    private final ExecutorService compactor;
+    private volatile ConcurrentSkipListMap<Long, byte[]> memtable = new ConcurrentSkipListMap<>();
+    private FileChannel wal;
+    private long memtableBytes;
+    private long nextSequence;
+    private boolean compacting;
+    private boolean closed;
+    private int flushes;
+    private int compactions;
+
+    /**
+     * Opens or creates a tree with a memtable of {@link #DEFAULT_MEMTABLE_BYTES}
+     *
+     * @param dirPath directory of the tree, created if it does not exist
+     * @throws UncheckedIOException if the directory cannot be created or its files cannot be read
+     */
+    public LsmTree(String dirPath) {
+        this(dirPath, DEFAULT_MEMTABLE_BYTES);
+    }
+
+    /**
+     * Opens or creates a tree
+     *
+     * @param dirPath       directory of the tree, created if it does not exist
+     * @param memtableBytes estimated memtable size that triggers a flush to a new table
+     * @throws UncheckedIOException if the directory cannot be created or its files cannot be read
+     */
+    public LsmTree(String dirPath, long memtableBytes) {
+        this.dir = new File(dirPath);
+        this.memtableLimit = memtableBytes;
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "lsm-compaction " + dir.getName());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            if (!dir.exists() && !dir.mkdirs()) throw new IOException("Cannot create directory " + dir.getAbsolutePath());
+            openTables();
+            replayLog();
+            synchronized (this) {
+                if (memtableBytes() >= memtableLimit) flush();
+            }
+        } catch (IOException e) {
+            compactor.shutdownNow();
+            closeTables();
+            throw new UncheckedIOException("Cannot open LSM tree " + dirPath, e);
+        }
+    }
+
+    /**
+     * Opens the table files, newest first, and deletes the ones a merged table already covers
+     */
+    private void openTables() throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) throw new IOException("Cannot list directory " + dir.getAbsolutePath());
+        TreeMap<Long, File> bySequence = new TreeMap<>(Collections.reverseOrder());
+        for (File f : files) {
+            String name = f.getName();
+            if (name.endsWith(".tmp")) {
+                if (!f.delete()) System.err.println("Failed to delete unfinished table " + f.getPath());
+                continue;
+            }
+            if (!name.startsWith(TABLE_PREFIX) || !name.endsWith(TABLE_SUFFIX)) continue;
+            try {
+                bySequence.put(Long.parseLong(name.substring(TABLE_PREFIX.length(), name.length() - TABLE_SUFFIX.length())), f);
+            } catch (NumberFormatException e) {
+                System.err.println("Warning: skipping unknown file " + f.getPath());
+            }
+        }
+        long coveredFrom = Long.MAX_VALUE;
+        for (Map.Entry<Long, File> e : bySequence.entrySet()) {
+            long sequence = e.getKey();
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            if (sequence >= coveredFrom) {
+                //Input of a compaction that was interrupted after the merged table was in place
+                if (!e.getValue().delete()) System.err.println("Failed to delete merged table " + e.getValue().getPath());
+                continue;
+            }
+            SsTable table = SsTable.open(e.getValue(), sequence);
+            tables.add(table);
+            coveredFrom = Math.min(coveredFrom, table.getFirstSequence());
+        }
+    }
+
+    /**
+     * Puts the writes of the log in the memtable, a record cut short by a crash ends the log
+     */
+    private void replayLog() throws IOException {
+        File file = new File(dir, WAL_FILE);
+        long valid = 0;
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+                while (true) {
+                    long key = in.readLong();
+                    int length = in.readInt();
+                    byte[] value = TOMBSTONE;
+                    if (length >= 0) {
+                        value = new byte[length];
+                        in.readFully(value);
+                    }
+                    memtable.put(key, value);
+                    valid += 12 + Math.max(0, length);
+                }
+            } catch (EOFException e) {
+                //End of the log
+            }
+        }
+        wal = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        wal.truncate(valid);
+        wal.position(valid);
+        for (byte[] value : memtable.values()) memtableBytes += 8 + value.length + ENTRY_OVERHEAD;
+    }
+
+    /**
+     * Looks up a key
+     *
+     * @param key the key
+     * @return the value, null if the key is not in the tree
+     * @throws UncheckedIOException if a table cannot be read
+     */
+    public byte[] get(long key) {
+        byte[] value = memtable.get(key);
+        if (value == null) {
+            tablesLock.readLock().lock();
+            try {
+                for (SsTable table : tables) {
+                    value = table.get(key);
+                    if (value != null) break;
+                }
+            } finally {
+                tablesLock.readLock().unlock();
+            }
+        }
+        return value == TOMBSTONE ? null : value;
+    }
+
+    /**
+     * Writes a value
+     *
+     * @param key   the key
+     * @param value the value, not null
+     * @throws UncheckedIOException if the log or a table cannot be written
+     */
+    public synchronized void put(long key, byte[] value) {
+        putAll(new long[]{key}, Collections.singletonList(Objects.requireNonNull(value)));
+    }
+
+    /**
+     * Writes many values with one append to the log
+     *
+     * @param keys   the keys
+     * @param values the values, not null, in the order of the keys
+     * @throws UncheckedIOException if the log or a table cannot be written
+     */
+    public synchronized void putAll(long[] keys, List<byte[]> values) {
+        if (keys.length != values.size()) throw new IllegalArgumentException("Different numbers of keys and values");
+        write(keys, values);
+    }
+
+    /**
+     * Deletes a key, nothing happens if it is not in the tree
+     *
+     * @param key the key
+     * @throws UncheckedIOException if the log or a table cannot be written
+     */
+    public synchronized void delete(long key) {
+        write(new long[]{key}, Collections.singletonList(TOMBSTONE));
+    }
+
+    private void write(long[] keys, List<byte[]> values) {
+        checkOpen();
+        int bytes = 0;
+        for (byte[] value : values) bytes += 12 + Objects.requireNonNull(value).length;
+        ByteBuffer record = ByteBuffer.allocate(bytes);
+        for (int i = 0; i < keys.length; i++) {
+            byte[] value = values.get(i);
+            record.putLong(keys[i]);
+            record.putInt(value == TOMBSTONE ? -1 : value.length);
+            record.put(value);
+        }
+        record.flip();
+        try {
+            while (record.hasRemaining()) wal.write(record);
+            for (int i = 0; i < keys.length; i++) {
+                memtable.put(keys[i], values.get(i));
+                memtableBytes += 8 + values.get(i).length + ENTRY_OVERHEAD;
+            }
+            if (memtableBytes >= memtableLimit) flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write LSM tree " + dir.getPath(), e);
+        }
+    }
+
+    /**
+     * Writes the memtable as a new table, then empties the memtable and the log
+     */
+    private void flush() throws IOException {
+        if (memtable.isEmpty()) return;
+        long sequence = nextSequence++;
+        File file = tableFile(sequence);
+        SsTable.write(file, sequence, memtable.entrySet().iterator(), memtable.size(), false);
+        SsTable table = SsTable.open(file, sequence);
+        tablesLock.writeLock().lock();
+        try {
+            tables.add(0, table);
+        } finally {
+            tablesLock.writeLock().unlock();
+        }
+        //Readers find the entries in the new table from now on
+        memtable = new ConcurrentSkipListMap<>();
+        memtableBytes = 0;
+        wal.truncate(0);
+        wal.position(0);
+        flushes++;
+        if (!compacting && !closed && tableCount() >= COMPACTION_TABLES) {
+            compacting = true;
+            compactor.execute(this::compact);
+        }
+    }
+
+    /**
+     * Merges every table into one that takes the sequence of the newest input. Runs on the compaction thread
+     * The merged table replaces the newest input by an atomic move, then the other inputs are deleted
+     * The inputs are closed for the move, some systems can't replace an open file. If the swap fails they are opened again
+     */
+    private void compact() {
+        List<SsTable> inputs;
+        tablesLock.readLock().lock();
+        try {
+            inputs = new ArrayList<>(tables);
+        } finally {
+            tablesLock.readLock().unlock();
+        }
+        SsTable newest = inputs.get(0);
+        File tmp = new File(dir, TABLE_PREFIX + newest.getSequence() + ".tmp");
+        try {
+            long firstSequence = Long.MAX_VALUE;
+            long expected = 0;
+            List<Iterator<Map.Entry<Long, byte[]>>> sources = new ArrayList<>();
+            for (SsTable t : inputs) {
+                firstSequence = Math.min(firstSequence, t.getFirstSequence());
+                expected += t.getEntries();
+                sources.add(t.iterator());
+            }
+            //The oldest table is an input, so no older value of a deleted key is left and the tombstones can go
+            SsTable.write(tmp, firstSequence, merge(sources), (int) Math.min(Integer.MAX_VALUE, expected), true);
+
+            tablesLock.writeLock().lock();
+            try {
+                for (SsTable t : inputs) t.close();
+                SsTable merged;
+                try {
+                    Files.move(tmp.toPath(), newest.getFile().toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    merged = SsTable.open(newest.getFile(), newest.getSequence());
+                } catch (IOException | RuntimeException e) {
+                    reopen(inputs);
+                    throw e;
+                }
+                tables.removeAll(inputs);
+                tables.add(merged);
+                for (SsTable t : inputs) {
+                    if (t != newest && !t.getFile().delete()) System.err.println("Failed to delete table " + t.getFile().getPath());
+                }
+            } finally {
+                tablesLock.writeLock().unlock();
+            }
+            synchronized (this) {
+                compactions++;
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Compaction of " + dir.getPath() + " failed. Error: " + e.getMessage());
+            if (tmp.exists() && !tmp.delete()) System.err.println("Failed to delete " + tmp.getPath());
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    /**
+     * Replaces closed tables in the table list by newly opened ones, so readers find their entries again
+     * Must be called with the write lock held
+     *
+     * @param closed tables that were closed
+     * @throws IOException if a table cannot be opened
+     */
+    private void reopen(List<SsTable> closed) throws IOException {
+        for (SsTable t : closed) {
+            int i = tables.indexOf(t);
+            if (i >= 0) tables.set(i, SsTable.open(t.getFile(), t.getSequence()));
+        }
+    }
+
+    /**
+     * Next entry of one source of a merge
+     */
+    private static final class Head {
+        final int source;
+        Map.Entry<Long, byte[]> entry;
+
+        Head(int source, Map.Entry<Long, byte[]> entry) {
+            this.source = source;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Merges sorted sources into one sorted sequence where each key appears once, with the value of the first source that has it
+     *
+     * @param sources iterators in ascending key order, newest first
+     */
+    private static Iterator<Map.Entry<Long, byte[]>> merge(List<Iterator<Map.Entry<Long, byte[]>>> sources) {
+        //Heads ordered by key, then by source, so the newest value of a key comes out first
+        PriorityQueue<Head> heads = new PriorityQueue<>(Math.max(1, sources.size()), (a, b) -> {
+            int c = Long.compare(a.entry.getKey(), b.entry.getKey());
+            return c != 0 ? c : Integer.compare(a.source, b.source);
+        });
+        for (int i = 0; i < sources.size(); i++) {
+            if (sources.get(i).hasNext()) heads.add(new Head(i, sources.get(i).next()));
+        }
+        return new Iterator<Map.Entry<Long, byte[]>>() {
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public Map.Entry<Long, byte[]> next() {
+                if (heads.isEmpty()) throw new NoSuchElementException();
+                Head head = heads.poll();
+                Map.Entry<Long, byte[]> result = head.entry;
+                advance(head);
+                while (!heads.isEmpty() && heads.peek().entry.getKey().longValue() == result.getKey()) {
+                    advance(heads.poll()); //Older value of the same key
+                }
+                return result;
+            }
+
+            private void advance(Head head) {
+                Iterator<Map.Entry<Long, byte[]>> source = sources.get(head.source);
+                if (source.hasNext()) {
+                    head.entry = source.next();
+                    heads.add(head);
+                }
+            }
+        };
+    }
+
+    /**
+     * Calls an action with every key and value in ascending key order
+     * Tables are not replaced by a compaction while this runs
+     *
+     * @param action called with the key and the value
+     * @throws UncheckedIOException if a table cannot be read
+     */
+    public void forEach(BiConsumer<Long, byte[]> action) {
+        tablesLock.readLock().lock();
+        try {
+            List<Iterator<Map.Entry<Long, byte[]>>> sources = new ArrayList<>();
+            sources.add(memtable.entrySet().iterator());
+            for (SsTable t : tables) sources.add(t.iterator());
+            Iterator<Map.Entry<Long, byte[]>> merged = merge(sources);
+            while (merged.hasNext()) {
+                Map.Entry<Long, byte[]> e = merged.next();
+                if (e.getValue() != TOMBSTONE) action.accept(e.getKey(), e.getValue());
+            }
+        } finally {
+            tablesLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Forces the log to disk, so the writes so far survive a crash of the machine
+     *
+     * @throws UncheckedIOException if the log cannot be forced
+     */
+    public synchronized void sync() {
+        checkOpen();
+        try {
+            wal.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot sync LSM tree " + dir.getPath(), e);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) throw new IllegalStateException("LSM tree is closed: " + dir.getPath());
+    }
+
+    private File tableFile(long sequence) {
+        return new File(dir, String.format("%s%010d%s", TABLE_PREFIX, sequence, TABLE_SUFFIX));
+    }
+
+    /**
+     * @return number of table files
+     */
+    public int tableCount() {
+        tablesLock.readLock().lock();
+        try {
+            return tables.size();
+        } finally {
+            tablesLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return bytes of the table files and the log
+     */
+    public long diskBytes() {
+        tablesLock.readLock().lock();
+        try {
+            long total = new File(dir, WAL_FILE).length();
+            for (SsTable t : tables) total += t.length();
+            return total;
+        } finally {
+            tablesLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return estimated bytes of the memtable
+     */
+    public synchronized long memtableBytes() {
+        return memtableBytes;
+    }
+
+    public synchronized int getFlushes() { return flushes; }
+    public synchronized int getCompactions() { return compactions; }
+
+    /**
+     * Writes the memtable to a table, waits for a running compaction and closes the files
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            try {
+                flush();
+            } finally {
+                wal.close();
+            }
+        }
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeTables();
+    }
+
+    private void closeTables() {
+        tablesLock.writeLock().lock();
+        try {
+            for (SsTable t : tables) {
+                try {
+                    t.close();
+                } catch (IOException e) {
+                    System.err.println("Failed to close table " + t.getFile().getPath());
+                }
+            }
+            tables.clear();
+        } finally {
+            tablesLock.writeLock().unlock();
+        }
+    }
+}
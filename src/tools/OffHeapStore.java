@@ -0,0 +1,324 @@
+package tools;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A {@link RecordStore} that keeps its records outside the heap, in direct buffers, so the garbage collector
+ * does not have to mark or copy them. Only primitive arrays stay on the heap: a hash table from key to slot.
+ *
+ * Every record has the same size: a header (key, live flag) followed by the bytes of a {@link Codec}.
+ * Strings are written as codes of a {@link StringDictionary} shared by the store and its snapshots.
+ * A read turns the bytes back into a new value object, a small handle that is garbage after use.
+ *
+ * Records are grouped in chunks of {@link #CHUNK_RECORDS}. Like {@link DirectIndex}, {@link #snapshot()} shares the chunks
+ * and a chunk is copied only when it is changed for the first time after the snapshot, so a snapshot is never written.
+ * A key keeps its slot forever: a removed record is only marked as not live, and the slot is used again if the key
+ * comes back. Changes and reads of the store are synchronized, since a record is written in several steps;
+ * reads of a snapshot are not.
+ * @param <V> type of the stored values
+ * @author mymym
+ */
+public class OffHeapStore<V> implements RecordStore<V> {
+    public static final int CHUNK_RECORDS = 1 << 10;
+
+    private static final int HEADER_BYTES = 12;    // Key (long), live flag (int)
+    private static final long FREE = -1L;
+
+    /**
+     * Fixed layout of the values of a store
+     * @param <V> type of the values
+     */
+    public interface Codec<V> {
+        /**
+         * @return number of bytes of every record, without the header
+         */
+        int recordBytes();
+
+        /**
+         * Writes a value at an offset, strings must be written as codes of the dictionary
+         */
+        void write(V value, ByteBuffer buffer, int offset, StringDictionary strings);
+
+        /**
+         * Reads the value written at an offset
+         *
+         * @param key the key of the record
+         * @return a new value
+         */
+        V read(long key, ByteBuffer buffer, int offset, StringDictionary strings);
+    }
+
+    /**
+     * Key to slot, open addressing with linear probing. Only grows, shared by the store and its snapshots
+     */
+    private static final class KeyTable {
+        volatile long[] keys;
+        volatile int[] slots;
+        int count;
+
+        KeyTable() {
+            this.keys = new long[1024];
+            this.slots = new int[1024];
+            Arrays.fill(keys, FREE);
+        }
+
+        int find(long key) {
+            long[] k = keys;
+            int[] s = slots;
+            int mask = k.length - 1;
+            for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+                if (k[i] == key) return s[i];
+                if (k[i] == FREE) return -1;
+            }
+        }
+
+        void insert(long key, int slot) {
+            if ((count + 1) * 2 > keys.length) {
+                long[] oldKeys = keys;
+                int[] oldSlots = slots;
+                long[] newKeys = new long[oldKeys.length * 2];
+                int[] newSlots = new int[newKeys.length];
+                Arrays.fill(newKeys, FREE);
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldKeys[i] != FREE) put(newKeys, newSlots, oldKeys[i], oldSlots[i]);
+                }
+                slots = newSlots;
+                keys = newKeys;
+            }
+            put(keys, slots, key, slot);
+            count++;
+        }
+
+        private static void put(long[] k, int[] s, long key, int slot) {
+            int mask = k.length - 1;
+            int i = mix(key) & mask;
+            while (k[i] != FREE) i = (i + 1) & mask;
+            s[i] = slot;    // Before the key, a reader that finds the key also finds its slot
+            k[i] = key;
+        }
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    private final Codec<V> codec;
+    private final StringDictionary strings;
+    private final KeyTable keys;
+    private final int recordBytes;
+    private ByteBuffer[] chunks;
+    private boolean[] owned;    // False if the chunk is shared with a snapshot and must be copied before a change
+    private final boolean frozen;
+    private int slotCount;
+    private int size;
+
+    /**
+     * Constructs an empty store with its own string dictionary
+     *
+     * @param codec layout of the values
+     */
+    public OffHeapStore(Codec<V> codec) {
+        this.codec = codec;
+        this.strings = new StringDictionary();
+        this.keys = new KeyTable();
+        this.recordBytes = HEADER_BYTES + codec.recordBytes();
+        this.chunks = new ByteBuffer[0];
+        this.owned = new boolean[0];
+        this.frozen = false;
+    }
+
+    private OffHeapStore(OffHeapStore<V> source) {
+        this.codec = source.codec;
+        this.strings = source.strings;
+        this.keys = source.keys;
+        this.recordBytes = source.recordBytes;
+        this.chunks = source.chunks.clone();
+        this.owned = new boolean[chunks.length];
+        this.frozen = true;
+        this.slotCount = source.slotCount;
+        this.size = source.size;
+    }
+
+    @Override
+    public synchronized OffHeapStore<V> snapshot() {
+        if (frozen) return this;
+        Arrays.fill(owned, false);
+        return new OffHeapStore<>(this);
+    }
+
+    @Override
+    public V get(long key) {
+        if (frozen) return read(key);
+        synchronized (this) {
+            return read(key);
+        }
+    }
+
+    private V read(long key) {
+        if (key < 0) return null;
+        int slot = keys.find(key);
+        return slot < 0 || slot >= slotCount ? null : readSlot(slot, key);
+    }
+
+    /**
+     * @param key the expected key, or FREE for any key
+     * @return the value of a slot, or null if it is not live or has another key
+     */
+    private V readSlot(int slot, long key) {
+        ByteBuffer chunk = chunks[slot / CHUNK_RECORDS];
+        int offset = (slot % CHUNK_RECORDS) * recordBytes;
+        long stored = chunk.getLong(offset);
+        if (chunk.getInt(offset + 8) == 0 || (key != FREE && stored != key)) return null;
+        return codec.read(stored, chunk, offset + HEADER_BYTES, strings);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the key is negative
+     */
+    @Override
+    public synchronized V put(long key, V value) {
+        Objects.requireNonNull(value);
+        if (key < 0) throw new IllegalArgumentException("Invalid key: " + key);
+        checkWritable();
+        int slot = keys.find(key);
+        V old = null;
+        if (slot < 0) {
+            slot = slotCount;
+            if (slot / CHUNK_RECORDS == chunks.length) addChunk();
+            slotCount++;
+            keys.insert(key, slot);
+        } else {
+            old = readSlot(slot, key);
+        }
+        ByteBuffer chunk = writableChunk(slot / CHUNK_RECORDS);
+        int offset = (slot % CHUNK_RECORDS) * recordBytes;
+        codec.write(value, chunk, offset + HEADER_BYTES, strings);
+        chunk.putLong(offset, key);
+        chunk.putInt(offset + 8, 1);
+        if (old == null) size++;
+        return old;
+    }
+
+    /**
+     * Stores the values while holding the lock, so reads of the store see none or all of them
+     */
+    @Override
+    public synchronized void putAll(long[] keys, List<V> values) {
+        for (int i = 0; i < keys.length; i++) put(keys[i], values.get(i));
+    }
+
+    @Override
+    public synchronized V remove(long key) {
+        checkWritable();
+        int slot = key < 0 ? -1 : keys.find(key);
+        if (slot < 0) return null;
+        V old = readSlot(slot, key);
+        if (old == null) return null;
+        writableChunk(slot / CHUNK_RECORDS).putInt((slot % CHUNK_RECORDS) * recordBytes + 8, 0);
+        size--;
+        return old;
+    }
+
+    private void checkWritable() {
+        if (frozen) throw new UnsupportedOperationException("Snapshot is read-only");
+    }
+
+    private void addChunk() {
+        chunks = Arrays.copyOf(chunks, chunks.length + 1);
+        owned = Arrays.copyOf(owned, chunks.length);
+        chunks[chunks.length - 1] = ByteBuffer.allocateDirect(CHUNK_RECORDS * recordBytes);
+        owned[chunks.length - 1] = true;
+    }
+
+    private ByteBuffer writableChunk(int c) {
+        if (!owned[c]) {
+            ByteBuffer copy = ByteBuffer.allocateDirect(chunks[c].capacity());
+            copy.put(chunks[c].duplicate()).clear();
+            chunks[c] = copy;
+            owned[c] = true;
+        }
+        return chunks[c];
+    }
+
+    @Override
+    public int size() { return size; }
+
+    /**
+     * @return bytes of the records and strings of this store outside the heap, chunks kept only by snapshots not included
+     */
+    public synchronized long allocatedBytes() {
+        return (long) chunks.length * CHUNK_RECORDS * recordBytes + strings.allocatedBytes();
+    }
+
+    /**
+     * Iterates the values in slot order, without the stream machinery of {@link #stream()}
+     */
+    @Override
+    public Iterator<V> iterator() {
+        int end;
+        synchronized (this) {
+            end = slotCount;
+        }
+        return new Iterator<V>() {
+            private int slot;
+            private V next = advance();
+
+            private V advance() {
+                while (slot < end) {
+                    int s = slot++;
+                    V value;
+                    if (frozen) {
+                        value = readSlot(s, FREE);
+                    } else {
+                        synchronized (OffHeapStore.this) {
+                            value = readSlot(s, FREE);
+                        }
+                    }
+                    if (value != null) return value;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public V next() {
+                if (next == null) throw new NoSuchElementException();
+                V value = next;
+                next = advance();
+                return value;
+            }
+        };
+    }
+
+    /**
+     * Streams the values lazily in slot order, which is the order the keys were first added.
+     * The stream of a snapshot can run in parallel.
+     */
+    @Override
+    public Stream<V> stream() {
+        int end;
+        synchronized (this) {
+            end = slotCount;
+        }
+        return IntStream.range(0, end)
+                .mapToObj(slot -> {
+                    if (frozen) return readSlot(slot, FREE);
+                    synchronized (this) {
+                        return readSlot(slot, FREE);
+                    }
+                })
+                .filter(Objects::nonNull);
+    }
+}
@@ -0,0 +1,52 @@
+package tools;
+
+/**
+ * Packs order codes (see {@link Acceptable#ORDER_CODE_VALID}) into a long and back.
+ * The eight characters after "ORD-" are read as a base 36 number, which needs 42 bits.
+ */
+public class OrderCodeCodec {
+    public static final long INVALID = -1L;
+    private static final String PREFIX = "ORD-";
+    private static final int LENGTH = 12;
+    private static final String DIGITS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+    /**
+     * Packs an order code, letters are accepted in both cases.
+     *
+     * @param code The order code, e.g. ORD-1A2B3C4D.
+     * @return The packed code (0 or more), or {@link #INVALID} if the code does not have the right format.
+     */
+    public static long pack(CharSequence code) {
+        if (code == null || code.length() != LENGTH) return INVALID;
+        for (int i = 0; i < PREFIX.length(); i++) {
+            if (Character.toUpperCase(code.charAt(i)) != PREFIX.charAt(i)) return INVALID;
+        }
+        long value = 0;
+        for (int i = PREFIX.length(); i < LENGTH; i++) {
+            char c = code.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') digit = c - '0';
+            else if (c >= 'A' && c <= 'Z') digit = c - 'A' + 10;
+            else if (c >= 'a' && c <= 'z') digit = c - 'a' + 10;
+            else return INVALID;
+            value = value * 36 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Turns a packed code back into the order code, always in uppercase.
+     *
+     * @param packed The packed code returned by {@link #pack(CharSequence)}.
+     * @return The order code.
+     */
+    public static String unpack(long packed) {
+        char[] chars = new char[LENGTH];
+        PREFIX.getChars(0, PREFIX.length(), chars, 0);
+        for (int i = LENGTH - 1; i >= PREFIX.length(); i--) {
+            chars[i] = DIGITS.charAt((int) (packed % 36));
+            packed /= 36;
+        }
+        return new String(chars);
+    }
+}
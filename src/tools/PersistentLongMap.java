@@ -0,0 +1,350 @@
+package tools;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Immutable map from long keys to values, stored as a hash array mapped trie (HAMT).
+ * Every change returns a new map that shares all untouched nodes with the old one, so keeping
+ * an old version (a snapshot) costs nothing and it never changes while the new version is edited.
+ * Each level of the trie uses 5 bits of the mixed key; the mixing is a bijection, so two different
+ * keys never end on the same path and no collision nodes are needed.
+ *
+ * Loading many entries at once should use a {@link Builder}, which edits its own new nodes in place.
+ * @param <V> type of the stored values
+ */
+public final class PersistentLongMap<V> implements Iterable<V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final PersistentLongMap<?> EMPTY = new PersistentLongMap<>(new Node(null, 0, new Object[0]), 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentLongMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentLongMap<V> empty() {
+        return (PersistentLongMap<V>) EMPTY;
+    }
+
+    public int size() { return size; }
+
+    public boolean isEmpty() { return size == 0; }
+
+    /**
+     * Gets the value of a key
+     *
+     * @param key the key
+     * @return the value, or null if the key is not in the map
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        long h = mix(key);
+        Node node = root;
+        for (int shift = 0; ; shift += BITS) {
+            int bit = 1 << index(h, shift);
+            if ((node.bitmap & bit) == 0) return null;
+            Object child = node.array[Integer.bitCount(node.bitmap & (bit - 1))];
+            if (child instanceof Leaf) {
+                Leaf leaf = (Leaf) child;
+                return leaf.key == key ? (V) leaf.value : null;
+            }
+            node = (Node) child;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @param key   the key
+     * @param value the value, not null
+     * @return a map with the key set to the value
+     */
+    public PersistentLongMap<V> plus(long key, V value) {
+        Objects.requireNonNull(value);
+        boolean[] added = new boolean[1];
+        Node newRoot = insert(root, 0, mix(key), key, value, null, added);
+        return newRoot == root ? this : new PersistentLongMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * @param key the key
+     * @return a map without the key
+     */
+    public PersistentLongMap<V> minus(long key) {
+        if (!containsKey(key)) return this;
+        Node newRoot = delete(root, 0, mix(key), key, null);
+        return new PersistentLongMap<>(newRoot == null ? new Node(null, 0, new Object[0]) : newRoot, size - 1);
+    }
+
+    /**
+     * @return a builder that starts from this map, this map itself never changes
+     */
+    public Builder<V> toBuilder() {
+        return new Builder<>(root, size);
+    }
+
+    /**
+     * @return a new list of the values, in trie order
+     */
+    public List<V> values() {
+        List<V> list = new ArrayList<>(size);
+        forEach(list::add);
+        return list;
+    }
+
+    /**
+     * @return a new array of the keys, in trie order
+     */
+    public long[] keys() {
+        long[] keys = new long[size];
+        collectKeys(root, keys, 0);
+        return keys;
+    }
+
+    private static int collectKeys(Node node, long[] keys, int next) {
+        for (Object child : node.array) {
+            if (child instanceof Leaf) keys[next++] = ((Leaf) child).key;
+            else next = collectKeys((Node) child, keys, next);
+        }
+        return next;
+    }
+
+    /**
+     * @return a lazy stream over the values, in trie order
+     */
+    public Stream<V> stream() {
+        return StreamSupport.stream(Spliterators.spliterator(iterator(), size,
+                Spliterator.SIZED | Spliterator.IMMUTABLE | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public void forEach(Consumer<? super V> action) {
+        forEach(root, action);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> void forEach(Node node, Consumer<? super V> action) {
+        for (Object child : node.array) {
+            if (child instanceof Leaf) action.accept((V) ((Leaf) child).value);
+            else forEach((Node) child, action);
+        }
+    }
+
+    @Override
+    public Iterator<V> iterator() {
+        return new Iterator<V>() {
+            private final Node[] nodes = new Node[64 / BITS + 2];   //Path from the root to the current node
+            private final int[] positions = new int[nodes.length];
+            private int depth;
+            private Leaf next;
+
+            {
+                nodes[0] = root;
+                advance();
+            }
+
+            private void advance() {
+                next = null;
+                while (depth >= 0) {
+                    Node node = nodes[depth];
+                    if (positions[depth] >= node.array.length) {
+                        depth--;
+                        continue;
+                    }
+                    Object child = node.array[positions[depth]++];
+                    if (child instanceof Leaf) {
+                        next = (Leaf) child;
+                        return;
+                    }
+                    nodes[++depth] = (Node) child;
+                    positions[depth] = 0;
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public V next() {
+                if (next == null) throw new NoSuchElementException();
+                V value = (V) next.value;
+                advance();
+                return value;
+            }
+        };
+    }
+
+    /**
+     * Builds a map with many changes, without copying the nodes it already copied once.
+     * After {@link #build()} the returned map is immutable and the builder can still be used,
+     * its next changes copy nodes again.
+     * @param <V> type of the stored values
+     */
+    public static final class Builder<V> {
+        private Object edit;
+        private Node root;
+        private int size;
+
+        private Builder(Node root, int size) {
+            this.edit = new Object();
+            this.root = root;
+            this.size = size;
+        }
+
+        public int size() { return size; }
+
+        public V get(long key) {
+            return new PersistentLongMap<V>(root, size).get(key);
+        }
+
+        /**
+         * @param key   the key
+         * @param value the value, not null
+         * @return this builder
+         */
+        public Builder<V> put(long key, V value) {
+            Objects.requireNonNull(value);
+            boolean[] added = new boolean[1];
+            root = insert(root, 0, mix(key), key, value, edit, added);
+            if (added[0]) size++;
+            return this;
+        }
+
+        /**
+         * @param key the key
+         * @return this builder
+         */
+        public Builder<V> remove(long key) {
+            if (get(key) == null) return this;
+            Node newRoot = delete(root, 0, mix(key), key, edit);
+            root = newRoot == null ? new Node(edit, 0, new Object[0]) : newRoot;
+            size--;
+            return this;
+        }
+
+        /**
+         * @return the built map
+         */
+        public PersistentLongMap<V> build() {
+            edit = new Object(); //Nodes made so far now belong to the map
+            return new PersistentLongMap<>(root, size);
+        }
+    }
+
+    private static final class Leaf {
+        final long key;
+        final Object value;
+
+        Leaf(long key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static final class Node {
+        final Object edit;  //Builder that may change this node in place, null if none
+        int bitmap;
+        Object[] array;
+
+        Node(Object edit, int bitmap, Object[] array) {
+            this.edit = edit;
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        Node editable(Object edit) {
+            return edit != null && this.edit == edit ? this : new Node(edit, bitmap, array.clone());
+        }
+
+        Node with(Object edit, int bitmap, Object[] array) {
+            if (edit != null && this.edit == edit) {
+                this.bitmap = bitmap;
+                this.array = array;
+                return this;
+            }
+            return new Node(edit, bitmap, array);
+        }
+    }
+
+    private static long mix(long key) {
+        return key * 0x9E3779B97F4A7C15L; //Odd multiplier, so different keys stay different
+    }
+
+    private static int index(long h, int shift) {
+        return (int) (h >>> shift) & MASK;
+    }
+
+    private static Node insert(Node node, int shift, long h, long key, Object value, Object edit, boolean[] added) {
+        int bit = 1 << index(h, shift);
+        int pos = Integer.bitCount(node.bitmap & (bit - 1));
+
+        if ((node.bitmap & bit) == 0) {
+            Object[] array = new Object[node.array.length + 1];
+            System.arraycopy(node.array, 0, array, 0, pos);
+            array[pos] = new Leaf(key, value);
+            System.arraycopy(node.array, pos, array, pos + 1, node.array.length - pos);
+            added[0] = true;
+            return node.with(edit, node.bitmap | bit, array);
+        }
+
+        Object child = node.array[pos];
+        Object newChild;
+        if (child instanceof Leaf) {
+            Leaf leaf = (Leaf) child;
+            if (leaf.key == key) {
+                if (leaf.value == value) return node;
+                newChild = new Leaf(key, value);
+            } else {
+                Node sub = new Node(edit, 0, new Object[0]);
+                sub = insert(sub, shift + BITS, mix(leaf.key), leaf.key, leaf.value, edit, new boolean[1]);
+                newChild = insert(sub, shift + BITS, h, key, value, edit, added);
+            }
+        } else {
+            newChild = insert((Node) child, shift + BITS, h, key, value, edit, added);
+            if (newChild == child) return node;
+        }
+        Node n = node.editable(edit);
+        n.array[pos] = newChild;
+        return n;
+    }
+
+    /**
+     * Removes a key that is known to be in the trie
+     * @return the new node, or null if the node became empty
+     */
+    private static Node delete(Node node, int shift, long h, long key, Object edit) {
+        int bit = 1 << index(h, shift);
+        int pos = Integer.bitCount(node.bitmap & (bit - 1));
+        Object child = node.array[pos];
+
+        Object newChild = null;
+        if (child instanceof Node) {
+            Node sub = delete((Node) child, shift + BITS, h, key, edit);
+            //A sub node left with a single leaf is replaced by that leaf
+            newChild = sub != null && sub.array.length == 1 && sub.array[0] instanceof Leaf ? sub.array[0] : sub;
+        }
+
+        if (newChild == null) {
+            if (node.array.length == 1) return null;
+            Object[] array = new Object[node.array.length - 1];
+            System.arraycopy(node.array, 0, array, 0, pos);
+            System.arraycopy(node.array, pos + 1, array, pos, array.length - pos);
+            return node.with(edit, node.bitmap & ~bit, array);
+        }
+        Node n = node.editable(edit);
+        n.array[pos] = newChild;
+        return n;
+    }
+}
@@ -0,0 +1,100 @@
+package tools;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * A {@link RecordStore} on the heap that holds a {@link PersistentLongMap} and replaces it on every change,
+ * so a snapshot is the map of the moment and costs nothing.
+ * @param <V> type of the stored values
+ * @author mymym
+ */
+public class PersistentLongStore<V> implements RecordStore<V> {
+    private volatile PersistentLongMap<V> map;
+    private final boolean frozen;
+
+    /**
+     * Constructor
+     *
+     * @param map the first content, e.g. built with a {@link PersistentLongMap.Builder}
+     */
+    public PersistentLongStore(PersistentLongMap<V> map) {
+        this(map, false);
+    }
+
+    private PersistentLongStore(PersistentLongMap<V> map, boolean frozen) {
+        this.map = map;
+        this.frozen = frozen;
+    }
+
+    @Override
+    public V get(long key) {
+        return map.get(key);
+    }
+
+    @Override
+    public synchronized V put(long key, V value) {
+        checkWritable();
+        V old = map.get(key);
+        map = map.plus(key, value);
+        return old;
+    }
+
+    @Override
+    public synchronized V remove(long key) {
+        checkWritable();
+        V old = map.get(key);
+        if (old != null) map = map.minus(key);
+        return old;
+    }
+
+    /**
+     * Stores the values with one {@link PersistentLongMap.Builder}, readers see the new map with all of them at once
+     */
+    @Override
+    public synchronized void putAll(long[] keys, List<V> values) {
+        checkWritable();
+        PersistentLongMap.Builder<V> builder = map.toBuilder();
+        for (int i = 0; i < keys.length; i++) builder.put(keys[i], values.get(i));
+        map = builder.build();
+    }
+
+    /**
+     * Removes the keys with one {@link PersistentLongMap.Builder}, instead of copying a path of the trie per key
+     */
+    @Override
+    public synchronized void removeAll(long[] keys) {
+        checkWritable();
+        PersistentLongMap.Builder<V> builder = map.toBuilder();
+        for (long key : keys) builder.remove(key);
+        map = builder.build();
+    }
+
+    private void checkWritable() {
+        if (frozen) throw new UnsupportedOperationException("Snapshot is read-only");
+    }
+
+    @Override
+    public int size() { return map.size(); }
+
+    @Override
+    public PersistentLongStore<V> snapshot() {
+        return frozen ? this : new PersistentLongStore<>(map, true);
+    }
+
+    @Override
+    public Stream<V> stream() {
+        return map.stream();
+    }
+
+    @Override
+    public Iterator<V> iterator() {
+        return map.iterator();
+    }
+
+    @Override
+    public List<V> values() {
+        return map.values();
+    }
+}
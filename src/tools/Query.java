@@ -0,0 +1,331 @@
+package tools;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * A filter written as text, parsed once and compiled into a Predicate.
+ *
+ * Grammar (keywords are case-insensitive):
+ *   query      := term ( "or" term )*
+ *   term       := factor ( "and" factor )*
+ *   factor     := "not" factor | "(" query ")" | field operator value
+ *   operator   := =  !=  >  >=  <  <=  ~      (~ means "contains", text fields only)
+ *   value      := word | "text with spaces"
+ * Text is compared ignoring case, dates are written dd/MM/yyyy and compared by day.
+ * Example: menu = PW003 and date >= 01/12/2026 and date <= 31/12/2026 and tables > 20
+ *
+ * The fields a query may use are given by the caller, see {@link Field}.
+ * @param <T> type of the filtered objects
+ */
+public class Query<T> {
+    private final String text;
+    private final Node<T> root;
+    private final Predicate<T> predicate;
+
+    private Query(String text, Node<T> root) {
+        this.text = text;
+        this.root = root;
+        this.predicate = root.compile();
+    }
+
+    /**
+     * Parses and compiles a query
+     *
+     * @param text   the query
+     * @param fields fields that the query may use
+     * @param <T>    type of the filtered objects
+     * @return the compiled query
+     * @throws IllegalArgumentException if the query is not valid, the message tells why
+     */
+    public static <T> Query<T> compile(String text, Collection<Field<T>> fields) {
+        if (text == null || text.trim().isEmpty()) throw new IllegalArgumentException("Query is empty");
+        Map<String, Field<T>> byName = new HashMap<>();
+        for (Field<T> f : fields) byName.put(f.name.toLowerCase(), f);
+        Parser<T> parser = new Parser<>(tokenize(text), byName);
+        Node<T> root = parser.parseOr();
+        if (parser.pos < parser.tokens.size()) {
+            throw new IllegalArgumentException("Unexpected \"" + parser.tokens.get(parser.pos) + "\"");
+        }
+        return new Query<>(text.trim(), root);
+    }
+
+    public boolean test(T x) {
+        return predicate.test(x);
+    }
+
+    public Predicate<T> predicate() {
+        return predicate;
+    }
+
+    /**
+     * Finds a value that every match must have in a field, so the caller can use an index for that field
+     * instead of scanning everything
+     *
+     * @param fieldName field name
+     * @return the value of a "field = value" condition that is required by the whole query, null if there is none
+     */
+    public String requiredValue(String fieldName) {
+        List<Node<T>> required = root instanceof And ? ((And<T>) root).parts : Collections.singletonList(root);
+        for (Node<T> n : required) {
+            if (n instanceof Comparison) {
+                Comparison<T> c = (Comparison<T>) n;
+                if (c.op.equals("=") && c.field.name.equalsIgnoreCase(fieldName)) return c.value;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * A field that queries can filter on
+     * @param <T> type of the filtered objects
+     */
+    public static final class Field<T> {
+        private enum Kind { TEXT, NUMBER, DATE }
+
+        private final String name;
+        private final Kind kind;
+        private final Function<T, String> text;
+        private final ToLongFunction<T> number;
+
+        private Field(String name, Kind kind, Function<T, String> text, ToLongFunction<T> number) {
+            this.name = name;
+            this.kind = kind;
+            this.text = text;
+            this.number = number;
+        }
+
+        public static <T> Field<T> text(String name, Function<T, String> getter) {
+            return new Field<>(name, Kind.TEXT, getter, null);
+        }
+
+        public static <T> Field<T> number(String name, ToLongFunction<T> getter) {
+            return new Field<>(name, Kind.NUMBER, null, getter);
+        }
+
+        /**
+         * @param getter gets the date, in days since 1970-01-01, see {@link DateUtils#toEpochDay(Date)}
+         */
+        public static <T> Field<T> date(String name, ToLongFunction<T> getter) {
+            return new Field<>(name, Kind.DATE, null, getter);
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private interface Node<T> {
+        Predicate<T> compile();
+    }
+
+    private static final class And<T> implements Node<T> {
+        final List<Node<T>> parts;
+
+        And(List<Node<T>> parts) { this.parts = parts; }
+
+        @Override
+        public Predicate<T> compile() {
+            Predicate<T> p = parts.get(0).compile();
+            for (int i = 1; i < parts.size(); i++) p = p.and(parts.get(i).compile());
+            return p;
+        }
+    }
+
+    private static final class Or<T> implements Node<T> {
+        final List<Node<T>> parts;
+
+        Or(List<Node<T>> parts) { this.parts = parts; }
+
+        @Override
+        public Predicate<T> compile() {
+            Predicate<T> p = parts.get(0).compile();
+            for (int i = 1; i < parts.size(); i++) p = p.or(parts.get(i).compile());
+            return p;
+        }
+    }
+
+    private static final class Not<T> implements Node<T> {
+        final Node<T> part;
+
+        Not(Node<T> part) { this.part = part; }
+
+        @Override
+        public Predicate<T> compile() {
+            return part.compile().negate();
+        }
+    }
+
+    private static final class Comparison<T> implements Node<T> {
+        final Field<T> field;
+        final String op;
+        final String value;
+
+        Comparison(Field<T> field, String op, String value) {
+            this.field = field;
+            this.op = op;
+            this.value = value;
+        }
+
+        @Override
+        public Predicate<T> compile() {
+            if (field.kind == Field.Kind.TEXT) {
+                Function<T, String> getter = field.text;
+                String v = value.toLowerCase();
+                if (op.equals("~")) {
+                    return x -> {
+                        String s = getter.apply(x);
+                        return s != null && s.toLowerCase().contains(v);
+                    };
+                }
+                return x -> {
+                    String s = getter.apply(x);
+                    return s != null && matches(op, s.compareToIgnoreCase(value));
+                };
+            }
+
+            if (op.equals("~")) throw new IllegalArgumentException("Operator ~ only works on text fields, not " + field.name);
+            long v;
+            if (field.kind == Field.Kind.DATE) {
+                try {
+                    v = LocalDate.parse(value, DATE_FORMAT).toEpochDay();
+                } catch (DateTimeParseException e) {
+                    throw new IllegalArgumentException("Invalid date \"" + value + "\" for " + field.name + ", use dd/MM/yyyy");
+                }
+            } else {
+                try {
+                    v = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid number \"" + value + "\" for " + field.name);
+                }
+            }
+            ToLongFunction<T> getter = field.number;
+            return x -> matches(op, Long.compare(getter.applyAsLong(x), v));
+        }
+
+        private static boolean matches(String op, int cmp) {
+            switch (op) {
+                case "=": return cmp == 0;
+                case "!=": return cmp != 0;
+                case ">": return cmp > 0;
+                case ">=": return cmp >= 0;
+                case "<": return cmp < 0;
+                default: return cmp <= 0;
+            }
+        }
+    }
+
+    private static final class Parser<T> {
+        final List<String> tokens;
+        final Map<String, Field<T>> fields;
+        int pos;
+
+        Parser(List<String> tokens, Map<String, Field<T>> fields) {
+            this.tokens = tokens;
+            this.fields = fields;
+        }
+
+        Node<T> parseOr() {
+            List<Node<T>> parts = new ArrayList<>();
+            parts.add(parseAnd());
+            while (acceptKeyword("or")) parts.add(parseAnd());
+            return parts.size() == 1 ? parts.get(0) : new Or<>(parts);
+        }
+
+        Node<T> parseAnd() {
+            List<Node<T>> parts = new ArrayList<>();
+            parts.add(parseFactor());
+            while (acceptKeyword("and")) parts.add(parseFactor());
+            return parts.size() == 1 ? parts.get(0) : new And<>(parts);
+        }
+
+        Node<T> parseFactor() {
+            if (acceptKeyword("not")) return new Not<>(parseFactor());
+            if (accept("(")) {
+                Node<T> inner = parseOr();
+                if (!accept(")")) throw new IllegalArgumentException("Missing )");
+                return inner;
+            }
+            String name = next("field name");
+            Field<T> field = fields.get(name.toLowerCase());
+            if (field == null) {
+                throw new IllegalArgumentException("Unknown field \"" + name + "\", use one of " + new TreeSet<>(fields.keySet()));
+            }
+            String op = next("operator");
+            if (!OPERATORS.contains(op)) throw new IllegalArgumentException("Unknown operator \"" + op + "\" after " + name);
+            String value = next("value");
+            if (value.startsWith("\"")) value = value.substring(1);
+            return new Comparison<>(field, op, value);
+        }
+
+        private String next(String what) {
+            if (pos >= tokens.size()) throw new IllegalArgumentException("Missing " + what + " at the end of the query");
+            return tokens.get(pos++);
+        }
+
+        private boolean accept(String token) {
+            if (pos < tokens.size() && tokens.get(pos).equals(token)) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean acceptKeyword(String keyword) {
+            if (pos < tokens.size() && tokens.get(pos).equalsIgnoreCase(keyword)) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/uuuu").withResolverStyle(ResolverStyle.STRICT);
+    private static final List<String> OPERATORS = Arrays.asList("=", "!=", ">", ">=", "<", "<=", "~");
+
+    /**
+     * Splits a query into words, quoted text, parentheses and operators
+     * Quoted text keeps a leading " so it is never read as a keyword
+     */
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(' || c == ')') {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (c == '"') {
+                int end = text.indexOf('"', i + 1);
+                if (end < 0) throw new IllegalArgumentException("Missing closing quote");
+                tokens.add(text.substring(i, end));
+                i = end + 1;
+            } else if ("=!<>~".indexOf(c) >= 0) {
+                int end = i + 1;
+                if (end < text.length() && text.charAt(end) == '=' && c != '=' && c != '~') end++;
+                tokens.add(text.substring(i, end));
+                i = end;
+            } else {
+                int end = i;
+                while (end < text.length() && !Character.isWhitespace(text.charAt(end))
+                        && "()\"=!<>~".indexOf(text.charAt(end)) < 0) end++;
+                tokens.add(text.substring(i, end));
+                i = end;
+            }
+        }
+        return tokens;
+    }
+}
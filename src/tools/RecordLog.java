@@ -0,0 +1,165 @@
+package tools;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only file of serialized records, read back by their position, e.g. from an index kept in memory.
+ * A changed record is appended again, the old bytes stay in the file but are not read any more;
+ * the owner of the index reclaims them by copying the live records to a new log, see {@link CachedStore}.
+ *
+ * Record layout: length (int), serialized object.
+ * Appends are synchronized, reads are not: a position returned by {@link #append(Object)} can be read at once
+ * by any thread, since the file only grows.
+ * @param <V> type of the records, must be Serializable
+ * @author mymym
+ */
+public class RecordLog<V> implements Closeable {
+    private final File file;
+    private final FileChannel channel;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+    private volatile long end;
+
+    /**
+     * Creates an empty log, an existing file is truncated. The file is deleted when the JVM exits
+     *
+     * @param filePath path of the log file
+     * @throws UncheckedIOException if the file cannot be created
+     */
+    public RecordLog(String filePath) {
+        this.file = new File(filePath);
+        try {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create record log " + filePath, e);
+        }
+        file.deleteOnExit();
+    }
+
+    /**
+     * Writes a record at the end of the log
+     *
+     * @param value the record
+     * @return position of the record
+     * @throws UncheckedIOException if the record cannot be written
+     */
+    public synchronized long append(V value) {
+        try {
+            buffer.reset();
+            buffer.write(new byte[4]);
+            try (ObjectOutputStream oos = new ObjectOutputStream(buffer)) {
+                oos.writeObject(value);
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+            bytes.putInt(0, bytes.capacity() - 4);
+            return write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write record log " + file.getPath(), e);
+        }
+    }
+
+    /**
+     * Writes a record read from another log by {@link #readRecord(long)}, without deserializing it
+     *
+     * @param record length and serialized object
+     * @return position of the record
+     * @throws UncheckedIOException if the record cannot be written
+     */
+    synchronized long appendRecord(byte[] record) {
+        try {
+            return write(ByteBuffer.wrap(record));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write record log " + file.getPath(), e);
+        }
+    }
+
+    private long write(ByteBuffer bytes) throws IOException {
+        long position = end;
+        while (bytes.hasRemaining()) channel.write(bytes, position + bytes.position());
+        end = position + bytes.capacity();
+        return position;
+    }
+
+    /**
+     * Reads the record at a position
+     *
+     * @param position a position returned by {@link #append(Object)}
+     * @return the record
+     * @throws UncheckedIOException if the record cannot be read
+     */
+    @SuppressWarnings("unchecked")
+    public V read(long position) {
+        try {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            readFully(length, position);
+            ByteBuffer bytes = ByteBuffer.allocate(length.getInt(0));
+            readFully(bytes, position + 4);
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes.array()))) {
+                return (V) ois.readObject();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read record log " + file.getPath(), e);
+        } catch (ClassNotFoundException e) {
+            throw new UncheckedIOException(new IOException(e.getMessage(), e));
+        }
+    }
+
+    /**
+     * Reads the bytes of the record at a position, with its length
+     *
+     * @param position a position returned by {@link #append(Object)}
+     * @return length and serialized object
+     * @throws UncheckedIOException if the record cannot be read
+     */
+    byte[] readRecord(long position) {
+        try {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            readFully(length, position);
+            ByteBuffer record = ByteBuffer.allocate(4 + length.getInt(0));
+            readFully(record, position);
+            return record.array();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read record log " + file.getPath(), e);
+        }
+    }
+
+    private void readFully(ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) throw new EOFException("Record past the end at " + position);
+        }
+    }
+
+    /**
+     * @return bytes written to the log, including records that were replaced
+     */
+    public long length() {
+        return end;
+    }
+
+    /**
+     * Closes and deletes the log file
+     */
+    @Override
+    public void close() throws IOException {
+        close(channel, file);
+    }
+
+    /**
+     * Gets what {@link #close()} does without keeping this log reachable, so the file can be closed once the log is gone
+     *
+     * @return closes and deletes the file
+     */
+    Closeable closer() {
+        FileChannel channel = this.channel;
+        File file = this.file;
+        return () -> close(channel, file);
+    }
+
+    private static void close(FileChannel channel, File file) throws IOException {
+        channel.close();
+        if (!file.delete()) System.err.println("Failed to delete record log " + file.getPath());
+    }
+}
@@ -0,0 +1,22 @@
+package tools;
+
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Where a {@link CachedStore} reads the records it did not write to its log, e.g. a repository that looks records up by key,
+ * so the records that were only loaded are not copied to the log. It is read by many threads at once.
+ * @param <V> type of the records
+ * @author mymym
+ */
+public interface RecordSource<V> {
+
+    /**
+     * Reads records by key
+     *
+     * @param keys keys of records
+     * @return the records in the order of the keys, null for a key that is not stored
+     * @throws UncheckedIOException if the records cannot be read
+     */
+    List<V> read(long[] keys);
+}
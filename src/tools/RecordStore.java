@@ -0,0 +1,102 @@
+package tools;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Records by a key of 0 or more, with read-only snapshots taken in constant time.
+ * One thread changes the store, other threads may read it or read snapshots of it.
+ *
+ * Implementations keep the records as objects on the heap ({@link DirectIndex}, {@link PersistentLongStore})
+ * or as fixed size records outside the heap ({@link OffHeapStore}), which creates a new object on every read.
+ * Values read from a store must not be changed, a change is made by putting a new value.
+ * @param <V> type of the stored values
+ * @author mymym
+ */
+public interface RecordStore<V> extends Iterable<V> {
+
+    /**
+     * @param key the key
+     * @return the value, or null if there is none
+     */
+    V get(long key);
+
+    default boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Stores a value for a key
+     *
+     * @param key   the key, 0 or more
+     * @param value the value, not null
+     * @return the previous value, or null if there was none
+     * @throws UnsupportedOperationException if this store is a snapshot
+     */
+    V put(long key, V value);
+
+    /**
+     * Removes the value of a key
+     *
+     * @param key the key
+     * @return the removed value, or null if there was none
+     * @throws UnsupportedOperationException if this store is a snapshot
+     */
+    V remove(long key);
+
+    /**
+     * Stores the values of many keys, stores that can do it show either none or all of them to readers
+     *
+     * @param keys   the keys, 0 or more
+     * @param values the values, not null, one per key
+     * @throws UnsupportedOperationException if this store is a snapshot
+     */
+    default void putAll(long[] keys, List<V> values) {
+        for (int i = 0; i < keys.length; i++) put(keys[i], values.get(i));
+    }
+
+    /**
+     * Removes the values of many keys, faster than one remove per key in some stores
+     *
+     * @param keys the keys
+     */
+    default void removeAll(long[] keys) {
+        for (long key : keys) remove(key);
+    }
+
+    int size();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Gets a read-only copy of the current content, later changes to this store are not visible in it
+     *
+     * @return the snapshot
+     */
+    RecordStore<V> snapshot();
+
+    /**
+     * Streams the values lazily, changes made during the stream may or may not be seen.
+     * Stream a {@link #snapshot()} for a stable view.
+     *
+     * @return the stored values
+     */
+    Stream<V> stream();
+
+    @Override
+    default Iterator<V> iterator() {
+        return stream().iterator();
+    }
+
+    /**
+     * @return a new list of the stored values
+     */
+    default List<V> values() {
+        return stream().collect(Collectors.toCollection(ArrayList::new));
+    }
+}
@@ -0,0 +1,264 @@
+package tools;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Sorted, immutable table file of an {@link LsmTree}: long keys in ascending order, each with a value or a tombstone.
+ * Only the sparse index (first key of every block) and the bloom filter are kept in memory, a lookup reads one block.
+ *
+ * File layout:
+ *   header   magic "LSMT" (int), version (int)
+ *   blocks   entries of about {@link #BLOCK_BYTES}: key (long), value length (int, -1 for a tombstone), value bytes
+ *   index    number of blocks (int), then first key (long) and offset (long) of every block
+ *   bloom    the {@link BloomFilter} of all keys
+ *   footer   index offset (long), bloom offset (long), entries (long), first sequence (long), magic (int)
+ * The first sequence is the oldest table merged into this one, a table covers the sequences from it to its own.
+ *
+ * Reads use positional reads on one channel, so a table can be read by many threads.
+ * @author mymym
+ */
+final class SsTable implements Closeable {
+    static final int MAGIC = 0x4C534D54; // "LSMT"
+    static final int BLOCK_BYTES = 4096;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int FOOTER_BYTES = 36;
+
+    private final File file;
+    private final long sequence;
+    private final long firstSequence;
+    private final FileChannel channel;
+    private final long[] firstKeys;
+    private final long[] offsets;   // One more than the blocks, the last one is the end of the data
+    private final BloomFilter bloom;
+    private final long entries;
+
+    private SsTable(File file, long sequence, long firstSequence, FileChannel channel, long[] firstKeys, long[] offsets,
+                    BloomFilter bloom, long entries) {
+        this.file = file;
+        this.sequence = sequence;
+        this.firstSequence = firstSequence;
+        this.channel = channel;
+        this.firstKeys = firstKeys;
+        this.offsets = offsets;
+        this.bloom = bloom;
+        this.entries = entries;
+    }
+
+    /**
+     * Writes a table file and forces it to disk
+     *
+     * @param file           the file, replaced if it exists
+     * @param firstSequence  oldest table sequence the data comes from
+     * @param sorted         entries in ascending key order, each key once, {@link LsmTree#TOMBSTONE} marks a deleted key
+     * @param expectedKeys   about the number of entries, to size the bloom filter
+     * @param dropTombstones true to leave out deleted keys, only when no older table can still hold them
+     * @throws IOException if the file cannot be written
+     */
+    static void write(File file, long firstSequence, Iterator<Map.Entry<Long, byte[]>> sorted, int expectedKeys,
+                      boolean dropTombstones) throws IOException {
+        BloomFilter bloom = new BloomFilter(expectedKeys);
+        long[] firstKeys = new long[64];
+        long[] offsets = new long[64];
+        int blocks = 0;
+        long entries = 0;
+        try (FileOutputStream fos = new FileOutputStream(file);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            long position = HEADER_BYTES;
+            long blockStart = -1;
+            long previous = 0;
+            boolean first = true;
+            while (sorted.hasNext()) {
+                Map.Entry<Long, byte[]> e = sorted.next();
+                long key = e.getKey();
+                byte[] value = e.getValue();
+                if (!first && key <= previous) throw new IllegalArgumentException("Keys are not ascending: " + key);
+                previous = key;
+                first = false;
+                if (dropTombstones && value == LsmTree.TOMBSTONE) continue;
+
+                if (blockStart < 0 || position - blockStart >= BLOCK_BYTES) {
+                    if (blocks == firstKeys.length) {
+                        firstKeys = Arrays.copyOf(firstKeys, blocks * 2);
+                        offsets = Arrays.copyOf(offsets, blocks * 2);
+                    }
+                    firstKeys[blocks] = key;
+                    offsets[blocks++] = position;
+                    blockStart = position;
+                }
+                out.writeLong(key);
+                if (value == LsmTree.TOMBSTONE) {
+                    out.writeInt(-1);
+                    position += 12;
+                } else {
+                    out.writeInt(value.length);
+                    out.write(value);
+                    position += 12 + value.length;
+                }
+                bloom.add(key);
+                entries++;
+            }
+
+            long indexOffset = position;
+            out.writeInt(blocks);
+            for (int i = 0; i < blocks; i++) {
+                out.writeLong(firstKeys[i]);
+                out.writeLong(offsets[i]);
+            }
+            long bloomOffset = indexOffset + 4 + 16L * blocks;
+            bloom.writeTo(out);
+            out.writeLong(indexOffset);
+            out.writeLong(bloomOffset);
+            out.writeLong(entries);
+            out.writeLong(firstSequence);
+            out.writeInt(MAGIC);
+            out.flush();
+            fos.getFD().sync();
+        }
+    }
+
+    /**
+     * Opens a table file, reading its index and bloom filter
+     *
+     * @param file     the file
+     * @param sequence sequence of the table, from its file name
+     * @throws IOException if the file cannot be read or is not a complete table
+     */
+    static SsTable open(File file, long sequence) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < HEADER_BYTES + 4 + FOOTER_BYTES) throw new IOException("Table file is too short: " + file);
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_BYTES);
+            readFully(channel, footer, size - FOOTER_BYTES);
+            long indexOffset = footer.getLong(0);
+            long bloomOffset = footer.getLong(8);
+            long entries = footer.getLong(16);
+            long firstSequence = footer.getLong(24);
+            if (footer.getInt(32) != MAGIC || indexOffset < HEADER_BYTES || bloomOffset < indexOffset || bloomOffset > size - FOOTER_BYTES) {
+                throw new IOException("Not a complete table file: " + file);
+            }
+
+            ByteBuffer meta = ByteBuffer.allocate((int) (size - FOOTER_BYTES - indexOffset));
+            readFully(channel, meta, indexOffset);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(meta.array()));
+            int blocks = in.readInt();
+            long[] firstKeys = new long[blocks];
+            long[] offsets = new long[blocks + 1];
+            for (int i = 0; i < blocks; i++) {
+                firstKeys[i] = in.readLong();
+                offsets[i] = in.readLong();
+            }
+            offsets[blocks] = indexOffset;
+            BloomFilter bloom = BloomFilter.readFrom(in);
+            return new SsTable(file, sequence, firstSequence, channel, firstKeys, offsets, bloom, entries);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Looks up a key
+     *
+     * @param key the key
+     * @return the value, {@link LsmTree#TOMBSTONE} if the key was deleted, null if this table does not have the key
+     * @throws UncheckedIOException if the file cannot be read
+     */
+    byte[] get(long key) {
+        if (!bloom.mightContain(key)) return null;
+        int block = Arrays.binarySearch(firstKeys, key);
+        if (block < 0) block = -block - 2; //The block whose first key is the greatest one below the key
+        if (block < 0) return null;
+        ByteBuffer data = readBlock(block);
+        while (data.hasRemaining()) {
+            long k = data.getLong();
+            int length = data.getInt();
+            if (k == key) {
+                if (length < 0) return LsmTree.TOMBSTONE;
+                byte[] value = new byte[length];
+                data.get(value);
+                return value;
+            }
+            if (k > key) return null;
+            if (length > 0) data.position(data.position() + length);
+        }
+        return null;
+    }
+
+    /**
+     * @return the entries in key order, tombstones included, read one block at a time
+     */
+    Iterator<Map.Entry<Long, byte[]>> iterator() {
+        return new Iterator<Map.Entry<Long, byte[]>>() {
+            private int block = 0;
+            private ByteBuffer data = null;
+
+            @Override
+            public boolean hasNext() {
+                while (data == null || !data.hasRemaining()) {
+                    if (block >= firstKeys.length) return false;
+                    data = readBlock(block++);
+                }
+                return true;
+            }
+
+            @Override
+            public Map.Entry<Long, byte[]> next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                long key = data.getLong();
+                int length = data.getInt();
+                byte[] value = LsmTree.TOMBSTONE;
+                if (length >= 0) {
+                    value = new byte[length];
+                    data.get(value);
+                }
+                return new AbstractMap.SimpleImmutableEntry<>(key, value);
+            }
+        };
+    }
+
+    private ByteBuffer readBlock(int block) {
+        ByteBuffer data = ByteBuffer.allocate((int) (offsets[block + 1] - offsets[block]));
+        try {
+            readFully(channel, data, offsets[block]);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read table " + file.getPath(), e);
+        }
+        data.flip();
+        return data;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) throw new EOFException("Table ends at " + position);
+        }
+    }
+
+    File getFile() { return file; }
+    long getSequence() { return sequence; }
+    long getFirstSequence() { return firstSequence; }
+    long getEntries() { return entries; }
+
+    /**
+     * @return bytes of the file
+     */
+    long length() {
+        return file.length();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,151 @@
+package tools;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Maps strings to int codes and back, with the characters stored outside the heap.
+ * Each distinct string is stored once as its UTF-8 bytes in direct buffers of {@link #PAGE_BYTES},
+ * the heap only holds primitive arrays: the position of each code and a hash table of the codes.
+ * So a million strings are a few arrays for the garbage collector instead of a million objects.
+ *
+ * Strings that are decoded again and again (customer and menu IDs of orders) are kept in a small cache
+ * of {@link #CACHE_SIZE} recently decoded strings, so reading a record does not always create new Strings.
+ *
+ * Strings are never removed, the dictionary grows with every new string until it is dropped.
+ * Encoding is synchronized; decoding is not, a code must be read after it was encoded (e.g. from a record
+ * written after it) to be decoded by another thread.
+ * @author mymym
+ */
+public class StringDictionary {
+    public static final int PAGE_BYTES = 1 << 20;
+    public static final int NULL_CODE = -1;
+    public static final int CACHE_SIZE = 1 << 15;
+
+    private volatile ByteBuffer[] pages = new ByteBuffer[0];
+    private int pageUsed;                           // Bytes used in the last page
+    private volatile long[] positions = new long[64]; // Code -> page << 32 | offset of its length
+    private int[] hashes = new int[64];             // Code -> hash of its bytes
+    private int[] table = new int[128];             // Code + 1, 0 for a free entry, linear probing
+    private int count;
+    private long bytes;
+    private final Decoded[] cache = new Decoded[CACHE_SIZE];  // Code mod CACHE_SIZE, replaced without locking
+
+    private static final class Decoded {
+        final int code;
+        final String value;
+
+        Decoded(int code, String value) {
+            this.code = code;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Gets the code of a string, adding the string if it is not in the dictionary yet
+     *
+     * @param s the string, may be null
+     * @return the code, or {@link #NULL_CODE} for null
+     */
+    public synchronized int encode(String s) {
+        if (s == null) return NULL_CODE;
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(utf8);
+        int mask = table.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int code = table[i] - 1;
+            if (code < 0) break;
+            if (hashes[code] == hash && matches(code, utf8)) return code;
+        }
+        return add(utf8, hash);
+    }
+
+    /**
+     * @param code a code returned by {@link #encode(String)}
+     * @return the string of the code, null for {@link #NULL_CODE}
+     */
+    public String decode(int code) {
+        if (code == NULL_CODE) return null;
+        Decoded d = cache[code & (CACHE_SIZE - 1)];
+        if (d != null && d.code == code) return d.value;
+        long position = positions[code];
+        ByteBuffer page = pages[(int) (position >>> 32)];
+        int offset = (int) position;
+        byte[] utf8 = new byte[page.getInt(offset)];
+        for (int i = 0; i < utf8.length; i++) utf8[i] = page.get(offset + 4 + i);
+        String value = new String(utf8, StandardCharsets.UTF_8);
+        cache[code & (CACHE_SIZE - 1)] = new Decoded(code, value);
+        return value;
+    }
+
+    /**
+     * @return number of distinct strings
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @return bytes allocated outside the heap
+     */
+    public synchronized long allocatedBytes() {
+        return bytes;
+    }
+
+    private boolean matches(int code, byte[] utf8) {
+        long position = positions[code];
+        ByteBuffer page = pages[(int) (position >>> 32)];
+        int offset = (int) position;
+        if (page.getInt(offset) != utf8.length) return false;
+        for (int i = 0; i < utf8.length; i++) {
+            if (page.get(offset + 4 + i) != utf8[i]) return false;
+        }
+        return true;
+    }
+
+    private int add(byte[] utf8, int hash) {
+        int needed = 4 + utf8.length;
+        if (pages.length == 0 || pageUsed + needed > pages[pages.length - 1].capacity()) {
+            ByteBuffer page = ByteBuffer.allocateDirect(Math.max(PAGE_BYTES, needed));
+            ByteBuffer[] grown = Arrays.copyOf(pages, pages.length + 1);
+            grown[pages.length] = page;
+            pages = grown;
+            pageUsed = 0;
+            bytes += page.capacity();
+        }
+        ByteBuffer page = pages[pages.length - 1];
+        page.putInt(pageUsed, utf8.length);
+        for (int i = 0; i < utf8.length; i++) page.put(pageUsed + 4 + i, utf8[i]);
+
+        int code = count;
+        if (code == hashes.length) {
+            hashes = Arrays.copyOf(hashes, code * 2);
+            positions = Arrays.copyOf(positions, code * 2);
+        }
+        hashes[code] = hash;
+        positions[code] = (long) (pages.length - 1) << 32 | pageUsed;
+        pageUsed += needed;
+        count++;
+
+        if (count * 2 > table.length) {
+            table = new int[table.length * 2];
+            for (int c = 0; c < count; c++) insert(c);
+        } else {
+            insert(code);
+        }
+        return code;
+    }
+
+    private void insert(int code) {
+        int mask = table.length - 1;
+        int i = hashes[code] & mask;
+        while (table[i] != 0) i = (i + 1) & mask;
+        table[i] = code + 1;
+    }
+
+    private static int hash(byte[] utf8) {
+        int h = Arrays.hashCode(utf8);
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,295 @@
+package tools;
+
+/**
+ * Cache of a fixed number of values by a key of 0 or more, with the W-TinyLFU policy:
+ * a small LRU window (1% of the entries) takes every new value, a value that leaves the window only enters
+ * the main area if its key was used more often than the key it would evict. The main area is a segmented LRU:
+ * values used again in probation move to protected (80% of the main area).
+ * How often a key was used is estimated by a count-min sketch of 4-bit counters that are halved regularly,
+ * so one scan over many keys does not push out the values that are used all the time, and old popularity fades.
+ *
+ * All methods are synchronized.
+ * @param <V> type of the cached values
+ * @author mymym
+ */
+public class TinyLfuCache<V> {
+    private static final int WINDOW = 0, PROBATION = 1, PROTECTED = 2;
+
+    private static final class Node<V> {
+        final long key;
+        V value;
+        int queue;
+        Node<V> prev, next;
+
+        Node(long key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Counters and rates of a cache at one moment
+     */
+    public static class Stats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final int size;
+        private final int capacity;
+
+        private Stats(long hits, long misses, long evictions, int size, int capacity) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.size = size;
+            this.capacity = capacity;
+        }
+
+        public long getHits() { return hits; }
+        public long getMisses() { return misses; }
+        public long getEvictions() { return evictions; }
+        public int getSize() { return size; }
+        public int getCapacity() { return capacity; }
+
+        /**
+         * @return hits in percent of the lookups, 0 if there was no lookup
+         */
+        public double hitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : 100.0 * hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,d hits, %,d misses, hit rate %.1f%%, %,d evictions, %,d/%,d entries",
+                    hits, misses, hitRate(), evictions, size, capacity);
+        }
+    }
+
+    private final int capacity;
+    private final int maxWindow;
+    private final int maxProtected;
+    private final LongHashMap<Node<V>> map;
+    private final Node<V>[] heads;  // Sentinel of each queue, least recently used first
+    private final int[] sizes;
+    private final FrequencySketch sketch;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Constructor
+     *
+     * @param capacity maximum number of values, at least 1
+     * @throws IllegalArgumentException if the capacity is less than 1
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TinyLfuCache(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        this.capacity = capacity;
+        this.maxWindow = Math.max(1, capacity / 100);
+        this.maxProtected = (capacity - maxWindow) * 8 / 10;
+        this.map = new LongHashMap<>(capacity);
+        this.heads = new Node[3];
+        for (int q = 0; q < heads.length; q++) {
+            Node<V> head = new Node<>(0, null);
+            head.prev = head.next = head;
+            heads[q] = head;
+        }
+        this.sizes = new int[3];
+        this.sketch = new FrequencySketch(capacity);
+    }
+
+    /**
+     * Gets a cached value and counts the use of its key
+     *
+     * @param key the key
+     * @return the value, or null if it is not cached
+     */
+    public synchronized V get(long key) {
+        sketch.increment(key);
+        Node<V> node = map.get(key);
+        if (node == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        onHit(node);
+        return node.value;
+    }
+
+    /**
+     * Gets a cached value without counting it in the statistics or in the use of its key
+     *
+     * @param key the key
+     * @return the value, or null if it is not cached
+     */
+    public synchronized V peek(long key) {
+        Node<V> node = map.get(key);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Caches a value, it may be evicted at once if its key is used less than the others
+     *
+     * @param key   the key
+     * @param value the value, not null
+     */
+    public synchronized void put(long key, V value) {
+        Node<V> node = map.get(key);
+        if (node != null) {
+            node.value = value;
+            return;
+        }
+        node = new Node<>(key, value);
+        map.put(key, node);
+        link(node, WINDOW);
+        while (sizes[WINDOW] > maxWindow) admit(first(WINDOW));
+    }
+
+    /**
+     * Removes a value from the cache
+     *
+     * @param key the key
+     */
+    public synchronized void invalidate(long key) {
+        Node<V> node = map.remove(key);
+        if (node != null) unlink(node);
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the counters at this moment
+     */
+    public synchronized Stats stats() {
+        return new Stats(hits, misses, evictions, map.size(), capacity);
+    }
+
+    private void onHit(Node<V> node) {
+        unlink(node);
+        if (node.queue == WINDOW) {
+            link(node, WINDOW);
+        } else {
+            link(node, PROTECTED);
+            if (sizes[PROTECTED] > maxProtected) {
+                Node<V> demoted = first(PROTECTED);
+                unlink(demoted);
+                link(demoted, PROBATION);
+            }
+        }
+    }
+
+    /**
+     * Moves a value that leaves the window into probation, if there is room or its key is used more than
+     * the key of the least recently used value of the main area, which is then evicted
+     */
+    private void admit(Node<V> candidate) {
+        unlink(candidate);
+        if (sizes[PROBATION] + sizes[PROTECTED] < capacity - maxWindow) {
+            link(candidate, PROBATION);
+            return;
+        }
+        Node<V> victim = sizes[PROBATION] > 0 ? first(PROBATION) : sizes[PROTECTED] > 0 ? first(PROTECTED) : null;
+        if (victim != null && sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+            unlink(victim);
+            map.remove(victim.key);
+            link(candidate, PROBATION);
+        } else {
+            map.remove(candidate.key);
+        }
+        evictions++;
+    }
+
+    private Node<V> first(int queue) {
+        return heads[queue].next;
+    }
+
+    private void link(Node<V> node, int queue) {
+        Node<V> head = heads[queue];
+        node.queue = queue;
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+        sizes[queue]++;
+    }
+
+    private void unlink(Node<V> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = node.next = null;
+        sizes[node.queue]--;
+    }
+
+    /**
+     * Count-min sketch with 4 rows of 4-bit counters, 16 counters in a long.
+     * The 4 counters of a key are in 4 different longs, at the same position group of each long.
+     * When the number of counted uses reaches 10 times the capacity, all counters are halved
+     */
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int size;
+
+        FrequencySketch(int capacity) {
+            int length = Integer.highestOneBit(Math.max(16, Math.min(capacity, 1 << 30)) - 1) << 1;
+            this.table = new long[length];
+            this.mask = length - 1;
+            this.sampleSize = (int) Math.min(Integer.MAX_VALUE, 10L * Math.max(16, capacity));
+        }
+
+        int frequency(long key) {
+            int hash = spread(key);
+            int start = (hash & 3) << 2;
+            int frequency = 15;
+            for (int i = 0; i < 4; i++) {
+                int count = (int) ((table[indexOf(hash, i)] >>> ((start + i) << 2)) & 0xF);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        void increment(long key) {
+            int hash = spread(key);
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int offset = (start + i) << 2;
+                long counter = 0xFL << offset;
+                if ((table[index] & counter) != counter) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++size == sampleSize) {
+                for (int i = 0; i < table.length; i++) table[i] = (table[i] >>> 1) & RESET_MASK;
+                size /= 2;
+            }
+        }
+
+        private int indexOf(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            h += h >>> 32;
+            return (int) h & mask;
+        }
+
+        private static int spread(long key) {
+            int x = (int) (key ^ (key >>> 32));
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+}
@@ -1,8 +1,14 @@
 package tools;
 
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
 /**
  * Defines a generic interface for common CRUD
  * and file operation
+ * Listings can be read one page at a time with {@link #page}, {@link #pageAfter} or a {@link Cursor},
+ * these never sort the whole collection, they keep only the wanted page in a bounded heap.
  * @param <T>
  */
 public interface Workable <T> {
@@ -42,4 +48,53 @@ public interface Workable <T> {
      * Reads data from a file into collection
      */
     void readFromFile();
+
+    /**
+     * Streams all objects lazily, in no specific order
+     * The stream reads a snapshot, so it is not affected by changes made while it is consumed
+     *
+     * @return the stream
+     */
+    Stream<T> stream();
+
+    /**
+     * Gets one page of objects in a given order
+     *
+     * @param order  sort order
+     * @param offset number of objects to skip
+     * @param limit  maximum number of objects to return
+     * @return the page
+     * @throws IllegalArgumentException if offset or limit is negative
+     */
+    default List<T> page(Comparator<? super T> order, int offset, int limit) {
+        if (offset < 0 || limit < 0) throw new IllegalArgumentException("Offset and limit must not be negative");
+        List<T> top = Cursor.smallest(stream(), order, (int) Math.min(Integer.MAX_VALUE, (long) offset + limit));
+        return offset >= top.size() ? top.subList(0, 0) : top.subList(offset, top.size());
+    }
+
+    /**
+     * Gets the page that follows a given object (keyset pagination)
+     * Unlike an offset, the position stays right when objects are added or removed between two pages
+     *
+     * @param order sort order, must not consider two different objects equal (e.g. end with the ID)
+     * @param after last object of the previous page, null for the first page
+     * @param limit maximum number of objects to return
+     * @return the objects that come after the given one
+     */
+    default List<T> pageAfter(Comparator<? super T> order, T after, int limit) {
+        if (limit < 0) throw new IllegalArgumentException("Limit must not be negative");
+        Stream<T> s = after == null ? stream() : stream().filter(x -> order.compare(x, after) > 0);
+        return Cursor.smallest(s, order, limit);
+    }
+
+    /**
+     * Reads all objects page by page, see {@link #pageAfter}
+     *
+     * @param order    sort order, must not consider two different objects equal
+     * @param pageSize number of objects per page
+     * @return a cursor positioned before the first page
+     */
+    default Cursor<T> cursor(Comparator<? super T> order, int pageSize) {
+        return new Cursor<>(this, order, pageSize);
+    }
 }
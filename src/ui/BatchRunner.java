@@ -0,0 +1,306 @@
+package ui;
+
+import business.Branches;
+import business.Customers;
+import business.Orders;
+import model.Customer;
+import model.Order;
+import tools.Acceptable;
+import tools.DateUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Runs commands from a script instead of the interactive menu, one command per line.
+ * The messages that the business classes print are hidden, only a summary is shown at the end.
+ *
+ * Commands (values with spaces are written in double quotes, "-" keeps the current value in updates):
+ *   customer.add    ID "Name" Phone Email
+ *   customer.update ID "Name" Phone Email
+ *   order.add       CustomerID MenuID Tables dd/MM/yyyy
+ *   order.update    OrderCode MenuID Tables dd/MM/yyyy
+ *   order.reschedule   dd/MM/yyyy dd/MM/yyyy    moves all orders of a day to another day
+ *   order.migrate-menu OldMenuID NewMenuID      switches all orders of a menu to another menu
+ *   order.scale-tables "Query" Percent          scales the tables of the orders that match a query
+ *   save            [customers | orders | all]
+ *   branch          BranchID    (only with {@link Branches}) following commands work on this branch
+ * Empty lines and lines starting with # are ignored.
+ */
+public class BatchRunner {
+    private static final int MAX_REPORTED_ERRORS = 20;
+    private static final String KEEP = "-";
+
+    private Branches branches;         // Null if the runner works on one set of data
+    private Branches.Branch branch;
+    private Customers customers;
+    private Orders orders;
+    private final ByteArrayOutputStream captured;
+    private final PrintStream out;
+    private final PrintStream err;
+
+    private int succeeded;
+    private int failed;
+    private final List<String> errors;
+
+    /**
+     * Constructor
+     *
+     * @param customers Customer data
+     * @param orders    Orders data
+     */
+    public BatchRunner(Customers customers, Orders orders) {
+        this.customers = customers;
+        this.orders = orders;
+        this.captured = new ByteArrayOutputStream();
+        this.out = System.out;
+        this.err = System.err;
+        this.errors = new ArrayList<>();
+    }
+
+    /**
+     * Constructor for scripts that can switch between branches with the branch command
+     * The runner takes over the branch, it is released when the script switches to another branch
+     *
+     * @param branches the branch registry
+     * @param branch   the first branch, acquired from the registry
+     */
+    public BatchRunner(Branches branches, Branches.Branch branch) {
+        this(branch.getCustomers(), branch.getOrders());
+        this.branches = branches;
+        this.branch = branch;
+    }
+
+    /**
+     * @return the branch the commands work on, it is still acquired if the runner was given a registry;
+     *         null if the runner works on one set of data
+     */
+    public Branches.Branch getBranch() {
+        return branch;
+    }
+
+    /**
+     * Runs a script file, or standard input if the path is "-"
+     *
+     * @param path script path, or "-"
+     * @return true if every command succeeded, false otherwise
+     */
+    public boolean run(String path) {
+        try (BufferedReader br = KEEP.equals(path)
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : new BufferedReader(new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8))) {
+            return run(br);
+        } catch (FileNotFoundException e) {
+            System.err.println("Script not found: " + path);
+            return false;
+        } catch (IOException e) {
+            System.err.println("Failed to read script: " + path + ". Error: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Runs all commands of a reader and prints the summary
+     *
+     * @param reader the script
+     * @return true if every command succeeded, false otherwise
+     * @throws IOException if the script cannot be read
+     */
+    public boolean run(BufferedReader reader) throws IOException {
+        PrintStream quiet = new PrintStream(captured, true);
+        long start = System.nanoTime();
+        int lineNo = 0;
+        String line;
+        System.setOut(quiet);
+        System.setErr(quiet);
+        try {
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) continue;
+
+                captured.reset();
+                String error;
+                try {
+                    error = execute(tokenize(trimmed));
+                } catch (IllegalArgumentException e) {
+                    error = e.getMessage();
+                }
+                if (error == null) {
+                    succeeded++;
+                } else {
+                    failed++;
+                    if (errors.size() < MAX_REPORTED_ERRORS) errors.add("line " + lineNo + ": " + error);
+                }
+            }
+        } finally {
+            System.setOut(out);
+            System.setErr(err);
+        }
+        printSummary(lineNo, System.nanoTime() - start);
+        return failed == 0;
+    }
+
+    /**
+     * Executes one command
+     *
+     * @param t tokens of the command
+     * @return null if the command succeeded, otherwise the reason it failed
+     */
+    private String execute(List<String> t) {
+        switch (t.get(0).toLowerCase()) {
+            case "customer.add": {
+                expect(t, 5);
+                String id = check(t.get(1), Acceptable.CUS_ID_VALID, "invalid customer ID").toUpperCase();
+                Customer c = new Customer(id,
+                        check(t.get(2), Acceptable.NAME_VALID, "invalid name"),
+                        check(t.get(3), Acceptable.PHONE_VALID, "invalid phone"),
+                        check(t.get(4), Acceptable.EMAIL_VALID, "invalid email"));
+                return customers.tryAdd(c); //Stored values may be copies (see OffHeapStore), so the result says what happened
+            }
+            case "customer.update": {
+                expect(t, 5);
+                Customer old = customers.searchById(check(t.get(1), Acceptable.CUS_ID_VALID, "invalid customer ID"));
+                if (old == null) return "customer not found";
+                Customer c = new Customer(old.getId(),
+                        keepOr(t.get(2), old.getName(), Acceptable.NAME_VALID, "invalid name"),
+                        keepOr(t.get(3), old.getPhone(), Acceptable.PHONE_VALID, "invalid phone"),
+                        keepOr(t.get(4), old.getEmail(), Acceptable.EMAIL_VALID, "invalid email"));
+                return customers.tryUpdate(c);
+            }
+            case "order.add": {
+                expect(t, 5);
+                Order o = new Order(
+                        check(t.get(1), Acceptable.CUS_ID_VALID, "invalid customer ID").toUpperCase(),
+                        check(t.get(2), Acceptable.MENU_ID_VALID, "invalid menu ID").toUpperCase(),
+                        Integer.parseInt(check(t.get(3), Acceptable.INTEGER_VALID, "invalid number of tables")),
+                        futureDate(t.get(4)));
+                return orders.tryAdd(o);
+            }
+            case "order.update": {
+                expect(t, 5);
+                Order old = orders.searchById(check(t.get(1), Acceptable.ORDER_CODE_VALID, "invalid order code"));
+                if (old == null) return "order not found";
+                if (old.getEventDate().before(new Date())) return "event date has passed";
+                Order o = new Order(old.getCustomerId(),
+                        keepOr(t.get(2), old.getMenuId(), Acceptable.MENU_ID_VALID, "invalid menu ID").toUpperCase(),
+                        KEEP.equals(t.get(3)) ? old.getNumOfTables()
+                                : Integer.parseInt(check(t.get(3), Acceptable.INTEGER_VALID, "invalid number of tables")),
+                        KEEP.equals(t.get(4)) ? old.getEventDate() : futureDate(t.get(4)));
+                o.setOrderCode(old.getOrderCode());
+                return orders.tryUpdate(o);
+            }
+            case "branch": {
+                expect(t, 2);
+                if (branches == null) return "branches are not enabled";
+                if (t.get(1).equals(branch.getId())) return null;
+                Branches.Branch next = branches.acquire(t.get(1));
+                if (next == null) return "cannot load branch " + t.get(1);
+                branches.release(branch);
+                branch = next;
+                customers = next.getCustomers();
+                orders = next.getOrders();
+                return null;
+            }
+            case "order.reschedule": {
+                expect(t, 3);
+                Date from = DateUtils.parseDate(check(t.get(1), Acceptable.DATE_VALID, "invalid date"));
+                if (from == null) throw new IllegalArgumentException("invalid date \"" + t.get(1) + "\"");
+                return bulkError(orders.reschedule(from, futureDate(t.get(2))));
+            }
+            case "order.migrate-menu": {
+                expect(t, 3);
+                return bulkError(orders.migrateMenu(check(t.get(1), Acceptable.MENU_ID_VALID, "invalid menu ID").toUpperCase(),
+                        check(t.get(2), Acceptable.MENU_ID_VALID, "invalid menu ID").toUpperCase()));
+            }
+            case "order.scale-tables": {
+                expect(t, 3);
+                int percent = Integer.parseInt(check(t.get(2), Acceptable.INTEGER_VALID, "invalid percent"));
+                return bulkError(orders.scaleTables(t.get(1), percent));
+            }
+            case "save": {
+                String what = t.size() > 1 ? t.get(1).toLowerCase() : "all";
+                if (what.equals("customers") || what.equals("all")) {
+                    customers.saveToFile();
+                    if (!customers.isSaved()) return "failed to save customers";
+                }
+                if (what.equals("orders") || what.equals("all")) {
+                    orders.saveToFile();
+                    if (!orders.isSaved()) return "failed to save orders";
+                }
+                return null;
+            }
+            default:
+                return "unknown command " + t.get(0);
+        }
+    }
+
+    /**
+     * Splits a line on spaces, text in double quotes is one token
+     *
+     * @param line the command line
+     * @return the tokens
+     */
+    static List<String> tokenize(String line) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false, inToken = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                inToken = true;
+            } else if (!quoted && Character.isWhitespace(c)) {
+                if (inToken) {
+                    tokens.add(sb.toString());
+                    sb.setLength(0);
+                    inToken = false;
+                }
+            } else {
+                sb.append(c);
+                inToken = true;
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("missing closing quote");
+        if (inToken) tokens.add(sb.toString());
+        return tokens;
+    }
+
+    private static String bulkError(Orders.BulkResult result) {
+        return result.getError() == null ? null : result.toString();
+    }
+
+    private static void expect(List<String> t, int count) {
+        if (t.size() != count) throw new IllegalArgumentException(t.get(0) + " needs " + (count - 1) + " values");
+    }
+
+    private static String check(String value, String pattern, String error) {
+        if (!Acceptable.isValid(value, pattern)) throw new IllegalArgumentException(error + " \"" + value + "\"");
+        return value;
+    }
+
+    private static String keepOr(String value, String current, String pattern, String error) {
+        return KEEP.equals(value) ? current : check(value, pattern, error);
+    }
+
+    private static Date futureDate(String value) {
+        Date date = DateUtils.parseDate(check(value, Acceptable.DATE_VALID, "invalid date"));
+        if (date == null) throw new IllegalArgumentException("invalid date \"" + value + "\"");
+        if (!date.after(new Date())) throw new IllegalArgumentException("event date must be in the future");
+        return date;
+    }
+
+    private void printSummary(int lines, long nanos) {
+        double seconds = nanos / 1e9;
+        int total = succeeded + failed;
+        System.out.println("----------------------------------------------------------------");
+        System.out.printf("Batch finished: %d lines, %d commands, %d succeeded, %d failed%n", lines, total, succeeded, failed);
+        System.out.printf("Elapsed: %.3f s, %,.0f commands/s%n", seconds, seconds > 0 ? total / seconds : 0);
+        for (String e : errors) System.out.println("  " + e);
+        if (failed > errors.size()) System.out.println("  ... " + (failed - errors.size()) + " more errors");
+        System.out.println("----------------------------------------------------------------");
+    }
+}
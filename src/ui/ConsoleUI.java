@@ -4,13 +4,16 @@ import business.Customers;
 import business.Orders;
 import business.SetMenus;
 import model.Customer;
+import model.SetMenu;
 import tools.Acceptable;
+import tools.Cursor;
 import tools.DateUtils;
 import tools.Inputter;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 import model.Order;
@@ -21,6 +24,8 @@ public class ConsoleUI {
     private final SetMenus setMenus;
     private final Scanner scanner;
     private final Inputter inputter;
+    private static final int PAGE_SIZE = 20;
+    private static final int FUZZY_RESULTS = 10;
     private static final String msg = "1. Register customers." + "\n" +
             "2. Update customer information." + "\n" +
             "3. Search for customer information by name." + "\n" +
@@ -29,6 +34,7 @@ public class ConsoleUI {
             "6. Update order information." + "\n" +
             "7. Save data to file." + "\n" +
             "8. Display Customer or Order lists." + "\n" +
+            "9. Query customers or orders." + "\n" +
             "0. Quit\n";
 
     /**
@@ -58,9 +64,9 @@ public class ConsoleUI {
         while (isRunning) {
             System.out.println(msg);
             choice = inputter.getInt("Enter your choice: ",
-                    "Choice must be between 0 and 8.",
+                    "Choice must be between 0 and 9.",
                     "Invalid choice format. Please enter a number.",
-                    0,8);
+                    0,9);
             switch (choice) {
                 case 1:
                     registerCustomerUI();
@@ -86,6 +92,9 @@ public class ConsoleUI {
                 case 8:
                     displayListsUI();
                     break;
+                case 9:
+                    queryUI();
+                    break;
                 case 0:
                     System.out.println("Exiting...Goodbye!");
                     isRunning = false;
@@ -188,6 +197,10 @@ public class ConsoleUI {
                 "Search query cannot be empty."
         );
         List<Customer> results = customers.filterByName(nameQuery);
+        if (results.isEmpty()) {
+            results = customers.searchByNameFuzzy(nameQuery, FUZZY_RESULTS);
+            if (!results.isEmpty()) System.out.println("No exact match. Closest names:");
+        }
 
         if (results.isEmpty()) {
             System.out.println("No one matches the search criteria!");
@@ -309,13 +322,113 @@ public class ConsoleUI {
         System.out.println("\n--- DISPLAY LISTS ---");
         System.out.println("1. Display Customer List");
         System.out.println("2. Display Order List");
+        System.out.println("3. Display Revenue Between Two Dates");
+        System.out.println("4. Display Booked Tables Per Menu");
         System.out.println("0. Return to Main Menu");
-        int choice = inputter.getInt("Choice: ", "Must be 0-2", "Invalid", 0, 2);
+        int choice = inputter.getInt("Choice: ", "Must be 0-4", "Invalid", 0, 4);
 
         if (choice == 1) { // Hiển thị danh sách khách hàng
-            customers.showAll();
+            if (customers.size() == 0) {
+                System.out.println("Does not have any customer information.");
+            } else {
+                Cursor<Customer> cursor = customers.cursor(Customers.BY_LAST_NAME, PAGE_SIZE);
+                int shown = 0;
+                do {
+                    List<Customer> page = cursor.next();
+                    printCustomers(page);
+                    shown += page.size();
+                } while (nextPage(cursor, shown, customers.size()));
+            }
         } else if (choice == 2) { // Hiển thị danh sách đặt hàng
-            orders.showAll();
+            if (orders.size() == 0) {
+                System.out.println("Does not have any order information.");
+            } else {
+                Cursor<Order> cursor = orders.cursor(Orders.BY_EVENT_DATE, PAGE_SIZE);
+                int shown = 0;
+                do {
+                    List<Order> page = cursor.next();
+                    printOrders(page);
+                    shown += page.size();
+                } while (nextPage(cursor, shown, orders.size()));
+            }
+        } else if (choice == 3) {
+            Date from = inputter.getDate("From (dd/MM/yyyy): ", "Invalid date format.", "Date parsing failed.");
+            Date to = inputter.getDate("To (dd/MM/yyyy): ", "Invalid date format.", "Date parsing failed.");
+            System.out.printf("Revenue from %s to %s: %,d%n", DateUtils.formatDate(from), DateUtils.formatDate(to),
+                    orders.revenueBetween(from, to));
+        } else if (choice == 4) {
+            Map<String, Long> tables = orders.tablesPerMenu();
+            if (tables.isEmpty()) {
+                System.out.println("Does not have any order information.");
+            } else {
+                System.out.println("---------------------------");
+                System.out.printf("| %-8s | %12s |%n", "Set Menu", "Tables");
+                System.out.println("---------------------------");
+                for (Map.Entry<String, Long> e : tables.entrySet()) {
+                    System.out.printf("| %-8s | %,12d |%n", e.getKey(), e.getValue());
+                }
+                System.out.println("---------------------------");
+            }
+        }
+        System.out.println("Press Enter to return to main menu...");
+        scanner.nextLine();
+    }
+
+    /**
+     * Asks if the next page should be shown
+     *
+     * @return true if there is a next page and the user wants it
+     */
+    private boolean nextPage(Cursor<?> cursor, int shown, int total) {
+        System.out.println("Shown " + shown + " of " + total + ".");
+        return cursor.hasNext() && inputter.getYesNo("Show next page?");
+    }
+
+    private void printCustomers(List<Customer> list) {
+        System.out.println("----------------------------------------------------------------------");
+        System.out.println("| Code  | Customer Name        | Phone        | Email                |");
+        System.out.println("----------------------------------------------------------------------");
+        for (Customer c : list) System.out.println(c);
+        System.out.println("----------------------------------------------------------------------");
+    }
+
+    private void printOrders(List<Order> list) {
+        System.out.println("--------------------------------------------------------------------------------------------");
+        System.out.printf("| %-12s | %-10s | %-11s | %-8s | %-9s | %-5s | %15s |\n",
+                "ID", "Event date", "Customer ID", "Set Menu", "Price", "Table", "Cost");
+        System.out.println("--------------------------------------------------------------------------------------------");
+        for (Order o : list) {
+            SetMenu menu = setMenus.getMenuById(o.getMenuId());
+            System.out.printf("| %-12s | %-10s | %-11s | %-8s | %,9d | %5d | %,15d |\n",
+                    o.getOrderCode(), DateUtils.formatDate(o.getEventDate()), o.getCustomerId(), o.getMenuId(),
+                    menu == null ? 0 : menu.getPrice(), o.getNumOfTables(), setMenus.quote(o));
+        }
+        System.out.println("--------------------------------------------------------------------------------------------");
+    }
+
+    private void queryUI() {
+        System.out.println("\n--- QUERY CUSTOMERS OR ORDERS ---");
+        System.out.println("1. Query Customers (fields: id, name, phone, email)");
+        System.out.println("2. Query Orders (fields: code, customer, menu, tables, cost, date, month, year)");
+        System.out.println("0. Return to Main Menu");
+        int choice = inputter.getInt("Choice: ", "Must be 0-2", "Invalid", 0, 2);
+        if (choice == 0) return;
+
+        System.out.println("Operators: = != > >= < <= ~(contains), combine with and, or, not, ( )");
+        System.out.println("Example: menu = PW003 and month = 12 and tables > 20");
+        String text = inputter.getString("Query: ", Acceptable.STRING_NOT_EMPTY_VALID, "Query cannot be empty.");
+        try {
+            if (choice == 1) {
+                List<Customer> results = customers.query(text);
+                printCustomers(results);
+                System.out.println(results.size() + " customers found.");
+            } else {
+                List<Order> results = orders.query(text);
+                printOrders(results);
+                System.out.println(results.size() + " orders found.");
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid query: " + e.getMessage());
         }
         System.out.println("Press Enter to return to main menu...");
         scanner.nextLine();